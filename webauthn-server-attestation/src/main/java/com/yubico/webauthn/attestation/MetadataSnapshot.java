@@ -0,0 +1,275 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Closeables;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.ExceptionUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A compiled, immutable index of the contents of one or more metadata objects.
+ *
+ * <p>
+ * Unlike {@link MetadataObject}, this does not retain the source JSON document: trusted certificates are kept only in
+ * parsed form, and each device entry is reduced to its textual properties, its transports and its selectors.
+ * </p>
+ *
+ * @see StreamingMetadataReader
+ */
+@Slf4j
+@Value
+public class MetadataSnapshot {
+
+    private static final String DEVICE_SELECTORS = "selectors";
+    private static final String DEVICE_TRANSPORTS = "transports";
+    private static final String SELECTOR_TYPE = "type";
+    private static final String SELECTOR_PARAMETERS = "parameters";
+
+    /**
+     * The compiled metadata objects, in the order they were read.
+     */
+    @NonNull
+    private final List<Entry> entries;
+
+    /**
+     * The distinct trusted certificates of all {@link #getEntries() entries}.
+     */
+    @NonNull
+    private final List<X509Certificate> trustAnchors;
+
+    public MetadataSnapshot(@NonNull List<Entry> entries) {
+        this.entries = ImmutableList.copyOf(entries);
+
+        Set<X509Certificate> trustAnchors = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            trustAnchors.addAll(entry.getTrustedCertificates());
+        }
+        this.trustAnchors = ImmutableList.copyOf(trustAnchors);
+    }
+
+    /**
+     * Compile already parsed metadata objects into a snapshot.
+     */
+    public static MetadataSnapshot fromMetadata(@NonNull Iterable<MetadataObject> metadataObjects) throws CertificateException {
+        List<Entry> entries = new ArrayList<>();
+        for (MetadataObject metadata : metadataObjects) {
+            List<X509Certificate> trustedCertificates = new ArrayList<>(metadata.getTrustedCertificates().size());
+            for (String encodedCert : metadata.getTrustedCertificates()) {
+                trustedCertificates.add(CertificateParser.parsePem(encodedCert));
+            }
+
+            List<Device> devices = new ArrayList<>(metadata.getDevices().size());
+            for (JsonNode device : metadata.getDevices()) {
+                devices.add(Device.fromJson(device));
+            }
+
+            entries.add(Entry.builder()
+                .identifier(metadata.getIdentifier())
+                .version(metadata.getVersion())
+                .vendorInfo(metadata.getVendorInfo())
+                .trustedCertificates(trustedCertificates)
+                .devices(devices)
+                .build()
+            );
+        }
+        return new MetadataSnapshot(entries);
+    }
+
+    /**
+     * Get the snapshot of the metadata bundled with this library.
+     *
+     * <p>
+     * The bundled metadata is read once and the resulting snapshot is shared by all callers. If the build included a
+     * precompiled snapshot of the bundled metadata, that is used instead of parsing the JSON.
+     * </p>
+     *
+     * @see MetadataSnapshotFile
+     */
+    public static MetadataSnapshot readDefault() {
+        return DefaultSnapshotHolder.INSTANCE;
+    }
+
+    private static final class DefaultSnapshotHolder {
+        private static final String JSON_PATH = "/metadata.json";
+        private static final String SNAPSHOT_PATH = "/metadata.snapshot";
+
+        private static final MetadataSnapshot INSTANCE = read();
+
+        private static MetadataSnapshot read() {
+            InputStream is = MetadataSnapshot.class.getResourceAsStream(SNAPSHOT_PATH);
+            try {
+                if (is == null) {
+                    is = MetadataSnapshot.class.getResourceAsStream(JSON_PATH);
+                    return StreamingMetadataReader.read(is);
+                } else {
+                    return MetadataSnapshotFile.read(is);
+                }
+            } catch (IOException | CertificateException e) {
+                throw ExceptionUtil.wrapAndLog(log, "Failed to read default metadata", e);
+            } finally {
+                Closeables.closeQuietly(is);
+            }
+        }
+    }
+
+    /**
+     * The compiled contents of one metadata object.
+     */
+    @Value
+    @Builder
+    public static class Entry {
+        @NonNull
+        private final String identifier;
+
+        private final long version;
+
+        /**
+         * Vendor information, with <code>null</code> values removed.
+         */
+        @NonNull
+        private final Map<String, String> vendorInfo;
+
+        @NonNull
+        private final List<X509Certificate> trustedCertificates;
+
+        @NonNull
+        private final List<Device> devices;
+
+        private Entry(
+            @NonNull String identifier,
+            long version,
+            @NonNull Map<String, String> vendorInfo,
+            @NonNull List<X509Certificate> trustedCertificates,
+            @NonNull List<Device> devices
+        ) {
+            ImmutableMap.Builder<String, String> nonNullVendorInfo = ImmutableMap.builder();
+            for (Map.Entry<String, String> info : vendorInfo.entrySet()) {
+                if (info.getValue() != null) {
+                    nonNullVendorInfo.put(info);
+                }
+            }
+
+            this.identifier = identifier;
+            this.version = version;
+            this.vendorInfo = nonNullVendorInfo.build();
+            this.trustedCertificates = ImmutableList.copyOf(trustedCertificates);
+            this.devices = ImmutableList.copyOf(devices);
+        }
+    }
+
+    /**
+     * The compiled contents of one device entry in a metadata object.
+     */
+    @Value
+    public static class Device {
+
+        /**
+         * The textual properties of the device entry.
+         */
+        @NonNull
+        private final Map<String, String> properties;
+
+        /**
+         * The transports bit field of the device entry, or 0 if absent.
+         */
+        private final int transports;
+
+        /**
+         * The selectors of the device entry. If empty, the device entry matches any attestation certificate.
+         */
+        @NonNull
+        private final Optional<List<Selector>> selectors;
+
+        public Device(@NonNull Map<String, String> properties, int transports, @NonNull Optional<List<Selector>> selectors) {
+            this.properties = ImmutableMap.copyOf(properties);
+            this.transports = transports;
+            this.selectors = selectors.map(ImmutableList::copyOf);
+        }
+
+        /**
+         * Compile a device entry from its JSON representation. The argument is not retained.
+         */
+        public static Device fromJson(@NonNull JsonNode device) {
+            ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+            for (Iterator<Map.Entry<String, JsonNode>> it = device.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                if (field.getValue().isTextual()) {
+                    properties.put(field.getKey(), field.getValue().asText());
+                }
+            }
+
+            JsonNode transportsNode = device.get(DEVICE_TRANSPORTS);
+            final int transports = transportsNode == null ? 0 : transportsNode.asInt(0);
+
+            JsonNode selectorsNode = device.get(DEVICE_SELECTORS);
+            final Optional<List<Selector>> selectors;
+            if (selectorsNode == null || selectorsNode.isNull()) {
+                selectors = Optional.empty();
+            } else {
+                List<Selector> selectorList = new ArrayList<>(selectorsNode.size());
+                for (JsonNode selector : selectorsNode) {
+                    selectorList.add(new Selector(
+                        selector.path(SELECTOR_TYPE).asText(),
+                        selector.get(SELECTOR_PARAMETERS)
+                    ));
+                }
+                selectors = Optional.of(selectorList);
+            }
+
+            return new Device(properties.build(), transports, selectors);
+        }
+    }
+
+    /**
+     * A device selector: the type of {@link DeviceMatcher} to use, and the parameters to pass to it.
+     */
+    @Value
+    public static class Selector {
+        @NonNull
+        private final String type;
+
+        private final JsonNode parameters;
+    }
+
+}
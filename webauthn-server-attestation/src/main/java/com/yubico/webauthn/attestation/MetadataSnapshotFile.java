@@ -0,0 +1,291 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.ByteStreams;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JacksonCodecs;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Reads and writes {@link MetadataSnapshot}s in a compact binary format, so that metadata can be compiled ahead of
+ * time and loaded without any JSON or PEM parsing.
+ *
+ * <p>
+ * Trusted certificates are stored in DER form. Device entries are stored in compiled form: textual properties,
+ * transports and selectors. Selector parameters are stored as minimal JSON since they are interpreted by pluggable
+ * {@link DeviceMatcher}s. The snapshot ends with a CRC-32 of everything before it, which is verified on load.
+ * </p>
+ *
+ * <p>
+ * The {@link #main(String[])} method compiles one or more metadata JSON files into a snapshot file, and is intended to
+ * be run at build time.
+ * </p>
+ */
+@UtilityClass
+public class MetadataSnapshotFile {
+
+    private static final int MAGIC = 0x57414d53; // "WAMS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHECKSUM_LENGTH = 4;
+
+    private static final ObjectMapper JSON_MAPPER = JacksonCodecs.json();
+
+    /**
+     * Write <code>snapshot</code> to <code>os</code> in binary form. This method does not close <code>os</code>.
+     *
+     * @throws CertificateEncodingException if a trusted certificate cannot be encoded.
+     */
+    public static void write(@NonNull MetadataSnapshot snapshot, @NonNull OutputStream os) throws IOException, CertificateEncodingException {
+        final CheckedOutputStream checked = new CheckedOutputStream(os, new CRC32());
+        final DataOutputStream out = new DataOutputStream(checked);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+
+        out.writeInt(snapshot.getEntries().size());
+        for (MetadataSnapshot.Entry entry : snapshot.getEntries()) {
+            writeString(out, entry.getIdentifier());
+            out.writeLong(entry.getVersion());
+            writeStringMap(out, entry.getVendorInfo());
+
+            out.writeInt(entry.getTrustedCertificates().size());
+            for (X509Certificate cert : entry.getTrustedCertificates()) {
+                writeBytes(out, cert.getEncoded());
+            }
+
+            out.writeInt(entry.getDevices().size());
+            for (MetadataSnapshot.Device device : entry.getDevices()) {
+                writeStringMap(out, device.getProperties());
+                out.writeInt(device.getTransports());
+
+                if (device.getSelectors().isPresent()) {
+                    out.writeInt(device.getSelectors().get().size());
+                    for (MetadataSnapshot.Selector selector : device.getSelectors().get()) {
+                        writeString(out, selector.getType());
+                        writeBytes(out, selector.getParameters() == null ? null : JSON_MAPPER.writeValueAsBytes(selector.getParameters()));
+                    }
+                } else {
+                    out.writeInt(-1);
+                }
+            }
+        }
+        out.flush();
+        new DataOutputStream(os).writeInt((int) checked.getChecksum().getValue());
+        os.flush();
+    }
+
+    /**
+     * Read a snapshot from the remaining contents of <code>buffer</code>.
+     *
+     * @throws IOException if <code>buffer</code> does not contain a well-formed snapshot.
+     * @throws CertificateException if a trusted certificate cannot be parsed.
+     */
+    public static MetadataSnapshot read(@NonNull ByteBuffer buffer) throws IOException, CertificateException {
+        final ByteBuffer in = buffer.duplicate();
+        try {
+            final int checksum = in.getInt(in.limit() - CHECKSUM_LENGTH);
+            in.limit(in.limit() - CHECKSUM_LENGTH);
+            final CRC32 crc = new CRC32();
+            crc.update(in.duplicate());
+
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a metadata snapshot.");
+            }
+            final int formatVersion = in.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported metadata snapshot format version: " + formatVersion);
+            }
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Checksum mismatch in metadata snapshot.");
+            }
+
+            final int entryCount = in.getInt();
+            final List<MetadataSnapshot.Entry> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; ++i) {
+                final String identifier = readString(in);
+                final long version = in.getLong();
+                final Map<String, String> vendorInfo = readStringMap(in);
+
+                final int certCount = in.getInt();
+                final List<X509Certificate> trustedCertificates = new ArrayList<>(certCount);
+                for (int j = 0; j < certCount; ++j) {
+                    trustedCertificates.add(CertificateParser.parseDer(readBytes(in)));
+                }
+
+                final int deviceCount = in.getInt();
+                final List<MetadataSnapshot.Device> devices = new ArrayList<>(deviceCount);
+                for (int j = 0; j < deviceCount; ++j) {
+                    final Map<String, String> properties = readStringMap(in);
+                    final int transports = in.getInt();
+
+                    final int selectorCount = in.getInt();
+                    final Optional<List<MetadataSnapshot.Selector>> selectors;
+                    if (selectorCount < 0) {
+                        selectors = Optional.empty();
+                    } else {
+                        final List<MetadataSnapshot.Selector> selectorList = new ArrayList<>(selectorCount);
+                        for (int k = 0; k < selectorCount; ++k) {
+                            final String type = readString(in);
+                            final byte[] parameters = readBytes(in);
+                            selectorList.add(new MetadataSnapshot.Selector(
+                                type,
+                                parameters == null ? null : JSON_MAPPER.readTree(parameters)
+                            ));
+                        }
+                        selectors = Optional.of(selectorList);
+                    }
+
+                    devices.add(new MetadataSnapshot.Device(properties, transports, selectors));
+                }
+
+                entries.add(MetadataSnapshot.Entry.builder()
+                    .identifier(identifier)
+                    .version(version)
+                    .vendorInfo(vendorInfo)
+                    .trustedCertificates(trustedCertificates)
+                    .devices(devices)
+                    .build()
+                );
+            }
+
+            if (in.hasRemaining()) {
+                throw new IOException("Trailing data after metadata snapshot.");
+            }
+
+            return new MetadataSnapshot(entries);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated or malformed metadata snapshot.", e);
+        }
+    }
+
+    /**
+     * Read a snapshot from the remaining contents of <code>is</code>. This method does not close <code>is</code>.
+     *
+     * @throws IOException if <code>is</code> cannot be read or does not contain a well-formed snapshot.
+     * @throws CertificateException if a trusted certificate cannot be parsed.
+     */
+    public static MetadataSnapshot read(@NonNull InputStream is) throws IOException, CertificateException {
+        return read(ByteBuffer.wrap(ByteStreams.toByteArray(is)));
+    }
+
+    /**
+     * Compile metadata JSON files into a snapshot file.
+     *
+     * <p>
+     * Usage: <code>MetadataSnapshotFile &lt;input.json&gt;... &lt;output&gt;</code>
+     * </p>
+     */
+    public static void main(String[] args) throws IOException, CertificateException {
+        if (args.length < 2) {
+            System.err.println("Usage: " + MetadataSnapshotFile.class.getName() + " <input.json>... <output>");
+            System.exit(1);
+        }
+
+        final List<MetadataSnapshot.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < args.length - 1; ++i) {
+            try (InputStream is = Files.newInputStream(Paths.get(args[i]))) {
+                entries.addAll(StreamingMetadataReader.read(is).getEntries());
+            }
+        }
+
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(Paths.get(args[args.length - 1])))) {
+            write(new MetadataSnapshot(entries), os);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) throws IOException {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        } else if (length > in.remaining()) {
+            throw new IOException("Truncated metadata snapshot.");
+        }
+        final byte[] result = new byte[length];
+        in.get(result);
+        return result;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        final byte[] bytes = readBytes(in);
+        if (bytes == null) {
+            throw new IOException("Unexpected null string in metadata snapshot.");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> readStringMap(ByteBuffer in) throws IOException {
+        final int size = in.getInt();
+        final Map<String, String> result = new LinkedHashMap<>(Math.max(size, 0) * 2);
+        for (int i = 0; i < size; ++i) {
+            result.put(readString(in), readString(in));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,357 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimaps;
+import com.yubico.webauthn.attestation.resolver.SimpleAttestationResolver;
+import com.yubico.webauthn.attestation.resolver.SimpleTrustResolver;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link MetadataService} backed by metadata files on the local file system, which can be reloaded while in use.
+ *
+ * <p>
+ * The metadata source is either a single file, or a directory in which every file whose name ends in
+ * <code>.json</code> is read. Each file may contain either a single metadata object or a JSON array of metadata
+ * objects.
+ * </p>
+ *
+ * <p>
+ * Each load compiles a new {@link MetadataSnapshot} along with its own trust resolver, attestation resolver and
+ * attestation cache, and then swaps it in atomically. Each call to {@link #getAttestation(List)} uses only the snapshot
+ * that was current when the call started, so a concurrent reload never causes a lookup to see a mix of old and new
+ * metadata. If a load fails, for example because a file is only partially written, the previous snapshot stays in
+ * effect.
+ * </p>
+ *
+ * <p>
+ * Trusted attestations cached by the previous snapshot are carried over to the new snapshot when the metadata entry
+ * they were resolved from is unchanged. Untrusted attestations are always discarded, since new metadata may trust them.
+ * </p>
+ *
+ * <p>
+ * Use {@link #reload()} to reload on demand, or {@link #startWatching()} to reload automatically whenever the source is
+ * changed. Call {@link #close()} to stop watching.
+ * </p>
+ */
+@Slf4j
+public final class ReloadableMetadataService implements MetadataService, Closeable {
+
+    private static final String METADATA_FILE_SUFFIX = ".json";
+
+    /**
+     * How long to wait for further file system events before reloading, so that a burst of writes causes only one
+     * reload.
+     */
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path source;
+    private final AtomicReference<Generation> current;
+
+    private WatchService watchService = null;
+    private Thread watchThread = null;
+
+    /**
+     * Load metadata from <code>source</code>, which may be either a file or a directory.
+     *
+     * @throws IOException if the metadata cannot be read or parsed.
+     * @throws CertificateException if a trusted certificate in the metadata cannot be parsed.
+     */
+    public ReloadableMetadataService(@NonNull Path source) throws IOException, CertificateException {
+        this.source = source;
+        this.current = new AtomicReference<>(new Generation(read(source)));
+    }
+
+    /**
+     * @return the snapshot currently in effect.
+     */
+    public MetadataSnapshot getSnapshot() {
+        return current.get().snapshot;
+    }
+
+    public Attestation getCachedAttestation(String attestationCertificateFingerprint) {
+        return current.get().service.getCachedAttestation(attestationCertificateFingerprint);
+    }
+
+    /**
+     * Attempt to look up attestation for a chain of certificates, using the snapshot currently in effect.
+     *
+     * @see StandardMetadataService#getAttestation(List)
+     */
+    @Override
+    public Attestation getAttestation(@NonNull List<X509Certificate> attestationCertificateChain) throws CertificateEncodingException {
+        return current.get().service.getAttestation(attestationCertificateChain);
+    }
+
+    /**
+     * Read the metadata source again and, if its contents have changed, swap in a new snapshot.
+     *
+     * <p>
+     * If this throws an exception, the previous snapshot stays in effect.
+     * </p>
+     *
+     * @return <code>true</code> if a new snapshot was swapped in, <code>false</code> if the contents were unchanged.
+     *
+     * @throws IOException if the metadata cannot be read or parsed.
+     * @throws CertificateException if a trusted certificate in the metadata cannot be parsed.
+     */
+    public synchronized boolean reload() throws IOException, CertificateException {
+        final MetadataSnapshot snapshot = read(source);
+        final Generation previous = current.get();
+
+        if (snapshot.equals(previous.snapshot)) {
+            log.debug("Metadata in {} is unchanged", source);
+            return false;
+        }
+
+        final Generation next = new Generation(snapshot);
+        final int carriedOver = next.carryOver(previous);
+        current.set(next);
+
+        log.info("Reloaded metadata from {}: {} entries, {} cached attestations carried over", source, snapshot.getEntries().size(), carriedOver);
+        return true;
+    }
+
+    /**
+     * Start a background thread which calls {@link #reload()} whenever the metadata source changes.
+     *
+     * <p>
+     * This has no effect if already watching.
+     * </p>
+     *
+     * @throws IOException if the file system cannot be watched.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+
+        final Path directory = Files.isDirectory(source) ? source : source.toAbsolutePath().getParent();
+        final WatchService watchService = directory.getFileSystem().newWatchService();
+        directory.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE
+        );
+
+        final Thread thread = new Thread(() -> watch(watchService), "metadata-watcher-" + source.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+
+        this.watchService = watchService;
+        this.watchThread = thread;
+    }
+
+    /**
+     * Stop watching the metadata source, if {@link #startWatching()} was called. The snapshot currently in effect
+     * stays in use.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchThread.interrupt();
+            watchService = null;
+            watchThread = null;
+        }
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (true) {
+                boolean changed = isRelevant(watchService.take());
+
+                WatchKey next;
+                while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isRelevant(next);
+                }
+
+                if (changed) {
+                    try {
+                        reload();
+                    } catch (IOException | CertificateException | RuntimeException e) {
+                        log.warn("Failed to reload metadata from {} - keeping previous metadata.", source, e);
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching metadata in {}", source);
+        }
+    }
+
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+            } else {
+                final Path changed = (Path) event.context();
+                if (Files.isDirectory(source)) {
+                    relevant |= changed.toString().endsWith(METADATA_FILE_SUFFIX);
+                } else {
+                    relevant |= changed.equals(source.getFileName());
+                }
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    private static MetadataSnapshot read(Path source) throws IOException, CertificateException {
+        final List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(source, "*" + METADATA_FILE_SUFFIX)) {
+                for (Path file : dir) {
+                    if (Files.isRegularFile(file)) {
+                        files.add(file);
+                    }
+                }
+            }
+            Collections.sort(files);
+        } else {
+            files.add(source);
+        }
+
+        final List<MetadataSnapshot.Entry> entries = new ArrayList<>();
+        for (Path file : files) {
+            try (InputStream is = Files.newInputStream(file)) {
+                entries.addAll(StreamingMetadataReader.read(is).getEntries());
+            }
+        }
+        return new MetadataSnapshot(entries);
+    }
+
+    /**
+     * One loaded snapshot, together with the resolvers and cache built from it.
+     */
+    private static final class Generation {
+        private final MetadataSnapshot snapshot;
+        private final Cache<String, Attestation> cache;
+        private final StandardMetadataService service;
+
+        private Generation(MetadataSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.cache = CacheBuilder.newBuilder().build();
+            this.service = new StandardMetadataService(
+                new SimpleAttestationResolver(snapshot, SimpleTrustResolver.fromMetadata(snapshot)),
+                cache
+            );
+        }
+
+        /**
+         * Copy into this generation's cache those trusted attestations from <code>previous</code> which were resolved
+         * from metadata entries that are unchanged in this generation.
+         *
+         * @return the number of cached attestations copied.
+         */
+        private int carryOver(Generation previous) {
+            final Set<String> unchanged = unchangedIdentifiers(previous.snapshot, snapshot);
+
+            int count = 0;
+            for (Map.Entry<String, Attestation> cached : previous.cache.asMap().entrySet()) {
+                final Attestation attestation = cached.getValue();
+                if (attestation.isTrusted()
+                    && attestation.getMetadataIdentifier().map(unchanged::contains).orElse(false)) {
+                    cache.put(cached.getKey(), attestation);
+                    ++count;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return the identifiers whose metadata entries are the same in both snapshots, and whose trusted certificates
+     * still resolve to those same entries.
+     */
+    private static Set<String> unchangedIdentifiers(MetadataSnapshot previous, MetadataSnapshot next) {
+        final ImmutableListMultimap<String, MetadataSnapshot.Entry> previousById = Multimaps.index(previous.getEntries(), MetadataSnapshot.Entry::getIdentifier);
+        final ImmutableListMultimap<String, MetadataSnapshot.Entry> nextById = Multimaps.index(next.getEntries(), MetadataSnapshot.Entry::getIdentifier);
+        final Map<X509Certificate, MetadataSnapshot.Entry> previousOwners = entriesByTrustAnchor(previous);
+        final Map<X509Certificate, MetadataSnapshot.Entry> nextOwners = entriesByTrustAnchor(next);
+
+        final Set<String> result = new HashSet<>();
+        for (String identifier : nextById.keySet()) {
+            final List<MetadataSnapshot.Entry> entries = nextById.get(identifier);
+            if (entries.equals(previousById.get(identifier))) {
+                boolean sameOwners = true;
+                for (MetadataSnapshot.Entry entry : entries) {
+                    for (X509Certificate trustAnchor : entry.getTrustedCertificates()) {
+                        sameOwners &= Objects.equals(previousOwners.get(trustAnchor), nextOwners.get(trustAnchor));
+                    }
+                }
+                if (sameOwners) {
+                    result.add(identifier);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mirrors the lookup done by {@link SimpleAttestationResolver}: if several entries list the same trusted
+     * certificate, the last one wins.
+     */
+    private static Map<X509Certificate, MetadataSnapshot.Entry> entriesByTrustAnchor(MetadataSnapshot snapshot) {
+        final Map<X509Certificate, MetadataSnapshot.Entry> result = new HashMap<>();
+        for (MetadataSnapshot.Entry entry : snapshot.getEntries()) {
+            for (X509Certificate trustAnchor : entry.getTrustedCertificates()) {
+                result.put(trustAnchor, entry);
+            }
+        }
+        return result;
+    }
+
+}
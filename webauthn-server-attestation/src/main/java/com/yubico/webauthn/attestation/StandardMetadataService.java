@@ -33,7 +33,6 @@ import com.yubico.webauthn.attestation.resolver.SimpleTrustResolver;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import lombok.NonNull;
@@ -47,7 +46,7 @@ public final class StandardMetadataService implements MetadataService {
     private final AttestationResolver attestationResolver;
     private final Cache<String, Attestation> cache;
 
-    private StandardMetadataService(
+    StandardMetadataService(
         @NonNull
         AttestationResolver attestationResolver,
         @NonNull
@@ -69,12 +68,12 @@ public final class StandardMetadataService implements MetadataService {
     }
 
     public static TrustResolver createDefaultTrustResolver() throws CertificateException {
-        return SimpleTrustResolver.fromMetadata(Collections.singleton(MetadataObject.readDefault()));
+        return new SimpleTrustResolver(MetadataSnapshot.readDefault().getTrustAnchors());
     }
 
     public static AttestationResolver createDefaultAttestationResolver(TrustResolver trustResolver) throws CertificateException {
         return new SimpleAttestationResolver(
-            Collections.singleton(MetadataObject.readDefault()),
+            MetadataSnapshot.readDefault(),
             trustResolver
         );
     }
@@ -0,0 +1,184 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JacksonCodecs;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Reads metadata into a {@link MetadataSnapshot} incrementally, without first building a JSON tree of the whole
+ * document.
+ *
+ * <p>
+ * The input may be either a single metadata object, in the same format as accepted by {@link MetadataObject}, or a
+ * JSON array of such objects. Trusted certificates are decoded directly from their PEM text, and each device entry is
+ * compiled and discarded as soon as it has been read, so memory use is bounded by the size of the resulting snapshot
+ * rather than by the size of the input.
+ * </p>
+ */
+@UtilityClass
+public class StreamingMetadataReader {
+
+    private static final JsonFactory JSON_FACTORY = JacksonCodecs.json().getFactory();
+
+    private static final String IDENTIFIER = "identifier";
+    private static final String VERSION = "version";
+    private static final String VENDOR_INFO = "vendorInfo";
+    private static final String TRUSTED_CERTIFICATES = "trustedCertificates";
+    private static final String DEVICES = "devices";
+
+    /**
+     * Read one metadata object, or a JSON array of metadata objects, from <code>is</code>.
+     *
+     * <p>
+     * This method does not close <code>is</code>.
+     * </p>
+     *
+     * @throws IOException if <code>is</code> cannot be read or does not contain well-formed metadata.
+     * @throws CertificateException if a trusted certificate cannot be parsed.
+     */
+    public static MetadataSnapshot read(@NonNull InputStream is) throws IOException, CertificateException {
+        try (JsonParser parser = JSON_FACTORY.createParser(is)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+            final List<MetadataSnapshot.Entry> entries = new ArrayList<>();
+            final JsonToken first = parser.nextToken();
+
+            if (first == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    entries.add(readEntry(parser));
+                }
+                expectCurrentToken(parser, JsonToken.END_ARRAY);
+            } else if (first == JsonToken.START_OBJECT) {
+                entries.add(readEntry(parser));
+            } else {
+                throw new JsonParseException(parser, "Expected a metadata object or an array of metadata objects, was: " + first);
+            }
+
+            return new MetadataSnapshot(entries);
+        }
+    }
+
+    private static MetadataSnapshot.Entry readEntry(JsonParser parser) throws IOException, CertificateException {
+        String identifier = null;
+        long version = 0;
+        Map<String, String> vendorInfo = Collections.emptyMap();
+        List<X509Certificate> trustedCertificates = new ArrayList<>();
+        List<MetadataSnapshot.Device> devices = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (fieldName) {
+                case IDENTIFIER:
+                    identifier = parser.getValueAsString();
+                    break;
+
+                case VERSION:
+                    version = parser.getValueAsLong();
+                    break;
+
+                case VENDOR_INFO:
+                    vendorInfo = readStringMap(parser);
+                    break;
+
+                case TRUSTED_CERTIFICATES:
+                    expectCurrentToken(parser, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        trustedCertificates.add(CertificateParser.parseDer(CertificateParser.decodePem(parser.getText())));
+                    }
+                    expectCurrentToken(parser, JsonToken.END_ARRAY);
+                    break;
+
+                case DEVICES:
+                    expectCurrentToken(parser, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        final JsonNode device = parser.readValueAsTree();
+                        devices.add(MetadataSnapshot.Device.fromJson(device));
+                    }
+                    expectCurrentToken(parser, JsonToken.END_ARRAY);
+                    break;
+
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        expectCurrentToken(parser, JsonToken.END_OBJECT);
+
+        if (identifier == null) {
+            throw new JsonParseException(parser, "Metadata object is missing required property: " + IDENTIFIER);
+        }
+
+        return MetadataSnapshot.Entry.builder()
+            .identifier(identifier)
+            .version(version)
+            .vendorInfo(vendorInfo)
+            .trustedCertificates(trustedCertificates)
+            .devices(devices)
+            .build();
+    }
+
+    private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        expectCurrentToken(parser, JsonToken.START_OBJECT);
+        Map<String, String> result = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (value.isScalarValue()) {
+                result.put(key, parser.getValueAsString());
+            } else {
+                throw new JsonParseException(parser, String.format("Expected a string value for property \"%s\", was: %s", key, value));
+            }
+        }
+        expectCurrentToken(parser, JsonToken.END_OBJECT);
+        return result;
+    }
+
+    private static void expectCurrentToken(JsonParser parser, JsonToken expected) throws JsonParseException {
+        if (parser.getCurrentToken() != expected) {
+            throw new JsonParseException(parser, String.format("Expected %s, was: %s", expected, parser.getCurrentToken()));
+        }
+    }
+
+}
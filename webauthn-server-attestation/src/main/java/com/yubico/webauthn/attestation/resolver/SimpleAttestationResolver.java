@@ -24,17 +24,14 @@
 
 package com.yubico.webauthn.attestation.resolver;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.yubico.internal.util.CertificateParser;
 import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.webauthn.attestation.Attestation;
 import com.yubico.webauthn.attestation.AttestationResolver;
 import com.yubico.webauthn.attestation.DeviceMatcher;
 import com.yubico.webauthn.attestation.MetadataObject;
+import com.yubico.webauthn.attestation.MetadataSnapshot;
 import com.yubico.webauthn.attestation.Transport;
 import com.yubico.webauthn.attestation.TrustResolver;
 import com.yubico.webauthn.attestation.matcher.ExtensionMatcher;
@@ -45,18 +42,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import lombok.NonNull;
 
 
 public final class SimpleAttestationResolver implements AttestationResolver {
 
-    private static final String SELECTORS = "selectors";
-    private static final String SELECTOR_TYPE = "type";
-    private static final String SELECTOR_PARAMETERS = "parameters";
-
-    private static final String TRANSPORTS = "transports";
     private static final String TRANSPORTS_EXT_OID = "1.3.6.1.4.1.45724.2.1.1";
 
     private static final Map<String, DeviceMatcher> DEFAULT_DEVICE_MATCHERS = ImmutableMap.of(
@@ -64,19 +55,18 @@ public final class SimpleAttestationResolver implements AttestationResolver {
         FingerprintMatcher.SELECTOR_TYPE, new FingerprintMatcher()
     );
 
-    private final Map<X509Certificate, MetadataObject> metadata = new HashMap<>();
+    private final Map<X509Certificate, MetadataSnapshot.Entry> metadata = new HashMap<>();
     private final TrustResolver trustResolver;
     private final Map<String, DeviceMatcher> matchers;
 
     public SimpleAttestationResolver(
-        @NonNull Collection<MetadataObject> objects,
+        @NonNull MetadataSnapshot snapshot,
         @NonNull TrustResolver trustResolver,
         @NonNull Map<String, DeviceMatcher> matchers
-    ) throws CertificateException {
-        for (MetadataObject object : objects) {
-            for (String caPem : object.getTrustedCertificates()) {
-                X509Certificate trustAnchor = CertificateParser.parsePem(caPem);
-                metadata.put(trustAnchor, object);
+    ) {
+        for (MetadataSnapshot.Entry entry : snapshot.getEntries()) {
+            for (X509Certificate trustAnchor : entry.getTrustedCertificates()) {
+                metadata.put(trustAnchor, entry);
             }
         }
 
@@ -84,11 +74,23 @@ public final class SimpleAttestationResolver implements AttestationResolver {
         this.matchers = CollectionUtil.immutableMap(matchers);
     }
 
+    public SimpleAttestationResolver(MetadataSnapshot snapshot, TrustResolver trustResolver) {
+        this(snapshot, trustResolver, DEFAULT_DEVICE_MATCHERS);
+    }
+
+    public SimpleAttestationResolver(
+        @NonNull Collection<MetadataObject> objects,
+        @NonNull TrustResolver trustResolver,
+        @NonNull Map<String, DeviceMatcher> matchers
+    ) throws CertificateException {
+        this(MetadataSnapshot.fromMetadata(objects), trustResolver, matchers);
+    }
+
     public SimpleAttestationResolver(Collection<MetadataObject> objects, TrustResolver trustResolver) throws CertificateException {
         this(objects, trustResolver, DEFAULT_DEVICE_MATCHERS);
     }
 
-    private Optional<MetadataObject> lookupTrustAnchor(X509Certificate trustAnchor) {
+    private Optional<MetadataSnapshot.Entry> lookupTrustAnchor(X509Certificate trustAnchor) {
         return Optional.ofNullable(metadata.get(trustAnchor));
     }
 
@@ -97,35 +99,21 @@ public final class SimpleAttestationResolver implements AttestationResolver {
         Optional<X509Certificate> trustAnchor = trustResolver.resolveTrustAnchor(attestationCertificate, certificateChain);
 
         return trustAnchor.flatMap(this::lookupTrustAnchor).map(metadata -> {
-            Map<String, String> vendorProperties;
             Map<String, String> deviceProperties = null;
-            String identifier;
             int metadataTransports = 0;
 
-            identifier = metadata.getIdentifier();
-            vendorProperties = Maps.filterValues(metadata.getVendorInfo(), Objects::nonNull);
-            for (JsonNode device : metadata.getDevices()) {
-                if (deviceMatches(device.get(SELECTORS), attestationCertificate)) {
-                    JsonNode transportNode = device.get(TRANSPORTS);
-                    if (transportNode != null) {
-                        metadataTransports |= transportNode.asInt(0);
-                    }
-                    ImmutableMap.Builder<String, String> devicePropertiesBuilder = ImmutableMap.builder();
-                    for (Map.Entry<String, JsonNode> deviceEntry : Lists.newArrayList(device.fields())) {
-                        JsonNode value = deviceEntry.getValue();
-                        if (value.isTextual()) {
-                            devicePropertiesBuilder.put(deviceEntry.getKey(), value.asText());
-                        }
-                    }
-                    deviceProperties = devicePropertiesBuilder.build();
+            for (MetadataSnapshot.Device device : metadata.getDevices()) {
+                if (deviceMatches(device.getSelectors(), attestationCertificate)) {
+                    metadataTransports |= device.getTransports();
+                    deviceProperties = device.getProperties();
                     break;
                 }
             }
 
             return Attestation.builder()
                 .trusted(true)
-                .metadataIdentifier(Optional.ofNullable(identifier))
-                .vendorProperties(Optional.of(vendorProperties))
+                .metadataIdentifier(Optional.of(metadata.getIdentifier()))
+                .vendorProperties(Optional.of(metadata.getVendorInfo()))
                 .deviceProperties(Optional.ofNullable(deviceProperties))
                 .transports(Optional.of(Transport.fromInt(getTransports(attestationCertificate) | metadataTransports)))
                 .build();
@@ -133,15 +121,15 @@ public final class SimpleAttestationResolver implements AttestationResolver {
     }
 
     private boolean deviceMatches(
-        JsonNode selectors,
+        Optional<List<MetadataSnapshot.Selector>> selectors,
         @NonNull X509Certificate attestationCertificate
     ) {
-        if (selectors == null || selectors.isNull()) {
+        if (!selectors.isPresent()) {
             return true;
         } else {
-            for (JsonNode selector : selectors) {
-                DeviceMatcher matcher = matchers.get(selector.get(SELECTOR_TYPE).asText());
-                if (matcher != null && matcher.matches(attestationCertificate, selector.get(SELECTOR_PARAMETERS))) {
+            for (MetadataSnapshot.Selector selector : selectors.get()) {
+                DeviceMatcher matcher = matchers.get(selector.getType());
+                if (matcher != null && matcher.matches(attestationCertificate, selector.getParameters())) {
                     return true;
                 }
             }
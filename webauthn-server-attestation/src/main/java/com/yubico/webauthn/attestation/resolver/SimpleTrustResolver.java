@@ -27,10 +27,13 @@ package com.yubico.webauthn.attestation.resolver;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.yubico.internal.util.CertificateParser;
-import com.yubico.internal.util.JacksonCodecs;
 import com.yubico.webauthn.attestation.MetadataObject;
+import com.yubico.webauthn.attestation.MetadataSnapshot;
+import com.yubico.webauthn.attestation.StreamingMetadataReader;
 import com.yubico.webauthn.attestation.TrustResolver;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -38,7 +41,6 @@ import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -73,8 +75,12 @@ public final class SimpleTrustResolver implements TrustResolver {
         return new SimpleTrustResolver(certs);
     }
 
+    public static SimpleTrustResolver fromMetadata(MetadataSnapshot snapshot) {
+        return new SimpleTrustResolver(snapshot.getTrustAnchors());
+    }
+
     public static SimpleTrustResolver fromMetadataJson(String metadataObjectJson) throws IOException, CertificateException {
-        return fromMetadata(Collections.singleton(JacksonCodecs.json().readValue(metadataObjectJson, MetadataObject.class)));
+        return fromMetadata(StreamingMetadataReader.read(new ByteArrayInputStream(metadataObjectJson.getBytes(StandardCharsets.UTF_8))));
     }
 
     @Override
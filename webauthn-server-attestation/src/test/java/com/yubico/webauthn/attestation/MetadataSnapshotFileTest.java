@@ -0,0 +1,131 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetadataSnapshotFileTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private static MetadataSnapshot readJson(String json) throws Exception {
+        return StreamingMetadataReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] encode(MetadataSnapshot snapshot) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MetadataSnapshotFile.write(snapshot, os);
+        return os.toByteArray();
+    }
+
+    @Test
+    public void roundTripsDefaultMetadata() throws Exception {
+        MetadataSnapshot snapshot;
+        try (InputStream is = MetadataSnapshotFileTest.class.getResourceAsStream("/metadata.json")) {
+            snapshot = StreamingMetadataReader.read(is);
+        }
+
+        assertEquals(snapshot, MetadataSnapshotFile.read(ByteBuffer.wrap(encode(snapshot))));
+    }
+
+    @Test
+    public void roundTripsDevicesWithoutSelectors() throws Exception {
+        MetadataSnapshot snapshot = readJson(
+            "[" + MetadataObjectTest.JSON + ","
+                + "{\"identifier\":\"other\",\"version\":3,\"vendorInfo\":{\"name\":\"Other\"},\"trustedCertificates\":[],"
+                + "\"devices\":[{\"deviceId\":\"foo\",\"transports\":4}]}"
+                + "]"
+        );
+
+        MetadataSnapshot decoded = MetadataSnapshotFile.read(new ByteArrayInputStream(encode(snapshot)));
+
+        assertEquals(snapshot, decoded);
+        assertEquals(4, decoded.getEntries().get(1).getDevices().get(0).getTransports());
+        assertEquals(false, decoded.getEntries().get(1).getDevices().get(0).getSelectors().isPresent());
+    }
+
+    @Test
+    public void compilesSnapshotFile() throws Exception {
+        Path json = tmp.newFile("metadata.json").toPath();
+        Path output = tmp.getRoot().toPath().resolve("metadata.snapshot");
+        Files.write(json, MetadataObjectTest.JSON.getBytes(StandardCharsets.UTF_8));
+
+        MetadataSnapshotFile.main(new String[] { json.toString(), output.toString() });
+
+        try (InputStream is = Files.newInputStream(output)) {
+            assertEquals(readJson(MetadataObjectTest.JSON), MetadataSnapshotFile.read(is));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWrongMagic() throws Exception {
+        byte[] encoded = encode(readJson(MetadataObjectTest.JSON));
+        encoded[0] ^= 1;
+        MetadataSnapshotFile.read(ByteBuffer.wrap(encoded));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedSnapshot() throws Exception {
+        byte[] encoded = encode(readJson(MetadataObjectTest.JSON));
+        MetadataSnapshotFile.read(ByteBuffer.wrap(Arrays.copyOf(encoded, encoded.length - 10)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptCertificate() throws Exception {
+        byte[] encoded = encode(readJson(MetadataObjectTest.JSON));
+        // Flip a bit in the DER encoding of the trusted certificate, near the end of its signature
+        int certEnd = new String(encoded, StandardCharsets.ISO_8859_1).indexOf("deviceId") - 40;
+        encoded[certEnd] ^= 1;
+        MetadataSnapshotFile.read(ByteBuffer.wrap(encoded));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptDeviceEntry() throws Exception {
+        byte[] encoded = encode(readJson(MetadataObjectTest.JSON));
+        encoded[new String(encoded, StandardCharsets.ISO_8859_1).indexOf("deviceId")] ^= 1;
+        MetadataSnapshotFile.read(ByteBuffer.wrap(encoded));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptySnapshot() throws Exception {
+        MetadataSnapshotFile.read(ByteBuffer.allocate(0));
+    }
+
+}
@@ -0,0 +1,206 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.google.common.hash.Hashing;
+import com.yubico.internal.util.CertificateParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReloadableMetadataServiceTest {
+
+    private static final String ATTESTATION_CERT = "MIICGzCCAQWgAwIBAgIEdaP2dTALBgkqhkiG9w0BAQswLjEsMCoGA1UEAxMjWXViaWNvIFUyRiBSb290IENBIFNlcmlhbCA0NTcyMDA2MzEwIBcNMTQwODAxMDAwMDAwWhgPMjA1MDA5MDQwMDAwMDBaMCoxKDAmBgNVBAMMH1l1YmljbyBVMkYgRUUgU2VyaWFsIDE5NzM2Nzk3MzMwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAAQZo35Damtpl81YdmcbhEuXKAr7xDcQzAy5n3ftAAhtBbu8EeGU4ynfSgLonckqX6J2uXLBppTNE3v2bt+Yf8MLoxIwEDAOBgorBgEEAYLECgECBAAwCwYJKoZIhvcNAQELA4IBAQG9LbiNPgs0sQYOHAJcg+lMk+HCsiWRlYVnbT4I/5lnqU907vY17XYAORd432bU3Nnhsbkvjz76kQJGXeNAF4DPANGGlz8JU+LNEVE2PWPGgEM0GXgB7mZN5Sinfy1AoOdO+3c3bfdJQuXlUxHbo+nDpxxKpzq9gr++RbokF1+0JBkMbaA/qLYL4WdhY5NvaOyMvYpO3sBxlzn6FcP67hlotGH1wU7qhCeh+uur7zDeAWVh7c4QtJOXHkLJQfV3Z7ZMvhkIA6jZJAX99hisABU/SSa5DtgX7AfsHwa04h69AAAWDUzSk3HgOXbUd1FaSOPdlVFkG2N2JllFHykyO3zO";
+
+    private static final String OTHER_JSON = "{\"identifier\":\"other\",\"version\":1,\"vendorInfo\":{},\"trustedCertificates\":[],\"devices\":[]}";
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private X509Certificate attestationCert;
+    private List<X509Certificate> attestationChain;
+    private String fingerprint;
+
+    @Before
+    public void setUp() throws Exception {
+        attestationCert = CertificateParser.parseDer(ATTESTATION_CERT);
+        attestationChain = Collections.singletonList(attestationCert);
+        fingerprint = Hashing.sha1().hashBytes(attestationCert.getEncoded()).toString();
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void loadsMetadataFromFile() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, MetadataObjectTest.JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        Attestation attestation = service.getAttestation(attestationChain);
+
+        assertTrue(attestation.isTrusted());
+        assertEquals("foobar", attestation.getMetadataIdentifier().get());
+        assertEquals("1.3.6.1.4.1.41482.1.2", attestation.getDeviceProperties().get().get("deviceId"));
+    }
+
+    @Test
+    public void loadsAllJsonFilesInDirectory() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        write(dir.resolve("a.json"), MetadataObjectTest.JSON);
+        write(dir.resolve("b.json"), "[" + OTHER_JSON + "]");
+        write(dir.resolve("c.txt"), "not metadata");
+
+        ReloadableMetadataService service = new ReloadableMetadataService(dir);
+
+        assertEquals(2, service.getSnapshot().getEntries().size());
+        assertEquals("foobar", service.getSnapshot().getEntries().get(0).getIdentifier());
+        assertEquals("other", service.getSnapshot().getEntries().get(1).getIdentifier());
+        assertTrue(service.getAttestation(attestationChain).isTrusted());
+    }
+
+    @Test
+    public void reloadOfUnchangedContentsKeepsSnapshot() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, MetadataObjectTest.JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        MetadataSnapshot before = service.getSnapshot();
+        Attestation attestation = service.getAttestation(attestationChain);
+
+        write(file, MetadataObjectTest.JSON);
+
+        assertFalse(service.reload());
+        assertSame(before, service.getSnapshot());
+        assertSame(attestation, service.getCachedAttestation(fingerprint));
+    }
+
+    @Test
+    public void reloadCarriesOverCacheForUnchangedEntries() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, MetadataObjectTest.JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        Attestation attestation = service.getAttestation(attestationChain);
+
+        write(file, "[" + MetadataObjectTest.JSON + "," + OTHER_JSON + "]");
+
+        assertTrue(service.reload());
+        assertEquals(2, service.getSnapshot().getEntries().size());
+        assertSame(attestation, service.getCachedAttestation(fingerprint));
+    }
+
+    @Test
+    public void reloadDropsCacheForChangedEntries() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, MetadataObjectTest.JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        service.getAttestation(attestationChain);
+        assertNotNull(service.getCachedAttestation(fingerprint));
+
+        write(file, MetadataObjectTest.JSON.replace("\"version\":1", "\"version\":2"));
+
+        assertTrue(service.reload());
+        assertNull(service.getCachedAttestation(fingerprint));
+        assertTrue(service.getAttestation(attestationChain).isTrusted());
+    }
+
+    @Test
+    public void reloadDropsCachedUntrustedAttestations() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, OTHER_JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        assertFalse(service.getAttestation(attestationChain).isTrusted());
+
+        write(file, "[" + OTHER_JSON + "," + MetadataObjectTest.JSON + "]");
+
+        assertTrue(service.reload());
+        assertNull(service.getCachedAttestation(fingerprint));
+        assertTrue(service.getAttestation(attestationChain).isTrusted());
+    }
+
+    @Test
+    public void failedReloadKeepsPreviousSnapshot() throws Exception {
+        Path file = tmp.newFile("metadata.json").toPath();
+        write(file, MetadataObjectTest.JSON);
+
+        ReloadableMetadataService service = new ReloadableMetadataService(file);
+        MetadataSnapshot before = service.getSnapshot();
+
+        write(file, MetadataObjectTest.JSON.substring(0, 100));
+
+        try {
+            service.reload();
+            fail("Expected reload to fail");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        assertSame(before, service.getSnapshot());
+        assertTrue(service.getAttestation(attestationChain).isTrusted());
+    }
+
+    @Test
+    public void watchingReloadsOnChange() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        write(dir.resolve("a.json"), OTHER_JSON);
+
+        try (ReloadableMetadataService service = new ReloadableMetadataService(dir)) {
+            service.startWatching();
+            assertFalse(service.getAttestation(attestationChain).isTrusted());
+
+            write(dir.resolve("b.json"), MetadataObjectTest.JSON);
+
+            final long deadline = System.currentTimeMillis() + 30000;
+            while (service.getSnapshot().getEntries().size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+
+            assertEquals(2, service.getSnapshot().getEntries().size());
+            assertTrue(service.getAttestation(attestationChain).isTrusted());
+        }
+    }
+
+}
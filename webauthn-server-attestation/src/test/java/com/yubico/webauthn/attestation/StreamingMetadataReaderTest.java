@@ -0,0 +1,112 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.attestation;
+
+import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.JacksonCodecs;
+import com.yubico.webauthn.attestation.resolver.SimpleAttestationResolver;
+import com.yubico.webauthn.attestation.resolver.SimpleTrustResolver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingMetadataReaderTest {
+
+    private static final String ATTESTATION_CERT = "MIICGzCCAQWgAwIBAgIEdaP2dTALBgkqhkiG9w0BAQswLjEsMCoGA1UEAxMjWXViaWNvIFUyRiBSb290IENBIFNlcmlhbCA0NTcyMDA2MzEwIBcNMTQwODAxMDAwMDAwWhgPMjA1MDA5MDQwMDAwMDBaMCoxKDAmBgNVBAMMH1l1YmljbyBVMkYgRUUgU2VyaWFsIDE5NzM2Nzk3MzMwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAAQZo35Damtpl81YdmcbhEuXKAr7xDcQzAy5n3ftAAhtBbu8EeGU4ynfSgLonckqX6J2uXLBppTNE3v2bt+Yf8MLoxIwEDAOBgorBgEEAYLECgECBAAwCwYJKoZIhvcNAQELA4IBAQG9LbiNPgs0sQYOHAJcg+lMk+HCsiWRlYVnbT4I/5lnqU907vY17XYAORd432bU3Nnhsbkvjz76kQJGXeNAF4DPANGGlz8JU+LNEVE2PWPGgEM0GXgB7mZN5Sinfy1AoOdO+3c3bfdJQuXlUxHbo+nDpxxKpzq9gr++RbokF1+0JBkMbaA/qLYL4WdhY5NvaOyMvYpO3sBxlzn6FcP67hlotGH1wU7qhCeh+uur7zDeAWVh7c4QtJOXHkLJQfV3Z7ZMvhkIA6jZJAX99hisABU/SSa5DtgX7AfsHwa04h69AAAWDUzSk3HgOXbUd1FaSOPdlVFkG2N2JllFHykyO3zO";
+
+    private static MetadataSnapshot read(String json) throws IOException, CertificateException {
+        return StreamingMetadataReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void readsSameContentsAsMetadataObject() throws Exception {
+        MetadataSnapshot fromTree = MetadataSnapshot.fromMetadata(Collections.singleton(
+            JacksonCodecs.json().readValue(MetadataObjectTest.JSON, MetadataObject.class)
+        ));
+
+        assertEquals(fromTree, read(MetadataObjectTest.JSON));
+    }
+
+    @Test
+    public void readsDefaultMetadataSameAsMetadataObject() throws Exception {
+        MetadataSnapshot fromTree = MetadataSnapshot.fromMetadata(Collections.singleton(MetadataObject.readDefault()));
+
+        try (InputStream is = StreamingMetadataReaderTest.class.getResourceAsStream("/metadata.json")) {
+            assertEquals(fromTree, StreamingMetadataReader.read(is));
+        }
+        assertEquals(fromTree, MetadataSnapshot.readDefault());
+    }
+
+    @Test
+    public void readsArrayOfMetadataObjects() throws Exception {
+        MetadataSnapshot snapshot = read("[" + MetadataObjectTest.JSON + "," + MetadataObjectTest.JSON + "]");
+
+        assertEquals(2, snapshot.getEntries().size());
+        assertEquals(1, snapshot.getTrustAnchors().size());
+    }
+
+    @Test
+    public void ignoresUnknownProperties() throws Exception {
+        MetadataSnapshot snapshot = read("{\"foo\":{\"bar\":[1,2,{}]}," + MetadataObjectTest.JSON.substring(1));
+
+        assertEquals("foobar", snapshot.getEntries().get(0).getIdentifier());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingIdentifier() throws Exception {
+        read("{\"version\":1,\"trustedCertificates\":[]}");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonObjectInput() throws Exception {
+        read("\"foobar\"");
+    }
+
+    @Test
+    public void snapshotResolvesAttestation() throws Exception {
+        MetadataSnapshot snapshot = read(MetadataObjectTest.JSON);
+        SimpleAttestationResolver resolver = new SimpleAttestationResolver(snapshot, SimpleTrustResolver.fromMetadata(snapshot));
+
+        X509Certificate attestationCert = CertificateParser.parseDer(ATTESTATION_CERT);
+        Attestation attestation = resolver.resolve(attestationCert).get();
+
+        assertTrue(attestation.isTrusted());
+        assertEquals("foobar", attestation.getMetadataIdentifier().get());
+        assertEquals("Yubico", attestation.getVendorProperties().get().get("name"));
+        assertEquals("1.3.6.1.4.1.41482.1.2", attestation.getDeviceProperties().get().get("deviceId"));
+        assertFalse(attestation.getDeviceProperties().get().containsKey("selectors"));
+    }
+
+}
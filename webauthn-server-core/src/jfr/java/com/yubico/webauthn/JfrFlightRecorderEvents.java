@@ -0,0 +1,157 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.CeremonyObserver.CeremonyType;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JDK Flight Recorder implementation of {@link FlightRecorderEvents}, loaded reflectively when the
+ * <code>jdk.jfr</code> module is available.
+ */
+final class JfrFlightRecorderEvents extends FlightRecorderEvents {
+
+    private static final EventType CEREMONY = EventType.getEventType(CeremonyEvent.class);
+    private static final EventType CREDENTIAL_REPOSITORY = EventType.getEventType(CredentialRepositoryEvent.class);
+    private static final EventType SIGNATURE_VERIFICATION = EventType.getEventType(SignatureVerificationEvent.class);
+    private static final EventType TRUST_RESOLUTION = EventType.getEventType(TrustResolutionEvent.class);
+
+    @Override
+    Span ceremony(CeremonyType ceremonyType) {
+        if (CEREMONY.isEnabled()) {
+            final CeremonyEvent event = new CeremonyEvent();
+            event.ceremony = ceremonyType.name();
+            event.begin();
+            return event;
+        } else {
+            return Span.NOOP;
+        }
+    }
+
+    @Override
+    Span credentialRepository(String operation) {
+        if (CREDENTIAL_REPOSITORY.isEnabled()) {
+            final CredentialRepositoryEvent event = new CredentialRepositoryEvent();
+            event.operation = operation;
+            event.begin();
+            return event;
+        } else {
+            return Span.NOOP;
+        }
+    }
+
+    @Override
+    Span signatureVerification(long coseAlgorithmId) {
+        if (SIGNATURE_VERIFICATION.isEnabled()) {
+            final SignatureVerificationEvent event = new SignatureVerificationEvent();
+            event.algorithm = coseAlgorithmId;
+            event.begin();
+            return event;
+        } else {
+            return Span.NOOP;
+        }
+    }
+
+    @Override
+    Span trustResolution() {
+        if (TRUST_RESOLUTION.isEnabled()) {
+            final TrustResolutionEvent event = new TrustResolutionEvent();
+            event.begin();
+            return event;
+        } else {
+            return Span.NOOP;
+        }
+    }
+
+    @Override
+    CredentialRepository recording(CredentialRepository credentialRepository) {
+        if (CREDENTIAL_REPOSITORY.isEnabled()) {
+            return super.recording(credentialRepository);
+        } else {
+            return credentialRepository;
+        }
+    }
+
+    @Category("WebAuthn")
+    abstract static class WebAuthnEvent extends Event implements Span {
+        @Label("Success")
+        boolean success;
+
+        @Override
+        public void succeeded() {
+            success = true;
+        }
+
+        @Override
+        public void finish() {
+            commit();
+        }
+    }
+
+    @Name("com.yubico.webauthn.Ceremony")
+    @Label("WebAuthn Ceremony")
+    @Description("A finishRegistration or finishAssertion call")
+    static final class CeremonyEvent extends WebAuthnEvent {
+        @Label("Ceremony")
+        String ceremony;
+
+        @Label("COSE Algorithm")
+        @Description("The COSE algorithm identifier of the credential public key, or 0 if not yet known")
+        long algorithm;
+
+        @Override
+        public void algorithm(long coseAlgorithmId) {
+            algorithm = coseAlgorithmId;
+        }
+    }
+
+    @Name("com.yubico.webauthn.CredentialRepository")
+    @Label("WebAuthn Credential Repository Call")
+    static final class CredentialRepositoryEvent extends WebAuthnEvent {
+        @Label("Operation")
+        String operation;
+    }
+
+    @Name("com.yubico.webauthn.SignatureVerification")
+    @Label("WebAuthn Signature Verification")
+    @Description("Success is true if the signature was valid")
+    static final class SignatureVerificationEvent extends WebAuthnEvent {
+        @Label("COSE Algorithm")
+        long algorithm;
+    }
+
+    @Name("com.yubico.webauthn.TrustResolution")
+    @Label("WebAuthn Trust Anchor Resolution")
+    @Description("Resolution of the trust anchor of an attestation certificate chain")
+    static final class TrustResolutionEvent extends WebAuthnEvent {
+    }
+
+}
@@ -0,0 +1,88 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.benchmark;
+
+import com.yubico.internal.util.ExceptionUtil;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of a passing {@link ExceptionUtil#assure(boolean, String, Object...)} check with the fixed-arity
+ * and {@link java.util.function.Supplier} overloads. Run with <code>-prof gc</code> to see the allocation rate of each.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AssureBenchmark {
+
+    private boolean condition = true;
+    private String expected = "webauthn.get";
+    private String actual = "webauthn.get";
+    private int expectedLength = 37;
+    private int actualLength = 300;
+
+    @Benchmark
+    public void varargs() {
+        ExceptionUtil.assure(condition, "Expected %s, was: %s", new Object[] { expected, actual });
+    }
+
+    @Benchmark
+    public void fixedArity() {
+        ExceptionUtil.assure(condition, "Expected %s, was: %s", expected, actual);
+    }
+
+    @Benchmark
+    public void boxedPrimitives() {
+        ExceptionUtil.assure(condition, "Expected at least %d bytes, was: %d", new Object[] { expectedLength, actualLength });
+    }
+
+    @Benchmark
+    public void primitives() {
+        ExceptionUtil.assure(condition, "Expected at least %d bytes, was: %d", expectedLength, actualLength);
+    }
+
+    @Benchmark
+    public void eagerConcatenation() {
+        ExceptionUtil.assure(condition, "Incorrect origin: " + actual);
+    }
+
+    @Benchmark
+    public void supplier() {
+        ExceptionUtil.assure(condition, () -> "Incorrect origin: " + actual);
+    }
+
+}
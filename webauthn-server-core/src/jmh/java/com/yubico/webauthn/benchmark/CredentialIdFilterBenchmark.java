@@ -0,0 +1,105 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.benchmark;
+
+import com.yubico.webauthn.CredentialIdFilter;
+import com.yubico.webauthn.data.ByteArray;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CredentialIdFilter} lookups for filters too large to fit in CPU caches. The 100 million credential
+ * filter takes about 120 MB and a few minutes to fill, so run with <code>-Xmx1g</code> or more.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CredentialIdFilterBenchmark {
+
+    private static final int CREDENTIAL_ID_LENGTH = 64;
+    private static final int PROBES = 1 << 16;
+
+    @Param({ "1000000", "100000000" })
+    private long credentials;
+
+    @Param({ "0.01", "0.0001" })
+    private double falsePositiveRate;
+
+    private CredentialIdFilter filter;
+    private ByteArray[] registered;
+    private ByteArray[] unknown;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        filter = CredentialIdFilter.create(credentials, falsePositiveRate);
+        registered = new ByteArray[PROBES];
+
+        final byte[] bytes = new byte[CREDENTIAL_ID_LENGTH];
+        for (long i = 0; i < credentials; ++i) {
+            random.nextBytes(bytes);
+            final ByteArray id = new ByteArray(bytes);
+            filter.add(id);
+            if (i < PROBES) {
+                registered[(int) i] = id;
+            }
+        }
+
+        unknown = new ByteArray[PROBES];
+        for (int i = 0; i < PROBES; ++i) {
+            random.nextBytes(bytes);
+            unknown[i] = new ByteArray(bytes);
+        }
+    }
+
+    @Benchmark
+    public boolean mightContainRegistered() {
+        next = (next + 1) & (PROBES - 1);
+        return filter.mightContain(registered[next]);
+    }
+
+    @Benchmark
+    public boolean mightContainUnknown() {
+        next = (next + 1) & (PROBES - 1);
+        return filter.mightContain(unknown[next]);
+    }
+
+}
@@ -4,14 +4,16 @@ import javax.net.ssl.SSLException;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.yubico.internal.util.CertificateParser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CertificateCache;
+import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.internal.util.JacksonCodecs;
 import com.yubico.webauthn.data.AttestationObject;
 import com.yubico.webauthn.data.AttestationType;
 import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import com.yubico.webauthn.data.exception.Base64UrlException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -23,6 +25,7 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.conn.ssl.DefaultHostnameVerifier;
@@ -34,19 +37,35 @@ class AndroidSafetynetAttestationStatementVerifier implements AttestationStateme
 
     private static final DefaultHostnameVerifier HOSTNAME_VERIFIER = new DefaultHostnameVerifier();
 
+    /**
+     * Results of {@link #verifyHostname(X509Certificate)}, keyed by certificate identity. {@link CertificateCache}
+     * returns the same instance for repeated leaf certificates, so each one is only matched once.
+     */
+    private static final Cache<X509Certificate, Boolean> VERIFIED_HOSTNAMES = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumSize(CertificateCache.DEFAULT_MAX_SIZE)
+        .build();
+
+    /**
+     * The most recently parsed JWS, so that {@link #verifyAttestationSignature(AttestationObject, ByteArray)} and {@link
+     * #getAttestationTrustPath(AttestationObject)} parse the response of the same attestation object only once.
+     */
+    private volatile ParsedJws lastParsed = null;
+
+    @Value
+    private static class ParsedJws {
+        private final AttestationObject attestationObject;
+        private final JsonWebSignatureCustom jws;
+    }
+
     @Override
     public AttestationType getAttestationType(AttestationObject attestation) {
         return AttestationType.BASIC;
     }
 
     @Override
-    public JsonNode getX5cArray(AttestationObject attestationObject) {
-        JsonNodeFactory jsonFactory = JsonNodeFactory.instance;
-        ArrayNode array = jsonFactory.arrayNode();
-        for (JsonNode cert : parseJws(attestationObject).getHeader().get("x5c")) {
-            array.add(jsonFactory.binaryNode(ByteArray.fromBase64(cert.textValue()).getBytes()));
-        }
-        return array;
+    public Optional<List<X509Certificate>> getAttestationTrustPath(AttestationObject attestationObject) {
+        return Optional.of(parseJws(attestationObject).getX5c());
     }
 
     @Override
@@ -84,8 +103,15 @@ class AndroidSafetynetAttestationStatementVerifier implements AttestationStateme
         return true;
     }
 
-    private static JsonWebSignatureCustom parseJws(AttestationObject attestationObject) {
-        return new JsonWebSignatureCustom(new String(getResponseBytes(attestationObject).getBytes(), StandardCharsets.UTF_8));
+    private JsonWebSignatureCustom parseJws(AttestationObject attestationObject) {
+        final ParsedJws last = lastParsed;
+        if (last != null && last.getAttestationObject() == attestationObject) {
+            return last.getJws();
+        }
+
+        final JsonWebSignatureCustom jws = new JsonWebSignatureCustom(new String(getResponseBytes(attestationObject).getBytes(), StandardCharsets.UTF_8));
+        lastParsed = new ParsedJws(attestationObject, jws);
+        return jws;
     }
 
     private static ByteArray getResponseBytes(AttestationObject attestationObject) {
@@ -131,10 +157,18 @@ class AndroidSafetynetAttestationStatementVerifier implements AttestationStateme
             attestationCertificate
         );
 
+        // jwsAlgorithmNameToJavaAlgorithmName only accepts RS256
+        final FlightRecorderEvents.Span event = CeremonyTimer.crypto(FlightRecorderEvents.INSTANCE.signatureVerification(COSEAlgorithmIdentifier.RS256.getId()));
         try {
-            return signatureVerifier.verify(jws.getSignature().getBytes());
+            final boolean valid = signatureVerifier.verify(jws.getSignature().getBytes());
+            if (valid) {
+                event.succeeded();
+            }
+            return valid;
         } catch (SignatureException e) {
             throw ExceptionUtil.wrapAndLog(log, "Failed to verify signature of JWS: " + jws, e);
+        } finally {
+            event.finish();
         }
     }
 
@@ -171,9 +205,9 @@ class AndroidSafetynetAttestationStatementVerifier implements AttestationStateme
         private static List<X509Certificate> getX5c(JsonNode header) throws IOException, CertificateException {
             List<X509Certificate> result = new ArrayList<>();
             for (JsonNode jsonNode : header.get("x5c")) {
-                result.add(CertificateParser.parseDer(jsonNode.binaryValue()));
+                result.add(CertificateCache.getDefault().parseDer(jsonNode.binaryValue()));
             }
-            return result;
+            return CollectionUtil.immutableList(result);
         }
     }
 
@@ -181,11 +215,19 @@ class AndroidSafetynetAttestationStatementVerifier implements AttestationStateme
      * Verifies that the certificate matches the hostname "attest.android.com".
      */
     private static boolean verifyHostname(X509Certificate leafCert) {
+        final Boolean cached = VERIFIED_HOSTNAMES.getIfPresent(leafCert);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean verified;
         try {
             HOSTNAME_VERIFIER.verify("attest.android.com", leafCert);
-            return true;
+            verified = true;
         } catch (SSLException e) {
-            return false;
+            verified = false;
         }
+        VERIFIED_HOSTNAMES.put(leafCert, verified);
+        return verified;
     }
 }
@@ -32,6 +32,7 @@ import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
 import com.yubico.webauthn.data.UserIdentity;
 import com.yubico.webauthn.data.AuthenticatorData;
 import java.util.List;
+import java.util.Optional;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
@@ -113,6 +114,17 @@ public class AssertionResult {
     @NonNull
     private final List<String> warnings;
 
+    /**
+     * Where the time of the ceremony was spent.
+     *
+     * <p>
+     * This will be absent unless you enable {@link RelyingParty.RelyingPartyBuilder#collectCeremonyTimings(boolean)
+     * collectCeremonyTimings} in {@link RelyingParty}.
+     * </p>
+     */
+    @Builder.ObtainVia(method = "getCeremonyTimings")
+    private final CeremonyTimings ceremonyTimings;
+
     @JsonCreator
     private AssertionResult(
         @JsonProperty("success") boolean success,
@@ -121,7 +133,8 @@ public class AssertionResult {
         @NonNull @JsonProperty("username") String username,
         @JsonProperty("signatureCount") long signatureCount,
         @JsonProperty("signatureCounterValid") boolean signatureCounterValid,
-        @NonNull @JsonProperty("warnings") List<String> warnings
+        @NonNull @JsonProperty("warnings") List<String> warnings,
+        @JsonProperty("ceremonyTimings") CeremonyTimings ceremonyTimings
     ) {
         this.success = success;
         this.credentialId = credentialId;
@@ -130,6 +143,11 @@ public class AssertionResult {
         this.signatureCount = signatureCount;
         this.signatureCounterValid = signatureCounterValid;
         this.warnings = CollectionUtil.immutableList(warnings);
+        this.ceremonyTimings = ceremonyTimings;
+    }
+
+    public Optional<CeremonyTimings> getCeremonyTimings() {
+        return Optional.ofNullable(ceremonyTimings);
     }
 
     static AssertionResultBuilder.MandatoryStages builder() {
@@ -186,6 +204,11 @@ public class AssertionResult {
                 }
             }
         }
+
+        AssertionResultBuilder ceremonyTimings(@NonNull Optional<CeremonyTimings> ceremonyTimings) {
+            this.ceremonyTimings = ceremonyTimings.orElse(null);
+            return this;
+        }
     }
 
 }
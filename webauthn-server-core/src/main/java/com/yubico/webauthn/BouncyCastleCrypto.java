@@ -50,6 +50,14 @@ final class BouncyCastleCrypto {
 
     private static final Provider provider = new BouncyCastleProvider();
 
+    private static final X9ECParameters P256 = SECNamedCurves.getByName("secp256r1");
+    private static final ECParameterSpec P256_SPEC = new ECParameterSpec(
+        P256.getCurve(),
+        P256.getG(),
+        P256.getN(),
+        P256.getH()
+    );
+
     public Provider getProvider() {
         return provider;
     }
@@ -59,11 +67,16 @@ final class BouncyCastleCrypto {
     }
 
     public boolean verifySignature(PublicKey publicKey, ByteArray signedBytes, ByteArray signatureBytes, COSEAlgorithmIdentifier alg) {
+        final FlightRecorderEvents.Span event = CeremonyTimer.crypto(FlightRecorderEvents.INSTANCE.signatureVerification(alg.getId()));
         try {
             Signature signature = Signature.getInstance(WebAuthnCodecs.getJavaAlgorithmName(alg), provider);
             signature.initVerify(publicKey);
             signature.update(signedBytes.getBytes());
-            return signature.verify(signatureBytes.getBytes());
+            final boolean valid = signature.verify(signatureBytes.getBytes());
+            if (valid) {
+                event.succeeded();
+            }
+            return valid;
         } catch (GeneralSecurityException | IllegalArgumentException e) {
             throw new RuntimeException(
                 String.format(
@@ -74,15 +87,16 @@ final class BouncyCastleCrypto {
                 ),
                 e
             );
+        } finally {
+            event.finish();
         }
     }
 
     public PublicKey decodePublicKey(ByteArray encodedPublicKey) {
         try {
-            X9ECParameters curve = SECNamedCurves.getByName("secp256r1");
             ECPoint point;
             try {
-                point = curve.getCurve().decodePoint(encodedPublicKey.getBytes());
+                point = P256.getCurve().decodePoint(encodedPublicKey.getBytes());
             } catch (RuntimeException e) {
                 throw new IllegalArgumentException(
                     "Could not parse user public key: " + encodedPublicKey.getBase64Url(),
@@ -90,16 +104,7 @@ final class BouncyCastleCrypto {
                 );
             }
 
-            return KeyFactory.getInstance("ECDSA", provider).generatePublic(
-                    new ECPublicKeySpec(point,
-                            new ECParameterSpec(
-                                    curve.getCurve(),
-                                    curve.getG(),
-                                    curve.getN(),
-                                    curve.getH()
-                            )
-                    )
-            );
+            return KeyFactory.getInstance("ECDSA", provider).generatePublic(new ECPublicKeySpec(point, P256_SPEC));
         } catch (GeneralSecurityException e) { //This should not happen
             throw new RuntimeException(
                 "Failed to decode public key: " + encodedPublicKey.getBase64Url(),
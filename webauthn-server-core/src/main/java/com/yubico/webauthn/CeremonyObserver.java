@@ -0,0 +1,93 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+/**
+ * An observer which is notified as each step of {@link RelyingParty#finishRegistration(FinishRegistrationOptions)}
+ * and {@link RelyingParty#finishAssertion(FinishAssertionOptions)} starts and ends.
+ *
+ * <p>
+ * Steps are numbered as in the corresponding procedures of the Web Authentication specification: registration steps
+ * start at 1 and assertion steps start at 0. The final step of the registration ceremony, after the last numbered step
+ * of the specification, checks the credential public key algorithm and is reported as step 20.
+ * </p>
+ *
+ * <p>
+ * Callbacks are invoked synchronously on the thread running the ceremony, so implementations must be thread safe and
+ * should return quickly. Exceptions thrown by an observer propagate out of the ceremony.
+ * </p>
+ *
+ * @see RelyingParty.RelyingPartyBuilder#ceremonyObserver(CeremonyObserver)
+ * @see HdrHistogramCeremonyObserver
+ */
+public interface CeremonyObserver {
+
+    /**
+     * An observer that does nothing. When this observer is used, the ceremonies do not read the clock at all.
+     */
+    CeremonyObserver NOOP = new CeremonyObserver() {
+        @Override
+        public void stepFinished(CeremonyType ceremonyType, int step, Outcome outcome, long durationNanos) {
+        }
+    };
+
+    enum CeremonyType {
+        REGISTRATION,
+        ASSERTION
+    }
+
+    enum Outcome {
+        /**
+         * The step validated successfully.
+         */
+        SUCCESS,
+
+        /**
+         * The step failed validation, or threw an exception. The ceremony ends after this step.
+         */
+        FAILURE
+    }
+
+    /**
+     * Called just before a step is started.
+     *
+     * @param ceremonyType the ceremony the step is part of.
+     * @param step the step number.
+     */
+    default void stepStarted(CeremonyType ceremonyType, int step) {
+    }
+
+    /**
+     * Called just after a step has finished.
+     *
+     * @param ceremonyType the ceremony the step is part of.
+     * @param step the step number.
+     * @param outcome whether the step succeeded.
+     * @param durationNanos the time in nanoseconds from just before the step was started to just after it finished.
+     */
+    void stepFinished(CeremonyType ceremonyType, int step, Outcome outcome, long durationNanos);
+
+}
@@ -0,0 +1,151 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+/**
+ * Collects the {@link CeremonyTimings} of one ceremony.
+ *
+ * <p>
+ * Repository calls are measured by wrapping the repository in a {@link MeteredCredentialRepository} reporting to this
+ * object. Crypto and metadata time are measured at the same points that emit the {@link
+ * FlightRecorderEvents#signatureVerification(long) signature verification} and {@link
+ * FlightRecorderEvents#trustResolution() trust resolution} events: while a timer is started on a thread, {@link
+ * #crypto(FlightRecorderEvents.Span)} and {@link #metadata(FlightRecorderEvents.Span)} extend those spans to also add
+ * their duration to the timer.
+ * </p>
+ *
+ * <p>
+ * An instance is used by one ceremony on one thread, so it is not thread safe.
+ * </p>
+ */
+final class CeremonyTimer implements CredentialRepositoryMetrics {
+
+    private static final ThreadLocal<CeremonyTimer> CURRENT = new ThreadLocal<>();
+
+    private final CeremonyTimer previous;
+    private final long start = System.nanoTime();
+
+    private long repositoryNanos = 0;
+    private int repositoryRoundTrips = 0;
+    private long cryptoNanos = 0;
+    private long metadataNanos = 0;
+
+    private CeremonyTimer(CeremonyTimer previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Start timing a ceremony on the current thread. The caller must call {@link #close()} on the same thread when the
+     * ceremony ends.
+     */
+    static CeremonyTimer start() {
+        final CeremonyTimer timer = new CeremonyTimer(CURRENT.get());
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    /**
+     * @return <code>span</code>, extended to add its duration to the crypto time of the ceremony being timed on the
+     * current thread, if any.
+     */
+    static FlightRecorderEvents.Span crypto(FlightRecorderEvents.Span span) {
+        final CeremonyTimer timer = CURRENT.get();
+        return timer == null ? span : timer.new TimedSpan(span, false);
+    }
+
+    /**
+     * @return <code>span</code>, extended to add its duration to the metadata time of the ceremony being timed on the
+     * current thread, if any.
+     */
+    static FlightRecorderEvents.Span metadata(FlightRecorderEvents.Span span) {
+        final CeremonyTimer timer = CURRENT.get();
+        return timer == null ? span : timer.new TimedSpan(span, true);
+    }
+
+    CredentialRepository metered(CredentialRepository credentialRepository) {
+        return new MeteredCredentialRepository(credentialRepository, this);
+    }
+
+    CeremonyTimings finish() {
+        return new CeremonyTimings(System.nanoTime() - start, repositoryNanos, repositoryRoundTrips, cryptoNanos, metadataNanos);
+    }
+
+    /**
+     * Stop attributing spans on the current thread to this timer.
+     */
+    void close() {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    @Override
+    public void recordSuccess(Operation operation, long durationNanos, int resultSize) {
+        repositoryNanos += durationNanos;
+        ++repositoryRoundTrips;
+    }
+
+    @Override
+    public void recordFailure(Operation operation, long durationNanos) {
+        repositoryNanos += durationNanos;
+        ++repositoryRoundTrips;
+    }
+
+    private final class TimedSpan implements FlightRecorderEvents.Span {
+        private final FlightRecorderEvents.Span delegate;
+        private final boolean metadata;
+        private final long start = System.nanoTime();
+
+        private TimedSpan(FlightRecorderEvents.Span delegate, boolean metadata) {
+            this.delegate = delegate;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public void algorithm(long coseAlgorithmId) {
+            delegate.algorithm(coseAlgorithmId);
+        }
+
+        @Override
+        public void succeeded() {
+            delegate.succeeded();
+        }
+
+        @Override
+        public void finish() {
+            final long durationNanos = System.nanoTime() - start;
+            if (metadata) {
+                metadataNanos += durationNanos;
+            } else {
+                cryptoNanos += durationNanos;
+            }
+            delegate.finish();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+
+/**
+ * Where the time of one {@link RelyingParty#finishRegistration(FinishRegistrationOptions) finishRegistration} or {@link
+ * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} call was spent.
+ *
+ * <p>
+ * This is only computed if {@link RelyingParty.RelyingPartyBuilder#collectCeremonyTimings(boolean)
+ * collectCeremonyTimings} is enabled. All durations are in nanoseconds, as measured by {@link System#nanoTime()}.
+ * </p>
+ *
+ * @see AssertionResult#getCeremonyTimings()
+ * @see RegistrationResult#getCeremonyTimings()
+ */
+@Value
+public class CeremonyTimings {
+
+    /**
+     * The total duration of the ceremony.
+     */
+    private final long totalNanos;
+
+    /**
+     * The total duration of all calls to the {@link CredentialRepository}.
+     */
+    private final long repositoryNanos;
+
+    /**
+     * The number of calls to the {@link CredentialRepository}.
+     */
+    private final int repositoryRoundTrips;
+
+    /**
+     * The total duration of signature verifications: the assertion signature, or the attestation signature for
+     * registrations. This does not include hashing the client data or decoding the public key.
+     */
+    private final long cryptoNanos;
+
+    /**
+     * The duration of the {@link AttestationTrustResolver#resolveTrustAnchor(java.util.List) attestation trust anchor
+     * resolution}, which includes the {@link com.yubico.webauthn.attestation.MetadataService} lookup. This is zero for
+     * assertions, and for registrations without a {@link
+     * RelyingParty.RelyingPartyBuilder#metadataService(java.util.Optional) metadataService}.
+     */
+    private final long metadataNanos;
+
+    @JsonCreator
+    CeremonyTimings(
+        @JsonProperty("totalNanos") long totalNanos,
+        @JsonProperty("repositoryNanos") long repositoryNanos,
+        @JsonProperty("repositoryRoundTrips") int repositoryRoundTrips,
+        @JsonProperty("cryptoNanos") long cryptoNanos,
+        @JsonProperty("metadataNanos") long metadataNanos
+    ) {
+        this.totalNanos = totalNanos;
+        this.repositoryNanos = repositoryNanos;
+        this.repositoryRoundTrips = repositoryRoundTrips;
+        this.cryptoNanos = cryptoNanos;
+        this.metadataNanos = metadataNanos;
+    }
+
+}
@@ -0,0 +1,208 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.data.ByteArray;
+import java.util.Iterator;
+import lombok.NonNull;
+
+/**
+ * A probabilistic set of registered credential IDs, which lets {@link RelyingParty} reject assertions for credential
+ * IDs that are definitely not registered, without querying the {@link CredentialRepository}.
+ *
+ * <p>
+ * This is a Bloom filter: {@link #mightContain(ByteArray)} never returns <code>false</code> for a credential ID that has
+ * been {@link #add(ByteArray) added}, and returns <code>true</code> for an ID that has not been added with a
+ * probability of about the configured false positive rate, as long as no more than the expected number of IDs have
+ * been added. Credential IDs cannot be removed; call {@link #rebuild(Iterator)} periodically if many credentials are
+ * deleted, or if more credentials than expected have been added.
+ * </p>
+ *
+ * <p>
+ * The filter only speeds up rejecting unknown credentials; it is never used to decide that a credential ID is unused,
+ * so {@link RelyingParty#finishRegistration(FinishRegistrationOptions) finishRegistration} does not consult or update
+ * it. The application must {@link #add(ByteArray) add} the ID of each new credential <em>after</em> storing the
+ * credential, so that a concurrent {@link #rebuild(Iterator)} either reads the credential from storage or sees the
+ * addition. Credentials registered by other means, for example by other servers sharing the same database, must be
+ * added too, or the filter must be rebuilt, before they can be used to authenticate.
+ * </p>
+ *
+ * <h2>Sizing</h2>
+ *
+ * <p>
+ * A filter for <code>n</code> credential IDs with false positive rate <code>p</code> uses <code>-n ln(p) /
+ * (ln 2)<sup>2</sup></code> bits and <code>-log<sub>2</sub>(p)</code> hash functions, regardless of the length of the
+ * credential IDs. See {@link #sizeInBytes(long, double)}. For example:
+ * </p>
+ *
+ * <table>
+ * <caption>Memory use</caption>
+ * <tr><th>Credentials</th><th>False positive rate</th><th>Memory</th><th>Hash functions</th></tr>
+ * <tr><td>1 million</td><td>1%</td><td>1.2 MB</td><td>7</td></tr>
+ * <tr><td>100 million</td><td>1%</td><td>120 MB</td><td>7</td></tr>
+ * <tr><td>100 million</td><td>0.1%</td><td>180 MB</td><td>10</td></tr>
+ * <tr><td>100 million</td><td>0.01%</td><td>240 MB</td><td>13</td></tr>
+ * </table>
+ *
+ * <p>
+ * Lookups take the same time regardless of size, but a large filter does not fit in CPU caches, so each lookup costs
+ * about one cache miss per hash function. Choose the expected number of credentials with room for growth: the false
+ * positive rate rises quickly once the filter holds more IDs than it was sized for. A false positive only costs the
+ * repository lookup the filter was meant to avoid.
+ * </p>
+ *
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+public final class CredentialIdFilter {
+
+    private static final Funnel<ByteArray> FUNNEL = (credentialId, into) -> into.putBytes(credentialId.getBytes());
+
+    private final long expectedCredentials;
+    private final double falsePositiveRate;
+
+    private volatile BloomFilter<ByteArray> filter;
+
+    /**
+     * The filter being built by {@link #rebuild(Iterator)}, if any, so that IDs added meanwhile are not lost.
+     */
+    private volatile BloomFilter<ByteArray> rebuilding = null;
+
+    private CredentialIdFilter(long expectedCredentials, double falsePositiveRate) {
+        ExceptionUtil.assure(expectedCredentials > 0, "expectedCredentials must be positive, was: %d", expectedCredentials);
+        ExceptionUtil.assure(
+            falsePositiveRate > 0 && falsePositiveRate < 1,
+            "falsePositiveRate must be strictly between 0 and 1, was: %s",
+            falsePositiveRate
+        );
+        this.expectedCredentials = expectedCredentials;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filter = newFilter();
+    }
+
+    /**
+     * Create an empty filter.
+     *
+     * @param expectedCredentials the number of credential IDs the filter is sized for.
+     * @param falsePositiveRate the probability that {@link #mightContain(ByteArray)} returns <code>true</code> for a
+     * credential ID that was not added, when <code>expectedCredentials</code> IDs have been added.
+     */
+    public static CredentialIdFilter create(long expectedCredentials, double falsePositiveRate) {
+        return new CredentialIdFilter(expectedCredentials, falsePositiveRate);
+    }
+
+    /**
+     * Create a filter containing the given credential IDs.
+     *
+     * @see #create(long, double)
+     */
+    public static CredentialIdFilter create(long expectedCredentials, double falsePositiveRate, @NonNull Iterator<ByteArray> credentialIds) {
+        final CredentialIdFilter result = new CredentialIdFilter(expectedCredentials, falsePositiveRate);
+        while (credentialIds.hasNext()) {
+            result.add(credentialIds.next());
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes used by a filter for <code>expectedCredentials</code> credential IDs with the given
+     * false positive rate.
+     */
+    public static long sizeInBytes(long expectedCredentials, double falsePositiveRate) {
+        final double bits = -expectedCredentials * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        return (long) Math.ceil(bits / 64) * 8;
+    }
+
+    private BloomFilter<ByteArray> newFilter() {
+        return BloomFilter.create(FUNNEL, expectedCredentials, falsePositiveRate);
+    }
+
+    /**
+     * @return <code>false</code> if <code>credentialId</code> has definitely not been added, <code>true</code> if it
+     * probably has.
+     */
+    public boolean mightContain(@NonNull ByteArray credentialId) {
+        return filter.mightContain(credentialId);
+    }
+
+    /**
+     * Add a credential ID to the filter.
+     */
+    public void add(@NonNull ByteArray credentialId) {
+        BloomFilter<ByteArray> current;
+        do {
+            current = filter;
+            current.put(credentialId);
+
+            final BloomFilter<ByteArray> rebuilding = this.rebuilding;
+            if (rebuilding != null) {
+                rebuilding.put(credentialId);
+            }
+        } while (current != filter);
+    }
+
+    /**
+     * Replace the contents of the filter with the given credential IDs, for example streamed from the credential
+     * database.
+     *
+     * <p>
+     * The current contents remain in use until the new filter is complete, and IDs {@link #add(ByteArray) added} while
+     * the rebuild is running are added to both. <code>credentialIds</code> must include every credential stored before
+     * the rebuild started. Only one rebuild runs at a time.
+     * </p>
+     */
+    public synchronized void rebuild(@NonNull Iterator<ByteArray> credentialIds) {
+        final BloomFilter<ByteArray> next = newFilter();
+        rebuilding = next;
+        try {
+            while (credentialIds.hasNext()) {
+                next.put(credentialIds.next());
+            }
+            filter = next;
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    /**
+     * @return an estimate of the current false positive rate, which grows as more credential IDs are added.
+     */
+    public double getCurrentFalsePositiveRate() {
+        return filter.expectedFpp();
+    }
+
+    /**
+     * @return an estimate of the number of distinct credential IDs added.
+     */
+    public long getApproximateCredentialCount() {
+        return filter.approximateElementCount();
+    }
+
+}
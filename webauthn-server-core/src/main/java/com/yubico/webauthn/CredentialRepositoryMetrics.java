@@ -0,0 +1,69 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+/**
+ * Receives call measurements from a {@link MeteredCredentialRepository}.
+ *
+ * <p>
+ * Implementations are called synchronously on the thread calling the repository, so they must be thread safe and
+ * should return quickly.
+ * </p>
+ *
+ * @see InMemoryCredentialRepositoryMetrics
+ */
+public interface CredentialRepositoryMetrics {
+
+    /**
+     * The {@link CredentialRepository} methods.
+     */
+    enum Operation {
+        GET_CREDENTIAL_IDS_FOR_USERNAME,
+        GET_USER_HANDLE_FOR_USERNAME,
+        GET_USERNAME_FOR_USER_HANDLE,
+        LOOKUP,
+        LOOKUP_ALL
+    }
+
+    /**
+     * Called when a repository method returns.
+     *
+     * @param operation the method that was called.
+     * @param durationNanos the time the method took, in nanoseconds.
+     * @param resultSize the size of the returned {@link java.util.Set}, or 0 or 1 for a returned {@link
+     * java.util.Optional}.
+     */
+    void recordSuccess(Operation operation, long durationNanos, int resultSize);
+
+    /**
+     * Called when a repository method throws an exception.
+     *
+     * @param operation the method that was called.
+     * @param durationNanos the time until the method threw, in nanoseconds.
+     */
+    void recordFailure(Operation operation, long durationNanos);
+
+}
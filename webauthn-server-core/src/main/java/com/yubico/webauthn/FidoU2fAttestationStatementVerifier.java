@@ -42,6 +42,7 @@ import java.security.spec.ECParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Objects;
 import java.util.Optional;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
@@ -50,13 +51,30 @@ import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
 @Slf4j
 final class FidoU2fAttestationStatementVerifier implements AttestationStatementVerifier, X5cAttestationStatementVerifier {
 
-    private static boolean isP256(ECParameterSpec params) {
-        ECNamedCurveParameterSpec p256 = ECNamedCurveTable.getParameterSpec("P-256");
+    private static final ECNamedCurveParameterSpec P256 = ECNamedCurveTable.getParameterSpec("P-256");
+    private static final BigInteger P256_N = P256.getN();
+    private static final BigInteger P256_GX = P256.getG().getAffineXCoord().toBigInteger();
+    private static final BigInteger P256_GY = P256.getG().getAffineYCoord().toBigInteger();
+    private static final BigInteger P256_H = P256.getH();
+
+    /**
+     * The raw user public key of the most recently verified attestation object, so that {@link
+     * #getAttestationType(AttestationObject)} and {@link #verifyAttestationSignature(AttestationObject, ByteArray)}
+     * decode the credential public key only once.
+     */
+    private volatile RawUserPublicKey lastRawUserPublicKey = null;
+
+    @Value
+    private static class RawUserPublicKey {
+        private final AttestationObject attestationObject;
+        private final ByteArray rawKey;
+    }
 
-        return (Objects.equals(p256.getN(), params.getOrder())
-            && Objects.equals(p256.getG().getAffineXCoord().toBigInteger(), params.getGenerator().getAffineX())
-            && Objects.equals(p256.getG().getAffineYCoord().toBigInteger(), params.getGenerator().getAffineY())
-            && Objects.equals(p256.getH(), BigInteger.valueOf(params.getCofactor()))
+    private static boolean isP256(ECParameterSpec params) {
+        return (Objects.equals(P256_N, params.getOrder())
+            && Objects.equals(P256_GX, params.getGenerator().getAffineX())
+            && Objects.equals(P256_GY, params.getGenerator().getAffineY())
+            && Objects.equals(P256_H, BigInteger.valueOf(params.getCofactor()))
         );
     }
 
@@ -83,7 +101,18 @@ final class FidoU2fAttestationStatementVerifier implements AttestationStatementV
         }
     }
 
-    private static ByteArray getRawUserPublicKey(AttestationObject attestationObject) throws IOException, CoseException {
+    private ByteArray getRawUserPublicKey(AttestationObject attestationObject) throws IOException, CoseException {
+        final RawUserPublicKey last = lastRawUserPublicKey;
+        if (last != null && last.getAttestationObject() == attestationObject) {
+            return last.getRawKey();
+        }
+
+        final ByteArray rawKey = decodeRawUserPublicKey(attestationObject);
+        lastRawUserPublicKey = new RawUserPublicKey(attestationObject, rawKey);
+        return rawKey;
+    }
+
+    private static ByteArray decodeRawUserPublicKey(AttestationObject attestationObject) throws IOException, CoseException {
         final ByteArray pubkeyCose = attestationObject.getAuthenticatorData().getAttestedCredentialData().get().getCredentialPublicKey();
         final PublicKey pubkey;
         try {
@@ -129,13 +158,6 @@ final class FidoU2fAttestationStatementVerifier implements AttestationStatementV
                 "Failed to parse X.509 certificate from attestation object: %s", attestationObject));
         }
 
-        if (!(
-            "EC".equals(attestationCertificate.getPublicKey().getAlgorithm())
-                && isP256(((ECPublicKey) attestationCertificate.getPublicKey()).getParams())
-        )) {
-            throw new IllegalArgumentException("Attestation certificate for fido-u2f must have an ECDSA P-256 public key.");
-        }
-
         final Optional<AttestedCredentialData> attData = attestationObject.getAuthenticatorData().getAttestedCredentialData();
 
         return attData.map(attestedCredentialData -> {
@@ -26,7 +26,10 @@ package com.yubico.webauthn;
 
 
 import COSE.CoseException;
+import com.google.common.base.Suppliers;
 import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.CeremonyObserver.CeremonyType;
+import com.yubico.webauthn.CeremonyObserver.Outcome;
 import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
@@ -46,7 +49,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
+import lombok.AccessLevel;
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
@@ -57,6 +65,7 @@ import static com.yubico.internal.util.ExceptionUtil.assure;
 @Slf4j
 final class FinishAssertionSteps {
 
+    private static final int FIRST_STEP = 0;
     private static final String CLIENT_DATA_TYPE = "webauthn.get";
     private static final BouncyCastleCrypto crypto = new BouncyCastleCrypto();
 
@@ -71,13 +80,38 @@ final class FinishAssertionSteps {
     @Builder.Default private final boolean allowOriginSubdomain = false;
     @Builder.Default private final boolean allowUnrequestedExtensions = false;
     @Builder.Default private final boolean validateSignatureCounter = true;
+    @Builder.Default private final Optional<CredentialIdFilter> credentialIdFilter = Optional.empty();
+    @Builder.Default private final Optional<SignatureCounterStore> signatureCounterStore = Optional.empty();
+    @Builder.Default private final Optional<UserIdentityCache> userIdentityCache = Optional.empty();
+    @Builder.Default private final CeremonyObserver ceremonyObserver = CeremonyObserver.NOOP;
+    @Builder.Default private final FlightRecorderEvents.Span ceremonyEvent = FlightRecorderEvents.Span.NOOP;
 
     public Step0 begin() {
         return new Step0();
     }
 
     public AssertionResult run() throws InvalidSignatureCountException {
-        return begin().run();
+        if (ceremonyObserver == CeremonyObserver.NOOP) {
+            return begin().run();
+        } else {
+            return runObserved();
+        }
+    }
+
+    private AssertionResult runObserved() throws InvalidSignatureCountException {
+        Step<?> step = begin();
+        for (int stepNumber = FIRST_STEP; !step.result().isPresent(); ++stepNumber) {
+            ceremonyObserver.stepStarted(CeremonyType.ASSERTION, stepNumber);
+            final long start = System.nanoTime();
+            Outcome outcome = Outcome.FAILURE;
+            try {
+                step = step.next();
+                outcome = Outcome.SUCCESS;
+            } finally {
+                ceremonyObserver.stepFinished(CeremonyType.ASSERTION, stepNumber, outcome, System.nanoTime() - start);
+            }
+        }
+        return step.result().get();
     }
 
     interface Step<Next extends Step<?>> {
@@ -118,6 +152,16 @@ final class FinishAssertionSteps {
 
     @Value
     class Step0 implements Step<Step1> {
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<Optional<ByteArray>> userHandle = Suppliers.memoize(this::resolveUserHandle);
+
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<Optional<String>> username = Suppliers.memoize(this::resolveUsername);
+
         @Override
         public Step1 nextStep() {
             return new Step1(username().get(), userHandle().get(), allWarnings());
@@ -125,6 +169,10 @@ final class FinishAssertionSteps {
 
         @Override
         public void validate() {
+            assure(
+                credentialIdFilter.map(filter -> filter.mightContain(response.getId())).orElse(true),
+                "Unknown credential ID: %s", response.getId()
+            );
             assure(
                 request.getUsername().isPresent() || response.getResponse().getUserHandle().isPresent(),
                 "At least one of username and user handle must be given; none was."
@@ -147,15 +195,43 @@ final class FinishAssertionSteps {
         }
 
         private Optional<ByteArray> userHandle() {
-            return response.getResponse().getUserHandle()
-                .map(Optional::of)
-                .orElseGet(() -> credentialRepository.getUserHandleForUsername(request.getUsername().get()));
+            return userHandle.get();
         }
 
         private Optional<String> username() {
-            return request.getUsername()
-                .map(Optional::of)
-                .orElseGet(() -> credentialRepository.getUsernameForUserHandle(response.getResponse().getUserHandle().get()));
+            return username.get();
+        }
+
+        private Optional<ByteArray> resolveUserHandle() {
+            if (response.getResponse().getUserHandle().isPresent()) {
+                return response.getResponse().getUserHandle();
+            }
+
+            final String username = request.getUsername().get();
+            final Optional<ByteArray> cached = userIdentityCache.flatMap(cache -> cache.getUserHandle(username));
+            if (cached.isPresent()) {
+                return cached;
+            }
+
+            final Optional<ByteArray> result = credentialRepository.getUserHandleForUsername(username);
+            result.ifPresent(userHandle -> userIdentityCache.ifPresent(cache -> cache.put(username, userHandle)));
+            return result;
+        }
+
+        private Optional<String> resolveUsername() {
+            if (request.getUsername().isPresent()) {
+                return request.getUsername();
+            }
+
+            final ByteArray userHandle = response.getResponse().getUserHandle().get();
+            final Optional<String> cached = userIdentityCache.flatMap(cache -> cache.getUsername(userHandle));
+            if (cached.isPresent()) {
+                return cached;
+            }
+
+            final Optional<String> result = credentialRepository.getUsernameForUserHandle(userHandle);
+            result.ifPresent(username -> userIdentityCache.ifPresent(cache -> cache.put(username, userHandle)));
+            return result;
         }
     }
 
@@ -381,7 +457,8 @@ final class FinishAssertionSteps {
                     allowOriginPort,
                     allowOriginSubdomain
                 ),
-                "Incorrect origin: " + responseOrigin
+                "Incorrect origin: %s",
+                responseOrigin
             );
         }
 
@@ -568,6 +645,7 @@ final class FinishAssertionSteps {
 
             final COSEAlgorithmIdentifier alg = WebAuthnCodecs.getCoseKeyAlg(cose).orElseThrow(() ->
                 new IllegalArgumentException(String.format("Failed to decode \"alg\" from COSE key: %s", cose)));
+            ceremonyEvent.algorithm(alg.getId());
 
             if (!
                 crypto.verifySignature(
@@ -597,6 +675,11 @@ final class FinishAssertionSteps {
         private final ByteArray userHandle;
         private final List<String> prevWarnings;
 
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<Long> storedSignatureCountBefore = Suppliers.memoize(this::resolveStoredSignatureCountBefore);
+
         @Override
         public void validate() throws InvalidSignatureCountException {
             if (validateSignatureCounter
@@ -622,9 +705,17 @@ final class FinishAssertionSteps {
         }
 
         private long storedSignatureCountBefore() {
-            return credentialRepository.lookup(response.getId(), userHandle)
+            return storedSignatureCountBefore.get();
+        }
+
+        private long resolveStoredSignatureCountBefore() {
+            // Consult the pending updates before the repository: an update flushed in between is then read from the
+            // repository instead of being missed by both
+            final Optional<Long> pending = signatureCounterStore.flatMap(store -> store.getSignatureCount(response.getId(), userHandle));
+            final long stored = credentialRepository.lookup(response.getId(), userHandle)
                 .map(RegisteredCredential::getSignatureCount)
                 .orElse(0L);
+            return pending.map(p -> Math.max(p, stored)).orElse(stored);
         }
 
         private long assertionSignatureCount() {
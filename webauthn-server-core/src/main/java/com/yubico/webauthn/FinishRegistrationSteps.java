@@ -25,8 +25,11 @@
 package com.yubico.webauthn;
 
 import COSE.CoseException;
+import com.google.common.base.Suppliers;
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.CeremonyObserver.CeremonyType;
+import com.yubico.webauthn.CeremonyObserver.Outcome;
 import com.yubico.webauthn.attestation.Attestation;
 import com.yubico.webauthn.attestation.MetadataService;
 import com.yubico.webauthn.data.AttestationObject;
@@ -51,8 +54,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import lombok.AccessLevel;
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
@@ -63,6 +71,7 @@ import static com.yubico.internal.util.ExceptionUtil.wrapAndLog;
 @Slf4j
 final class FinishRegistrationSteps {
 
+    private static final int FIRST_STEP = 1;
     private static final String CLIENT_DATA_TYPE = "webauthn.create";
 
     private static final BouncyCastleCrypto crypto = new BouncyCastleCrypto();
@@ -79,6 +88,8 @@ final class FinishRegistrationSteps {
     @Builder.Default private final boolean allowOriginPort = false;
     @Builder.Default private final boolean allowOriginSubdomain = false;
     @Builder.Default private final boolean allowUnrequestedExtensions = false;
+    @Builder.Default private final CeremonyObserver ceremonyObserver = CeremonyObserver.NOOP;
+    @Builder.Default private final FlightRecorderEvents.Span ceremonyEvent = FlightRecorderEvents.Span.NOOP;
 
 
     public Step1 begin() {
@@ -86,7 +97,27 @@ final class FinishRegistrationSteps {
     }
 
     public RegistrationResult run() {
-        return begin().run();
+        if (ceremonyObserver == CeremonyObserver.NOOP) {
+            return begin().run();
+        } else {
+            return runObserved();
+        }
+    }
+
+    private RegistrationResult runObserved() {
+        Step<?> step = begin();
+        for (int stepNumber = FIRST_STEP; !step.result().isPresent(); ++stepNumber) {
+            ceremonyObserver.stepStarted(CeremonyType.REGISTRATION, stepNumber);
+            final long start = System.nanoTime();
+            Outcome outcome = Outcome.FAILURE;
+            try {
+                step = step.next();
+                outcome = Outcome.SUCCESS;
+            } finally {
+                ceremonyObserver.stepFinished(CeremonyType.REGISTRATION, stepNumber, outcome, System.nanoTime() - start);
+            }
+        }
+        return step.result().get();
     }
 
     interface Step<Next extends Step<?>> {
@@ -227,7 +258,8 @@ final class FinishRegistrationSteps {
                     allowOriginPort,
                     allowOriginSubdomain
                 ),
-                "Incorrect origin: " + responseOrigin
+                "Incorrect origin: %s",
+                responseOrigin
             );
         }
 
@@ -429,6 +461,16 @@ final class FinishRegistrationSteps {
         private final Optional<AttestationStatementVerifier> attestationStatementVerifier;
         private final List<String> prevWarnings;
 
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<AttestationType> attestationType = Suppliers.memoize(this::resolveAttestationType);
+
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<Optional<List<X509Certificate>>> attestationTrustPath = Suppliers.memoize(this::resolveAttestationTrustPath);
+
         @Override
         public void validate() {
             attestationStatementVerifier.ifPresent(verifier -> {
@@ -447,6 +489,14 @@ final class FinishRegistrationSteps {
         }
 
         public AttestationType attestationType() {
+            return attestationType.get();
+        }
+
+        public Optional<List<X509Certificate>> attestationTrustPath() {
+            return attestationTrustPath.get();
+        }
+
+        private AttestationType resolveAttestationType() {
             try {
                 if (attestationStatementVerifier.isPresent()) {
                     return attestationStatementVerifier.get().getAttestationType(attestation);
@@ -471,7 +521,7 @@ final class FinishRegistrationSteps {
             }
         }
 
-        public Optional<List<X509Certificate>> attestationTrustPath() {
+        private Optional<List<X509Certificate>> resolveAttestationTrustPath() {
             if (attestationStatementVerifier.isPresent()) {
                 AttestationStatementVerifier verifier = attestationStatementVerifier.get();
                 if (verifier instanceof X5cAttestationStatementVerifier) {
@@ -542,6 +592,11 @@ final class FinishRegistrationSteps {
         private final Optional<AttestationTrustResolver> trustResolver;
         private final List<String> prevWarnings;
 
+        @Getter(AccessLevel.NONE)
+        @EqualsAndHashCode.Exclude
+        @ToString.Exclude
+        private final Supplier<TrustResolution> trustResolution = Suppliers.memoize(this::resolveTrust);
+
         @Override
         public void validate() {
             assure(
@@ -593,29 +648,46 @@ final class FinishRegistrationSteps {
         }
 
         public Optional<Attestation> attestationMetadata() {
-            return trustResolver.flatMap(tr -> {
-                try {
-                    return Optional.of(tr.resolveTrustAnchor(attestationTrustPath.orElseGet(Collections::emptyList)));
-                } catch (CertificateEncodingException e) {
-                    log.debug("Failed to resolve trust anchor for attestation: {}", attestation, e);
-                    return Optional.empty();
-                }
-            });
+            return trustResolution.get().getAttestationMetadata();
         }
 
         @Override
         public List<String> getWarnings() {
+            return trustResolution.get().getWarnings();
+        }
+
+        private TrustResolution resolveTrust() {
             return trustResolver.map(tr -> {
+                final FlightRecorderEvents.Span event = CeremonyTimer.metadata(FlightRecorderEvents.INSTANCE.trustResolution());
                 try {
-                    tr.resolveTrustAnchor(attestationTrustPath.orElseGet(Collections::emptyList));
-                    return Collections.<String>emptyList();
+                    final TrustResolution result = new TrustResolution(
+                        Optional.of(tr.resolveTrustAnchor(attestationTrustPath.orElseGet(Collections::emptyList))),
+                        Collections.<String>emptyList()
+                    );
+                    event.succeeded();
+                    return result;
                 } catch (CertificateEncodingException e) {
-                    return Collections.singletonList("Failed to resolve trust anchor: " + e);
+                    log.debug("Failed to resolve trust anchor for attestation: {}", attestation, e);
+                    return new TrustResolution(
+                        Optional.<Attestation>empty(),
+                        Collections.singletonList("Failed to resolve trust anchor: " + e)
+                    );
+                } finally {
+                    event.finish();
                 }
-            }).orElseGet(Collections::emptyList);
+            }).orElseGet(() -> new TrustResolution(Optional.empty(), Collections.emptyList()));
         }
     }
 
+    /**
+     * The outcome of resolving the attestation trust path of one registration, so that it is resolved only once.
+     */
+    @Value
+    private static class TrustResolution {
+        private final Optional<Attestation> attestationMetadata;
+        private final List<String> warnings;
+    }
+
     @Value
     class Step17 implements Step<Step18> {
         private final AttestationType attestationType;
@@ -683,11 +755,14 @@ final class FinishRegistrationSteps {
             ByteArray publicKeyCose = response.getResponse().getAttestation().getAuthenticatorData().getAttestedCredentialData().get().getCredentialPublicKey();
             CBORObject publicKeyCbor = CBORObject.DecodeFromBytes(publicKeyCose.getBytes());
             int alg = publicKeyCbor.get(CBORObject.FromObject(3)).AsInt32();
+            ceremonyEvent.algorithm(alg);
             assure(
                 request.getPubKeyCredParams().stream().anyMatch(pkcparam -> pkcparam.getAlg().getId() == alg),
-                "Unrequested credential key algorithm: got %d, expected one of: %s",
-                alg,
-                request.getPubKeyCredParams().stream().map(pkcparam -> pkcparam.getAlg()).collect(Collectors.toList())
+                () -> String.format(
+                    "Unrequested credential key algorithm: got %d, expected one of: %s",
+                    alg,
+                    request.getPubKeyCredParams().stream().map(pkcparam -> pkcparam.getAlg()).collect(Collectors.toList())
+                )
             );
             try {
                 WebAuthnCodecs.importCosePublicKey(publicKeyCose);
@@ -0,0 +1,142 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.CeremonyObserver.CeremonyType;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Emits JDK Flight Recorder events for the ceremonies and the expensive operations they perform.
+ *
+ * <p>
+ * The event classes extend <code>jdk.jfr.Event</code>, which does not exist on all Java 8 runtimes, so they are compiled
+ * in a separate source set and loaded reflectively. If they cannot be loaded, {@link #INSTANCE} is a no-op
+ * implementation. Events are only created while a recording that enables them is running; otherwise every method
+ * returns {@link Span#NOOP}.
+ * </p>
+ */
+@Slf4j
+abstract class FlightRecorderEvents {
+
+    private static final String IMPLEMENTATION_CLASS = "com.yubico.webauthn.JfrFlightRecorderEvents";
+
+    static final FlightRecorderEvents NOOP = new FlightRecorderEvents() {
+        @Override
+        Span ceremony(CeremonyType ceremonyType) {
+            return Span.NOOP;
+        }
+
+        @Override
+        Span credentialRepository(String operation) {
+            return Span.NOOP;
+        }
+
+        @Override
+        Span signatureVerification(long coseAlgorithmId) {
+            return Span.NOOP;
+        }
+
+        @Override
+        Span trustResolution() {
+            return Span.NOOP;
+        }
+
+        @Override
+        CredentialRepository recording(CredentialRepository credentialRepository) {
+            return credentialRepository;
+        }
+    };
+
+    static final FlightRecorderEvents INSTANCE = load();
+
+    private static FlightRecorderEvents load() {
+        try {
+            return (FlightRecorderEvents) Class.forName(IMPLEMENTATION_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.debug("JDK Flight Recorder events are not available: {}", e.toString());
+            return NOOP;
+        }
+    }
+
+    /**
+     * A {@link RelyingParty#finishRegistration(FinishRegistrationOptions) finishRegistration} or {@link
+     * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} call.
+     */
+    abstract Span ceremony(CeremonyType ceremonyType);
+
+    /**
+     * A call to the {@link CredentialRepository} method named <code>operation</code>.
+     */
+    abstract Span credentialRepository(String operation);
+
+    /**
+     * A signature verification using the given COSE algorithm.
+     */
+    abstract Span signatureVerification(long coseAlgorithmId);
+
+    /**
+     * A {@link AttestationTrustResolver#resolveTrustAnchor(java.util.List) trust anchor} resolution. With the default
+     * resolver this is a {@link com.yubico.webauthn.attestation.MetadataService#getAttestation(java.util.List)
+     * MetadataService} lookup.
+     */
+    abstract Span trustResolution();
+
+    /**
+     * @return <code>credentialRepository</code>, wrapped so that each call emits a {@link #credentialRepository(String)}
+     * event.
+     */
+    CredentialRepository recording(CredentialRepository credentialRepository) {
+        return new RecordingCredentialRepository(credentialRepository, this);
+    }
+
+    /**
+     * One event in progress. The event is committed by {@link #finish()}, and its outcome is a failure unless {@link
+     * #succeeded()} was called first.
+     */
+    interface Span {
+
+        Span NOOP = new Span() {
+            @Override
+            public void succeeded() {
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+
+        /**
+         * Record the COSE algorithm identifier of the credential involved in this event, if the event has such a field.
+         */
+        default void algorithm(long coseAlgorithmId) {
+        }
+
+        void succeeded();
+
+        void finish();
+    }
+
+}
@@ -0,0 +1,120 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.NonNull;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A {@link CeremonyObserver} which records the duration of each step in an <a
+ * href="https://hdrhistogram.github.io/HdrHistogram/">HdrHistogram</a>, separately for each ceremony type, step number
+ * and outcome.
+ *
+ * <p>
+ * Recording does not block once a step has been seen. Use {@link #getIntervalHistogram(CeremonyType, int, Outcome)}
+ * to collect the durations recorded since the previous call, for example to report percentiles to a monitoring system
+ * at a fixed interval.
+ * </p>
+ *
+ * <p>
+ * This class requires the <code>org.hdrhistogram:HdrHistogram</code> library, which is an optional dependency of this
+ * library and must be added to the classpath separately.
+ * </p>
+ */
+public final class HdrHistogramCeremonyObserver implements CeremonyObserver {
+
+    private static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+    private final int numberOfSignificantValueDigits;
+    private final ConcurrentMap<StepKey, Recorder> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * Create an observer recording durations with 3 significant decimal digits of precision.
+     */
+    public HdrHistogramCeremonyObserver() {
+        this(DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param numberOfSignificantValueDigits the precision of the recorded durations, between 0 and 5.
+     */
+    public HdrHistogramCeremonyObserver(int numberOfSignificantValueDigits) {
+        this.numberOfSignificantValueDigits = numberOfSignificantValueDigits;
+    }
+
+    @Override
+    public void stepFinished(@NonNull CeremonyType ceremonyType, int step, @NonNull Outcome outcome, long durationNanos) {
+        final StepKey key = new StepKey(ceremonyType, step, outcome);
+        Recorder recorder = recorders.get(key);
+        if (recorder == null) {
+            recorder = recorders.computeIfAbsent(key, k -> new Recorder(numberOfSignificantValueDigits));
+        }
+        recorder.recordValue(Math.max(0, durationNanos));
+    }
+
+    /**
+     * Get the durations, in nanoseconds, of the given step recorded since the previous call to this method for the same
+     * step and outcome.
+     *
+     * @return the durations recorded since the last call, or empty if this step has never finished with this outcome.
+     */
+    public Optional<Histogram> getIntervalHistogram(@NonNull CeremonyType ceremonyType, int step, @NonNull Outcome outcome) {
+        return Optional.ofNullable(recorders.get(new StepKey(ceremonyType, step, outcome)))
+            .map(Recorder::getIntervalHistogram);
+    }
+
+    /**
+     * Get the durations, in nanoseconds, of every step recorded since the previous call to this method or to {@link
+     * #getIntervalHistogram(CeremonyType, int, Outcome)}.
+     */
+    public Map<StepKey, Histogram> getIntervalHistograms() {
+        final Map<StepKey, Histogram> result = new ConcurrentHashMap<>();
+        recorders.forEach((key, recorder) -> result.put(key, recorder.getIntervalHistogram()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Identifies one step, with one outcome, of one ceremony type.
+     */
+    @Value
+    public static class StepKey {
+        @NonNull
+        private final CeremonyType ceremonyType;
+
+        private final int step;
+
+        @NonNull
+        private final Outcome outcome;
+    }
+
+}
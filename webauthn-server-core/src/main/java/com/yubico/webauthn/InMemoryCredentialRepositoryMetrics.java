@@ -0,0 +1,222 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.yubico.internal.util.ExceptionUtil;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A {@link CredentialRepositoryMetrics} which keeps counts and histograms in memory, separately for each {@link
+ * Operation}.
+ *
+ * <p>
+ * Durations and result sizes are counted in power-of-two buckets, so quantiles are approximate: {@link
+ * HistogramSnapshot#getValueAtQuantile(double)} may overestimate by up to a factor of 2. Use {@link
+ * #getSnapshot(Operation)} to read the figures recorded so far, for example to export them to a monitoring system.
+ * </p>
+ *
+ * <p>
+ * Recording is lock-free, and this class is thread safe.
+ * </p>
+ */
+public final class InMemoryCredentialRepositoryMetrics implements CredentialRepositoryMetrics {
+
+    private final Map<Operation, OperationRecorder> recorders;
+
+    public InMemoryCredentialRepositoryMetrics() {
+        final Map<Operation, OperationRecorder> recorders = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new OperationRecorder());
+        }
+        this.recorders = Collections.unmodifiableMap(recorders);
+    }
+
+    @Override
+    public void recordSuccess(@NonNull Operation operation, long durationNanos, int resultSize) {
+        final OperationRecorder recorder = recorders.get(operation);
+        recorder.durationNanos.record(durationNanos);
+        recorder.resultSize.record(resultSize);
+    }
+
+    @Override
+    public void recordFailure(@NonNull Operation operation, long durationNanos) {
+        recorders.get(operation).failures.increment();
+    }
+
+    /**
+     * @return the figures recorded so far for the given operation.
+     */
+    public OperationSnapshot getSnapshot(@NonNull Operation operation) {
+        final OperationRecorder recorder = recorders.get(operation);
+        return new OperationSnapshot(
+            recorder.failures.sum(),
+            recorder.durationNanos.snapshot(),
+            recorder.resultSize.snapshot()
+        );
+    }
+
+    /**
+     * @return the figures recorded so far for each operation.
+     */
+    public Map<Operation, OperationSnapshot> getSnapshots() {
+        final Map<Operation, OperationSnapshot> result = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            result.put(operation, getSnapshot(operation));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * The figures recorded for one {@link Operation}.
+     */
+    @Value
+    public static class OperationSnapshot {
+        /**
+         * The number of calls that threw an exception.
+         */
+        private final long failureCount;
+
+        /**
+         * The durations of the calls that returned normally, in nanoseconds.
+         */
+        @NonNull
+        private final HistogramSnapshot durationNanos;
+
+        /**
+         * The result sizes of the calls that returned normally.
+         */
+        @NonNull
+        private final HistogramSnapshot resultSize;
+
+        /**
+         * @return the number of calls that returned normally.
+         */
+        public long getSuccessCount() {
+            return durationNanos.getCount();
+        }
+
+        /**
+         * @return the total number of calls.
+         */
+        public long getCallCount() {
+            return getSuccessCount() + failureCount;
+        }
+    }
+
+    /**
+     * A point-in-time copy of a histogram with power-of-two buckets.
+     */
+    @Value
+    public static class HistogramSnapshot {
+        @Getter(AccessLevel.NONE)
+        private final long[] bucketCounts;
+
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        /**
+         * @return the mean of the recorded values, or 0 if none were recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile a number between 0 and 1, for example <code>0.99</code> for the 99th percentile.
+         * @return an upper bound on the value at the given quantile, at most twice the actual value. Returns 0 if no
+         * values were recorded.
+         */
+        public long getValueAtQuantile(double quantile) {
+            ExceptionUtil.assure(quantile >= 0 && quantile <= 1, "Quantile must be between 0 and 1, was: %s", quantile);
+
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long cumulativeCount = 0;
+            for (int bucket = 0; bucket < bucketCounts.length; ++bucket) {
+                cumulativeCount += bucketCounts[bucket];
+                if (cumulativeCount >= rank) {
+                    return Math.min(Log2Histogram.upperBound(bucket), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private static final class OperationRecorder {
+        private final LongAdder failures = new LongAdder();
+        private final Log2Histogram durationNanos = new Log2Histogram();
+        private final Log2Histogram resultSize = new Log2Histogram();
+    }
+
+    /**
+     * Counts non-negative values in buckets by bit length: bucket <code>i</code> holds the values in the range
+     * <code>[2<sup>i-1</sup>, 2<sup>i</sup>)</code>, and bucket 0 holds the value 0.
+     *
+     * <p>
+     * This does not use HdrHistogram because that is an optional dependency, needed only by {@link
+     * HdrHistogramCeremonyObserver}, and this class must work without it on the classpath. Power-of-two buckets are
+     * precise enough for the percentiles reported here.
+     * </p>
+     */
+    private static final class Log2Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private static long upperBound(int bucket) {
+            return bucket == 0 ? 0 : (1L << bucket) - 1;
+        }
+
+        private void record(long value) {
+            final long v = Math.max(0, value);
+            bucketCounts.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+            sum.add(v);
+            max.accumulate(v);
+        }
+
+        private HistogramSnapshot snapshot() {
+            final long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = bucketCounts.get(i);
+                count += counts[i];
+            }
+            return new HistogramSnapshot(counts, count, sum.sum(), max.get());
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.CredentialRepositoryMetrics.Operation;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Optional;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+
+/**
+ * A {@link CredentialRepository} which reports the duration and result size of each call to another {@link
+ * CredentialRepository} to a {@link CredentialRepositoryMetrics}.
+ *
+ * <p>
+ * Example:
+ * </p>
+ * <pre>
+ * InMemoryCredentialRepositoryMetrics metrics = new InMemoryCredentialRepositoryMetrics();
+ * RelyingParty rp = RelyingParty.builder()
+ *     .identity(identity)
+ *     .credentialRepository(new MeteredCredentialRepository(credentialRepository, metrics))
+ *     .build();
+ * </pre>
+ */
+@AllArgsConstructor
+public final class MeteredCredentialRepository implements CredentialRepository {
+
+    @NonNull
+    private final CredentialRepository delegate;
+
+    @NonNull
+    private final CredentialRepositoryMetrics metrics;
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        final long start = System.nanoTime();
+        final Set<PublicKeyCredentialDescriptor> result;
+        try {
+            result = delegate.getCredentialIdsForUsername(username);
+        } catch (RuntimeException | Error e) {
+            metrics.recordFailure(Operation.GET_CREDENTIAL_IDS_FOR_USERNAME, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_CREDENTIAL_IDS_FOR_USERNAME, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        final long start = System.nanoTime();
+        final Optional<ByteArray> result;
+        try {
+            result = delegate.getUserHandleForUsername(username);
+        } catch (RuntimeException | Error e) {
+            metrics.recordFailure(Operation.GET_USER_HANDLE_FOR_USERNAME, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_USER_HANDLE_FOR_USERNAME, System.nanoTime() - start, result.isPresent() ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        final long start = System.nanoTime();
+        final Optional<String> result;
+        try {
+            result = delegate.getUsernameForUserHandle(userHandle);
+        } catch (RuntimeException | Error e) {
+            metrics.recordFailure(Operation.GET_USERNAME_FOR_USER_HANDLE, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.GET_USERNAME_FOR_USER_HANDLE, System.nanoTime() - start, result.isPresent() ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        final long start = System.nanoTime();
+        final Optional<RegisteredCredential> result;
+        try {
+            result = delegate.lookup(credentialId, userHandle);
+        } catch (RuntimeException | Error e) {
+            metrics.recordFailure(Operation.LOOKUP, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.LOOKUP, System.nanoTime() - start, result.isPresent() ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        final long start = System.nanoTime();
+        final Set<RegisteredCredential> result;
+        try {
+            result = delegate.lookupAll(credentialId);
+        } catch (RuntimeException | Error e) {
+            metrics.recordFailure(Operation.LOOKUP_ALL, System.nanoTime() - start);
+            throw e;
+        }
+        metrics.recordSuccess(Operation.LOOKUP_ALL, System.nanoTime() - start, result.size());
+        return result;
+    }
+
+}
@@ -0,0 +1,196 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CertificateCache;
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import lombok.extern.slf4j.Slf4j;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DEROctetString;
+
+/**
+ * The parts of a packed attestation certificate checked by {@link
+ * PackedAttestationStatementVerifier#verifyX5cRequirements(X509Certificate, ByteArray)}, extracted once per certificate.
+ *
+ * <p>
+ * Instances are cached by certificate identity. Certificates parsed through {@link CertificateCache} are shared between
+ * registrations, so the subject DN and extensions of each distinct batch certificate are only parsed once.
+ * </p>
+ *
+ * @see <a href="https://www.w3.org/TR/2019/PR-webauthn-20190117/#packed-attestation-cert-requirements">§8.2.1. Packed
+ * Attestation Statement Certificate Requirements</a>
+ */
+@Slf4j
+final class PackedAttestationCertificateRequirements {
+
+    private static final String OU_VALUE = "Authenticator Attestation";
+    private static final String ID_FIDO_GEN_CE_AAGUID = "1.3.6.1.4.1.45724.1.1.4";
+    private static final Set<String> ISO_COUNTRIES = CollectionUtil.immutableSet(new HashSet<>(Arrays.asList(Locale.getISOCountries())));
+
+    private static final Cache<X509Certificate, PackedAttestationCertificateRequirements> CACHE = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumSize(CertificateCache.DEFAULT_MAX_SIZE)
+        .build();
+
+    private final int version;
+
+    /**
+     * The value of the first RDN of each type in the subject DN.
+     */
+    private final Map<String, Object> subjectFields;
+
+    /**
+     * The value of the id-fido-gen-ce-aaguid extension, or <code>null</code> if the extension is absent or malformed.
+     */
+    private final ByteArray aaguidExtension;
+    private final boolean aaguidExtensionMalformed;
+    private final boolean aaguidExtensionCritical;
+
+    private final boolean ca;
+
+    private PackedAttestationCertificateRequirements(X509Certificate cert) {
+        version = cert.getVersion();
+        subjectFields = parseSubjectFields(cert);
+
+        final byte[] ext = cert.getExtensionValue(ID_FIDO_GEN_CE_AAGUID);
+        ByteArray aaguid = null;
+        boolean malformed = false;
+        if (ext != null) {
+            try {
+                aaguid = new ByteArray(((DEROctetString) ASN1Primitive.fromByteArray(
+                    ((DEROctetString) ASN1Primitive.fromByteArray(ext)).getOctets()
+                )).getOctets());
+            } catch (IOException e) {
+                malformed = true;
+            }
+        }
+        aaguidExtension = aaguid;
+        aaguidExtensionMalformed = malformed;
+        aaguidExtensionCritical = ext != null && cert.getCriticalExtensionOIDs().contains(ID_FIDO_GEN_CE_AAGUID);
+
+        ca = cert.getBasicConstraints() != -1;
+    }
+
+    static PackedAttestationCertificateRequirements of(X509Certificate cert) {
+        final PackedAttestationCertificateRequirements cached = CACHE.getIfPresent(cert);
+        if (cached != null) {
+            return cached;
+        }
+
+        final PackedAttestationCertificateRequirements parsed = new PackedAttestationCertificateRequirements(cert);
+        CACHE.put(cert, parsed);
+        return parsed;
+    }
+
+    private static Map<String, Object> parseSubjectFields(X509Certificate cert) {
+        final String name = cert.getSubjectX500Principal().getName();
+        final LdapName ldap;
+        try {
+            ldap = new LdapName(name);
+        } catch (InvalidNameException e) {
+            throw ExceptionUtil.wrapAndLog(log, "X500Principal name was not accepted as an LdapName: " + name, e);
+        }
+
+        final Map<String, Object> fields = new HashMap<>();
+        for (Rdn rdn : ldap.getRdns()) {
+            fields.putIfAbsent(rdn.getType(), rdn.getValue());
+        }
+        return CollectionUtil.immutableMap(fields);
+    }
+
+    private Optional<Object> getSubjectField(String type) {
+        return Optional.ofNullable(subjectFields.get(type));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the certificate does not satisfy the requirements for an authenticator with
+     * the given AAGUID.
+     */
+    boolean verify(ByteArray aaguid) {
+        if (version != 3) {
+            throw new IllegalArgumentException(String.format("Wrong attestation certificate X509 version: %s, expected: 3", version));
+        }
+
+        ExceptionUtil.assure(
+            getSubjectField("C").filter(ISO_COUNTRIES::contains).isPresent(),
+            "Invalid attestation certificate country code: %s",
+            getSubjectField("C")
+        );
+
+        ExceptionUtil.assure(
+            getSubjectField("O").filter(o -> !((String) o).isEmpty()).isPresent(),
+            "Organization (O) field of attestation certificate DN must be present."
+        );
+
+        ExceptionUtil.assure(
+            getSubjectField("OU").filter(OU_VALUE::equals).isPresent(),
+            "Organization Unit (OU) field of attestation certificate DN must be exactly \"%s\", was: %s",
+            OU_VALUE, getSubjectField("OU")
+        );
+
+        if (aaguidExtensionMalformed) {
+            throw new IllegalArgumentException("Failed to read id-fido-gen-ce-aaguid certificate extension value.");
+        }
+
+        if (aaguidExtension != null) {
+            ExceptionUtil.assure(
+                aaguidExtension.equals(aaguid),
+                "X.509 extension %s (id-fido-gen-ce-aaguid) is present but does not match the authenticator AAGUID.",
+                ID_FIDO_GEN_CE_AAGUID
+            );
+
+            ExceptionUtil.assure(
+                !aaguidExtensionCritical,
+                "X.509 extension %s (id-fido-gen-ce-aaguid) must not be marked critical.",
+                ID_FIDO_GEN_CE_AAGUID
+            );
+        }
+
+        ExceptionUtil.assure(
+            !ca,
+            "Attestation certificate must not be a CA certificate."
+        );
+
+        return true;
+    }
+
+}
@@ -24,14 +24,9 @@
 
 package com.yubico.webauthn;
 
-import javax.naming.InvalidNameException;
-import javax.naming.ldap.LdapName;
-import javax.naming.ldap.Rdn;
-
 import COSE.CoseException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.upokecenter.cbor.CBORObject;
-import com.yubico.internal.util.CollectionUtil;
 import com.yubico.internal.util.ExceptionUtil;
 import com.yubico.webauthn.data.AttestationObject;
 import com.yubico.webauthn.data.AttestationType;
@@ -46,16 +41,10 @@ import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.DEROctetString;
 
 
 @Slf4j
@@ -174,30 +163,40 @@ final class PackedAttestationStatementVerifier implements AttestationStatementVe
                 ByteArray signedData = attestationObject.getAuthenticatorData().getBytes().concat(clientDataHash);
 
                 final String signatureAlgorithmName = WebAuthnCodecs.getJavaAlgorithmName(sigAlg);
-                Signature signatureVerifier;
-                try {
-                    signatureVerifier = Signature.getInstance(signatureAlgorithmName, crypto.getProvider());
-                } catch (NoSuchAlgorithmException e) {
-                    throw ExceptionUtil.wrapAndLog(log, "Failed to get a Signature instance for " + signatureAlgorithmName, e);
-                }
+                final boolean signatureValid;
+                final FlightRecorderEvents.Span event = CeremonyTimer.crypto(FlightRecorderEvents.INSTANCE.signatureVerification(sigAlgId));
                 try {
-                    signatureVerifier.initVerify(attestationCertificate.getPublicKey());
-                } catch (InvalidKeyException e) {
-                    throw ExceptionUtil.wrapAndLog(log, "Attestation key is invalid: " + attestationCertificate, e);
-                }
-                try {
-                    signatureVerifier.update(signedData.getBytes());
-                } catch (SignatureException e) {
-                    throw ExceptionUtil.wrapAndLog(log, "Signature object in invalid state: " + signatureVerifier, e);
+                    Signature signatureVerifier;
+                    try {
+                        signatureVerifier = Signature.getInstance(signatureAlgorithmName, crypto.getProvider());
+                    } catch (NoSuchAlgorithmException e) {
+                        throw ExceptionUtil.wrapAndLog(log, "Failed to get a Signature instance for " + signatureAlgorithmName, e);
+                    }
+                    try {
+                        signatureVerifier.initVerify(attestationCertificate.getPublicKey());
+                    } catch (InvalidKeyException e) {
+                        throw ExceptionUtil.wrapAndLog(log, "Attestation key is invalid: " + attestationCertificate, e);
+                    }
+                    try {
+                        signatureVerifier.update(signedData.getBytes());
+                    } catch (SignatureException e) {
+                        throw ExceptionUtil.wrapAndLog(log, "Signature object in invalid state: " + signatureVerifier, e);
+                    }
+
+                    try {
+                        signatureValid = signatureVerifier.verify(signature.getBytes());
+                    } catch (SignatureException e) {
+                        throw ExceptionUtil.wrapAndLog(log, "Failed to verify signature: " + attestationObject, e);
+                    }
+                    if (signatureValid) {
+                        event.succeeded();
+                    }
+                } finally {
+                    event.finish();
                 }
 
-                try {
-                    return (signatureVerifier.verify(signature.getBytes())
-                        && verifyX5cRequirements(attestationCertificate, attestationObject.getAuthenticatorData().getAttestedCredentialData().get().getAaguid())
-                    );
-                } catch (SignatureException e) {
-                    throw ExceptionUtil.wrapAndLog(log, "Failed to verify signature: " + attestationObject, e);
-                }
+                return signatureValid
+                    && verifyX5cRequirements(attestationCertificate, attestationObject.getAuthenticatorData().getAttestedCredentialData().get().getAaguid());
             } else {
                 throw new IllegalArgumentException("Field \"sig\" in packed attestation statement must be a binary value.");
             }
@@ -205,76 +204,8 @@ final class PackedAttestationStatementVerifier implements AttestationStatementVe
             "If \"x5c\" property is present in \"packed\" attestation format it must be an array containing at least one DER encoded X.509 cerficicate."));
     }
 
-    private Optional<Object> getDnField(String field, X509Certificate cert) {
-        final LdapName ldap;
-        try {
-            ldap = new LdapName(cert.getSubjectX500Principal().getName());
-        } catch (InvalidNameException e) {
-            throw ExceptionUtil.wrapAndLog(log, "X500Principal name was not accepted as an LdapName: " + cert.getSubjectX500Principal().getName(), e);
-        }
-        return ldap.getRdns().stream()
-            .filter(rdn -> Objects.equals(rdn.getType(), field))
-            .findAny()
-            .map(Rdn::getValue);
-    }
-
     public boolean verifyX5cRequirements(X509Certificate cert, ByteArray aaguid) {
-        if (cert.getVersion() != 3) {
-            throw new IllegalArgumentException(String.format("Wrong attestation certificate X509 version: %s, expected: 3", cert.getVersion()));
-        }
-
-        final String ouValue = "Authenticator Attestation";
-        final String idFidoGenCeAaguid = "1.3.6.1.4.1.45724.1.1.4";
-        final Set<String> countries = CollectionUtil.immutableSet(new HashSet<>(Arrays.asList(Locale.getISOCountries())));
-
-        ExceptionUtil.assure(
-            getDnField("C", cert).filter(countries::contains).isPresent(),
-            "Invalid attestation certificate country code: %s",
-            getDnField("C", cert)
-        );
-
-        ExceptionUtil.assure(
-            getDnField("O", cert).filter(o -> !((String) o).isEmpty()).isPresent(),
-            "Organization (O) field of attestation certificate DN must be present."
-        );
-
-        ExceptionUtil.assure(
-            getDnField("OU", cert).filter(ouValue::equals).isPresent(),
-            "Organization Unit (OU) field of attestation certificate DN must be exactly \"%s\", was: %s",
-            ouValue, getDnField("OU", cert)
-        );
-
-        Optional.ofNullable(cert.getExtensionValue(idFidoGenCeAaguid))
-            .map(ext -> {
-                try {
-                    return new ByteArray(((DEROctetString) ASN1Primitive.fromByteArray(
-                        ((DEROctetString) ASN1Primitive.fromByteArray(ext)).getOctets()
-                    )).getOctets());
-                } catch (IOException e) {
-                    throw new IllegalArgumentException("Failed to read id-fido-gen-ce-aaguid certificate extension value.");
-                }
-            })
-            .ifPresent((ByteArray value) -> {
-                ExceptionUtil.assure(
-                    value.equals(aaguid),
-                    "X.509 extension %s (id-fido-gen-ce-aaguid) is present but does not match the authenticator AAGUID.",
-                    idFidoGenCeAaguid
-                );
-
-                ExceptionUtil.assure(
-                    !
-                        cert.getCriticalExtensionOIDs().contains(idFidoGenCeAaguid),
-                    "X.509 extension %s (id-fido-gen-ce-aaguid) must not be marked critical.",
-                    idFidoGenCeAaguid
-                );
-            });
-
-        ExceptionUtil.assure(
-            cert.getBasicConstraints() == -1,
-            "Attestation certificate must not be a CA certificate."
-        );
-
-        return true;
+        return PackedAttestationCertificateRequirements.of(cert).verify(aaguid);
     }
 
 }
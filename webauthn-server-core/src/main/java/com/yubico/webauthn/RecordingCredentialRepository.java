@@ -0,0 +1,103 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Optional;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+
+/**
+ * Emits a {@link FlightRecorderEvents#credentialRepository(String)} event for each call to the wrapped repository.
+ */
+@AllArgsConstructor
+final class RecordingCredentialRepository implements CredentialRepository {
+
+    private final CredentialRepository delegate;
+    private final FlightRecorderEvents events;
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        final FlightRecorderEvents.Span event = events.credentialRepository("getCredentialIdsForUsername");
+        try {
+            final Set<PublicKeyCredentialDescriptor> result = delegate.getCredentialIdsForUsername(username);
+            event.succeeded();
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        final FlightRecorderEvents.Span event = events.credentialRepository("getUserHandleForUsername");
+        try {
+            final Optional<ByteArray> result = delegate.getUserHandleForUsername(username);
+            event.succeeded();
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        final FlightRecorderEvents.Span event = events.credentialRepository("getUsernameForUserHandle");
+        try {
+            final Optional<String> result = delegate.getUsernameForUserHandle(userHandle);
+            event.succeeded();
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        final FlightRecorderEvents.Span event = events.credentialRepository("lookup");
+        try {
+            final Optional<RegisteredCredential> result = delegate.lookup(credentialId, userHandle);
+            event.succeeded();
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        final FlightRecorderEvents.Span event = events.credentialRepository("lookupAll");
+        try {
+            final Set<RegisteredCredential> result = delegate.lookupAll(credentialId);
+            event.succeeded();
+            return result;
+        } finally {
+            event.finish();
+        }
+    }
+
+}
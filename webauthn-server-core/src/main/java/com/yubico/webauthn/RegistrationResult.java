@@ -115,6 +115,16 @@ public class RegistrationResult {
     @Builder.ObtainVia(method = "getAttestationMetadata")
     private final Attestation attestationMetadata;
 
+    /**
+     * Where the time of the ceremony was spent.
+     *
+     * <p>
+     * This will be absent unless you enable {@link RelyingParty.RelyingPartyBuilder#collectCeremonyTimings(boolean)
+     * collectCeremonyTimings} in {@link RelyingParty}.
+     * </p>
+     */
+    private final CeremonyTimings ceremonyTimings;
+
     @JsonCreator
     private RegistrationResult(
         @NonNull @JsonProperty("keyId") PublicKeyCredentialDescriptor keyId,
@@ -122,7 +132,8 @@ public class RegistrationResult {
         @NonNull @JsonProperty("attestationType") AttestationType attestationType,
         @NonNull @JsonProperty("publicKeyCose") ByteArray publicKeyCose,
         @NonNull @JsonProperty("warnings") List<String> warnings,
-        @JsonProperty("attestationMetadata") Attestation attestationMetadata
+        @JsonProperty("attestationMetadata") Attestation attestationMetadata,
+        @JsonProperty("ceremonyTimings") CeremonyTimings ceremonyTimings
     ) {
         this.keyId = keyId;
         this.attestationTrusted = attestationTrusted;
@@ -130,12 +141,17 @@ public class RegistrationResult {
         this.publicKeyCose = publicKeyCose;
         this.warnings = CollectionUtil.immutableList(warnings);
         this.attestationMetadata = attestationMetadata;
+        this.ceremonyTimings = ceremonyTimings;
     }
 
     public Optional<Attestation> getAttestationMetadata() {
         return Optional.ofNullable(attestationMetadata);
     }
 
+    public Optional<CeremonyTimings> getCeremonyTimings() {
+        return Optional.ofNullable(ceremonyTimings);
+    }
+
     static RegistrationResultBuilder.MandatoryStages builder() {
         return new RegistrationResultBuilder.MandatoryStages();
     }
@@ -174,6 +190,15 @@ public class RegistrationResult {
             this.attestationMetadata = attestationMetadata.orElse(null);
             return this;
         }
+
+        RegistrationResultBuilder ceremonyTimings(@NonNull Optional<CeremonyTimings> ceremonyTimings) {
+            return ceremonyTimings(ceremonyTimings.orElse(null));
+        }
+
+        private RegistrationResultBuilder ceremonyTimings(CeremonyTimings ceremonyTimings) {
+            this.ceremonyTimings = ceremonyTimings;
+            return this;
+        }
     }
 
 }
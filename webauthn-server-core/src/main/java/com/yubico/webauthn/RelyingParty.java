@@ -25,6 +25,7 @@
 package com.yubico.webauthn;
 
 import com.yubico.internal.util.CollectionUtil;
+import com.yubico.webauthn.CeremonyObserver.CeremonyType;
 import com.yubico.webauthn.attestation.MetadataService;
 import com.yubico.webauthn.data.AssertionExtensionInputs;
 import com.yubico.webauthn.data.AttestationConveyancePreference;
@@ -380,6 +381,77 @@ public class RelyingParty {
     @Builder.Default
     private final boolean validateSignatureCounter = true;
 
+    /**
+     * A {@link CeremonyObserver} to notify as each step of {@link #finishRegistration(FinishRegistrationOptions)
+     * finishRegistration} and {@link #finishAssertion(FinishAssertionOptions) finishAssertion} starts and ends.
+     *
+     * <p>
+     * By default, this is {@link CeremonyObserver#NOOP}, which adds no overhead.
+     * </p>
+     *
+     * @see HdrHistogramCeremonyObserver
+     */
+    @NonNull
+    @Builder.Default
+    private final CeremonyObserver ceremonyObserver = CeremonyObserver.NOOP;
+
+    /**
+     * If <code>true</code>, {@link #finishRegistration(FinishRegistrationOptions) finishRegistration} and {@link
+     * #finishAssertion(FinishAssertionOptions) finishAssertion} will measure how much of each ceremony is spent in
+     * {@link CredentialRepository} calls, signature verification and attestation trust resolution, and return the
+     * figures in {@link RegistrationResult#getCeremonyTimings()} and {@link AssertionResult#getCeremonyTimings()}.
+     *
+     * <p>
+     * The default is <code>false</code>.
+     * </p>
+     */
+    @Builder.Default
+    private final boolean collectCeremonyTimings = false;
+
+    /**
+     * A {@link CredentialIdFilter} containing the IDs of all registered credentials. If set, {@link
+     * #finishAssertion(FinishAssertionOptions) finishAssertion} will fail for credential IDs the filter does not contain
+     * without querying the {@link #getCredentialRepository() credential repository}.
+     *
+     * <p>
+     * The filter is not consulted or updated by {@link #finishRegistration(FinishRegistrationOptions)
+     * finishRegistration}, which always checks the credential repository for duplicate credential IDs. The application
+     * must {@link CredentialIdFilter#add(ByteArray) add} each new credential ID after it has stored the credential.
+     * </p>
+     *
+     * <p>
+     * By default, this is not set.
+     * </p>
+     */
+    @NonNull
+    private final Optional<CredentialIdFilter> credentialIdFilter;
+
+    /**
+     * A {@link SignatureCounterStore} to buffer signature counter updates in. If set, {@link
+     * #finishAssertion(FinishAssertionOptions) finishAssertion} will submit the signature count of each successful
+     * assertion to it, and will compare the signature count in each response with the greatest of the {@link
+     * RegisteredCredential#getSignatureCount() stored signature count} and any update still pending in the store.
+     *
+     * <p>
+     * By default, this is not set.
+     * </p>
+     */
+    @NonNull
+    private final Optional<SignatureCounterStore> signatureCounterStore;
+
+    /**
+     * A {@link UserIdentityCache} of the bindings between usernames and user handles. If set, {@link
+     * #finishAssertion(FinishAssertionOptions) finishAssertion} will look up the username for a user handle, or the user
+     * handle for a username, in the cache before querying the {@link #getCredentialRepository() credential repository},
+     * and will add the bindings it finds in the repository to the cache.
+     *
+     * <p>
+     * By default, this is not set.
+     * </p>
+     */
+    @NonNull
+    private final Optional<UserIdentityCache> userIdentityCache;
+
     private RelyingParty(
         @NonNull RelyingPartyIdentity identity,
         Set<String> origins,
@@ -391,7 +463,12 @@ public class RelyingParty {
         boolean allowOriginSubdomain,
         boolean allowUnrequestedExtensions,
         boolean allowUntrustedAttestation,
-        boolean validateSignatureCounter
+        boolean validateSignatureCounter,
+        @NonNull CeremonyObserver ceremonyObserver,
+        boolean collectCeremonyTimings,
+        @NonNull Optional<CredentialIdFilter> credentialIdFilter,
+        @NonNull Optional<SignatureCounterStore> signatureCounterStore,
+        @NonNull Optional<UserIdentityCache> userIdentityCache
     ) {
         this.identity = identity;
         this.origins = origins != null ? CollectionUtil.immutableSet(origins) : Collections.singleton("https://" + identity.getId());
@@ -414,6 +491,11 @@ public class RelyingParty {
         this.allowUnrequestedExtensions = allowUnrequestedExtensions;
         this.allowUntrustedAttestation = allowUntrustedAttestation;
         this.validateSignatureCounter = validateSignatureCounter;
+        this.ceremonyObserver = ceremonyObserver;
+        this.collectCeremonyTimings = collectCeremonyTimings;
+        this.credentialIdFilter = credentialIdFilter;
+        this.signatureCounterStore = signatureCounterStore;
+        this.userIdentityCache = userIdentityCache;
     }
 
     private static ByteArray generateChallenge() {
@@ -429,7 +511,7 @@ public class RelyingParty {
             .challenge(generateChallenge())
             .pubKeyCredParams(preferredPubkeyParams)
             .excludeCredentials(
-                credentialRepository.getCredentialIdsForUsername(startRegistrationOptions.getUser().getName())
+                FlightRecorderEvents.INSTANCE.recording(credentialRepository).getCredentialIdsForUsername(startRegistrationOptions.getUser().getName())
             )
             .authenticatorSelection(startRegistrationOptions.getAuthenticatorSelection())
             .extensions(startRegistrationOptions.getExtensions())
@@ -440,10 +522,21 @@ public class RelyingParty {
     }
 
     public RegistrationResult finishRegistration(FinishRegistrationOptions finishRegistrationOptions) throws RegistrationFailedException {
+        final FlightRecorderEvents.Span event = FlightRecorderEvents.INSTANCE.ceremony(CeremonyType.REGISTRATION);
+        final Optional<CeremonyTimer> timer = collectCeremonyTimings ? Optional.of(CeremonyTimer.start()) : Optional.empty();
         try {
-            return _finishRegistration(finishRegistrationOptions.getRequest(), finishRegistrationOptions.getResponse(), finishRegistrationOptions.getCallerTokenBindingId()).run();
+            final RegistrationResult result = _finishRegistration(finishRegistrationOptions.getRequest(), finishRegistrationOptions.getResponse(), finishRegistrationOptions.getCallerTokenBindingId(), event, timer).run();
+            event.succeeded();
+            if (timer.isPresent()) {
+                return result.toBuilder().ceremonyTimings(Optional.of(timer.get().finish())).build();
+            } else {
+                return result;
+            }
         } catch (IllegalArgumentException e) {
             throw new RegistrationFailedException(e);
+        } finally {
+            timer.ifPresent(CeremonyTimer::close);
+            event.finish();
         }
     }
 
@@ -459,11 +552,22 @@ public class RelyingParty {
         PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> response,
         Optional<ByteArray> callerTokenBindingId
     ) {
+        return _finishRegistration(request, response, callerTokenBindingId, FlightRecorderEvents.Span.NOOP, Optional.empty());
+    }
+
+    private FinishRegistrationSteps _finishRegistration(
+        PublicKeyCredentialCreationOptions request,
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> response,
+        Optional<ByteArray> callerTokenBindingId,
+        FlightRecorderEvents.Span ceremonyEvent,
+        Optional<CeremonyTimer> timer
+    ) {
+        final CredentialRepository recordedCredentialRepository = FlightRecorderEvents.INSTANCE.recording(credentialRepository);
         return FinishRegistrationSteps.builder()
             .request(request)
             .response(response)
             .callerTokenBindingId(callerTokenBindingId)
-            .credentialRepository(credentialRepository)
+            .credentialRepository(timer.map(t -> t.metered(recordedCredentialRepository)).orElse(recordedCredentialRepository))
             .origins(origins)
             .rpId(identity.getId())
             .allowOriginPort(allowOriginPort)
@@ -471,6 +575,8 @@ public class RelyingParty {
             .allowUnrequestedExtensions(allowUnrequestedExtensions)
             .allowUntrustedAttestation(allowUntrustedAttestation)
             .metadataService(metadataService)
+            .ceremonyObserver(ceremonyObserver)
+            .ceremonyEvent(ceremonyEvent)
             .build();
     }
 
@@ -480,7 +586,7 @@ public class RelyingParty {
             .rpId(identity.getId())
             .allowCredentials(
                 startAssertionOptions.getUsername().map(un ->
-                    new ArrayList<>(credentialRepository.getCredentialIdsForUsername(un)))
+                    new ArrayList<>(FlightRecorderEvents.INSTANCE.recording(credentialRepository).getCredentialIdsForUsername(un)))
             )
             .extensions(
                 startAssertionOptions.getExtensions()
@@ -511,10 +617,22 @@ public class RelyingParty {
      *     if validation fails for any other reason.
      */
     public AssertionResult finishAssertion(FinishAssertionOptions finishAssertionOptions) throws AssertionFailedException {
+        final FlightRecorderEvents.Span event = FlightRecorderEvents.INSTANCE.ceremony(CeremonyType.ASSERTION);
+        final Optional<CeremonyTimer> timer = collectCeremonyTimings ? Optional.of(CeremonyTimer.start()) : Optional.empty();
         try {
-            return _finishAssertion(finishAssertionOptions.getRequest(), finishAssertionOptions.getResponse(), finishAssertionOptions.getCallerTokenBindingId()).run();
+            final AssertionResult result = _finishAssertion(finishAssertionOptions.getRequest(), finishAssertionOptions.getResponse(), finishAssertionOptions.getCallerTokenBindingId(), event, timer).run();
+            event.succeeded();
+            signatureCounterStore.ifPresent(store -> store.update(result.getCredentialId(), result.getUserHandle(), result.getSignatureCount()));
+            if (timer.isPresent()) {
+                return result.toBuilder().ceremonyTimings(Optional.of(timer.get().finish())).build();
+            } else {
+                return result;
+            }
         } catch (IllegalArgumentException e) {
             throw new AssertionFailedException(e);
+        } finally {
+            timer.ifPresent(CeremonyTimer::close);
+            event.finish();
         }
     }
 
@@ -529,17 +647,33 @@ public class RelyingParty {
         PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> response,
         Optional<ByteArray> callerTokenBindingId // = None.asJava
     ) {
+        return _finishAssertion(request, response, callerTokenBindingId, FlightRecorderEvents.Span.NOOP, Optional.empty());
+    }
+
+    private FinishAssertionSteps _finishAssertion(
+        AssertionRequest request,
+        PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> response,
+        Optional<ByteArray> callerTokenBindingId,
+        FlightRecorderEvents.Span ceremonyEvent,
+        Optional<CeremonyTimer> timer
+    ) {
+        final CredentialRepository recordedCredentialRepository = FlightRecorderEvents.INSTANCE.recording(credentialRepository);
         return FinishAssertionSteps.builder()
             .request(request)
             .response(response)
             .callerTokenBindingId(callerTokenBindingId)
             .origins(origins)
             .rpId(identity.getId())
-            .credentialRepository(credentialRepository)
+            .credentialRepository(timer.map(t -> t.metered(recordedCredentialRepository)).orElse(recordedCredentialRepository))
             .allowOriginPort(allowOriginPort)
             .allowOriginSubdomain(allowOriginSubdomain)
             .allowUnrequestedExtensions(allowUnrequestedExtensions)
             .validateSignatureCounter(validateSignatureCounter)
+            .credentialIdFilter(credentialIdFilter)
+            .signatureCounterStore(signatureCounterStore)
+            .userIdentityCache(userIdentityCache)
+            .ceremonyObserver(ceremonyObserver)
+            .ceremonyEvent(ceremonyEvent)
             .build();
     }
 
@@ -551,6 +685,9 @@ public class RelyingParty {
         private @NonNull Optional<AppId> appId = Optional.empty();
         private @NonNull Optional<AttestationConveyancePreference> attestationConveyancePreference = Optional.empty();
         private @NonNull Optional<MetadataService> metadataService = Optional.empty();
+        private @NonNull Optional<CredentialIdFilter> credentialIdFilter = Optional.empty();
+        private @NonNull Optional<SignatureCounterStore> signatureCounterStore = Optional.empty();
+        private @NonNull Optional<UserIdentityCache> userIdentityCache = Optional.empty();
 
         public static class MandatoryStages {
             private final RelyingPartyBuilder builder = new RelyingPartyBuilder();
@@ -692,5 +829,102 @@ public class RelyingParty {
         public RelyingPartyBuilder metadataService(@NonNull MetadataService metadataService) {
             return this.metadataService(Optional.of(metadataService));
         }
+
+        /**
+         * A {@link CredentialIdFilter} containing the IDs of all registered credentials. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will fail for credential IDs the filter
+         * does not contain without querying the {@link CredentialRepository}.
+         *
+         * <p>
+         * The application must {@link CredentialIdFilter#add(ByteArray) add} each new credential ID to the filter after
+         * it has stored the credential.
+         * </p>
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder credentialIdFilter(@NonNull Optional<CredentialIdFilter> credentialIdFilter) {
+            this.credentialIdFilter = credentialIdFilter;
+            return this;
+        }
+
+        /**
+         * A {@link CredentialIdFilter} containing the IDs of all registered credentials. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will fail for credential IDs the filter
+         * does not contain without querying the {@link CredentialRepository}.
+         *
+         * <p>
+         * The application must {@link CredentialIdFilter#add(ByteArray) add} each new credential ID to the filter after
+         * it has stored the credential.
+         * </p>
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder credentialIdFilter(@NonNull CredentialIdFilter credentialIdFilter) {
+            return this.credentialIdFilter(Optional.of(credentialIdFilter));
+        }
+
+        /**
+         * A {@link SignatureCounterStore} to buffer signature counter updates in. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will submit the signature count of each
+         * successful assertion to it, and will compare the signature count in each response with the greatest of the
+         * {@link RegisteredCredential#getSignatureCount() stored signature count} and any update still pending in the
+         * store.
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder signatureCounterStore(@NonNull Optional<SignatureCounterStore> signatureCounterStore) {
+            this.signatureCounterStore = signatureCounterStore;
+            return this;
+        }
+
+        /**
+         * A {@link SignatureCounterStore} to buffer signature counter updates in. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will submit the signature count of each
+         * successful assertion to it, and will compare the signature count in each response with the greatest of the
+         * {@link RegisteredCredential#getSignatureCount() stored signature count} and any update still pending in the
+         * store.
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder signatureCounterStore(@NonNull SignatureCounterStore signatureCounterStore) {
+            return this.signatureCounterStore(Optional.of(signatureCounterStore));
+        }
+
+        /**
+         * A {@link UserIdentityCache} of the bindings between usernames and user handles. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will look up the username for a user
+         * handle, or the user handle for a username, in the cache before querying the {@link CredentialRepository}, and
+         * will add the bindings it finds in the repository to the cache.
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder userIdentityCache(@NonNull Optional<UserIdentityCache> userIdentityCache) {
+            this.userIdentityCache = userIdentityCache;
+            return this;
+        }
+
+        /**
+         * A {@link UserIdentityCache} of the bindings between usernames and user handles. If set, {@link
+         * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} will look up the username for a user
+         * handle, or the user handle for a username, in the cache before querying the {@link CredentialRepository}, and
+         * will add the bindings it finds in the repository to the cache.
+         *
+         * <p>
+         * By default, this is not set.
+         * </p>
+         */
+        public RelyingPartyBuilder userIdentityCache(@NonNull UserIdentityCache userIdentityCache) {
+            return this.userIdentityCache(Optional.of(userIdentityCache));
+        }
     }
 }
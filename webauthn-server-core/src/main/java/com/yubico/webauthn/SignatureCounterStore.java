@@ -0,0 +1,313 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.data.ByteArray;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffers signature counter updates in memory and writes them to persistent storage in batches, in the background.
+ *
+ * <p>
+ * Updates for the same credential are coalesced: only the greatest signature count submitted since the last flush is
+ * written. Every {@link SignatureCounterStoreBuilder#flushInterval(Duration) flushInterval}, pending updates are passed
+ * to the {@link Sink}, at most {@link SignatureCounterStoreBuilder#maxBatchSize(int) maxBatchSize} at a time. If the
+ * {@link Sink} throws an exception, the batch is kept and retried at the next flush.
+ * </p>
+ *
+ * <p>
+ * When set as {@link RelyingParty.RelyingPartyBuilder#signatureCounterStore(SignatureCounterStore)
+ * signatureCounterStore}, {@link RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} submits the
+ * signature count of each successful assertion, and compares the signature count of each new assertion with the
+ * greatest of the {@link RegisteredCredential#getSignatureCount() stored signature count} and any pending update.
+ * The application then does not need to store the new signature count itself.
+ * </p>
+ *
+ * <p>
+ * Pending updates are lost if the process exits without calling {@link #close()}, so the stored signature counts may
+ * lag behind by up to one flush interval. Signature counts can then not detect a cloned authenticator used within that
+ * window.
+ * </p>
+ *
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+@Slf4j
+public final class SignatureCounterStore implements AutoCloseable {
+
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Writes signature counter updates to persistent storage.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Persist a batch of signature counter updates. Each update should only be applied if its signature count is
+         * greater than the stored one. The updates must be visible to {@link CredentialRepository#lookup(ByteArray,
+         * ByteArray)} when this method returns.
+         *
+         * <p>
+         * If this throws an exception, the same updates, or newer ones for the same credentials, will be passed again
+         * at the next flush.
+         * </p>
+         *
+         * @param updates at most one update per credential.
+         */
+        void write(List<Update> updates) throws Exception;
+    }
+
+    /**
+     * A new signature count for a credential.
+     */
+    @Value
+    public static class Update {
+        @NonNull private final ByteArray credentialId;
+        @NonNull private final ByteArray userHandle;
+        private final long signatureCount;
+    }
+
+    @Value
+    private static class Key {
+        private final ByteArray credentialId;
+        private final ByteArray userHandle;
+    }
+
+    private final Sink sink;
+    private final int maxBatchSize;
+    private final Optional<ScheduledExecutorService> scheduler;
+
+    /**
+     * Updates not yet passed to the {@link Sink}.
+     */
+    private final ConcurrentHashMap<Key, Long> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Updates being written by the {@link Sink}. Entries are added here before they are removed from {@link #pending},
+     * and removed only after the write succeeds or after they are restored to {@link #pending}.
+     */
+    private final ConcurrentHashMap<Key, Long> writing = new ConcurrentHashMap<>();
+
+    /**
+     * Held while updates that failed to write are moved from {@link #writing} back to {@link #pending}.
+     */
+    private final Object restoreLock = new Object();
+
+    /**
+     * @param flushInterval how often to flush pending updates. If zero, updates are only flushed by calling {@link
+     * #flush()} or {@link #close()}.
+     */
+    @Builder
+    private SignatureCounterStore(@NonNull Sink sink, @NonNull Duration flushInterval, int maxBatchSize) {
+        ExceptionUtil.assure(!flushInterval.isNegative(), "flushInterval must not be negative, was: %s", flushInterval);
+        ExceptionUtil.assure(maxBatchSize > 0, "maxBatchSize must be positive, was: %d", maxBatchSize);
+
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+
+        if (flushInterval.isZero()) {
+            this.scheduler = Optional.empty();
+        } else {
+            final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("webauthn-signature-counter-flush-%d")
+                    .setDaemon(true)
+                    .build()
+            );
+            final long intervalNanos = flushInterval.toNanos();
+            scheduler.scheduleWithFixedDelay(this::flushQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+            this.scheduler = Optional.of(scheduler);
+        }
+    }
+
+    public static class SignatureCounterStoreBuilder {
+        private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Submit a new signature count for a credential. If a greater signature count is already pending for the same
+     * credential, this has no effect.
+     */
+    public void update(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        pending.merge(new Key(credentialId, userHandle), signatureCount, Math::max);
+    }
+
+    /**
+     * @return the greatest signature count submitted for the credential that may not yet have been persisted, if any.
+     * If this returns empty, every update submitted before this call has been written by the {@link Sink}, so a
+     * signature count read from storage <em>after</em> this call is at least as great.
+     */
+    public Optional<Long> getSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        final Key key = new Key(credentialId, userHandle);
+        // Read in the opposite order of takeBatch, which adds to writing before removing from pending, so that an
+        // update moving between the two is seen in at least one of them
+        Long pendingCount = pending.get(key);
+        Long writingCount = writing.get(key);
+
+        if (pendingCount == null && writingCount == null) {
+            // An update restored to pending between the two reads above is in neither when read, so read both again
+            // while no update can move back
+            synchronized (restoreLock) {
+                pendingCount = pending.get(key);
+                writingCount = writing.get(key);
+            }
+        }
+
+        if (pendingCount == null) {
+            return Optional.ofNullable(writingCount);
+        } else if (writingCount == null) {
+            return Optional.of(pendingCount);
+        } else {
+            return Optional.of(Math.max(pendingCount, writingCount));
+        }
+    }
+
+    /**
+     * @return the number of credentials with pending updates.
+     */
+    public int getPendingCount() {
+        return pending.size() + writing.size();
+    }
+
+    /**
+     * Pass all pending updates to the {@link Sink} now.
+     *
+     * @throws Exception if the {@link Sink} throws an exception. The failed batch and any remaining updates stay pending.
+     */
+    public synchronized void flush() throws Exception {
+        try {
+            // Bound the number of batches, so that a steady stream of updates cannot keep this flush running forever
+            for (int remaining = pending.size(); remaining > 0 && !pending.isEmpty(); remaining -= maxBatchSize) {
+                writeBatch(takeBatch());
+            }
+        } finally {
+            restoreWriting();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.warn("Failed to write {} signature counter updates, will retry at the next flush.", getPendingCount(), e);
+        }
+    }
+
+    private List<Update> takeBatch() {
+        final List<Update> batch = new ArrayList<>(Math.min(maxBatchSize, pending.size()));
+        final Iterator<Map.Entry<Key, Long>> it = pending.entrySet().iterator();
+        while (batch.size() < maxBatchSize && it.hasNext()) {
+            final Map.Entry<Key, Long> entry = it.next();
+            final Key key = entry.getKey();
+            final long signatureCount = entry.getValue();
+
+            writing.put(key, signatureCount);
+            // If a newer update arrived meanwhile, leave it pending for the next batch
+            pending.remove(key, signatureCount);
+            batch.add(new Update(key.getCredentialId(), key.getUserHandle(), signatureCount));
+        }
+        return batch;
+    }
+
+    private void writeBatch(List<Update> batch) throws Exception {
+        sink.write(batch);
+        for (Update update : batch) {
+            writing.remove(new Key(update.getCredentialId(), update.getUserHandle()), update.getSignatureCount());
+        }
+    }
+
+    /**
+     * Move updates that failed to write back to {@link #pending}, before removing them from {@link #writing}.
+     */
+    private void restoreWriting() {
+        if (!writing.isEmpty()) {
+            synchronized (restoreLock) {
+                for (Map.Entry<Key, Long> entry : writing.entrySet()) {
+                    pending.merge(entry.getKey(), entry.getValue(), Math::max);
+                    writing.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop background flushing, wait for a background flush in progress to finish, then flush all pending updates.
+     *
+     * @throws IllegalStateException if a background flush is still running after one minute, or if the calling thread
+     * is interrupted while waiting for it. The calling thread's interrupt status is then set again, and the pending
+     * updates are not flushed.
+     * @throws RuntimeException if the {@link Sink} throws an exception. Checked exceptions are wrapped.
+     */
+    @Override
+    public void close() {
+        if (scheduler.isPresent()) {
+            scheduler.get().shutdown();
+            final boolean terminated;
+            try {
+                terminated = scheduler.get().awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(String.format(
+                    "Interrupted while waiting for a background flush, %d signature counter updates not written.",
+                    getPendingCount()
+                ), e);
+            }
+            if (!terminated) {
+                throw new IllegalStateException(String.format(
+                    "Background flush still running after 1 minute, %d signature counter updates not written.",
+                    getPendingCount()
+                ));
+            }
+        }
+
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to write signature counter updates", e);
+        }
+    }
+
+}
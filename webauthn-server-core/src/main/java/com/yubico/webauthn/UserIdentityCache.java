@@ -0,0 +1,153 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.data.ByteArray;
+import java.util.Optional;
+import lombok.NonNull;
+
+/**
+ * A bounded cache of the bindings between usernames and user handles, which lets {@link
+ * RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} identify the user without calling {@link
+ * CredentialRepository#getUsernameForUserHandle(ByteArray)} or {@link CredentialRepository#getUserHandleForUsername(String)}.
+ *
+ * <p>
+ * {@link RelyingParty#finishAssertion(FinishAssertionOptions) finishAssertion} adds each binding it looks up in the
+ * {@link CredentialRepository}. Only bindings returned by the repository are cached, never unknown usernames or user
+ * handles. Once full, the cache evicts the least recently used bindings.
+ * </p>
+ *
+ * <p>
+ * User handles never change, but usernames may. If a user is renamed or deleted, call {@link
+ * #invalidateUserHandle(ByteArray)} or {@link #invalidateUsername(String)}, otherwise assertions may report the old
+ * username until the binding is evicted. Every assertion still looks up the credential by credential ID and user
+ * handle, so a stale binding cannot authenticate a deleted user.
+ * </p>
+ *
+ * <p>
+ * Instances are thread safe.
+ * </p>
+ */
+public final class UserIdentityCache {
+
+    public static final long DEFAULT_MAX_SIZE = 100_000;
+
+    private final Cache<ByteArray, String> usernamesByUserHandle;
+    private final Cache<String, ByteArray> userHandlesByUsername;
+
+    private UserIdentityCache(long maxSize) {
+        ExceptionUtil.assure(maxSize > 0, "maxSize must be positive, was: %d", maxSize);
+        this.usernamesByUserHandle = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+        this.userHandlesByUsername = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+    }
+
+    /**
+     * Create an empty cache holding up to {@link #DEFAULT_MAX_SIZE} bindings.
+     */
+    public static UserIdentityCache create() {
+        return new UserIdentityCache(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create an empty cache holding up to <code>maxSize</code> bindings.
+     */
+    public static UserIdentityCache create(long maxSize) {
+        return new UserIdentityCache(maxSize);
+    }
+
+    /**
+     * @return the cached username bound to <code>userHandle</code>, if any.
+     */
+    public Optional<String> getUsername(@NonNull ByteArray userHandle) {
+        return Optional.ofNullable(usernamesByUserHandle.getIfPresent(userHandle));
+    }
+
+    /**
+     * @return the cached user handle bound to <code>username</code>, if any.
+     */
+    public Optional<ByteArray> getUserHandle(@NonNull String username) {
+        return Optional.ofNullable(userHandlesByUsername.getIfPresent(username));
+    }
+
+    /**
+     * Cache the binding between <code>username</code> and <code>userHandle</code>, replacing any cached binding of
+     * either.
+     */
+    public void put(@NonNull String username, @NonNull ByteArray userHandle) {
+        final String previousUsername = usernamesByUserHandle.getIfPresent(userHandle);
+        if (previousUsername != null && !previousUsername.equals(username)) {
+            userHandlesByUsername.invalidate(previousUsername);
+        }
+        final ByteArray previousUserHandle = userHandlesByUsername.getIfPresent(username);
+        if (previousUserHandle != null && !previousUserHandle.equals(userHandle)) {
+            usernamesByUserHandle.invalidate(previousUserHandle);
+        }
+
+        usernamesByUserHandle.put(userHandle, username);
+        userHandlesByUsername.put(username, userHandle);
+    }
+
+    /**
+     * Remove the cached binding of <code>userHandle</code>, if any, for example when the user is renamed or deleted.
+     */
+    public void invalidateUserHandle(@NonNull ByteArray userHandle) {
+        final String username = usernamesByUserHandle.getIfPresent(userHandle);
+        usernamesByUserHandle.invalidate(userHandle);
+        if (username != null) {
+            userHandlesByUsername.invalidate(username);
+        }
+    }
+
+    /**
+     * Remove the cached binding of <code>username</code>, if any, for example when the user is renamed or deleted.
+     */
+    public void invalidateUsername(@NonNull String username) {
+        final ByteArray userHandle = userHandlesByUsername.getIfPresent(username);
+        userHandlesByUsername.invalidate(username);
+        if (userHandle != null) {
+            usernamesByUserHandle.invalidate(userHandle);
+        }
+    }
+
+    /**
+     * Remove all cached bindings.
+     */
+    public void invalidateAll() {
+        usernamesByUserHandle.invalidateAll();
+        userHandlesByUsername.invalidateAll();
+    }
+
+    /**
+     * @return the approximate number of cached user handles.
+     */
+    public long size() {
+        return usernamesByUserHandle.size();
+    }
+
+}
@@ -25,7 +25,7 @@
 package com.yubico.webauthn;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.yubico.internal.util.CertificateParser;
+import com.yubico.internal.util.CertificateCache;
 import com.yubico.webauthn.data.AttestationObject;
 import java.io.IOException;
 import java.security.cert.CertificateException;
@@ -50,7 +50,7 @@ interface X5cAttestationStatementVerifier {
             for (JsonNode binary : x5cNode) {
                 if (binary.isBinary()) {
                     try {
-                        certs.add(CertificateParser.parseDer(binary.binaryValue()));
+                        certs.add(CertificateCache.getDefault().parseDer(binary.binaryValue()));
                     } catch (IOException e) {
                         throw new RuntimeException("binary.isBinary() was true but binary.binaryValue() failed", e);
                     }
@@ -108,11 +108,13 @@ public class AuthenticatorData {
     public AuthenticatorData(@NonNull ByteArray bytes) {
         ExceptionUtil.assure(
             bytes.size() >= FIXED_LENGTH_PART_END_INDEX,
-            "%s byte array must be at least %d bytes, was %d: %s",
-            AuthenticatorData.class.getSimpleName(),
-            FIXED_LENGTH_PART_END_INDEX,
-            bytes.size(),
-            bytes.getBase64Url()
+            () -> String.format(
+                "%s byte array must be at least %d bytes, was %d: %s",
+                AuthenticatorData.class.getSimpleName(),
+                FIXED_LENGTH_PART_END_INDEX,
+                bytes.size(),
+                bytes.getBase64Url()
+            )
         );
 
         this.bytes = bytes;
@@ -161,10 +163,12 @@ public class AuthenticatorData {
 
         ExceptionUtil.assure(
             bytes.length >= CREDENTIAL_ID_LENGTH_END,
-            "Attested credential data must contain at least %d bytes, was %d: %s",
-            CREDENTIAL_ID_LENGTH_END,
-            bytes.length,
-            new ByteArray(bytes).getHex()
+            () -> String.format(
+                "Attested credential data must contain at least %d bytes, was %d: %s",
+                CREDENTIAL_ID_LENGTH_END,
+                bytes.length,
+                new ByteArray(bytes).getHex()
+            )
         );
 
         byte[] credentialIdLengthBytes = Arrays.copyOfRange(bytes, CREDENTIAL_ID_LENGTH_INDEX, CREDENTIAL_ID_LENGTH_END);
@@ -184,10 +188,12 @@ public class AuthenticatorData {
 
         ExceptionUtil.assure(
             bytes.length >= CREDENTIAL_ID_END,
-            "Expected credential ID of length %d, but attested credential data and extension data is only %d bytes: %s",
-            CREDENTIAL_ID_END,
-            bytes.length,
-            new ByteArray(bytes).getHex()
+            () -> String.format(
+                "Expected credential ID of length %d, but attested credential data and extension data is only %d bytes: %s",
+                CREDENTIAL_ID_END,
+                bytes.length,
+                new ByteArray(bytes).getHex()
+            )
         );
 
         ByteArrayInputStream indefiniteLengthBytes = new ByteArrayInputStream(
@@ -29,7 +29,6 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.yubico.internal.util.json.JsonStringSerializable;
 import com.yubico.internal.util.json.JsonStringSerializer;
-import java.util.stream.Stream;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.NonNull;
@@ -95,10 +94,14 @@ public class AuthenticatorTransport implements Comparable<AuthenticatorTransport
      */
     @JsonCreator
     public static AuthenticatorTransport of(@NonNull String id) {
-        return Stream.of(values())
-            .filter(v -> v.getId().equals(id))
-            .findAny()
-            .orElseGet(() -> new AuthenticatorTransport(id));
+        switch (id) {
+            case "usb": return USB;
+            case "nfc": return NFC;
+            case "ble": return BLE;
+            case "internal": return INTERNAL;
+        default:
+            return new AuthenticatorTransport(id);
+        }
     }
 
     /**
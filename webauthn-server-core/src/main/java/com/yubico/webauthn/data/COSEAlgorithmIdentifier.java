@@ -29,7 +29,6 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.yubico.internal.util.json.JsonLongSerializable;
 import com.yubico.internal.util.json.JsonLongSerializer;
 import java.util.Optional;
-import java.util.stream.Stream;
 import lombok.Getter;
 
 /**
@@ -53,8 +52,27 @@ public enum COSEAlgorithmIdentifier implements JsonLongSerializable {
         this.id = id;
     }
 
+    private static final Optional<COSEAlgorithmIdentifier> OPTIONAL_EdDSA = Optional.of(EdDSA);
+    private static final Optional<COSEAlgorithmIdentifier> OPTIONAL_ES256 = Optional.of(ES256);
+    private static final Optional<COSEAlgorithmIdentifier> OPTIONAL_RS256 = Optional.of(RS256);
+    private static final Optional<COSEAlgorithmIdentifier> OPTIONAL_RS1 = Optional.of(RS1);
+
+    /**
+     * @return The constant whose {@link #getId() id} is <code>id</code>, if any. The same {@link Optional} instance is
+     * returned for each constant, so this does not allocate.
+     */
     public static Optional<COSEAlgorithmIdentifier> fromId(long id) {
-        return Stream.of(values()).filter(v -> v.id == id).findAny();
+        if (id == ES256.id) {
+            return OPTIONAL_ES256;
+        } else if (id == EdDSA.id) {
+            return OPTIONAL_EdDSA;
+        } else if (id == RS256.id) {
+            return OPTIONAL_RS256;
+        } else if (id == RS1.id) {
+            return OPTIONAL_RS1;
+        } else {
+            return Optional.empty();
+        }
     }
 
     @JsonCreator
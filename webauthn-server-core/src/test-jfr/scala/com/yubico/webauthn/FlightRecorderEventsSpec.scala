@@ -0,0 +1,169 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import java.nio.file.Files
+
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.exception.AssertionFailedException
+import com.yubico.webauthn.test.Helpers
+import com.yubico.webauthn.test.RealExamples
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordedEvent
+import jdk.jfr.consumer.RecordingFile
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class FlightRecorderEventsSpec extends FunSpec with Matchers {
+
+  private val testData = RealExamples.YubiKey5
+
+  private val EventNames = List(
+    "com.yubico.webauthn.Ceremony",
+    "com.yubico.webauthn.CredentialRepository",
+    "com.yubico.webauthn.SignatureVerification",
+    "com.yubico.webauthn.TrustResolution",
+  )
+
+  private def record(f: => Any): List[RecordedEvent] = {
+    val recording = new Recording()
+    try {
+      EventNames.foreach(recording.enable(_).withoutThreshold())
+      recording.start()
+      f
+      recording.stop()
+
+      val file = Files.createTempFile("webauthn-", ".jfr")
+      try {
+        recording.dump(file)
+        RecordingFile.readAllEvents(file).asScala.toList
+      } finally {
+        Files.delete(file)
+      }
+    } finally {
+      recording.close()
+    }
+  }
+
+  private def named(events: List[RecordedEvent], name: String): List[RecordedEvent] =
+    events.filter(_.getEventType.getName == name)
+
+  private def newRp(credentialRepo: CredentialRepository): RelyingParty =
+    RelyingParty.builder()
+      .identity(testData.rp)
+      .credentialRepository(credentialRepo)
+      .build()
+
+  private def register(): RegistrationResult =
+    newRp(Helpers.CredentialRepository.empty).finishRegistration(FinishRegistrationOptions.builder()
+      .request(PublicKeyCredentialCreationOptions.builder()
+        .rp(testData.rp)
+        .user(testData.user)
+        .challenge(testData.attestation.challenge)
+        .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+        .build())
+      .response(testData.attestation.credential)
+      .build())
+
+  private def authenticate(registrationResult: RegistrationResult, challenge: ByteArray): AssertionResult =
+    newRp(
+      Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult))
+    ).finishAssertion(FinishAssertionOptions.builder()
+      .request(AssertionRequest.builder()
+        .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+          .challenge(challenge)
+          .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+          .build())
+        .username(testData.user.getName)
+        .build())
+      .response(testData.assertion.credential)
+      .build())
+
+  describe("FlightRecorderEvents") {
+
+    it("uses the JFR implementation when the jdk.jfr module is available.") {
+      FlightRecorderEvents.INSTANCE should not be theSameInstanceAs (FlightRecorderEvents.NOOP)
+    }
+
+    it("does not create events when no recording is running.") {
+      FlightRecorderEvents.INSTANCE.ceremony(CeremonyObserver.CeremonyType.ASSERTION) should be theSameInstanceAs (FlightRecorderEvents.Span.NOOP)
+      FlightRecorderEvents.INSTANCE.signatureVerification(-7) should be theSameInstanceAs (FlightRecorderEvents.Span.NOOP)
+    }
+
+    it("records a successful registration with its credential algorithm.") {
+      val events = record { register() }
+      val ceremonies = named(events, "com.yubico.webauthn.Ceremony")
+
+      ceremonies should have size 1
+      ceremonies.head.getString("ceremony") should equal ("REGISTRATION")
+      ceremonies.head.getBoolean("success") should be (true)
+      ceremonies.head.getLong("algorithm") should equal (-7)
+    }
+
+    it("records a successful assertion with its credential algorithm, repository calls and signature verification.") {
+      val registrationResult = register()
+      val events = record { authenticate(registrationResult, testData.assertion.challenge) }
+      val ceremonies = named(events, "com.yubico.webauthn.Ceremony")
+      val repositoryCalls = named(events, "com.yubico.webauthn.CredentialRepository")
+      val verifications = named(events, "com.yubico.webauthn.SignatureVerification")
+
+      ceremonies should have size 1
+      ceremonies.head.getString("ceremony") should equal ("ASSERTION")
+      ceremonies.head.getBoolean("success") should be (true)
+      ceremonies.head.getLong("algorithm") should equal (-7)
+
+      repositoryCalls.map(_.getString("operation")) should contain ("lookup")
+      repositoryCalls.map(_.getBoolean("success")).toSet should equal (Set(true))
+
+      verifications should have size 1
+      verifications.head.getLong("algorithm") should equal (-7)
+      verifications.head.getBoolean("success") should be (true)
+    }
+
+    it("records a failed assertion.") {
+      val registrationResult = register()
+      val events = record {
+        an [AssertionFailedException] should be thrownBy authenticate(registrationResult, ByteArray.fromHex("00"))
+      }
+      val ceremonies = named(events, "com.yubico.webauthn.Ceremony")
+
+      ceremonies should have size 1
+      ceremonies.head.getString("ceremony") should equal ("ASSERTION")
+      ceremonies.head.getBoolean("success") should be (false)
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import java.lang.management.ManagementFactory
+import java.security.KeyPair
+import java.security.interfaces.ECPublicKey
+import java.security.interfaces.RSAPublicKey
+import java.util.Collections
+import java.util.Optional
+import java.util.Properties
+
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.data.RelyingPartyIdentity
+import org.bouncycastle.jcajce.provider.asymmetric.edec.BCEdDSAPublicKey
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+
+/**
+ * Fails when a warmed-up [[RelyingParty.finishAssertion]] call allocates more bytes than the budget for its credential
+ * algorithm in `allocation-budgets.properties`.
+ *
+ * Budgets are only enforced when the system property `com.yubico.webauthn.enforceAllocationBudgets` is `true`, as it is
+ * in the Gradle `test` task; otherwise the figures are only reported. This keeps the spec from failing under
+ * instrumenting runners such as PIT.
+ */
+@RunWith(classOf[JUnitRunner])
+class AllocationBudgetSpec extends FunSpec with Matchers {
+
+  private val WarmupCalls = 5000
+  private val MeasurementRounds = 5
+  private val CallsPerRound = 200
+
+  private val enforce = java.lang.Boolean.getBoolean("com.yubico.webauthn.enforceAllocationBudgets")
+
+  private val budgets: Properties = {
+    val props = new Properties()
+    val in = getClass.getResourceAsStream("/allocation-budgets.properties")
+    try props.load(in) finally in.close()
+    props
+  }
+
+  private val threadMxBean: Option[com.sun.management.ThreadMXBean] = ManagementFactory.getThreadMXBean match {
+    case bean: com.sun.management.ThreadMXBean if bean.isThreadAllocatedMemorySupported =>
+      bean.setThreadAllocatedMemoryEnabled(true)
+      Some(bean)
+    case _ => None
+  }
+
+  /**
+   * A repository which returns preallocated results, so that its own allocations do not count against the budget.
+   */
+  private class FixedCredentialRepository(username: String, credential: RegisteredCredential) extends CredentialRepository {
+    private val credentialIds = Collections.singleton(PublicKeyCredentialDescriptor.builder().id(credential.getCredentialId).build())
+    private val someUserHandle = Optional.of(credential.getUserHandle)
+    private val someUsername = Optional.of(username)
+    private val someCredential = Optional.of(credential)
+    private val allCredentials = Collections.singleton(credential)
+
+    override def getCredentialIdsForUsername(un: String): java.util.Set[PublicKeyCredentialDescriptor] =
+      if (un == username) credentialIds else Collections.emptySet()
+    override def getUserHandleForUsername(un: String): Optional[ByteArray] =
+      if (un == username) someUserHandle else Optional.empty()
+    override def getUsernameForUserHandle(userHandle: ByteArray): Optional[String] =
+      if (userHandle == credential.getUserHandle) someUsername else Optional.empty()
+    override def lookup(credentialId: ByteArray, userHandle: ByteArray): Optional[RegisteredCredential] =
+      if (credentialId == credential.getCredentialId && userHandle == credential.getUserHandle) someCredential else Optional.empty()
+    override def lookupAll(credentialId: ByteArray): java.util.Set[RegisteredCredential] =
+      if (credentialId == credential.getCredentialId) allCredentials else Collections.emptySet()
+  }
+
+  private def publicKeyCose(keypair: KeyPair, alg: COSEAlgorithmIdentifier): ByteArray = keypair.getPublic match {
+    case pub: ECPublicKey => WebAuthnTestCodecs.ecPublicKeyToCose(pub)
+    case pub: BCEdDSAPublicKey => WebAuthnTestCodecs.eddsaPublicKeyToCose(pub)
+    case pub: RSAPublicKey => WebAuthnTestCodecs.rsaPublicKeyToCose(pub, alg)
+  }
+
+  private def finishAssertionFixture(alg: COSEAlgorithmIdentifier): () => AssertionResult = {
+    val username = "alice"
+    val keypair = TestAuthenticator.generateKeypair(alg)
+    val credential = RegisteredCredential.builder()
+      .credentialId(TestAuthenticator.Defaults.credentialId)
+      .userHandle(ByteArray.fromHex("01020304"))
+      .publicKeyCose(publicKeyCose(keypair, alg))
+      .signatureCount(0)
+      .build()
+
+    val rp = RelyingParty.builder()
+      .identity(RelyingPartyIdentity.builder().id(TestAuthenticator.Defaults.rpId).name("Test party").build())
+      .credentialRepository(new FixedCredentialRepository(username, credential))
+      .build()
+
+    val options = FinishAssertionOptions.builder()
+      .request(AssertionRequest.builder()
+        .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+          .challenge(TestAuthenticator.Defaults.challenge)
+          .rpId(TestAuthenticator.Defaults.rpId)
+          .build())
+        .username(username)
+        .build())
+      .response(TestAuthenticator.createAssertion(alg = alg, credentialKey = keypair))
+      .build()
+
+    () => rp.finishAssertion(options)
+  }
+
+  private def allocatedBytesPerCall(bean: com.sun.management.ThreadMXBean, f: () => Any): Long = {
+    val threadId = Thread.currentThread.getId
+    var i = 0
+    while (i < WarmupCalls) {
+      f()
+      i += 1
+    }
+
+    // Take the least of several rounds, so that one-off allocations such as
+    // class loading or a late JIT compilation do not count.
+    var best = Long.MaxValue
+    var round = 0
+    while (round < MeasurementRounds) {
+      val before = bean.getThreadAllocatedBytes(threadId)
+      var call = 0
+      while (call < CallsPerRound) {
+        f()
+        call += 1
+      }
+      best = Math.min(best, (bean.getThreadAllocatedBytes(threadId) - before) / CallsPerRound)
+      round += 1
+    }
+    best
+  }
+
+  describe("RelyingParty.finishAssertion") {
+    for { alg <- List(COSEAlgorithmIdentifier.ES256, COSEAlgorithmIdentifier.EdDSA, COSEAlgorithmIdentifier.RS256) } {
+      it(s"stays within its allocation budget for ${alg} credentials.") {
+        assume(threadMxBean.isDefined, "Thread allocation measurement is not supported by this JVM.")
+
+        val fixture = finishAssertionFixture(alg)
+        fixture().isSuccess should be (true)
+
+        val budget = budgets.getProperty(s"finishAssertion.${alg.name}").toLong
+        val allocated = allocatedBytesPerCall(threadMxBean.get, fixture)
+        info(s"${alg} finishAssertion allocated ${allocated} bytes per call, budget ${budget} bytes.")
+
+        if (enforce) {
+          withClue(s"${alg} finishAssertion allocated ${allocated} bytes per call, over its budget of ${budget} bytes in allocation-budgets.properties:") {
+            allocated should be <= budget
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import com.yubico.webauthn.CeremonyObserver.CeremonyType
+import com.yubico.webauthn.CeremonyObserver.Outcome
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.exception.AssertionFailedException
+import com.yubico.webauthn.test.Helpers
+import com.yubico.webauthn.test.RealExamples
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class CeremonyObserverSpec extends FunSpec with Matchers {
+
+  private val testData = RealExamples.YubiKey5
+
+  private class RecordingObserver extends CeremonyObserver {
+    var started: List[(CeremonyType, Int)] = Nil
+    var finished: List[(CeremonyType, Int, Outcome)] = Nil
+
+    override def stepStarted(ceremonyType: CeremonyType, step: Int): Unit = {
+      started = started :+ ((ceremonyType, step))
+    }
+
+    override def stepFinished(ceremonyType: CeremonyType, step: Int, outcome: Outcome, durationNanos: Long): Unit = {
+      durationNanos should be >= 0L
+      finished = finished :+ ((ceremonyType, step, outcome))
+    }
+  }
+
+  private def newRp(credentialRepo: CredentialRepository, observer: CeremonyObserver): RelyingParty =
+    RelyingParty.builder()
+      .identity(testData.rp)
+      .credentialRepository(credentialRepo)
+      .ceremonyObserver(observer)
+      .build()
+
+  private def register(observer: CeremonyObserver): RegistrationResult =
+    newRp(Helpers.CredentialRepository.empty, observer).finishRegistration(FinishRegistrationOptions.builder()
+      .request(PublicKeyCredentialCreationOptions.builder()
+        .rp(testData.rp)
+        .user(testData.user)
+        .challenge(testData.attestation.challenge)
+        .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+        .build())
+      .response(testData.attestation.credential)
+      .build())
+
+  private def authenticate(registrationResult: RegistrationResult, challenge: ByteArray, observer: CeremonyObserver): AssertionResult =
+    newRp(
+      Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult)),
+      observer
+    ).finishAssertion(FinishAssertionOptions.builder()
+      .request(AssertionRequest.builder()
+        .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+          .challenge(challenge)
+          .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+          .build())
+        .username(testData.user.getName)
+        .build())
+      .response(testData.assertion.credential)
+      .build())
+
+  describe("A CeremonyObserver") {
+
+    it("is notified of every registration step in order.") {
+      val observer = new RecordingObserver
+      register(observer)
+
+      observer.started should equal ((1 to 20).map((CeremonyType.REGISTRATION, _)).toList)
+      observer.finished should equal ((1 to 20).map((CeremonyType.REGISTRATION, _, Outcome.SUCCESS)).toList)
+    }
+
+    it("is notified of every assertion step in order.") {
+      val registrationResult = register(CeremonyObserver.NOOP)
+      val observer = new RecordingObserver
+      authenticate(registrationResult, testData.assertion.challenge, observer)
+
+      observer.started should equal ((0 to 17).map((CeremonyType.ASSERTION, _)).toList)
+      observer.finished should equal ((0 to 17).map((CeremonyType.ASSERTION, _, Outcome.SUCCESS)).toList)
+    }
+
+    it("is notified of the step that failed, and no steps after it.") {
+      val registrationResult = register(CeremonyObserver.NOOP)
+      val observer = new RecordingObserver
+
+      an [AssertionFailedException] should be thrownBy authenticate(registrationResult, ByteArray.fromHex("00"), observer)
+
+      observer.finished should not be empty
+      observer.finished.init.map(_._3).toSet should equal (Set(Outcome.SUCCESS))
+      observer.finished.last._3 should equal (Outcome.FAILURE)
+      observer.started.map(_._2) should equal (observer.finished.map(_._2))
+    }
+  }
+
+  describe("The HdrHistogramCeremonyObserver") {
+    it("records one duration per step.") {
+      val observer = new HdrHistogramCeremonyObserver()
+      val registrationResult = register(observer)
+      authenticate(registrationResult, testData.assertion.challenge, observer)
+
+      observer.getIntervalHistogram(CeremonyType.REGISTRATION, 1, Outcome.SUCCESS).get.getTotalCount should equal (1)
+      observer.getIntervalHistogram(CeremonyType.ASSERTION, 16, Outcome.SUCCESS).get.getTotalCount should equal (1)
+      observer.getIntervalHistogram(CeremonyType.ASSERTION, 16, Outcome.SUCCESS).get.getTotalCount should equal (0)
+      observer.getIntervalHistogram(CeremonyType.ASSERTION, 16, Outcome.FAILURE).isPresent should be (false)
+      observer.getIntervalHistograms.size should equal (20 + 18)
+    }
+  }
+
+}
@@ -0,0 +1,154 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+
+package com.yubico.webauthn
+
+import java.security.cert.X509Certificate
+import java.util.Optional
+
+import com.yubico.webauthn.attestation.Attestation
+import com.yubico.webauthn.attestation.MetadataService
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.test.Helpers
+import com.yubico.webauthn.test.RealExamples
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class CeremonyTimingsSpec extends FunSpec with Matchers {
+
+  private val testData = RealExamples.YubiKey5
+
+  private def newRp(credentialRepo: CredentialRepository, collectCeremonyTimings: Boolean, metadataService: Option[MetadataService] = None): RelyingParty =
+    RelyingParty.builder()
+      .identity(testData.rp)
+      .credentialRepository(credentialRepo)
+      .metadataService(metadataService.fold(Optional.empty[MetadataService]())(Optional.of(_)))
+      .collectCeremonyTimings(collectCeremonyTimings)
+      .build()
+
+  private def register(collectCeremonyTimings: Boolean, metadataService: Option[MetadataService] = None): RegistrationResult =
+    newRp(Helpers.CredentialRepository.empty, collectCeremonyTimings, metadataService).finishRegistration(FinishRegistrationOptions.builder()
+      .request(PublicKeyCredentialCreationOptions.builder()
+        .rp(testData.rp)
+        .user(testData.user)
+        .challenge(testData.attestation.challenge)
+        .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+        .build())
+      .response(testData.attestation.credential)
+      .build())
+
+  private def authenticate(registrationResult: RegistrationResult, collectCeremonyTimings: Boolean): AssertionResult =
+    newRp(
+      Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult)),
+      collectCeremonyTimings
+    ).finishAssertion(FinishAssertionOptions.builder()
+      .request(AssertionRequest.builder()
+        .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+          .challenge(testData.assertion.challenge)
+          .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+          .build())
+        .username(testData.user.getName)
+        .build())
+      .response(testData.assertion.credential)
+      .build())
+
+  private def checkConsistent(timings: CeremonyTimings): Unit = {
+    timings.getTotalNanos should be > 0L
+    timings.getRepositoryNanos should be >= 0L
+    timings.getCryptoNanos should be >= 0L
+    timings.getMetadataNanos should be >= 0L
+    timings.getTotalNanos should be >= (timings.getRepositoryNanos + timings.getCryptoNanos + timings.getMetadataNanos)
+  }
+
+  describe("CeremonyTimings") {
+
+    it("are not collected by default.") {
+      val registrationResult = register(collectCeremonyTimings = false)
+      val assertionResult = authenticate(registrationResult, collectCeremonyTimings = false)
+
+      registrationResult.getCeremonyTimings.isPresent should be (false)
+      assertionResult.getCeremonyTimings.isPresent should be (false)
+    }
+
+    it("are collected for registrations if enabled.") {
+      val timings = register(collectCeremonyTimings = true).getCeremonyTimings.get
+
+      checkConsistent(timings)
+      timings.getRepositoryRoundTrips should equal (1)
+      timings.getCryptoNanos should be > 0L
+      timings.getMetadataNanos should equal (0L)
+    }
+
+    it("attribute the metadata service lookup to metadata time.") {
+      val delayMillis = 20
+      val slowMetadataService = new MetadataService {
+        override def getAttestation(attestationCertificateChain: java.util.List[X509Certificate]): Attestation = {
+          Thread.sleep(delayMillis)
+          Attestation.builder().trusted(false).build()
+        }
+      }
+      val timings = register(collectCeremonyTimings = true, Some(slowMetadataService)).getCeremonyTimings.get
+
+      checkConsistent(timings)
+      timings.getMetadataNanos should be >= (delayMillis * 1000000L)
+      timings.getCryptoNanos should be < (delayMillis * 1000000L)
+    }
+
+    it("are collected for assertions if enabled.") {
+      val registrationResult = register(collectCeremonyTimings = false)
+      val timings = authenticate(registrationResult, collectCeremonyTimings = true).getCeremonyTimings.get
+
+      checkConsistent(timings)
+      timings.getRepositoryRoundTrips should be > 0
+      timings.getCryptoNanos should be > 0L
+      timings.getMetadataNanos should equal (0L)
+    }
+
+    it("are not attributed to a finished ceremony.") {
+      authenticate(register(collectCeremonyTimings = true), collectCeremonyTimings = true)
+
+      CeremonyTimer.crypto(FlightRecorderEvents.Span.NOOP) should be theSameInstanceAs (FlightRecorderEvents.Span.NOOP)
+      CeremonyTimer.metadata(FlightRecorderEvents.Span.NOOP) should be theSameInstanceAs (FlightRecorderEvents.Span.NOOP)
+    }
+
+    it("do not change the rest of the result.") {
+      val registrationResult = register(collectCeremonyTimings = false)
+      val withTimings = register(collectCeremonyTimings = true)
+
+      withTimings.toBuilder.ceremonyTimings(java.util.Optional.empty()).build() should equal (registrationResult)
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.exception.AssertionFailedException
+import com.yubico.webauthn.exception.RegistrationFailedException
+import com.yubico.webauthn.test.Helpers
+import com.yubico.webauthn.test.RealExamples
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+
+@RunWith(classOf[JUnitRunner])
+class CredentialIdFilterSpec extends FunSpec with Matchers {
+
+  private val testData = RealExamples.YubiKey5
+
+  private def randomIds(count: Int, seed: Long): List[ByteArray] = {
+    val random = new Random(seed)
+    List.fill(count)(new ByteArray(random.nextBytes(32)))
+  }
+
+  private def newRp(credentialRepo: CredentialRepository, filter: CredentialIdFilter): RelyingParty =
+    RelyingParty.builder()
+      .identity(testData.rp)
+      .credentialRepository(credentialRepo)
+      .credentialIdFilter(filter)
+      .build()
+
+  private def register(credentialRepo: CredentialRepository, filter: CredentialIdFilter): RegistrationResult =
+    newRp(credentialRepo, filter).finishRegistration(FinishRegistrationOptions.builder()
+      .request(PublicKeyCredentialCreationOptions.builder()
+        .rp(testData.rp)
+        .user(testData.user)
+        .challenge(testData.attestation.challenge)
+        .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+        .build())
+      .response(testData.attestation.credential)
+      .build())
+
+  private def authenticate(credentialRepo: CredentialRepository, filter: CredentialIdFilter): AssertionResult =
+    newRp(credentialRepo, filter).finishAssertion(FinishAssertionOptions.builder()
+      .request(AssertionRequest.builder()
+        .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+          .challenge(testData.assertion.challenge)
+          .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+          .build())
+        .username(testData.user.getName)
+        .build())
+      .response(testData.assertion.credential)
+      .build())
+
+  describe("CredentialIdFilter") {
+
+    it("contains every added credential ID.") {
+      val ids = randomIds(10000, 0)
+      val filter = CredentialIdFilter.create(10000, 0.01, ids.iterator.asJava)
+
+      ids.forall(filter.mightContain) should be (true)
+    }
+
+    it("has about the configured false positive rate when full.") {
+      val filter = CredentialIdFilter.create(10000, 0.01, randomIds(10000, 0).iterator.asJava)
+      val falsePositives = randomIds(100000, 1).count(filter.mightContain)
+
+      falsePositives should be < 2000
+      filter.getCurrentFalsePositiveRate should be < 0.02
+      filter.getApproximateCredentialCount should be (10000L +- 500L)
+    }
+
+    it("rejects invalid parameters.") {
+      an [IllegalArgumentException] should be thrownBy CredentialIdFilter.create(0, 0.01)
+      an [IllegalArgumentException] should be thrownBy CredentialIdFilter.create(100, 0)
+      an [IllegalArgumentException] should be thrownBy CredentialIdFilter.create(100, 1)
+    }
+
+    it("estimates its size.") {
+      CredentialIdFilter.sizeInBytes(100000000, 0.01) should be (120000000L +- 1000000L)
+      CredentialIdFilter.sizeInBytes(100000000, 0.001) should be (180000000L +- 1000000L)
+    }
+
+    describe("rebuild") {
+      it("replaces the contents of the filter.") {
+        val (kept, removed) = randomIds(2000, 0).splitAt(1000)
+        val filter = CredentialIdFilter.create(1000, 0.0001, (kept ++ removed).iterator.asJava)
+
+        filter.rebuild(kept.iterator.asJava)
+
+        kept.forall(filter.mightContain) should be (true)
+        removed.count(filter.mightContain) should be < 10
+      }
+
+      it("keeps credential IDs added while it runs.") {
+        val existing = randomIds(1000, 0)
+        val added = randomIds(1000, 1)
+        val filter = CredentialIdFilter.create(2000, 0.01, existing.iterator.asJava)
+        val addedIterator = added.iterator
+
+        filter.rebuild(existing.iterator.map(id => {
+          if (addedIterator.hasNext) {
+            filter.add(addedIterator.next())
+          }
+          id
+        }).asJava)
+
+        existing.forall(filter.mightContain) should be (true)
+        added.forall(filter.mightContain) should be (true)
+      }
+    }
+
+    describe("in RelyingParty") {
+      it("rejects assertions with unknown credential IDs without querying the credential repository.") {
+        val filter = CredentialIdFilter.create(100, 0.0001, randomIds(100, 0).iterator.asJava)
+
+        an [AssertionFailedException] should be thrownBy authenticate(Helpers.CredentialRepository.unimplemented, filter)
+      }
+
+      it("accepts assertions for credential IDs the application added after registration.") {
+        val filter = CredentialIdFilter.create(100, 0.0001)
+        val registrationResult = register(Helpers.CredentialRepository.empty, filter)
+
+        filter.mightContain(registrationResult.getKeyId.getId) should be (false)
+        filter.add(registrationResult.getKeyId.getId)
+
+        val assertionResult = authenticate(
+          Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult)),
+          filter
+        )
+        assertionResult.isSuccess should be (true)
+      }
+
+      it("does not skip the duplicate check at registration when the filter does not contain the credential ID.") {
+        val registrationResult = register(Helpers.CredentialRepository.empty, CredentialIdFilter.create(100, 0.0001))
+        val staleFilter = CredentialIdFilter.create(100, 0.0001)
+
+        a [RegistrationFailedException] should be thrownBy register(
+          Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult)),
+          staleFilter
+        )
+      }
+
+      it("still detects already registered credential IDs.") {
+        val registrationResult = register(Helpers.CredentialRepository.empty, CredentialIdFilter.create(100, 0.0001))
+        val filter = CredentialIdFilter.create(100, 0.0001, List(registrationResult.getKeyId.getId).iterator.asJava)
+
+        a [RegistrationFailedException] should be thrownBy register(
+          Helpers.CredentialRepository.withUser(testData.user, Helpers.toRegisteredCredential(testData.user, registrationResult)),
+          filter
+        )
+      }
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import com.yubico.webauthn.CredentialRepositoryMetrics.Operation
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.UserIdentity
+import com.yubico.webauthn.test.Helpers
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class MeteredCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private val user = UserIdentity.builder()
+    .name("alice")
+    .displayName("Alice")
+    .id(ByteArray.fromHex("01020304"))
+    .build()
+
+  private val credential = RegisteredCredential.builder()
+    .credentialId(ByteArray.fromHex("aabbcc"))
+    .userHandle(user.getId)
+    .publicKeyCose(ByteArray.fromHex("00"))
+    .build()
+
+  describe("A MeteredCredentialRepository") {
+
+    it("returns the results of the wrapped repository.") {
+      val metered = new MeteredCredentialRepository(Helpers.CredentialRepository.withUser(user, credential), new InMemoryCredentialRepositoryMetrics)
+
+      metered.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(credential.getCredentialId))
+      metered.getUserHandleForUsername("alice").get should equal (user.getId)
+      metered.getUsernameForUserHandle(user.getId).get should equal ("alice")
+      metered.lookup(credential.getCredentialId, user.getId).get should equal (credential)
+      metered.lookupAll(credential.getCredentialId).asScala should equal (Set(credential))
+    }
+
+    it("records call counts and result sizes per operation.") {
+      val metrics = new InMemoryCredentialRepositoryMetrics
+      val metered = new MeteredCredentialRepository(Helpers.CredentialRepository.withUser(user, credential), metrics)
+
+      metered.getCredentialIdsForUsername("alice")
+      metered.getCredentialIdsForUsername("bob")
+      metered.lookup(credential.getCredentialId, user.getId)
+      metered.lookupAll(credential.getCredentialId)
+      metered.lookupAll(credential.getCredentialId)
+      metered.lookupAll(ByteArray.fromHex("00"))
+
+      val getIds = metrics.getSnapshot(Operation.GET_CREDENTIAL_IDS_FOR_USERNAME)
+      getIds.getCallCount should equal (2)
+      getIds.getFailureCount should equal (0)
+      getIds.getResultSize.getSum should equal (1)
+      getIds.getResultSize.getMax should equal (1)
+
+      val lookupAll = metrics.getSnapshot(Operation.LOOKUP_ALL)
+      lookupAll.getCallCount should equal (3)
+      lookupAll.getResultSize.getSum should equal (2)
+      lookupAll.getResultSize.getMean should equal (2.0 / 3)
+
+      metrics.getSnapshot(Operation.LOOKUP).getCallCount should equal (1)
+      metrics.getSnapshot(Operation.GET_USER_HANDLE_FOR_USERNAME).getCallCount should equal (0)
+      metrics.getSnapshots.asScala.values.map(_.getCallCount).sum should equal (6)
+    }
+
+    it("records failures and rethrows the exception.") {
+      val metrics = new InMemoryCredentialRepositoryMetrics
+      val metered = new MeteredCredentialRepository(Helpers.CredentialRepository.unimplemented, metrics)
+
+      a [NotImplementedError] should be thrownBy metered.lookupAll(credential.getCredentialId)
+
+      val lookupAll = metrics.getSnapshot(Operation.LOOKUP_ALL)
+      lookupAll.getCallCount should equal (1)
+      lookupAll.getFailureCount should equal (1)
+      lookupAll.getSuccessCount should equal (0)
+    }
+  }
+
+  describe("An InMemoryCredentialRepositoryMetrics") {
+
+    it("approximates quantiles within a factor of 2.") {
+      val metrics = new InMemoryCredentialRepositoryMetrics
+      for { duration <- 1L to 1000L } {
+        metrics.recordSuccess(Operation.LOOKUP, duration, 1)
+      }
+      val durations = metrics.getSnapshot(Operation.LOOKUP).getDurationNanos
+
+      durations.getCount should equal (1000)
+      durations.getMax should equal (1000)
+      durations.getSum should equal (500500)
+      durations.getValueAtQuantile(0.5) should (be >= 500L and be < 1000L)
+      durations.getValueAtQuantile(0.99) should (be >= 990L and be <= 1000L)
+      durations.getValueAtQuantile(0) should equal (1)
+      durations.getValueAtQuantile(1) should equal (1000)
+    }
+
+    it("returns 0 for quantiles of an empty histogram.") {
+      new InMemoryCredentialRepositoryMetrics().getSnapshot(Operation.LOOKUP).getDurationNanos.getValueAtQuantile(0.5) should equal (0)
+    }
+
+    it("rejects quantiles outside [0, 1].") {
+      an [IllegalArgumentException] should be thrownBy new InMemoryCredentialRepositoryMetrics().getSnapshot(Operation.LOOKUP).getDurationNanos.getValueAtQuantile(1.5)
+    }
+  }
+
+}
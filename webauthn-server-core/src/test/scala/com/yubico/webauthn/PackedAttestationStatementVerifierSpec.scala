@@ -29,11 +29,14 @@ import com.yubico.webauthn.test.Util
 import com.yubico.webauthn.TestAuthenticator.AttestationCert
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier
 import com.yubico.webauthn.TestAuthenticator.AttestationMaker
+import org.bouncycastle.asn1.DEROctetString
+import org.bouncycastle.asn1.x500.X500Name
 import org.junit.runner.RunWith
 import org.scalatest.FunSpec
 import org.scalatest.Matchers
 import org.scalatestplus.junit.JUnitRunner
 
+import scala.util.Failure
 import scala.util.Success
 import scala.util.Try
 
@@ -57,6 +60,21 @@ class PackedAttestationStatementVerifierSpec extends FunSpec with Matchers {
         result.get should be (true)
       }
 
+      it("which are parsed only once per certificate, but checked against each AAGUID.") {
+        val aaguid = ByteArray.fromHex("F8A011F38C0A4D15800617111F9EDC7D")
+        val (cert, _) = TestAuthenticator.generateAttestationCertificate(
+          name = new X500Name("O=Yubico, C=SE, OU=Authenticator Attestation"),
+          extensions = List(("1.3.6.1.4.1.45724.1.1.4", false, new DEROctetString(aaguid.getBytes)))
+        )
+
+        PackedAttestationCertificateRequirements.of(cert) should be theSameInstanceAs PackedAttestationCertificateRequirements.of(cert)
+
+        for { _ <- 1 to 2 } {
+          verifier.verifyX5cRequirements(cert, aaguid) should be (true)
+          Try(verifier.verifyX5cRequirements(cert, ByteArray.fromHex("00000000000000000000000000000000"))) shouldBe a [Failure[_]]
+        }
+      }
+
     }
 
     describe("supports attestation certificates with the algorithm") {
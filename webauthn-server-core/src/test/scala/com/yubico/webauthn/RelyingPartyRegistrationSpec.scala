@@ -123,6 +123,14 @@ class RelyingPartyRegistrationSpec extends FunSpec with Matchers with ScalaCheck
     }
   }
 
+  class CountingMetadataService(private val delegate: MetadataService) extends MetadataService {
+    var calls: Int = 0
+    override def getAttestation(attestationCertificateChain: java.util.List[X509Certificate]): Attestation = {
+      calls += 1
+      delegate.getAttestation(attestationCertificateChain)
+    }
+  }
+
   describe("§7.1. Registering a new credential") {
 
     describe("When registering a new credential, represented by an AuthenticatorAttestationResponse structure response and an AuthenticationExtensionsClientOutputs structure clientExtensionResults, as part of a registration ceremony, a Relying Party MUST proceed as follows:") {
@@ -1539,6 +1547,15 @@ class RelyingPartyRegistrationSpec extends FunSpec with Matchers with ScalaCheck
                 step.attestationTrustPath().get should not be empty
                 step.attestationTrustPath().get.size should be (1)
               }
+
+              it("The response is parsed only once per attestation object.") {
+                val attestationObject = new AttestationObject(defaultTestData.attestationObject)
+                val verifier = new AndroidSafetynetAttestationStatementVerifier
+
+                verifier.verifyAttestationSignature(attestationObject, defaultTestData.clientDataJsonHash) should be (true)
+                verifier.getAttestationTrustPath(attestationObject).get should be theSameInstanceAs verifier.getAttestationTrustPath(attestationObject).get
+                verifier.getAttestationTrustPath(new AttestationObject(defaultTestData.attestationObject)).get should equal (verifier.getAttestationTrustPath(attestationObject).get)
+              }
             }
           }
         }
@@ -1787,6 +1804,30 @@ class RelyingPartyRegistrationSpec extends FunSpec with Matchers with ScalaCheck
               step.attestationMetadata.get.getMetadataIdentifier.asScala should equal (Some("Test attestation CA"))
               step.tryNext shouldBe a [Success[_]]
             }
+
+            it("resolves the trust anchor only once.") {
+              val metadataService = new CountingMetadataService(new TestMetadataService(Some(
+                Attestation.builder()
+                    .trusted(true)
+                    .metadataIdentifier(Some("Test attestation CA").asJava)
+                    .build()
+                )
+              ))
+
+              val steps = finishRegistration(
+                testData = testData,
+                metadataService = Some(metadataService),
+                rp = testData.rpId
+              )
+              val step: FinishRegistrationSteps#Step16 = steps.begin.next.next.next.next.next.next.next.next.next.next.next.next.next.next.next
+
+              step.validations shouldBe a [Success[_]]
+              step.tryNext shouldBe a [Success[_]]
+              step.attestationTrusted should be (true)
+              step.attestationMetadata.get.getMetadataIdentifier.asScala should equal (Some("Test attestation CA"))
+              step.getWarnings.asScala shouldBe empty
+              metadataService.calls should equal (1)
+            }
           }
 
           describe("An android-key basic attestation") {
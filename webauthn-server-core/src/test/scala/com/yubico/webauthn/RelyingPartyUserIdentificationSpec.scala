@@ -115,6 +115,28 @@ class RelyingPartyUserIdentificationSpec  extends FunSpec with Matchers {
         .build()
   }
 
+  /**
+   * Delegates to `delegate`, counting the identity lookups.
+   */
+  private class CountingCredentialRepository(delegate: CredentialRepository) extends CredentialRepository {
+    var userHandleLookups = 0
+    var usernameLookups = 0
+
+    override def getCredentialIdsForUsername(username: String) = delegate.getCredentialIdsForUsername(username)
+    override def lookup(credId: ByteArray, userHandle: ByteArray) = delegate.lookup(credId, userHandle)
+    override def lookupAll(credId: ByteArray) = delegate.lookupAll(credId)
+
+    override def getUserHandleForUsername(username: String): Optional[ByteArray] = {
+      userHandleLookups += 1
+      delegate.getUserHandleForUsername(username)
+    }
+
+    override def getUsernameForUserHandle(userHandle: ByteArray): Optional[String] = {
+      usernameLookups += 1
+      delegate.getUsernameForUserHandle(userHandle)
+    }
+  }
+
   describe("The assertion ceremony") {
 
     val rp = RelyingParty.builder()
@@ -215,6 +237,94 @@ class RelyingPartyUserIdentificationSpec  extends FunSpec with Matchers {
       result shouldBe a [Failure[_]]
     }
 
+    def finishAssertion(rp: RelyingParty, username: Option[String], userHandle: Option[ByteArray]): Try[AssertionResult] = {
+      val request = rp.startAssertion(StartAssertionOptions.builder().username(username.asJava).build())
+      val deterministicRequest =
+        request.toBuilder.publicKeyCredentialRequestOptions(
+          request.getPublicKeyCredentialRequestOptions.toBuilder.challenge(Defaults.challenge).build()
+        )
+        .build()
+
+      Try(rp.finishAssertion(FinishAssertionOptions.builder()
+          .request(deterministicRequest)
+          .response(Defaults.defaultPublicKeyCredential(userHandle = userHandle))
+          .build()
+      ))
+    }
+
+    it("looks up the username for the returned userHandle only once.") {
+      val credentialRepository = new CountingCredentialRepository(rp.getCredentialRepository)
+      val result = finishAssertion(rp.toBuilder.credentialRepository(credentialRepository).build(), None, Some(Defaults.userHandle))
+
+      result.get.getUsername should equal (Defaults.username)
+      credentialRepository.usernameLookups should equal (1)
+      credentialRepository.userHandleLookups should equal (0)
+    }
+
+    it("looks up the userHandle for the given username only once.") {
+      val credentialRepository = new CountingCredentialRepository(rp.getCredentialRepository)
+      val result = finishAssertion(rp.toBuilder.credentialRepository(credentialRepository).build(), Some(Defaults.username), None)
+
+      result.get.getUserHandle should equal (Defaults.userHandle)
+      credentialRepository.userHandleLookups should equal (1)
+      credentialRepository.usernameLookups should equal (0)
+    }
+
+    describe("with a UserIdentityCache") {
+
+      def withCache(credentialRepository: CredentialRepository, cache: UserIdentityCache): RelyingParty =
+        rp.toBuilder
+          .credentialRepository(credentialRepository)
+          .userIdentityCache(cache)
+          .build()
+
+      it("looks up each user only once across ceremonies.") {
+        val credentialRepository = new CountingCredentialRepository(rp.getCredentialRepository)
+        val cache = UserIdentityCache.create()
+        val cachingRp = withCache(credentialRepository, cache)
+
+        finishAssertion(cachingRp, None, Some(Defaults.userHandle)).get.getUsername should equal (Defaults.username)
+        finishAssertion(cachingRp, None, Some(Defaults.userHandle)).get.getUsername should equal (Defaults.username)
+        finishAssertion(cachingRp, Some(Defaults.username), None).get.getUserHandle should equal (Defaults.userHandle)
+
+        credentialRepository.usernameLookups should equal (1)
+        credentialRepository.userHandleLookups should equal (0)
+        cache.getUsername(Defaults.userHandle).get should equal (Defaults.username)
+      }
+
+      it("uses cached bindings without querying the credential repository.") {
+        val credentialRepository = new CountingCredentialRepository(rp.getCredentialRepository)
+        val cache = UserIdentityCache.create()
+        cache.put(Defaults.username, Defaults.userHandle)
+
+        finishAssertion(withCache(credentialRepository, cache), None, Some(Defaults.userHandle)) shouldBe a [Success[_]]
+
+        credentialRepository.usernameLookups should equal (0)
+      }
+
+      it("does not cache unknown user handles.") {
+        val credentialRepository = new CountingCredentialRepository(rp.getCredentialRepository)
+        val cache = UserIdentityCache.create()
+        val cachingRp = withCache(credentialRepository, cache)
+        val unknownUserHandle = new ByteArray(Array[Byte](1, 2, 3))
+
+        finishAssertion(cachingRp, None, Some(unknownUserHandle)) shouldBe a [Failure[_]]
+        finishAssertion(cachingRp, None, Some(unknownUserHandle)) shouldBe a [Failure[_]]
+
+        credentialRepository.usernameLookups should equal (2)
+        cache.size should equal (0)
+      }
+
+      it("does not cache bindings that were given rather than looked up.") {
+        val cache = UserIdentityCache.create()
+
+        finishAssertion(withCache(rp.getCredentialRepository, cache), Some(Defaults.username), Some(Defaults.userHandle)) shouldBe a [Success[_]]
+
+        cache.size should equal (0)
+      }
+
+    }
+
   }
 
 }
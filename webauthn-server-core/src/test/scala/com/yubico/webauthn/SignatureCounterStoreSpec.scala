@@ -0,0 +1,357 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn
+
+import java.time.Duration
+import java.util.Optional
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.exception.InvalidSignatureCountException
+import com.yubico.webauthn.test.Helpers
+import com.yubico.webauthn.test.RealExamples
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class SignatureCounterStoreSpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private class RecordingSink extends SignatureCounterStore.Sink {
+    @volatile var fail = false
+    @volatile var batches: List[List[SignatureCounterStore.Update]] = Nil
+
+    override def write(updates: java.util.List[SignatureCounterStore.Update]): Unit = {
+      if (fail) {
+        throw new RuntimeException("Sink failure")
+      }
+      batches = batches :+ updates.asScala.toList
+    }
+
+    def written: Map[(ByteArray, ByteArray), Long] =
+      batches.flatten.map(u => (u.getCredentialId, u.getUserHandle) -> u.getSignatureCount).toMap
+  }
+
+  private def newStore(sink: SignatureCounterStore.Sink, maxBatchSize: Int = SignatureCounterStore.DEFAULT_MAX_BATCH_SIZE): SignatureCounterStore =
+    SignatureCounterStore.builder()
+      .sink(sink)
+      .flushInterval(Duration.ZERO)
+      .maxBatchSize(maxBatchSize)
+      .build()
+
+  describe("SignatureCounterStore") {
+
+    it("keeps the greatest pending signature count per credential.") {
+      val store = newStore(new RecordingSink)
+
+      store.update(bytes("cred"), bytes("alice"), 3)
+      store.update(bytes("cred"), bytes("alice"), 7)
+      store.update(bytes("cred"), bytes("alice"), 5)
+      store.update(bytes("cred"), bytes("bob"), 1)
+
+      store.getSignatureCount(bytes("cred"), bytes("alice")) should equal (Optional.of(7L))
+      store.getSignatureCount(bytes("cred"), bytes("bob")) should equal (Optional.of(1L))
+      store.getSignatureCount(bytes("other"), bytes("alice")) should equal (Optional.empty())
+      store.getPendingCount should equal (2)
+    }
+
+    it("writes one coalesced update per credential on flush.") {
+      val sink = new RecordingSink
+      val store = newStore(sink)
+
+      store.update(bytes("cred"), bytes("alice"), 3)
+      store.update(bytes("cred"), bytes("alice"), 7)
+      store.update(bytes("cred2"), bytes("alice"), 2)
+      store.flush()
+
+      sink.batches should have size 1
+      sink.written should equal (Map(
+        (bytes("cred"), bytes("alice")) -> 7L,
+        (bytes("cred2"), bytes("alice")) -> 2L
+      ))
+      store.getPendingCount should equal (0)
+      store.getSignatureCount(bytes("cred"), bytes("alice")) should equal (Optional.empty())
+    }
+
+    it("splits flushes into batches of at most maxBatchSize.") {
+      val sink = new RecordingSink
+      val store = newStore(sink, maxBatchSize = 3)
+
+      for { i <- 1 to 10 } {
+        store.update(bytes(s"cred-${i}"), bytes("alice"), i)
+      }
+      store.flush()
+
+      sink.batches.map(_.size) should equal (List(3, 3, 3, 1))
+      sink.written should have size 10
+    }
+
+    it("keeps updates pending if the sink fails.") {
+      val sink = new RecordingSink
+      val store = newStore(sink)
+
+      store.update(bytes("cred"), bytes("alice"), 3)
+      sink.fail = true
+      a [RuntimeException] should be thrownBy store.flush()
+
+      store.getSignatureCount(bytes("cred"), bytes("alice")) should equal (Optional.of(3L))
+      store.update(bytes("cred"), bytes("alice"), 4)
+
+      sink.fail = false
+      store.flush()
+      sink.written should equal (Map((bytes("cred"), bytes("alice")) -> 4L))
+      store.getPendingCount should equal (0)
+    }
+
+    it("shows updates that fail to write while they are restored.") {
+      val sink = new RecordingSink
+      sink.fail = true
+      val store = newStore(sink)
+      store.update(bytes("cred"), bytes("alice"), 3)
+
+      val running = new AtomicBoolean(true)
+      val flusher = new Thread(() => {
+        while (running.get) {
+          try {
+            store.flush()
+          } catch {
+            case _: RuntimeException =>
+          }
+        }
+      })
+
+      flusher.start()
+      try {
+        val deadline = System.currentTimeMillis() + 2000
+        while (System.currentTimeMillis() < deadline) {
+          store.getSignatureCount(bytes("cred"), bytes("alice")) should equal (Optional.of(3L))
+        }
+      } finally {
+        running.set(false)
+        flusher.join()
+      }
+    }
+
+    it("flushes in the background.") {
+      val sink = new RecordingSink
+      val store = SignatureCounterStore.builder()
+        .sink(sink)
+        .flushInterval(Duration.ofMillis(10))
+        .build()
+
+      try {
+        store.update(bytes("cred"), bytes("alice"), 3)
+
+        val deadline = System.currentTimeMillis() + 10000
+        while (sink.written.isEmpty && System.currentTimeMillis() < deadline) {
+          Thread.sleep(10)
+        }
+        sink.written should equal (Map((bytes("cred"), bytes("alice")) -> 3L))
+      } finally {
+        store.close()
+      }
+    }
+
+    it("flushes on close.") {
+      val sink = new RecordingSink
+      val store = SignatureCounterStore.builder()
+        .sink(sink)
+        .flushInterval(Duration.ofHours(1))
+        .build()
+
+      store.update(bytes("cred"), bytes("alice"), 3)
+      store.close()
+
+      sink.written should equal (Map((bytes("cred"), bytes("alice")) -> 3L))
+    }
+
+    it("does not flush on close if interrupted while a background flush is running.") {
+      val entered = new CountDownLatch(1)
+      val release = new CountDownLatch(1)
+      val written = new AtomicLong(0)
+      val store = SignatureCounterStore.builder()
+        .sink(updates => {
+          entered.countDown()
+          release.await()
+          written.addAndGet(updates.size)
+        })
+        .flushInterval(Duration.ofMillis(10))
+        .build()
+
+      store.update(bytes("cred"), bytes("alice"), 3)
+      entered.await()
+      store.update(bytes("cred2"), bytes("alice"), 1)
+
+      Thread.currentThread().interrupt()
+      try {
+        an [IllegalStateException] should be thrownBy store.close()
+        Thread.interrupted() should be (true)
+      } finally {
+        release.countDown()
+      }
+
+      store.getSignatureCount(bytes("cred2"), bytes("alice")) should equal (Optional.of(1L))
+    }
+
+    it("rejects invalid parameters.") {
+      an [IllegalArgumentException] should be thrownBy newStore(new RecordingSink, maxBatchSize = 0)
+      an [IllegalArgumentException] should be thrownBy SignatureCounterStore.builder().sink(new RecordingSink).flushInterval(Duration.ofSeconds(-1)).build()
+    }
+
+    describe("in RelyingParty") {
+      val testData = RealExamples.YubiKey5
+
+      val registrationResult = RelyingParty.builder()
+        .identity(testData.rp)
+        .credentialRepository(Helpers.CredentialRepository.empty)
+        .build()
+        .finishRegistration(FinishRegistrationOptions.builder()
+          .request(PublicKeyCredentialCreationOptions.builder()
+            .rp(testData.rp)
+            .user(testData.user)
+            .challenge(testData.attestation.challenge)
+            .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+            .build())
+          .response(testData.attestation.credential)
+          .build())
+
+      val credential = Helpers.toRegisteredCredential(testData.user, registrationResult)
+      val assertionSignatureCount = testData.assertion.credential.getResponse.getParsedAuthenticatorData.getSignatureCounter
+
+      def authenticate(
+        store: SignatureCounterStore,
+        credentialRepo: CredentialRepository = Helpers.CredentialRepository.withUser(testData.user, credential)
+      ): AssertionResult =
+        RelyingParty.builder()
+          .identity(testData.rp)
+          .credentialRepository(credentialRepo)
+          .signatureCounterStore(store)
+          .build()
+          .finishAssertion(FinishAssertionOptions.builder()
+            .request(AssertionRequest.builder()
+              .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+                .challenge(testData.assertion.challenge)
+                .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+                .build())
+              .username(testData.user.getName)
+              .build())
+            .response(testData.assertion.credential)
+            .build())
+
+      it("submits the signature count of successful assertions.") {
+        val store = newStore(new RecordingSink)
+        val result = authenticate(store)
+
+        result.isSuccess should be (true)
+        store.getSignatureCount(result.getCredentialId, result.getUserHandle) should equal (Optional.of(result.getSignatureCount))
+      }
+
+      it("validates signature counts against pending updates.") {
+        val store = newStore(new RecordingSink)
+        store.update(testData.assertion.id, testData.user.getId, assertionSignatureCount + 1)
+
+        an [InvalidSignatureCountException] should be thrownBy authenticate(store)
+      }
+
+      /**
+       * A sink and repository sharing one stored signature count, which starts out stale. The repository calls
+       * `beforeLookupReturns` with the number of lookups so far after reading the stored count, to let tests
+       * interleave flushes with a lookup.
+       */
+      class SharedStorage(beforeLookupReturns: Int => Unit = _ => ()) {
+        val storedCount = new AtomicLong(0)
+        var lookups = 0
+
+        val sink: SignatureCounterStore.Sink = updates =>
+          updates.asScala.foreach(u => storedCount.accumulateAndGet(u.getSignatureCount, Math.max))
+
+        val credentialRepo: CredentialRepository = new CredentialRepository {
+          private val delegate = Helpers.CredentialRepository.withUser(testData.user, credential)
+          override def getCredentialIdsForUsername(username: String) = delegate.getCredentialIdsForUsername(username)
+          override def getUserHandleForUsername(username: String) = delegate.getUserHandleForUsername(username)
+          override def getUsernameForUserHandle(userHandle: ByteArray) = delegate.getUsernameForUserHandle(userHandle)
+          override def lookupAll(credentialId: ByteArray) = delegate.lookupAll(credentialId)
+          override def lookup(credentialId: ByteArray, userHandle: ByteArray): Optional[RegisteredCredential] = {
+            val result = delegate.lookup(credentialId, userHandle).map[RegisteredCredential](_.toBuilder.signatureCount(storedCount.get).build())
+            lookups += 1
+            beforeLookupReturns(lookups)
+            result
+          }
+        }
+      }
+
+      it("sees a pending signature count that is flushed while the signature count is checked.") {
+        // The signature count check is the last step that looks up the credential
+        val dryRun = new SharedStorage()
+        authenticate(newStore(dryRun.sink), dryRun.credentialRepo)
+
+        var store: SignatureCounterStore = null
+        val storage = new SharedStorage(lookups => if (lookups == dryRun.lookups) store.flush())
+        store = newStore(storage.sink)
+        store.update(testData.assertion.id, testData.user.getId, assertionSignatureCount)
+
+        an [InvalidSignatureCountException] should be thrownBy authenticate(store, storage.credentialRepo)
+        storage.storedCount.get should equal (assertionSignatureCount)
+      }
+
+      it("sees pending signature counts while another thread is flushing.") {
+        val storage = new SharedStorage()
+        val store = newStore(storage.sink)
+        val running = new AtomicBoolean(true)
+        val flusher = new Thread(() => {
+          while (running.get) {
+            store.flush()
+          }
+        })
+
+        flusher.start()
+        try {
+          for { _ <- 1 to 500 } {
+            storage.storedCount.set(0)
+            store.update(testData.assertion.id, testData.user.getId, assertionSignatureCount)
+            an [InvalidSignatureCountException] should be thrownBy authenticate(store, storage.credentialRepo)
+          }
+        } finally {
+          running.set(false)
+          flusher.join()
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.yubico.webauthn
+
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+
+@RunWith(classOf[JUnitRunner])
+class UserIdentityCacheSpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  describe("UserIdentityCache") {
+
+    it("is initially empty.") {
+      val cache = UserIdentityCache.create()
+      cache.getUsername(bytes("alice-handle")).isPresent should be (false)
+      cache.getUserHandle("alice").isPresent should be (false)
+      cache.size should equal (0)
+    }
+
+    it("returns cached bindings in both directions.") {
+      val cache = UserIdentityCache.create()
+      cache.put("alice", bytes("alice-handle"))
+
+      cache.getUsername(bytes("alice-handle")).get should equal ("alice")
+      cache.getUserHandle("alice").get should equal (bytes("alice-handle"))
+      cache.getUserHandle("bob").isPresent should be (false)
+    }
+
+    it("replaces the previous binding of a user handle or username.") {
+      val cache = UserIdentityCache.create()
+      cache.put("alice", bytes("alice-handle"))
+      cache.put("alice2", bytes("alice-handle"))
+
+      cache.getUsername(bytes("alice-handle")).get should equal ("alice2")
+      cache.getUserHandle("alice").isPresent should be (false)
+
+      cache.put("alice2", bytes("other-handle"))
+      cache.getUserHandle("alice2").get should equal (bytes("other-handle"))
+      cache.getUsername(bytes("alice-handle")).isPresent should be (false)
+    }
+
+    it("invalidates bindings in both directions.") {
+      val cache = UserIdentityCache.create()
+      cache.put("alice", bytes("alice-handle"))
+      cache.put("bob", bytes("bob-handle"))
+      cache.put("carol", bytes("carol-handle"))
+
+      cache.invalidateUserHandle(bytes("alice-handle"))
+      cache.getUserHandle("alice").isPresent should be (false)
+      cache.getUsername(bytes("alice-handle")).isPresent should be (false)
+
+      cache.invalidateUsername("bob")
+      cache.getUserHandle("bob").isPresent should be (false)
+      cache.getUsername(bytes("bob-handle")).isPresent should be (false)
+
+      cache.getUserHandle("carol").get should equal (bytes("carol-handle"))
+      cache.invalidateAll()
+      cache.getUsername(bytes("carol-handle")).isPresent should be (false)
+    }
+
+    it("is bounded.") {
+      val cache = UserIdentityCache.create(100)
+      for { i <- 0 until 1000 } {
+        cache.put(s"user$i", bytes(s"handle$i"))
+      }
+
+      cache.size should be <= 100L
+      cache.getUsername(bytes("handle999")).get should equal ("user999")
+    }
+
+    it("rejects invalid parameters.") {
+      an [IllegalArgumentException] should be thrownBy UserIdentityCache.create(0)
+    }
+
+  }
+
+}
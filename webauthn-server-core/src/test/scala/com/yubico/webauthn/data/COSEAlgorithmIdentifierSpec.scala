@@ -0,0 +1,59 @@
+// Copyright (c) 2019, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.yubico.webauthn.data
+
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatestplus.scalacheck.ScalaCheckDrivenPropertyChecks
+
+@RunWith(classOf[JUnitRunner])
+class COSEAlgorithmIdentifierSpec extends FunSpec with Matchers with ScalaCheckDrivenPropertyChecks {
+
+  describe("COSEAlgorithmIdentifier.fromId") {
+
+    it("returns every constant by its id.") {
+      for { constant <- COSEAlgorithmIdentifier.values() } {
+        COSEAlgorithmIdentifier.fromId(constant.getId).get should be theSameInstanceAs constant
+      }
+    }
+
+    it("returns the same Optional instance on every call.") {
+      for { constant <- COSEAlgorithmIdentifier.values() } {
+        COSEAlgorithmIdentifier.fromId(constant.getId) should be theSameInstanceAs COSEAlgorithmIdentifier.fromId(constant.getId)
+      }
+    }
+
+    it("returns empty for any other id.") {
+      forAll { id: Long =>
+        whenever(!COSEAlgorithmIdentifier.values().exists(_.getId == id)) {
+          COSEAlgorithmIdentifier.fromId(id).isPresent should be (false)
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage.benchmark;
+
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.storage.CredentialMigration;
+import com.yubico.webauthn.storage.CredentialSnapshotReader;
+import com.yubico.webauthn.storage.CredentialSnapshotWriter;
+import com.yubico.webauthn.storage.OffHeapCredentialRepository;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures exporting 5 million credentials from an {@link OffHeapCredentialRepository} to a snapshot file and reading
+ * them back, with chunks encoded and decoded in the calling thread or in parallel. Compare the time per operation
+ * with the time to copy the snapshot file to see whether the migration is limited by the disk.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx512m", "-XX:MaxDirectMemorySize=4g" })
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CredentialSnapshotBenchmark {
+
+    private static final int CREDENTIALS_PER_USER = 4;
+    private static final byte[] PUBLIC_KEY_COSE = new byte[77];
+
+    @Param({ "5000000" })
+    private int credentials;
+
+    @Param({ "false", "true" })
+    private boolean parallel;
+
+    private OffHeapCredentialRepository repository;
+    private ExecutorService executor;
+    private Path snapshot;
+
+    @Setup
+    public void setup() throws IOException {
+        repository = new OffHeapCredentialRepository(credentials);
+        for (int i = 0; i < credentials; ++i) {
+            repository.addCredential(
+                "user" + i / CREDENTIALS_PER_USER,
+                RegisteredCredential.builder()
+                    .credentialId(new ByteArray(ByteBuffer.allocate(64).putInt(i).putInt(~i).array()))
+                    .userHandle(new ByteArray(ByteBuffer.allocate(16).putInt(i / CREDENTIALS_PER_USER).array()))
+                    .publicKeyCose(new ByteArray(PUBLIC_KEY_COSE))
+                    .signatureCount(0)
+                    .build()
+            );
+        }
+
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        snapshot = Files.createTempFile("webauthn-snapshot-benchmark", ".bin");
+        export();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        Files.deleteIfExists(snapshot);
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        try (
+            OutputStream out = Files.newOutputStream(snapshot);
+            CredentialSnapshotWriter writer = parallel
+                ? CredentialSnapshotWriter.create(out, executor)
+                : CredentialSnapshotWriter.create(out)
+        ) {
+            return CredentialMigration.export(repository, writer);
+        }
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        long count = 0;
+        try (
+            InputStream in = Files.newInputStream(snapshot);
+            CredentialSnapshotReader reader = parallel
+                ? CredentialSnapshotReader.open(in, executor)
+                : CredentialSnapshotReader.open(in)
+        ) {
+            while (true) {
+                final int chunk = reader.readChunk().map(List::size).orElse(0);
+                if (chunk == 0) {
+                    return count;
+                }
+                count += chunk;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage.benchmark;
+
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.storage.OffHeapCredentialRepository;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link OffHeapCredentialRepository} with 30 million credentials, four per user, which take about 9 GB of
+ * direct memory. The heap is kept small to show that the credentials are not held on it; add <code>-prof gc</code> to
+ * the JMH arguments to see the allocation rate and garbage collection time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx512m", "-XX:MaxDirectMemorySize=16g" })
+@Threads(4)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class OffHeapCredentialRepositoryBenchmark {
+
+    private static final int CREDENTIALS_PER_USER = 4;
+    private static final byte[] PUBLIC_KEY_COSE = new byte[77];
+
+    @Param({ "30000000" })
+    private int credentials;
+
+    private OffHeapCredentialRepository repository;
+
+    @Setup
+    public void setup() {
+        repository = new OffHeapCredentialRepository(credentials);
+        for (int i = 0; i < credentials; ++i) {
+            repository.addCredential(
+                username(i / CREDENTIALS_PER_USER),
+                RegisteredCredential.builder()
+                    .credentialId(credentialId(i))
+                    .userHandle(userHandle(i / CREDENTIALS_PER_USER))
+                    .publicKeyCose(new ByteArray(PUBLIC_KEY_COSE))
+                    .signatureCount(0)
+                    .build()
+            );
+        }
+    }
+
+    private static ByteArray credentialId(int i) {
+        return new ByteArray(ByteBuffer.allocate(64).putInt(i).putInt(~i).array());
+    }
+
+    private static ByteArray userHandle(int i) {
+        return new ByteArray(ByteBuffer.allocate(16).putInt(i).array());
+    }
+
+    private static String username(int i) {
+        return "user" + i;
+    }
+
+    private int randomCredential() {
+        return ThreadLocalRandom.current().nextInt(credentials);
+    }
+
+    @Benchmark
+    public Optional<RegisteredCredential> lookup() {
+        final int i = randomCredential();
+        return repository.lookup(credentialId(i), userHandle(i / CREDENTIALS_PER_USER));
+    }
+
+    @Benchmark
+    public Set<RegisteredCredential> lookupAll() {
+        return repository.lookupAll(credentialId(randomCredential()));
+    }
+
+    @Benchmark
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername() {
+        return repository.getCredentialIdsForUsername(username(randomCredential() / CREDENTIALS_PER_USER));
+    }
+
+    @Benchmark
+    public boolean updateSignatureCount() {
+        final int i = randomCredential();
+        return repository.updateSignatureCount(credentialId(i), userHandle(i / CREDENTIALS_PER_USER), System.nanoTime());
+    }
+
+}
@@ -0,0 +1,281 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A {@link CredentialRepository} decorator which caches the results of {@link #getCredentialIdsForUsername(String)},
+ * {@link #getUserHandleForUsername(String)}, {@link #getUsernameForUserHandle(ByteArray)} and {@link
+ * #lookup(ByteArray, ByteArray)}.
+ *
+ * <p>
+ * Each of the four caches holds at most {@link CachingCredentialRepositoryBuilder#maximumSize(long) maximumSize}
+ * entries. Found results expire after {@link CachingCredentialRepositoryBuilder#ttl(Duration) ttl}, and results that
+ * were not found (an empty {@link Optional} or an empty set) expire after {@link
+ * CachingCredentialRepositoryBuilder#negativeTtl(Duration) negativeTtl}.
+ * </p>
+ *
+ * <p>
+ * {@link #lookupAll(ByteArray)} is never cached, since it is used to refuse duplicate registrations and must see the
+ * current state of the underlying repository.
+ * </p>
+ *
+ * <p>
+ * Writers to the underlying repository should call the <code>invalidate</code> methods after adding or removing
+ * credentials or users, and {@link #updateSignatureCount(ByteArray, ByteArray, long)} after storing a new signature
+ * count. Otherwise readers may see stale results for up to the TTL.
+ * </p>
+ */
+public final class CachingCredentialRepository implements CredentialRepository {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+
+    private final CredentialRepository delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final LongSupplier nanoTime;
+
+    private final Cache<String, Entry<Set<PublicKeyCredentialDescriptor>>> credentialIdsByUsername;
+    private final Cache<String, Entry<Optional<ByteArray>>> userHandlesByUsername;
+    private final Cache<ByteArray, Entry<Optional<String>>> usernamesByUserHandle;
+    private final Cache<LookupKey, Entry<Optional<RegisteredCredential>>> credentials;
+
+    /**
+     * Incremented by every invalidation, so that a lookup which started before an invalidation does not cache its
+     * possibly stale result.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @Value
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAtNanos;
+    }
+
+    @Value
+    private static class LookupKey {
+        private final ByteArray credentialId;
+        private final ByteArray userHandle;
+    }
+
+    @Builder
+    private CachingCredentialRepository(
+        @NonNull CredentialRepository delegate,
+        long maximumSize,
+        @NonNull Duration ttl,
+        @NonNull Duration negativeTtl
+    ) {
+        this(delegate, maximumSize, ttl, negativeTtl, System::nanoTime);
+    }
+
+    CachingCredentialRepository(
+        @NonNull CredentialRepository delegate,
+        long maximumSize,
+        @NonNull Duration ttl,
+        @NonNull Duration negativeTtl,
+        @NonNull LongSupplier nanoTime
+    ) {
+        ExceptionUtil.assure(maximumSize > 0, "maximumSize must be positive, was: %d", maximumSize);
+        ExceptionUtil.assure(!ttl.isNegative(), "ttl must not be negative, was: %s", ttl);
+        ExceptionUtil.assure(!negativeTtl.isNegative(), "negativeTtl must not be negative, was: %s", negativeTtl);
+
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.nanoTime = nanoTime;
+
+        this.credentialIdsByUsername = newCache(maximumSize);
+        this.userHandlesByUsername = newCache(maximumSize);
+        this.usernamesByUserHandle = newCache(maximumSize);
+        this.credentials = newCache(maximumSize);
+    }
+
+    public static class CachingCredentialRepositoryBuilder {
+        private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+        private Duration ttl = DEFAULT_TTL;
+        private Duration negativeTtl = DEFAULT_NEGATIVE_TTL;
+    }
+
+    /**
+     * Expiry is checked against each entry's own deadline on read; the cache's own expiry only evicts entries that are
+     * no longer readable.
+     */
+    private <K, V> Cache<K, Entry<V>> newCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(Math.max(ttlNanos, negativeTtlNanos), TimeUnit.NANOSECONDS)
+            .ticker(new Ticker() {
+                @Override
+                public long read() {
+                    return nanoTime.getAsLong();
+                }
+            })
+            .build();
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return readThrough(
+            credentialIdsByUsername,
+            username,
+            () -> CollectionUtil.immutableSet(delegate.getCredentialIdsForUsername(username)),
+            ids -> !ids.isEmpty()
+        );
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return readThrough(userHandlesByUsername, username, () -> delegate.getUserHandleForUsername(username), Optional::isPresent);
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return readThrough(usernamesByUserHandle, userHandle, () -> delegate.getUsernameForUserHandle(userHandle), Optional::isPresent);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return readThrough(
+            credentials,
+            new LookupKey(credentialId, userHandle),
+            () -> delegate.lookup(credentialId, userHandle),
+            Optional::isPresent
+        );
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        return delegate.lookupAll(credentialId);
+    }
+
+    private <K, V> V readThrough(Cache<K, Entry<V>> cache, K key, Supplier<V> loader, Predicate<V> found) {
+        final Entry<V> cached = cache.getIfPresent(key);
+        final long now = nanoTime.getAsLong();
+        if (cached != null && cached.getExpiresAtNanos() - now > 0) {
+            return cached.getValue();
+        }
+
+        final long generationBefore = generation.get();
+        final V value = loader.get();
+        final long ttl = found.test(value) ? ttlNanos : negativeTtlNanos;
+        if (ttl > 0 && generation.get() == generationBefore) {
+            cache.put(key, new Entry<>(value, nanoTime.getAsLong() + ttl));
+            if (generation.get() != generationBefore) {
+                // An invalidation raced with the put and may have run before it
+                cache.invalidate(key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Replace the signature count of a cached credential, if it is cached, without going to the underlying repository.
+     * The cached count is never decreased, so pushes that arrive out of order do not move it backwards.
+     *
+     * <p>
+     * This does not write to the underlying repository.
+     * </p>
+     */
+    public void updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        credentials.asMap().computeIfPresent(new LookupKey(credentialId, userHandle), (key, entry) ->
+            entry.getValue()
+                .filter(credential -> credential.getSignatureCount() < signatureCount)
+                .map(credential -> new Entry<>(
+                    Optional.of(credential.toBuilder().signatureCount(signatureCount).build()),
+                    entry.getExpiresAtNanos()
+                ))
+                .orElse(entry)
+        );
+    }
+
+    /**
+     * Discard the cached credential IDs and user handle for <code>username</code>. Call this after adding or removing a
+     * credential or user.
+     */
+    public void invalidateUsername(@NonNull String username) {
+        generation.incrementAndGet();
+        credentialIdsByUsername.invalidate(username);
+        userHandlesByUsername.invalidate(username);
+    }
+
+    /**
+     * Discard the cached username and all cached credentials for <code>userHandle</code>. Call this after adding or
+     * removing a user.
+     *
+     * <p>
+     * This scans the credential cache, so prefer {@link #invalidateCredential(ByteArray, ByteArray)} when the affected
+     * credential IDs are known.
+     * </p>
+     */
+    public void invalidateUserHandle(@NonNull ByteArray userHandle) {
+        generation.incrementAndGet();
+        usernamesByUserHandle.invalidate(userHandle);
+        credentials.asMap().keySet().removeIf(key -> key.getUserHandle().equals(userHandle));
+    }
+
+    /**
+     * Discard the cached result of {@link #lookup(ByteArray, ByteArray)} for the given credential. Call this after
+     * adding, removing or replacing the credential.
+     */
+    public void invalidateCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        generation.incrementAndGet();
+        credentials.invalidate(new LookupKey(credentialId, userHandle));
+    }
+
+    /**
+     * Discard all cached results.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        credentialIdsByUsername.invalidateAll();
+        userHandlesByUsername.invalidateAll();
+        usernamesByUserHandle.invalidateAll();
+        credentials.invalidateAll();
+    }
+
+}
@@ -0,0 +1,871 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.NonNull;
+
+/**
+ * An append-only log of credential records, each holding a credential ID, user handle, username, COSE public key and
+ * signature count, with three open-addressing hash tables of offsets into the log keyed by credential ID, user handle
+ * and username. Both are kept in {@link SegmentedBuffer}s, so neither the records nor the index are Java objects. This
+ * implements {@link MappedFileCredentialRepository} and {@link OffHeapCredentialRepository}.
+ *
+ * <p>
+ * Adding a credential appends a record; replacing or removing one marks the old record as removed. Signature counts are
+ * updated in place. Each record is written completely before the log length is advanced past it, and the index is
+ * updated after the log, so the index can always be brought up to date from the log.
+ * </p>
+ *
+ * <p>
+ * Reads never lock and may run concurrently with one writer at a time; writes are serialized.
+ * </p>
+ */
+final class CredentialLog implements Closeable {
+
+    /**
+     * Allocates the buffers for the index, which is rebuilt from the log when it grows.
+     */
+    interface IndexAllocator {
+        /**
+         * @return a zeroed buffer of at least <code>size</code> bytes.
+         */
+        SegmentedBuffer allocate(long size) throws IOException;
+
+        /**
+         * Called when <code>index</code>, previously returned by {@link #allocate(long)}, is complete and about to
+         * replace the current index.
+         */
+        void commit(SegmentedBuffer index) throws IOException;
+    }
+
+    static final int HEADER_SIZE = 64;
+
+    private static final long LOG_MAGIC = 0x5741_4C4F_4731_0001L;
+    private static final long INDEX_MAGIC = 0x5741_4944_5831_0001L;
+
+    // The log ID is chosen at random when the log is initialized, and copied into the index, so that the index of a
+    // different log is never mistaken for the index of this one.
+    private static final int HEADER_MAGIC = 0;
+    private static final int LOG_COMMITTED_LENGTH = 8;
+    private static final int LOG_LIVE_CREDENTIALS = 16;
+    private static final int LOG_ID = 24;
+    private static final int INDEX_CAPACITY = 8;
+    private static final int INDEX_INDEXED_LENGTH = 16;
+    private static final int INDEX_RECORDS = 24;
+    private static final int INDEX_LOG_ID = 32;
+
+    // Record layout. Records start at multiples of 8, so the signature count is an aligned long.
+    private static final int RECORD_LENGTH = 0;
+    private static final int RECORD_FLAGS = 4;
+    private static final int RECORD_SIGNATURE_COUNT = 8;
+    private static final int RECORD_CREDENTIAL_ID_LENGTH = 16;
+    private static final int RECORD_USER_HANDLE_LENGTH = 18;
+    private static final int RECORD_USERNAME_LENGTH = 20;
+    private static final int RECORD_PUBLIC_KEY_LENGTH = 22;
+    private static final int RECORD_DATA = 24;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private static final int FLAG_PADDING = 1;
+    private static final int FLAG_CREDENTIAL_REMOVED = 2;
+    private static final int FLAG_USER_REMOVED = 4;
+
+    // Index slots hold a log offset in the low 40 bits and 24 more bits of the key hash above it. 0 is an empty slot.
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final int TABLE_CREDENTIAL_ID = 0;
+    private static final int TABLE_USER_HANDLE = 1;
+    private static final int TABLE_USERNAME = 2;
+    private static final int TABLES = 3;
+    private static final long MIN_CAPACITY = 1 << 10;
+
+    private final SegmentedBuffer log;
+    private final IndexAllocator indexAllocator;
+
+    /**
+     * Replaced, never modified in place except by appending entries, when the index grows.
+     */
+    private volatile Index index;
+
+    /**
+     * The end of the last complete record in the log. Writers write this after every change, and readers read it before
+     * reading anything else, so that readers see every change made before.
+     */
+    private volatile long committedLength;
+
+    /**
+     * A copy of the live credential count in the log header.
+     */
+    private volatile long liveCredentials;
+
+    private static final class Index {
+        private final SegmentedBuffer buffer;
+        private final long capacity;
+        private final long mask;
+
+        private Index(SegmentedBuffer buffer) {
+            this.buffer = buffer;
+            this.capacity = buffer.getLong(INDEX_CAPACITY);
+            this.mask = capacity - 1;
+        }
+
+        private long slotPosition(int table, long slot) {
+            return HEADER_SIZE + ((table * capacity + slot) << 3);
+        }
+
+        private long getSlot(int table, long slot) {
+            return buffer.getLong(slotPosition(table, slot));
+        }
+    }
+
+    private CredentialLog(SegmentedBuffer log, Index index, IndexAllocator indexAllocator) {
+        this.log = log;
+        this.index = index;
+        this.indexAllocator = indexAllocator;
+        this.committedLength = log.getLong(LOG_COMMITTED_LENGTH);
+        this.liveCredentials = log.getLong(LOG_LIVE_CREDENTIALS);
+    }
+
+    /**
+     * Open a log, initializing it if it is empty, and its index.
+     *
+     * <p>
+     * <code>existingIndex</code> is used if it is a valid index with the same log ID as this log, after indexing any
+     * records appended after it was last updated. Otherwise, or if it is <code>null</code>, a new index is built from the log. An existing
+     * index that is not used is closed.
+     * </p>
+     *
+     * @param name the name of the log, for error messages.
+     * @param expectedCredentials the number of credentials to size a new index for.
+     * @throws IOException if <code>log</code> is not empty and is not a credential log, if a record in it is malformed,
+     * or if allocating the index fails.
+     */
+    static CredentialLog open(
+        String name,
+        SegmentedBuffer log,
+        SegmentedBuffer existingIndex,
+        long expectedCredentials,
+        IndexAllocator indexAllocator
+    ) throws IOException {
+        ExceptionUtil.assure(expectedCredentials > 0, "expectedCredentials must be positive, was: %d", expectedCredentials);
+
+        log.ensureCapacity(HEADER_SIZE);
+        final long logMagic = log.getLong(HEADER_MAGIC);
+        if (logMagic == 0) {
+            log.putLong(LOG_COMMITTED_LENGTH, HEADER_SIZE);
+            log.putLong(LOG_LIVE_CREDENTIALS, 0);
+            log.putLong(LOG_ID, new SecureRandom().nextLong());
+            log.putLong(HEADER_MAGIC, LOG_MAGIC);
+        } else if (logMagic != LOG_MAGIC) {
+            if (existingIndex != null) {
+                existingIndex.close();
+            }
+            throw new IOException("Not a credential log: " + name);
+        }
+        final long committed = log.getLong(LOG_COMMITTED_LENGTH);
+        final long logId = log.getLong(LOG_ID);
+        if (committed < HEADER_SIZE || committed > log.size() || (committed & 7) != 0) {
+            if (existingIndex != null) {
+                existingIndex.close();
+            }
+            throw new IOException(String.format("Invalid committed length in credential log %s: %d", name, committed));
+        }
+
+        Index index = null;
+        if (existingIndex != null) {
+            final long capacity = existingIndex.size() >= HEADER_SIZE ? existingIndex.getLong(INDEX_CAPACITY) : 0;
+            if (capacity >= MIN_CAPACITY && Long.bitCount(capacity) == 1
+                && existingIndex.getLong(HEADER_MAGIC) == INDEX_MAGIC
+                && existingIndex.getLong(INDEX_LOG_ID) == logId
+                && existingIndex.size() >= HEADER_SIZE + TABLES * capacity * 8
+                && existingIndex.getLong(INDEX_INDEXED_LENGTH) <= committed
+            ) {
+                try {
+                    index = new Index(existingIndex);
+                    indexRecords(log, index, existingIndex.getLong(INDEX_INDEXED_LENGTH), committed);
+                    if (existingIndex.getLong(INDEX_RECORDS) * 2 > capacity) {
+                        index = buildIndex(log, committed, capacityFor(existingIndex.getLong(INDEX_RECORDS)), indexAllocator);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    existingIndex.close();
+                    throw e;
+                }
+                if (index.buffer != existingIndex) {
+                    existingIndex.close();
+                }
+            } else {
+                existingIndex.close();
+            }
+        }
+        if (index == null) {
+            index = buildIndex(log, committed, capacityFor(expectedCredentials), indexAllocator);
+        }
+
+        return new CredentialLog(log, index, indexAllocator);
+    }
+
+    private static long capacityFor(long records) {
+        return Math.max(MIN_CAPACITY, Long.highestOneBit(records * 2 - 1) << 1);
+    }
+
+    /**
+     * Build a new index of the log up to <code>committed</code>.
+     */
+    private static Index buildIndex(SegmentedBuffer log, long committed, long capacity, IndexAllocator indexAllocator) throws IOException {
+        final SegmentedBuffer buffer = indexAllocator.allocate(HEADER_SIZE + TABLES * capacity * 8);
+        buffer.putLong(INDEX_CAPACITY, capacity);
+        buffer.putLong(INDEX_INDEXED_LENGTH, HEADER_SIZE);
+        buffer.putLong(INDEX_RECORDS, 0);
+        buffer.putLong(INDEX_LOG_ID, log.getLong(LOG_ID));
+        final Index index = new Index(buffer);
+        try {
+            indexRecords(log, index, HEADER_SIZE, committed);
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        buffer.putLong(HEADER_MAGIC, INDEX_MAGIC);
+        indexAllocator.commit(buffer);
+        return index;
+    }
+
+    /**
+     * Add the records in the log between <code>start</code> and <code>end</code> to the index.
+     *
+     * @throws IOException if a record is malformed.
+     */
+    private static void indexRecords(SegmentedBuffer log, Index index, long start, long end) throws IOException {
+        long position = start;
+        while (position < end) {
+            final int length = recordLength(log, position, end);
+            if ((log.getInt(position + RECORD_FLAGS) & FLAG_PADDING) == 0) {
+                indexRecord(log, index, position);
+            }
+            position += length;
+        }
+        index.buffer.putLong(INDEX_INDEXED_LENGTH, end);
+    }
+
+    /**
+     * The log header is advanced only after a record is written, but the operating system may write either to disk
+     * first, so after a system crash the committed part of the log may end in a record that is zeroed or torn. Lengths
+     * are checked before they are trusted so that such a log fails to open instead of being read out of bounds.
+     *
+     * @return the length of the record at <code>position</code>.
+     * @throws IOException if the record is not 8-byte aligned, does not end at or before <code>end</code>, or is too
+     * short for its fields.
+     */
+    private static int recordLength(SegmentedBuffer log, long position, long end) throws IOException {
+        final int length = log.getInt(position + RECORD_LENGTH);
+        final long minLength = (log.getInt(position + RECORD_FLAGS) & FLAG_PADDING) == 0
+            ? (long) RECORD_DATA
+                + credentialIdLength(log, position)
+                + userHandleLength(log, position)
+                + usernameLength(log, position)
+                + publicKeyLength(log, position)
+            : RECORD_FLAGS + 4;
+        if (length < minLength || (length & 7) != 0 || length > end - position) {
+            throw new IOException(String.format("Malformed credential log record at position %d with length %d", position, length));
+        }
+        return length;
+    }
+
+    private static void indexRecord(SegmentedBuffer log, Index index, long position) {
+        final int credentialIdLength = credentialIdLength(log, position);
+        final int userHandleLength = userHandleLength(log, position);
+        final int usernameLength = usernameLength(log, position);
+
+        insert(index, TABLE_CREDENTIAL_ID, hash(log, credentialIdPosition(position), credentialIdLength), position);
+        insert(index, TABLE_USER_HANDLE, hash(log, userHandlePosition(log, position), userHandleLength), position);
+
+        if ((log.getInt(position + RECORD_FLAGS) & FLAG_USER_REMOVED) == 0) {
+            final byte[] username = log.getBytes(usernamePosition(log, position), usernameLength);
+            if (findUser(log, index, Long.MAX_VALUE, username) == 0) {
+                insert(index, TABLE_USERNAME, hash(username), position);
+            }
+        }
+
+        index.buffer.putLong(INDEX_RECORDS, index.buffer.getLong(INDEX_RECORDS) + 1);
+    }
+
+    private static void insert(Index index, int table, long hash, long position) {
+        final long entry = (hash & ~OFFSET_MASK) | position;
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            if (index.getSlot(table, slot) == 0) {
+                index.buffer.putLong(index.slotPosition(table, slot), entry);
+                return;
+            }
+        }
+    }
+
+    private static boolean tagMatches(long entry, long hash) {
+        return (entry & ~OFFSET_MASK) == (hash & ~OFFSET_MASK);
+    }
+
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long hash(SegmentedBuffer buffer, long position, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; ++i) {
+            h = (h ^ (buffer.get(position + i) & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The MurmurHash3 finalizer, so that both the low bits used for the slot and the high bits stored in the slot are
+     * well distributed.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int credentialIdLength(SegmentedBuffer log, long position) {
+        return log.getShort(position + RECORD_CREDENTIAL_ID_LENGTH) & MAX_FIELD_LENGTH;
+    }
+
+    private static int userHandleLength(SegmentedBuffer log, long position) {
+        return log.getShort(position + RECORD_USER_HANDLE_LENGTH) & MAX_FIELD_LENGTH;
+    }
+
+    private static int usernameLength(SegmentedBuffer log, long position) {
+        return log.getShort(position + RECORD_USERNAME_LENGTH) & MAX_FIELD_LENGTH;
+    }
+
+    private static int publicKeyLength(SegmentedBuffer log, long position) {
+        return log.getShort(position + RECORD_PUBLIC_KEY_LENGTH) & MAX_FIELD_LENGTH;
+    }
+
+    private static long credentialIdPosition(long position) {
+        return position + RECORD_DATA;
+    }
+
+    private static long userHandlePosition(SegmentedBuffer log, long position) {
+        return credentialIdPosition(position) + credentialIdLength(log, position);
+    }
+
+    private static long usernamePosition(SegmentedBuffer log, long position) {
+        return userHandlePosition(log, position) + userHandleLength(log, position);
+    }
+
+    private static long publicKeyPosition(SegmentedBuffer log, long position) {
+        return usernamePosition(log, position) + usernameLength(log, position);
+    }
+
+    private static boolean isLive(SegmentedBuffer log, long position) {
+        return (log.getInt(position + RECORD_FLAGS) & (FLAG_CREDENTIAL_REMOVED | FLAG_USER_REMOVED)) == 0;
+    }
+
+    private static boolean isUserLive(SegmentedBuffer log, long position) {
+        return (log.getInt(position + RECORD_FLAGS) & FLAG_USER_REMOVED) == 0;
+    }
+
+    /**
+     * @return the position of a record whose user is not removed and has the given username, or 0 if none.
+     */
+    private static long findUser(SegmentedBuffer log, Index index, long committed, byte[] username) {
+        final long hash = hash(username);
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_USERNAME, slot);
+            if (entry == 0) {
+                return 0;
+            }
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && position < committed
+                && isUserLive(log, position)
+                && log.bytesEqual(usernamePosition(log, position), usernameLength(log, position), username)
+            ) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * @return the position of a record whose user is not removed and has the given user handle, or 0 if none.
+     */
+    private static long findUserByHandle(SegmentedBuffer log, Index index, long committed, byte[] userHandle) {
+        final long hash = hash(userHandle);
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_USER_HANDLE, slot);
+            if (entry == 0) {
+                return 0;
+            }
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && position < committed
+                && isUserLive(log, position)
+                && log.bytesEqual(userHandlePosition(log, position), userHandleLength(log, position), userHandle)
+            ) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * @return the position of the live record with the given credential ID and user handle, or 0 if none.
+     */
+    private static long findCredential(SegmentedBuffer log, Index index, long committed, byte[] credentialId, byte[] userHandle) {
+        final long hash = hash(credentialId);
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_CREDENTIAL_ID, slot);
+            if (entry == 0) {
+                return 0;
+            }
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && position < committed
+                && isLive(log, position)
+                && log.bytesEqual(credentialIdPosition(position), credentialIdLength(log, position), credentialId)
+                && log.bytesEqual(userHandlePosition(log, position), userHandleLength(log, position), userHandle)
+            ) {
+                return position;
+            }
+        }
+    }
+
+    private RegisteredCredential readCredential(long position) {
+        return RegisteredCredential.builder()
+            .credentialId(new ByteArray(log.getBytes(credentialIdPosition(position), credentialIdLength(log, position))))
+            .userHandle(new ByteArray(log.getBytes(userHandlePosition(log, position), userHandleLength(log, position))))
+            .publicKeyCose(new ByteArray(log.getBytes(publicKeyPosition(log, position), publicKeyLength(log, position))))
+            .signatureCount(log.getLong(position + RECORD_SIGNATURE_COUNT))
+            .build();
+    }
+
+    private String readUsername(long position) {
+        return new String(log.getBytes(usernamePosition(log, position), usernameLength(log, position)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @see CredentialRepository#getCredentialIdsForUsername(String)
+     */
+    Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        final long committed = committedLength;
+        final Index index = this.index;
+
+        final long user = findUser(log, index, committed, username.getBytes(StandardCharsets.UTF_8));
+        if (user == 0) {
+            return Collections.emptySet();
+        }
+        final int userHandleLength = userHandleLength(log, user);
+        final byte[] userHandle = log.getBytes(userHandlePosition(log, user), userHandleLength);
+
+        final Set<PublicKeyCredentialDescriptor> result = new HashSet<>();
+        final long hash = hash(userHandle);
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_USER_HANDLE, slot);
+            if (entry == 0) {
+                return CollectionUtil.immutableSet(result);
+            }
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && position < committed
+                && isLive(log, position)
+                && log.bytesEqual(userHandlePosition(log, position), userHandleLength(log, position), userHandle)
+            ) {
+                result.add(PublicKeyCredentialDescriptor.builder()
+                    .id(new ByteArray(log.getBytes(credentialIdPosition(position), credentialIdLength(log, position))))
+                    .build());
+            }
+        }
+    }
+
+    /**
+     * @see CredentialRepository#getUserHandleForUsername(String)
+     */
+    Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        final long committed = committedLength;
+        final long user = findUser(log, index, committed, username.getBytes(StandardCharsets.UTF_8));
+        if (user == 0) {
+            return Optional.empty();
+        } else {
+            return Optional.of(new ByteArray(log.getBytes(userHandlePosition(log, user), userHandleLength(log, user))));
+        }
+    }
+
+    /**
+     * @see CredentialRepository#getUsernameForUserHandle(ByteArray)
+     */
+    Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        final long committed = committedLength;
+        final long user = findUserByHandle(log, index, committed, userHandle.getBytes());
+        return user == 0 ? Optional.<String>empty() : Optional.of(readUsername(user));
+    }
+
+    /**
+     * @see CredentialRepository#lookup(ByteArray, ByteArray)
+     */
+    Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        final long committed = committedLength;
+        final long position = findCredential(log, index, committed, credentialId.getBytes(), userHandle.getBytes());
+        return position == 0 ? Optional.<RegisteredCredential>empty() : Optional.of(readCredential(position));
+    }
+
+    /**
+     * @see CredentialRepository#lookupAll(ByteArray)
+     */
+    Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        final long committed = committedLength;
+        final Index index = this.index;
+        final byte[] id = credentialId.getBytes();
+
+        final Set<RegisteredCredential> result = new HashSet<>();
+        final long hash = hash(id);
+        for (long slot = hash & index.mask; ; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_CREDENTIAL_ID, slot);
+            if (entry == 0) {
+                return CollectionUtil.immutableSet(result);
+            }
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && position < committed
+                && isLive(log, position)
+                && log.bytesEqual(credentialIdPosition(position), credentialIdLength(log, position), id)
+            ) {
+                result.add(readCredential(position));
+            }
+        }
+    }
+
+    /**
+     * Call <code>action</code> for each live credential, in the order they were added.
+     *
+     * @throws UncheckedIOException if a record is malformed.
+     */
+    void forEachCredential(@NonNull Consumer<StoredCredential> action) {
+        final long committed = committedLength;
+        long position = HEADER_SIZE;
+        while (position < committed) {
+            final int length;
+            try {
+                length = recordLength(log, position, committed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if ((log.getInt(position + RECORD_FLAGS) & FLAG_PADDING) == 0 && isLive(log, position)) {
+                action.accept(new StoredCredential(readUsername(position), readCredential(position)));
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Add a credential, or replace the credential with the same credential ID and user handle.
+     *
+     * @return <code>true</code> if the credential was added, <code>false</code> if it replaced an existing credential.
+     * @throws IllegalArgumentException if <code>username</code> is already bound to a different user handle, the user
+     * handle is already bound to a different username, or a field is longer than 65535 bytes.
+     * @throws IOException if growing the log or the index fails.
+     */
+    synchronized boolean addCredential(@NonNull String username, @NonNull RegisteredCredential credential) throws IOException {
+        final byte[] credentialId = credential.getCredentialId().getBytes();
+        final byte[] userHandle = credential.getUserHandle().getBytes();
+        final byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+        final byte[] publicKey = credential.getPublicKeyCose().getBytes();
+        final long committed = committedLength;
+
+        ExceptionUtil.assure(credentialId.length <= MAX_FIELD_LENGTH, "Credential ID is too long: %d bytes", credentialId.length);
+        ExceptionUtil.assure(userHandle.length <= MAX_FIELD_LENGTH, "User handle is too long: %d bytes", userHandle.length);
+        ExceptionUtil.assure(usernameBytes.length <= MAX_FIELD_LENGTH, "Username is too long: %d bytes", usernameBytes.length);
+        ExceptionUtil.assure(publicKey.length <= MAX_FIELD_LENGTH, "Public key is too long: %d bytes", publicKey.length);
+
+        final long byUsername = findUser(log, index, committed, usernameBytes);
+        ExceptionUtil.assure(
+            byUsername == 0 || log.bytesEqual(userHandlePosition(log, byUsername), userHandleLength(log, byUsername), userHandle),
+            "Username %s is already bound to a different user handle.",
+            username
+        );
+        final long byUserHandle = findUserByHandle(log, index, committed, userHandle);
+        ExceptionUtil.assure(
+            byUserHandle == 0 || log.bytesEqual(usernamePosition(log, byUserHandle), usernameLength(log, byUserHandle), usernameBytes),
+            "User handle %s is already bound to a different username.",
+            credential.getUserHandle().getBase64Url()
+        );
+
+        final long existing = findCredential(log, index, committed, credentialId, userHandle);
+        appendAndIndex(credentialId, userHandle, usernameBytes, publicKey, credential.getSignatureCount(), 0);
+        if (existing == 0) {
+            addLiveCredentials(1);
+        } else {
+            // Remove the replaced credential only now, so that readers see the old or the new one throughout
+            setFlag(existing, FLAG_CREDENTIAL_REMOVED);
+        }
+        publish();
+
+        return existing == 0;
+    }
+
+    /**
+     * Append a record, advance {@link #committedLength} past it and index it.
+     */
+    private void appendAndIndex(byte[] credentialId, byte[] userHandle, byte[] username, byte[] publicKey, long signatureCount, int flags) throws IOException {
+        final long position = append(credentialId, userHandle, username, publicKey, signatureCount, flags);
+        committedLength = position + log.getInt(position + RECORD_LENGTH);
+
+        final Index index = ensureIndexCapacity();
+        indexRecord(log, index, position);
+        index.buffer.putLong(INDEX_INDEXED_LENGTH, committedLength);
+    }
+
+    /**
+     * Write a record at the end of the log and advance the committed length in the log header past it. This does not
+     * update {@link #committedLength}.
+     *
+     * @return the position of the record.
+     */
+    private long append(byte[] credentialId, byte[] userHandle, byte[] username, byte[] publicKey, long signatureCount, int flags) throws IOException {
+        final int dataLength = credentialId.length + userHandle.length + username.length + publicKey.length;
+        final int length = (RECORD_DATA + dataLength + 7) & ~7;
+
+        long position = log.getLong(LOG_COMMITTED_LENGTH);
+        final long segmentEnd = ((position >>> SegmentedBuffer.SEGMENT_SHIFT) + 1) << SegmentedBuffer.SEGMENT_SHIFT;
+        if (position + length > segmentEnd) {
+            // Records must not straddle segments, so skip to the next one
+            log.putInt(position + RECORD_LENGTH, (int) (segmentEnd - position));
+            log.putInt(position + RECORD_FLAGS, FLAG_PADDING);
+            position = segmentEnd;
+        }
+        ExceptionUtil.assure(position + length <= OFFSET_MASK, "Credential log is full.");
+        log.ensureCapacity(position + length);
+
+        long data = position + RECORD_DATA;
+        log.putBytes(data, credentialId);
+        data += credentialId.length;
+        log.putBytes(data, userHandle);
+        data += userHandle.length;
+        log.putBytes(data, username);
+        data += username.length;
+        log.putBytes(data, publicKey);
+
+        log.putLong(position + RECORD_SIGNATURE_COUNT, signatureCount);
+        log.putShort(position + RECORD_CREDENTIAL_ID_LENGTH, (short) credentialId.length);
+        log.putShort(position + RECORD_USER_HANDLE_LENGTH, (short) userHandle.length);
+        log.putShort(position + RECORD_USERNAME_LENGTH, (short) username.length);
+        log.putShort(position + RECORD_PUBLIC_KEY_LENGTH, (short) publicKey.length);
+        log.putInt(position + RECORD_FLAGS, flags);
+        log.putInt(position + RECORD_LENGTH, length);
+
+        log.putLong(LOG_COMMITTED_LENGTH, position + length);
+        return position;
+    }
+
+    /**
+     * Make changes made in place visible to readers, which read {@link #committedLength} first.
+     */
+    private void publish() {
+        committedLength = committedLength;
+    }
+
+    private void addLiveCredentials(long delta) {
+        liveCredentials += delta;
+        log.putLong(LOG_LIVE_CREDENTIALS, liveCredentials);
+    }
+
+    private void setFlag(long position, int flag) {
+        log.putInt(position + RECORD_FLAGS, log.getInt(position + RECORD_FLAGS) | flag);
+    }
+
+    /**
+     * Double the index capacity, by rebuilding it from the log, if it is more than half full.
+     */
+    private Index ensureIndexCapacity() throws IOException {
+        final Index current = index;
+        if ((current.buffer.getLong(INDEX_RECORDS) + 1) * 2 <= current.capacity) {
+            return current;
+        }
+
+        final Index grown = buildIndex(log, current.buffer.getLong(INDEX_INDEXED_LENGTH), current.capacity * 2, indexAllocator);
+        index = grown;
+        current.buffer.close();
+        return grown;
+    }
+
+    /**
+     * Replace the signature count of a stored credential, in place.
+     *
+     * @return <code>true</code> if the credential exists, <code>false</code> otherwise.
+     */
+    synchronized boolean updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        final long position = findCredential(log, index, committedLength, credentialId.getBytes(), userHandle.getBytes());
+        if (position == 0) {
+            return false;
+        }
+
+        log.putLong(position + RECORD_SIGNATURE_COUNT, signatureCount);
+        publish();
+        return true;
+    }
+
+    /**
+     * Remove a credential. The user remains bound to its username and user handle.
+     *
+     * @return <code>true</code> if the credential existed, <code>false</code> otherwise.
+     */
+    synchronized boolean removeCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        final long position = findCredential(log, index, committedLength, credentialId.getBytes(), userHandle.getBytes());
+        if (position == 0) {
+            return false;
+        }
+
+        setFlag(position, FLAG_CREDENTIAL_REMOVED);
+        addLiveCredentials(-1);
+        publish();
+        return true;
+    }
+
+    /**
+     * Remove a user and all of its credentials.
+     *
+     * @return <code>true</code> if the user existed, <code>false</code> otherwise.
+     */
+    synchronized boolean removeUser(@NonNull ByteArray userHandle) {
+        final long committed = committedLength;
+        final Index index = this.index;
+        final byte[] handle = userHandle.getBytes();
+        if (findUserByHandle(log, index, committed, handle) == 0) {
+            return false;
+        }
+
+        long removedCredentials = 0;
+        final long hash = hash(handle);
+        for (long slot = hash & index.mask; index.getSlot(TABLE_USER_HANDLE, slot) != 0; slot = (slot + 1) & index.mask) {
+            final long entry = index.getSlot(TABLE_USER_HANDLE, slot);
+            final long position = entry & OFFSET_MASK;
+            if (tagMatches(entry, hash)
+                && isUserLive(log, position)
+                && log.bytesEqual(userHandlePosition(log, position), userHandleLength(log, position), handle)
+            ) {
+                if (isLive(log, position)) {
+                    ++removedCredentials;
+                }
+                setFlag(position, FLAG_USER_REMOVED);
+            }
+        }
+
+        addLiveCredentials(-removedCredentials);
+        publish();
+        return true;
+    }
+
+    /**
+     * Append the live credentials in this log, and the users without credentials, to <code>target</code>, leaving out
+     * removed and replaced records.
+     */
+    synchronized void copyTo(CredentialLog target) throws IOException {
+        synchronized (target) {
+            final long committed = committedLength;
+            for (long position = HEADER_SIZE; position < committed; position += recordLength(log, position, committed)) {
+                if ((log.getInt(position + RECORD_FLAGS) & FLAG_PADDING) == 0 && isLive(log, position)) {
+                    target.copyRecord(log, position, 0);
+                    target.addLiveCredentials(1);
+                }
+            }
+
+            // Keep the usernames and user handles of users whose credentials have all been removed
+            for (long position = HEADER_SIZE; position < committed; position += recordLength(log, position, committed)) {
+                if ((log.getInt(position + RECORD_FLAGS) & FLAG_PADDING) == 0
+                    && isUserLive(log, position)
+                    && !isLive(log, position)
+                    && findUser(target.log, target.index, target.committedLength, log.getBytes(usernamePosition(log, position), usernameLength(log, position))) == 0
+                ) {
+                    target.copyRecord(log, position, FLAG_CREDENTIAL_REMOVED);
+                }
+            }
+            target.publish();
+        }
+    }
+
+    private void copyRecord(SegmentedBuffer source, long position, int flags) throws IOException {
+        appendAndIndex(
+            source.getBytes(credentialIdPosition(position), credentialIdLength(source, position)),
+            source.getBytes(userHandlePosition(source, position), userHandleLength(source, position)),
+            source.getBytes(usernamePosition(source, position), usernameLength(source, position)),
+            source.getBytes(publicKeyPosition(source, position), publicKeyLength(source, position)),
+            source.getLong(position + RECORD_SIGNATURE_COUNT),
+            flags
+        );
+    }
+
+    /**
+     * @return the total number of stored credentials.
+     */
+    long getCredentialCount() {
+        return liveCredentials;
+    }
+
+    /**
+     * @return the number of bytes allocated for the log and the index.
+     */
+    long getAllocatedBytes() {
+        return log.size() + index.buffer.size();
+    }
+
+    /**
+     * Force all changes to the storage device, if any.
+     */
+    synchronized void flush() {
+        log.force();
+        index.buffer.force();
+    }
+
+    /**
+     * Flush and close the log and the index. This must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.close();
+        index.buffer.close();
+    }
+
+}
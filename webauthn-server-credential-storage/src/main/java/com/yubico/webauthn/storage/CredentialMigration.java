@@ -0,0 +1,184 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.NonNull;
+
+/**
+ * Utilities for moving credentials between {@link IterableCredentialRepository} implementations, either directly or
+ * through a snapshot written by {@link CredentialSnapshotWriter}.
+ *
+ * <p>
+ * Credentials are added to the target in batches of {@link #BATCH_SIZE} with {@link
+ * IterableCredentialRepository#addCredentials(List)}. Migrating a repository that is being written to may miss
+ * concurrent changes, so either stop writes during the migration or replay them afterwards.
+ * </p>
+ */
+public final class CredentialMigration {
+
+    /**
+     * The number of credentials added to the target repository at a time.
+     */
+    public static final int BATCH_SIZE = CredentialSnapshotWriter.CHUNK_SIZE;
+
+    private CredentialMigration() {
+    }
+
+    /**
+     * Copy every credential in <code>source</code> to <code>target</code>.
+     *
+     * @return the number of credentials copied.
+     * @throws IllegalArgumentException if <code>target</code> binds a username or user handle in <code>source</code>
+     * differently.
+     */
+    public static long copy(@NonNull IterableCredentialRepository source, @NonNull IterableCredentialRepository target) throws IOException {
+        return copy(source, target, credential -> true);
+    }
+
+    /**
+     * Copy the credentials in <code>source</code> that match <code>filter</code> to <code>target</code>.
+     *
+     * @return the number of credentials copied.
+     * @see #copy(IterableCredentialRepository, IterableCredentialRepository)
+     */
+    public static long copy(
+        @NonNull IterableCredentialRepository source,
+        @NonNull IterableCredentialRepository target,
+        @NonNull Predicate<StoredCredential> filter
+    ) throws IOException {
+        final Batcher batcher = new Batcher(target, filter);
+        try {
+            source.forEachCredential(batcher);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return batcher.finish();
+    }
+
+    /**
+     * Write every credential in <code>source</code> to <code>writer</code>. The writer is not closed.
+     *
+     * @return the number of credentials written.
+     */
+    public static long export(@NonNull IterableCredentialRepository source, @NonNull CredentialSnapshotWriter writer) throws IOException {
+        final long before = writer.getCount();
+        try {
+            source.forEachCredential(credential -> {
+                try {
+                    writer.write(credential);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return writer.getCount() - before;
+    }
+
+    /**
+     * Add every credential read from <code>reader</code> to <code>target</code>. The reader is not closed.
+     *
+     * @return the number of credentials added.
+     * @throws IOException if the snapshot is truncated or corrupt. Credentials in earlier chunks may already have been
+     * added.
+     */
+    public static long importSnapshot(@NonNull CredentialSnapshotReader reader, @NonNull IterableCredentialRepository target) throws IOException {
+        return importSnapshot(reader, target, credential -> true);
+    }
+
+    /**
+     * Add the credentials read from <code>reader</code> that match <code>filter</code> to <code>target</code>.
+     *
+     * @return the number of credentials added.
+     * @see #importSnapshot(CredentialSnapshotReader, IterableCredentialRepository)
+     */
+    public static long importSnapshot(
+        @NonNull CredentialSnapshotReader reader,
+        @NonNull IterableCredentialRepository target,
+        @NonNull Predicate<StoredCredential> filter
+    ) throws IOException {
+        final Batcher batcher = new Batcher(target, filter);
+        Optional<List<StoredCredential>> chunk;
+        while ((chunk = reader.readChunk()).isPresent()) {
+            for (StoredCredential credential : chunk.get()) {
+                batcher.add(credential);
+            }
+        }
+        return batcher.finish();
+    }
+
+    private static class Batcher implements Consumer<StoredCredential> {
+        private final IterableCredentialRepository target;
+        private final Predicate<StoredCredential> filter;
+        private List<StoredCredential> batch = new ArrayList<>(BATCH_SIZE);
+        private long count = 0;
+
+        private Batcher(IterableCredentialRepository target, Predicate<StoredCredential> filter) {
+            this.target = target;
+            this.filter = filter;
+        }
+
+        @Override
+        public void accept(StoredCredential credential) {
+            try {
+                add(credential);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void add(StoredCredential credential) throws IOException {
+            if (filter.test(credential)) {
+                batch.add(credential);
+                if (batch.size() == BATCH_SIZE) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            target.addCredentials(batch);
+            count += batch.size();
+            batch = new ArrayList<>(BATCH_SIZE);
+        }
+
+        private long finish() throws IOException {
+            if (!batch.isEmpty()) {
+                flush();
+            }
+            return count;
+        }
+    }
+
+}
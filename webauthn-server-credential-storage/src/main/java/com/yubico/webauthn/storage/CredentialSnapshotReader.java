@@ -0,0 +1,269 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.CHUNK_HEADER_SIZE;
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.MAGIC;
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.MAX_FIELD_LENGTH;
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.MAX_PENDING_CHUNKS;
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.RECORD_FIXED_LENGTH;
+import static com.yubico.webauthn.storage.CredentialSnapshotWriter.VERSION;
+
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import lombok.NonNull;
+
+/**
+ * Reads credentials written by {@link CredentialSnapshotWriter}.
+ *
+ * <p>
+ * If an {@link Executor} is given, the reader reads up to {@link CredentialSnapshotWriter#MAX_PENDING_CHUNKS} chunks
+ * ahead and verifies and decodes them on it in parallel. Otherwise chunks are verified and decoded in the reading
+ * thread. Either way, chunks are returned in the order they were written, and a chunk is only returned once its
+ * checksum has been verified.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ *
+ * @see CredentialMigration
+ */
+public final class CredentialSnapshotReader implements Closeable {
+
+    /**
+     * The largest payload a chunk can have per credential, used to reject corrupt chunk headers before allocating
+     * memory for the payload.
+     */
+    private static final long MAX_RECORD_LENGTH = 4 + RECORD_FIXED_LENGTH + 4L * MAX_FIELD_LENGTH;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataInputStream in;
+    private final Optional<Executor> executor;
+
+    /**
+     * Chunks being decoded, in the order they were written.
+     */
+    private final ArrayDeque<Future<List<StoredCredential>>> pending = new ArrayDeque<>();
+
+    private long chunks = 0;
+    private long count = 0;
+    private boolean ended = false;
+
+    private CredentialSnapshotReader(InputStream in, Optional<Executor> executor) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        this.executor = executor;
+
+        if (this.in.readInt() != MAGIC) {
+            throw new IOException("Not a credential snapshot.");
+        }
+        final int version = this.in.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported credential snapshot version: " + version);
+        }
+        this.in.readUnsignedShort();
+    }
+
+    /**
+     * Start reading a snapshot from <code>in</code>, decoding chunks in the reading thread.
+     *
+     * @throws IOException if <code>in</code> does not start with a supported snapshot header.
+     */
+    public static CredentialSnapshotReader open(@NonNull InputStream in) throws IOException {
+        return new CredentialSnapshotReader(in, Optional.empty());
+    }
+
+    /**
+     * Start reading a snapshot from <code>in</code>, decoding chunks in parallel on <code>executor</code>.
+     *
+     * @throws IOException if <code>in</code> does not start with a supported snapshot header.
+     */
+    public static CredentialSnapshotReader open(@NonNull InputStream in, @NonNull Executor executor) throws IOException {
+        return new CredentialSnapshotReader(in, Optional.of(executor));
+    }
+
+    /**
+     * Read the next chunk of credentials.
+     *
+     * @return the next chunk of credentials, in the order they were written, or empty at the end of the snapshot.
+     * @throws java.io.EOFException if the snapshot is truncated.
+     * @throws IOException if the snapshot is corrupt, or reading fails.
+     */
+    public Optional<List<StoredCredential>> readChunk() throws IOException {
+        readAhead();
+        if (pending.isEmpty()) {
+            return Optional.empty();
+        } else {
+            return Optional.of(await(pending.remove()));
+        }
+    }
+
+    private void readAhead() throws IOException {
+        final int limit = executor.isPresent() ? MAX_PENDING_CHUNKS : 1;
+
+        while (!ended && pending.size() < limit) {
+            final int payloadLength = in.readInt();
+            final int recordCount = in.readInt();
+            final int checksum = in.readInt();
+
+            if (payloadLength == 0 && recordCount == 0) {
+                ended = true;
+                final long total = in.readLong();
+                if (total != count) {
+                    throw new IOException(String.format(
+                        "Credential snapshot has %d credentials, but its end marker says %d.", count, total));
+                }
+                return;
+            }
+
+            final long index = chunks;
+            if (recordCount <= 0 || payloadLength <= 0 || payloadLength > recordCount * MAX_RECORD_LENGTH) {
+                throw new IOException(String.format("Corrupt header for credential snapshot chunk %d.", index));
+            }
+
+            final byte[] payload = new byte[payloadLength];
+            in.readFully(payload);
+            ++chunks;
+            count += recordCount;
+
+            final FutureTask<List<StoredCredential>> task =
+                new FutureTask<>(() -> decodeChunk(index, payload, recordCount, checksum));
+            if (executor.isPresent()) {
+                executor.get().execute(task);
+            } else {
+                task.run();
+            }
+            pending.add(task);
+        }
+    }
+
+    private static List<StoredCredential> await(Future<List<StoredCredential>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding credential snapshot chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new IOException("Failed to decode credential snapshot chunk", e.getCause());
+            }
+        }
+    }
+
+    static List<StoredCredential> decodeChunk(long index, byte[] payload, int recordCount, int checksum) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException(String.format("Checksum mismatch in credential snapshot chunk %d.", index));
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(payload);
+        final List<StoredCredential> result = new ArrayList<>(recordCount);
+        try {
+            for (int i = 0; i < recordCount; ++i) {
+                final int recordLength = buffer.getInt();
+                if (recordLength < RECORD_FIXED_LENGTH || recordLength > buffer.remaining()) {
+                    throw new IOException(String.format("Corrupt record in credential snapshot chunk %d.", index));
+                }
+                final int end = buffer.position() + recordLength;
+
+                final String username = new String(getField(buffer), StandardCharsets.UTF_8);
+                final ByteArray credentialId = new ByteArray(getField(buffer));
+                final ByteArray userHandle = new ByteArray(getField(buffer));
+                final ByteArray publicKeyCose = new ByteArray(getField(buffer));
+                final long signatureCount = buffer.getLong();
+
+                if (buffer.position() > end) {
+                    throw new IOException(String.format("Corrupt record in credential snapshot chunk %d.", index));
+                }
+                // Skip fields added by later versions
+                buffer.position(end);
+
+                result.add(new StoredCredential(
+                    username,
+                    RegisteredCredential.builder()
+                        .credentialId(credentialId)
+                        .userHandle(userHandle)
+                        .publicKeyCose(publicKeyCose)
+                        .signatureCount(signatureCount)
+                        .build()
+                ));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException(String.format("Corrupt record in credential snapshot chunk %d.", index), e);
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IOException(String.format("Corrupt credential snapshot chunk %d: trailing data.", index));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    private static byte[] getField(ByteBuffer buffer) {
+        final byte[] result = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(result);
+        return result;
+    }
+
+    /**
+     * Stop decoding any chunks read ahead, and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Future<List<StoredCredential>> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        in.close();
+    }
+
+}
@@ -0,0 +1,297 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import lombok.NonNull;
+
+/**
+ * Writes credentials to a stream in the credential snapshot format, which {@link CredentialSnapshotReader} reads.
+ *
+ * <p>
+ * The format is a header, a sequence of chunks of up to {@link #CHUNK_SIZE} credentials each, and an end marker. All
+ * integers are big-endian.
+ * </p>
+ *
+ * <ul>
+ * <li>The header is the magic number <code>0x57414353</code> (<code>"WACS"</code>) as a 32-bit integer, the format
+ * version as a 16-bit integer, currently 1, and 16 bits reserved as zero.</li>
+ * <li>Each chunk is the length of its payload in bytes as a 32-bit integer, the number of credentials in it as a 32-bit
+ * integer, the CRC-32 of the payload as a 32-bit integer, and the payload.</li>
+ * <li>The payload is a sequence of records, each consisting of the length of the rest of the record as a 32-bit integer,
+ * the username in UTF-8, the credential ID, the user handle and the COSE public key, each preceded by its length as an
+ * unsigned 16-bit integer, and the signature count as a 64-bit integer. Readers skip any bytes after the signature
+ * count, so that later versions may add fields at the end of records.</li>
+ * <li>The end marker is three 32-bit zeros followed by the total number of credentials as a 64-bit integer.</li>
+ * </ul>
+ *
+ * <p>
+ * If an {@link Executor} is given, chunks are encoded and checksummed on it in parallel, up to {@link
+ * #MAX_PENDING_CHUNKS} at a time, and written in order. Otherwise they are encoded in the writing thread.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ *
+ * @see CredentialMigration
+ */
+public final class CredentialSnapshotWriter implements Closeable {
+
+    /**
+     * The number of credentials in each chunk, except the last.
+     */
+    public static final int CHUNK_SIZE = 4096;
+
+    /**
+     * The maximum number of chunks being encoded in parallel at a time.
+     */
+    public static final int MAX_PENDING_CHUNKS = 16;
+
+    static final int MAGIC = 0x5741_4353;
+    static final int VERSION = 1;
+    static final int MAX_FIELD_LENGTH = 0xFFFF;
+    static final int CHUNK_HEADER_SIZE = 12;
+
+    /**
+     * The length of the fields of a version 1 record after the record length.
+     */
+    static final int RECORD_FIXED_LENGTH = 4 * 2 + 8;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final Optional<Executor> executor;
+
+    /**
+     * Chunks being encoded, in the order they are to be written.
+     */
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private List<StoredCredential> chunk = new ArrayList<>(CHUNK_SIZE);
+    private long count = 0;
+    private boolean closed = false;
+
+    private CredentialSnapshotWriter(OutputStream out, Optional<Executor> executor) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.executor = executor;
+
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        this.out.writeShort(0);
+    }
+
+    /**
+     * Start writing a snapshot to <code>out</code>, encoding chunks in the writing thread.
+     */
+    public static CredentialSnapshotWriter create(@NonNull OutputStream out) throws IOException {
+        return new CredentialSnapshotWriter(out, Optional.empty());
+    }
+
+    /**
+     * Start writing a snapshot to <code>out</code>, encoding chunks in parallel on <code>executor</code>.
+     */
+    public static CredentialSnapshotWriter create(@NonNull OutputStream out, @NonNull Executor executor) throws IOException {
+        return new CredentialSnapshotWriter(out, Optional.of(executor));
+    }
+
+    /**
+     * Write a credential. The credential may be buffered until a whole chunk is ready.
+     *
+     * @throws IllegalArgumentException if the username, credential ID, user handle or public key is longer than 65535
+     * bytes. This may instead be thrown by a later call to this method or {@link #close()}.
+     */
+    public void write(@NonNull StoredCredential credential) throws IOException {
+        if (closed) {
+            throw new IOException("Credential snapshot writer is closed.");
+        }
+
+        chunk.add(credential);
+        ++count;
+        if (chunk.size() == CHUNK_SIZE) {
+            submitChunk();
+        }
+    }
+
+    /**
+     * Write a credential.
+     *
+     * @see #write(StoredCredential)
+     */
+    public void write(@NonNull String username, @NonNull RegisteredCredential credential) throws IOException {
+        write(new StoredCredential(username, credential));
+    }
+
+    /**
+     * @return the number of credentials written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private void submitChunk() throws IOException {
+        final List<StoredCredential> records = chunk;
+        chunk = new ArrayList<>(CHUNK_SIZE);
+
+        if (executor.isPresent()) {
+            final FutureTask<byte[]> task = new FutureTask<>(() -> encodeChunk(records));
+            executor.get().execute(task);
+            pending.add(task);
+            if (pending.size() >= MAX_PENDING_CHUNKS) {
+                out.write(await(pending.remove()));
+            }
+        } else {
+            out.write(encodeChunk(records));
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding credential snapshot chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new IOException("Failed to encode credential snapshot chunk", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the chunk header followed by the payload.
+     */
+    static byte[] encodeChunk(List<StoredCredential> records) {
+        final byte[][] usernames = new byte[records.size()][];
+        int payloadLength = 0;
+        for (int i = 0; i < records.size(); ++i) {
+            final StoredCredential record = records.get(i);
+            final RegisteredCredential credential = record.getCredential();
+            usernames[i] = record.getUsername().getBytes(StandardCharsets.UTF_8);
+
+            checkLength("Username", usernames[i].length);
+            checkLength("Credential ID", credential.getCredentialId().size());
+            checkLength("User handle", credential.getUserHandle().size());
+            checkLength("Public key", credential.getPublicKeyCose().size());
+
+            payloadLength += 4 + recordLength(usernames[i], credential);
+        }
+
+        final byte[] result = new byte[CHUNK_HEADER_SIZE + payloadLength];
+        final ByteBuffer buffer = ByteBuffer.wrap(result);
+        buffer.position(CHUNK_HEADER_SIZE);
+        for (int i = 0; i < records.size(); ++i) {
+            final RegisteredCredential credential = records.get(i).getCredential();
+            buffer.putInt(recordLength(usernames[i], credential));
+            putField(buffer, usernames[i]);
+            putField(buffer, credential.getCredentialId());
+            putField(buffer, credential.getUserHandle());
+            putField(buffer, credential.getPublicKeyCose());
+            buffer.putLong(credential.getSignatureCount());
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(result, CHUNK_HEADER_SIZE, payloadLength);
+        buffer.putInt(0, payloadLength);
+        buffer.putInt(4, records.size());
+        buffer.putInt(8, (int) crc.getValue());
+        return result;
+    }
+
+    private static void checkLength(String field, int length) {
+        ExceptionUtil.assure(length <= MAX_FIELD_LENGTH, "%s is too long: %d bytes", field, length);
+    }
+
+    private static int recordLength(byte[] username, RegisteredCredential credential) {
+        return RECORD_FIXED_LENGTH
+            + username.length
+            + credential.getCredentialId().size()
+            + credential.getUserHandle().size()
+            + credential.getPublicKeyCose().size();
+    }
+
+    private static void putField(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static void putField(ByteBuffer buffer, ByteArray value) {
+        putField(buffer, value.getBytes());
+    }
+
+    /**
+     * Write any buffered credentials and the end marker, and close the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (!chunk.isEmpty()) {
+                submitChunk();
+            }
+            while (!pending.isEmpty()) {
+                out.write(await(pending.remove()));
+            }
+
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(count);
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            out.close();
+        }
+    }
+
+}
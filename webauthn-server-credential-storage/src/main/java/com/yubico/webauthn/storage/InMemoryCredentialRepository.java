@@ -0,0 +1,351 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A thread-safe, in-memory {@link CredentialRepository}.
+ *
+ * <p>
+ * Credentials are indexed by credential ID, user handle and username, so every {@link CredentialRepository} method
+ * takes constant time regardless of how many credentials are stored. Each index entry is immutable and is replaced,
+ * never modified, so readers never lock unless they race with a writer.
+ * </p>
+ *
+ * <p>
+ * Updates are atomic across all indexes: a reader never sees a credential in one index but not another, or a username
+ * without its user handle. Writes are serialized.
+ * </p>
+ *
+ * <p>
+ * This is suitable for tests and small deployments. Everything is lost when the JVM exits.
+ * </p>
+ */
+public final class InMemoryCredentialRepository implements IterableCredentialRepository {
+
+    private final StampedLock lock = new StampedLock();
+
+    private final ConcurrentHashMap<String, UserEntry> usersByUsername = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<ByteArray, UserEntry> usersByUserHandle = new ConcurrentHashMap<>();
+
+    /**
+     * Maps each credential ID to the credentials with that ID, keyed by user handle.
+     */
+    private final ConcurrentHashMap<ByteArray, Map<ByteArray, RegisteredCredential>> credentialsById = new ConcurrentHashMap<>();
+
+    @Value
+    private static class UserEntry {
+        private final String username;
+        private final ByteArray userHandle;
+
+        /**
+         * Unmodifiable map of the user's credentials, keyed by credential ID.
+         */
+        private final Map<ByteArray, RegisteredCredential> credentials;
+
+        /**
+         * Unmodifiable set of descriptors of {@link #credentials}, precomputed for {@link
+         * InMemoryCredentialRepository#getCredentialIdsForUsername(String)}.
+         */
+        private final Set<PublicKeyCredentialDescriptor> descriptors;
+
+        private UserEntry(String username, ByteArray userHandle, Map<ByteArray, RegisteredCredential> credentials) {
+            this.username = username;
+            this.userHandle = userHandle;
+            this.credentials = Collections.unmodifiableMap(credentials);
+
+            final Set<PublicKeyCredentialDescriptor> descriptors = new HashSet<>(credentials.size());
+            for (ByteArray credentialId : credentials.keySet()) {
+                descriptors.add(PublicKeyCredentialDescriptor.builder().id(credentialId).build());
+            }
+            this.descriptors = Collections.unmodifiableSet(descriptors);
+        }
+
+        private UserEntry withCredential(RegisteredCredential credential) {
+            final Map<ByteArray, RegisteredCredential> updated = new HashMap<>(credentials);
+            updated.put(credential.getCredentialId(), credential);
+            return new UserEntry(username, userHandle, updated);
+        }
+
+        private UserEntry withoutCredential(ByteArray credentialId) {
+            final Map<ByteArray, RegisteredCredential> updated = new HashMap<>(credentials);
+            updated.remove(credentialId);
+            return new UserEntry(username, userHandle, updated);
+        }
+    }
+
+    /**
+     * Run <code>reader</code> against a state of the indexes that no writer is in the middle of updating.
+     *
+     * <p>
+     * <code>reader</code> is first run without locking. If a write happened meanwhile it is run again under the read
+     * lock, so it must have no side effects and must tolerate inconsistent indexes.
+     * </p>
+     */
+    private <T> T read(Supplier<T> reader) {
+        final long optimisticStamp = lock.tryOptimisticRead();
+        if (optimisticStamp != 0) {
+            final T result = reader.get();
+            if (lock.validate(optimisticStamp)) {
+                return result;
+            }
+        }
+
+        final long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return read(() -> {
+            final UserEntry user = usersByUsername.get(username);
+            return user == null ? Collections.<PublicKeyCredentialDescriptor>emptySet() : user.getDescriptors();
+        });
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return read(() -> Optional.ofNullable(usersByUsername.get(username)).map(UserEntry::getUserHandle));
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return read(() -> Optional.ofNullable(usersByUserHandle.get(userHandle)).map(UserEntry::getUsername));
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return read(() -> {
+            final Map<ByteArray, RegisteredCredential> credentials = credentialsById.get(credentialId);
+            return credentials == null ? Optional.<RegisteredCredential>empty() : Optional.ofNullable(credentials.get(userHandle));
+        });
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        return read(() -> {
+            final Map<ByteArray, RegisteredCredential> credentials = credentialsById.get(credentialId);
+            return credentials == null ? Collections.<RegisteredCredential>emptySet() : Collections.unmodifiableSet(new HashSet<>(credentials.values()));
+        });
+    }
+
+    /**
+     * Add a credential, or replace the credential with the same credential ID and user handle.
+     *
+     * <p>
+     * The first credential added for a user binds <code>username</code> to the credential's {@link
+     * RegisteredCredential#getUserHandle() user handle}.
+     * </p>
+     *
+     * @return <code>true</code> if the credential was added, <code>false</code> if it replaced an existing credential.
+     * @throws IllegalArgumentException if <code>username</code> is already bound to a different user handle, or the
+     * user handle is already bound to a different username.
+     */
+    public boolean addCredential(@NonNull String username, @NonNull RegisteredCredential credential) {
+        final ByteArray userHandle = credential.getUserHandle();
+
+        final long stamp = lock.writeLock();
+        try {
+            final UserEntry byUsername = usersByUsername.get(username);
+            final UserEntry byUserHandle = usersByUserHandle.get(userHandle);
+
+            ExceptionUtil.assure(
+                byUsername == null || byUsername.getUserHandle().equals(userHandle),
+                "Username %s is already bound to a different user handle.",
+                username
+            );
+            ExceptionUtil.assure(
+                byUserHandle == null || byUserHandle.getUsername().equals(username),
+                "User handle %s is already bound to a different username.",
+                userHandle.getBase64Url()
+            );
+
+            final boolean added = byUsername == null || !byUsername.getCredentials().containsKey(credential.getCredentialId());
+            final UserEntry user = byUsername == null
+                ? new UserEntry(username, userHandle, Collections.singletonMap(credential.getCredentialId(), credential))
+                : byUsername.withCredential(credential);
+
+            putUser(user);
+            putCredential(credential);
+            return added;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void addCredentials(@NonNull List<StoredCredential> credentials) {
+        for (StoredCredential credential : credentials) {
+            addCredential(credential.getUsername(), credential.getCredential());
+        }
+    }
+
+    /**
+     * Iterates without locking. Since each user's credentials are replaced, never modified, each user's credentials
+     * are seen as they were at some point during the iteration.
+     */
+    @Override
+    public void forEachCredential(@NonNull Consumer<StoredCredential> action) {
+        for (UserEntry user : usersByUsername.values()) {
+            for (RegisteredCredential credential : user.getCredentials().values()) {
+                action.accept(new StoredCredential(user.getUsername(), credential));
+            }
+        }
+    }
+
+    /**
+     * Replace the signature count of a stored credential.
+     *
+     * @return <code>true</code> if the credential exists, <code>false</code> otherwise.
+     */
+    public boolean updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        final long stamp = lock.writeLock();
+        try {
+            final UserEntry user = usersByUserHandle.get(userHandle);
+            if (user == null) {
+                return false;
+            }
+
+            final RegisteredCredential credential = user.getCredentials().get(credentialId);
+            if (credential == null) {
+                return false;
+            }
+
+            final RegisteredCredential updated = credential.toBuilder().signatureCount(signatureCount).build();
+            putUser(user.withCredential(updated));
+            putCredential(updated);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a credential. The user remains bound to its username and user handle even if this was its last
+     * credential; use {@link #removeUser(ByteArray)} to remove the user.
+     *
+     * @return <code>true</code> if the credential existed, <code>false</code> otherwise.
+     */
+    public boolean removeCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        final long stamp = lock.writeLock();
+        try {
+            final UserEntry user = usersByUserHandle.get(userHandle);
+            if (user == null || !user.getCredentials().containsKey(credentialId)) {
+                return false;
+            }
+
+            putUser(user.withoutCredential(credentialId));
+            removeFromCredentialIndex(credentialId, userHandle);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a user and all of its credentials.
+     *
+     * @return <code>true</code> if the user existed, <code>false</code> otherwise.
+     */
+    public boolean removeUser(@NonNull ByteArray userHandle) {
+        final long stamp = lock.writeLock();
+        try {
+            final UserEntry user = usersByUserHandle.remove(userHandle);
+            if (user == null) {
+                return false;
+            }
+
+            usersByUsername.remove(user.getUsername());
+            for (ByteArray credentialId : user.getCredentials().keySet()) {
+                removeFromCredentialIndex(credentialId, userHandle);
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the total number of stored credentials.
+     */
+    public int getCredentialCount() {
+        return read(() -> {
+            int count = 0;
+            for (Map<ByteArray, RegisteredCredential> credentials : credentialsById.values()) {
+                count += credentials.size();
+            }
+            return count;
+        });
+    }
+
+    private void putUser(UserEntry user) {
+        usersByUsername.put(user.getUsername(), user);
+        usersByUserHandle.put(user.getUserHandle(), user);
+    }
+
+    private void putCredential(RegisteredCredential credential) {
+        final Map<ByteArray, RegisteredCredential> previous = credentialsById.get(credential.getCredentialId());
+        final Map<ByteArray, RegisteredCredential> updated = previous == null ? new HashMap<>(1) : new HashMap<>(previous);
+        updated.put(credential.getUserHandle(), credential);
+        credentialsById.put(credential.getCredentialId(), Collections.unmodifiableMap(updated));
+    }
+
+    private void removeFromCredentialIndex(ByteArray credentialId, ByteArray userHandle) {
+        final Map<ByteArray, RegisteredCredential> previous = credentialsById.get(credentialId);
+        if (previous != null) {
+            if (previous.size() == 1 && previous.containsKey(userHandle)) {
+                credentialsById.remove(credentialId);
+            } else {
+                final Map<ByteArray, RegisteredCredential> updated = new HashMap<>(previous);
+                updated.remove(userHandle);
+                credentialsById.put(credentialId, Collections.unmodifiableMap(updated));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+import lombok.NonNull;
+
+/**
+ * A {@link CredentialRepository} whose contents can be listed and added to in bulk, so that credentials can be copied
+ * between repositories of different kinds.
+ *
+ * @see CredentialMigration
+ */
+public interface IterableCredentialRepository extends CredentialRepository {
+
+    /**
+     * Call <code>action</code> once for each stored credential, in no particular order.
+     *
+     * <p>
+     * Credentials added, replaced or removed while this runs may or may not be included. Users without credentials are
+     * not included.
+     * </p>
+     */
+    void forEachCredential(@NonNull Consumer<StoredCredential> action);
+
+    /**
+     * Add credentials, replacing any with the same credential ID and user handle, as if by adding them one at a time.
+     * Implementations may add them more efficiently than one at a time, for example in one database transaction.
+     *
+     * <p>
+     * The first credential added for a user binds its username to the credential's {@link
+     * RegisteredCredential#getUserHandle() user handle}.
+     * </p>
+     *
+     * @throws IllegalArgumentException if a username is already bound to a different user handle, or a user handle is
+     * already bound to a different username. Credentials before the offending one may or may not have been added.
+     * @throws IOException if the repository fails to store the credentials.
+     */
+    void addCredentials(@NonNull List<StoredCredential> credentials) throws IOException;
+
+}
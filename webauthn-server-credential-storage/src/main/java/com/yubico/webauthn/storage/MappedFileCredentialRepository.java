@@ -0,0 +1,254 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.NonNull;
+
+/**
+ * A {@link CredentialRepository} stored in two memory-mapped files in a directory, for single-node deployments without
+ * a database.
+ *
+ * <p>
+ * <code>credentials.log</code> is an append-only log of credential records, each holding a credential ID, user handle,
+ * username, COSE public key and signature count. <code>credentials.idx</code> holds three open-addressing hash tables,
+ * keyed by credential ID, user handle and username, of offsets into the log. Opening an existing repository only maps
+ * the two files, so it takes milliseconds regardless of size, and looking up a credential allocates nothing besides
+ * the returned {@link RegisteredCredential} and the copies of the key bytes made by {@link ByteArray#getBytes()}.
+ * </p>
+ *
+ * <p>
+ * Adding a credential appends a record; replacing or removing one marks the old record as removed. Signature counts are
+ * updated in place. Each record is written completely before the log length is advanced past it, and the index is
+ * updated after the log, so after the process crashes the index can be brought up to date from the log: if the index
+ * file is missing or lags behind the log, the missing records are indexed when the repository is opened. The files are
+ * not forced to the storage device between the two writes, so after an operating system crash or power loss the log
+ * may end in a zeroed or torn record, and opening it fails with an {@link IOException}; changes since the last
+ * {@link #flush()} may be lost. Both
+ * files hold an ID chosen at random when the log is created, and an index file with a different ID, such as one left
+ * over from a log that was since restored from a backup, is rebuilt from the log. The
+ * space of removed records is not reclaimed.
+ * </p>
+ *
+ * <p>
+ * Changes are written to the files by the operating system in the background; call {@link #flush()} to force them to
+ * the storage device. Reads never lock and may run concurrently with one writer at a time; writes are serialized. Only
+ * one {@link MappedFileCredentialRepository} may have a directory open at a time. This is enforced with a lock on the
+ * log file, which is released when the repository is closed.
+ * </p>
+ *
+ * @see OffHeapCredentialRepository
+ */
+public final class MappedFileCredentialRepository implements IterableCredentialRepository, Closeable {
+
+    public static final String LOG_FILE_NAME = "credentials.log";
+    public static final String INDEX_FILE_NAME = "credentials.idx";
+
+    /**
+     * The number of credentials the index is initially sized for, unless otherwise specified. The index grows as
+     * needed.
+     */
+    public static final long DEFAULT_EXPECTED_CREDENTIALS = 1 << 16;
+
+    private final CredentialLog log;
+
+    private MappedFileCredentialRepository(CredentialLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Open the repository in <code>directory</code>, creating it if it does not exist.
+     *
+     * @throws IOException if another {@link MappedFileCredentialRepository}, in this or another process, has
+     * <code>directory</code> open, or if the log is not a credential log or has a malformed record.
+     */
+    public static MappedFileCredentialRepository open(@NonNull Path directory) throws IOException {
+        return open(directory, DEFAULT_EXPECTED_CREDENTIALS);
+    }
+
+    /**
+     * Open the repository in <code>directory</code>, creating it if it does not exist.
+     *
+     * @param expectedCredentials the number of credentials to size a new index for. This has no effect if the index
+     * already exists.
+     * @throws IOException if another {@link MappedFileCredentialRepository}, in this or another process, has
+     * <code>directory</code> open, or if the log is not a credential log or has a malformed record.
+     */
+    public static MappedFileCredentialRepository open(@NonNull Path directory, long expectedCredentials) throws IOException {
+        Files.createDirectories(directory);
+
+        final Path logPath = directory.resolve(LOG_FILE_NAME);
+        final Path indexPath = directory.resolve(INDEX_FILE_NAME);
+        final Path tempIndexPath = directory.resolve(INDEX_FILE_NAME + ".tmp");
+
+        final MappedFile logFile = new MappedFile(logPath, CredentialLog.HEADER_SIZE);
+        try {
+            logFile.lock();
+            final MappedFile indexFile = Files.exists(indexPath) ? new MappedFile(indexPath, 0) : null;
+            return new MappedFileCredentialRepository(CredentialLog.open(
+                logPath.toString(),
+                logFile,
+                indexFile,
+                expectedCredentials,
+                new CredentialLog.IndexAllocator() {
+                    @Override
+                    public SegmentedBuffer allocate(long size) throws IOException {
+                        Files.deleteIfExists(tempIndexPath);
+                        return new MappedFile(tempIndexPath, size);
+                    }
+
+                    @Override
+                    public void commit(SegmentedBuffer index) throws IOException {
+                        index.force();
+                        Files.move(tempIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            ));
+        } catch (IOException | RuntimeException e) {
+            logFile.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return log.getCredentialIdsForUsername(username);
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return log.getUserHandleForUsername(username);
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return log.getUsernameForUserHandle(userHandle);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return log.lookup(credentialId, userHandle);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        return log.lookupAll(credentialId);
+    }
+
+    /**
+     * Add a credential, or replace the credential with the same credential ID and user handle.
+     *
+     * <p>
+     * The first credential added for a user binds <code>username</code> to the credential's {@link
+     * RegisteredCredential#getUserHandle() user handle}.
+     * </p>
+     *
+     * @return <code>true</code> if the credential was added, <code>false</code> if it replaced an existing credential.
+     * @throws IllegalArgumentException if <code>username</code> is already bound to a different user handle, the user
+     * handle is already bound to a different username, or a field is longer than 65535 bytes.
+     */
+    public boolean addCredential(@NonNull String username, @NonNull RegisteredCredential credential) throws IOException {
+        return log.addCredential(username, credential);
+    }
+
+    @Override
+    public void addCredentials(@NonNull List<StoredCredential> credentials) throws IOException {
+        for (StoredCredential credential : credentials) {
+            log.addCredential(credential.getUsername(), credential.getCredential());
+        }
+    }
+
+    /**
+     * Iterates without locking, in the order the credentials were added.
+     */
+    @Override
+    public void forEachCredential(@NonNull Consumer<StoredCredential> action) {
+        log.forEachCredential(action);
+    }
+
+    /**
+     * Replace the signature count of a stored credential, in place.
+     *
+     * @return <code>true</code> if the credential exists, <code>false</code> otherwise.
+     */
+    public boolean updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        return log.updateSignatureCount(credentialId, userHandle, signatureCount);
+    }
+
+    /**
+     * Remove a credential. The user remains bound to its username and user handle even if this was its last
+     * credential; use {@link #removeUser(ByteArray)} to remove the user.
+     *
+     * @return <code>true</code> if the credential existed, <code>false</code> otherwise.
+     */
+    public boolean removeCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return log.removeCredential(credentialId, userHandle);
+    }
+
+    /**
+     * Remove a user and all of its credentials.
+     *
+     * @return <code>true</code> if the user existed, <code>false</code> otherwise.
+     */
+    public boolean removeUser(@NonNull ByteArray userHandle) {
+        return log.removeUser(userHandle);
+    }
+
+    /**
+     * @return the total number of stored credentials.
+     */
+    public long getCredentialCount() {
+        return log.getCredentialCount();
+    }
+
+    /**
+     * Force all changes to the storage device.
+     */
+    public void flush() {
+        log.flush();
+    }
+
+    /**
+     * Flush and close the files. The repository must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+}
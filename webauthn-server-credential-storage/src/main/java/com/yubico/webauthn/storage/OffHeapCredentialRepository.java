@@ -0,0 +1,246 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import lombok.NonNull;
+
+/**
+ * A thread-safe, in-memory {@link CredentialRepository} that keeps its credentials outside the Java heap, for
+ * deployments that keep tens of millions of credentials in memory.
+ *
+ * <p>
+ * Unlike {@link InMemoryCredentialRepository}, which holds each credential as several Java objects, this packs the
+ * credential ID, user handle, username, COSE public key and signature count of each credential into one record in
+ * direct {@link java.nio.ByteBuffer}s, indexed by open-addressing hash tables of <code>long</code>s which are also
+ * outside the heap. Stored credentials are therefore not traced or copied by the garbage collector, however many there
+ * are. Lookups build the returned {@link RegisteredCredential}s from the records; these are short-lived and are
+ * collected cheaply in the young generation.
+ * </p>
+ *
+ * <p>
+ * A credential with a 64 byte credential ID, a 16 byte user handle, a short username and a 77 byte ES256 public key
+ * takes about 200 bytes, plus 48 to 96 bytes of index. For example, 30 million such credentials take about 8 GB. The
+ * JVM limits the total size of direct buffers to the maximum heap size, unless set otherwise with
+ * <code>-XX:MaxDirectMemorySize</code>.
+ * </p>
+ *
+ * <p>
+ * Replacing or removing a credential leaves the space of the old one unused until {@link #compact()} is called. Memory
+ * that is no longer used, after compacting or after the index grows, is released when the garbage collector collects
+ * the buffers that held it.
+ * </p>
+ *
+ * <p>
+ * Reads never lock and may run concurrently with one writer at a time; writes are serialized. Everything is lost when
+ * the JVM exits; use {@link MappedFileCredentialRepository} to keep credentials outside the heap and on disk.
+ * </p>
+ */
+public final class OffHeapCredentialRepository implements IterableCredentialRepository {
+
+    /**
+     * The number of credentials the index is initially sized for, unless otherwise specified. The index grows as
+     * needed.
+     */
+    public static final long DEFAULT_EXPECTED_CREDENTIALS = 1 << 16;
+
+    private static final CredentialLog.IndexAllocator INDEX_ALLOCATOR = new CredentialLog.IndexAllocator() {
+        @Override
+        public SegmentedBuffer allocate(long size) throws IOException {
+            final DirectArena index = new DirectArena();
+            index.ensureCapacity(size);
+            return index;
+        }
+
+        @Override
+        public void commit(SegmentedBuffer index) {
+        }
+    };
+
+    private final long expectedCredentials;
+
+    /**
+     * Replaced by {@link #compact()}.
+     */
+    private volatile CredentialLog log;
+
+    /**
+     * Create an empty repository.
+     */
+    public OffHeapCredentialRepository() {
+        this(DEFAULT_EXPECTED_CREDENTIALS);
+    }
+
+    /**
+     * Create an empty repository.
+     *
+     * @param expectedCredentials the number of credentials to size the index for.
+     */
+    public OffHeapCredentialRepository(long expectedCredentials) {
+        this.expectedCredentials = expectedCredentials;
+        this.log = newLog(expectedCredentials);
+    }
+
+    private static CredentialLog newLog(long expectedCredentials) {
+        try {
+            return CredentialLog.open("off-heap", new DirectArena(), null, expectedCredentials, INDEX_ALLOCATOR);
+        } catch (IOException e) {
+            throw new AssertionError("Direct buffers do not throw IOException", e);
+        }
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return log.getCredentialIdsForUsername(username);
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return log.getUserHandleForUsername(username);
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return log.getUsernameForUserHandle(userHandle);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return log.lookup(credentialId, userHandle);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        return log.lookupAll(credentialId);
+    }
+
+    /**
+     * Add a credential, or replace the credential with the same credential ID and user handle.
+     *
+     * <p>
+     * The first credential added for a user binds <code>username</code> to the credential's {@link
+     * RegisteredCredential#getUserHandle() user handle}.
+     * </p>
+     *
+     * @return <code>true</code> if the credential was added, <code>false</code> if it replaced an existing credential.
+     * @throws IllegalArgumentException if <code>username</code> is already bound to a different user handle, the user
+     * handle is already bound to a different username, or a field is longer than 65535 bytes.
+     */
+    public synchronized boolean addCredential(@NonNull String username, @NonNull RegisteredCredential credential) {
+        try {
+            return log.addCredential(username, credential);
+        } catch (IOException e) {
+            throw new AssertionError("Direct buffers do not throw IOException", e);
+        }
+    }
+
+    @Override
+    public synchronized void addCredentials(@NonNull List<StoredCredential> credentials) {
+        for (StoredCredential credential : credentials) {
+            addCredential(credential.getUsername(), credential.getCredential());
+        }
+    }
+
+    /**
+     * Iterates without locking, in the order the credentials were added.
+     */
+    @Override
+    public void forEachCredential(@NonNull Consumer<StoredCredential> action) {
+        log.forEachCredential(action);
+    }
+
+    /**
+     * Replace the signature count of a stored credential, in place.
+     *
+     * @return <code>true</code> if the credential exists, <code>false</code> otherwise.
+     */
+    public synchronized boolean updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        return log.updateSignatureCount(credentialId, userHandle, signatureCount);
+    }
+
+    /**
+     * Remove a credential. The user remains bound to its username and user handle even if this was its last
+     * credential; use {@link #removeUser(ByteArray)} to remove the user.
+     *
+     * @return <code>true</code> if the credential existed, <code>false</code> otherwise.
+     */
+    public synchronized boolean removeCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return log.removeCredential(credentialId, userHandle);
+    }
+
+    /**
+     * Remove a user and all of its credentials.
+     *
+     * @return <code>true</code> if the user existed, <code>false</code> otherwise.
+     */
+    public synchronized boolean removeUser(@NonNull ByteArray userHandle) {
+        return log.removeUser(userHandle);
+    }
+
+    /**
+     * Copy the stored credentials into new buffers, leaving out the space of removed and replaced credentials, and
+     * switch to them.
+     *
+     * <p>
+     * This takes time proportional to the number of stored credentials. Reads continue meanwhile, but writes wait for
+     * it to finish. Both the old and the new buffers are allocated until the old ones are garbage collected.
+     * </p>
+     */
+    public synchronized void compact() {
+        final CredentialLog current = log;
+        final CredentialLog compacted = newLog(Math.max(expectedCredentials, current.getCredentialCount()));
+        try {
+            current.copyTo(compacted);
+        } catch (IOException e) {
+            throw new AssertionError("Direct buffers do not throw IOException", e);
+        }
+        log = compacted;
+    }
+
+    /**
+     * @return the total number of stored credentials.
+     */
+    public long getCredentialCount() {
+        return log.getCredentialCount();
+    }
+
+    /**
+     * @return the number of bytes of direct memory allocated for credentials and the index, including the space of
+     * removed and replaced credentials.
+     */
+    public long getAllocatedBytes() {
+        return log.getAllocatedBytes();
+    }
+
+}
@@ -0,0 +1,194 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Memory addressed by <code>long</code> positions, held in segments of up to {@link #SEGMENT_SIZE} bytes so that it can
+ * be larger than a single {@link ByteBuffer}. Values must not straddle segment boundaries; aligned <code>long</code>s
+ * never do.
+ *
+ * <p>
+ * Reads and writes use absolute positions and do not allocate. Growing is not thread safe, but reads may run
+ * concurrently with it.
+ * </p>
+ */
+abstract class SegmentedBuffer implements Closeable {
+
+    static final int SEGMENT_SHIFT = 30;
+    static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private static final long MINIMUM_GROWTH = 1 << 20;
+
+    /**
+     * Replaced, never modified, when the buffer grows. All but the last segment are {@link #SEGMENT_SIZE} bytes.
+     */
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+    private long capacity = 0;
+
+    /**
+     * @param start the position of the first byte of the segment.
+     * @param length the size of the segment.
+     * @param previous the existing segment at <code>start</code>, which is smaller than <code>length</code>, or
+     * <code>null</code> if none.
+     * @return a segment of <code>length</code> bytes holding the contents of <code>previous</code>, if any, followed by
+     * zeros.
+     */
+    abstract ByteBuffer allocateSegment(long start, int length, ByteBuffer previous) throws IOException;
+
+    /**
+     * Make at least <code>size</code> bytes addressable. The buffer grows at least geometrically, up to whole segments.
+     */
+    final void ensureCapacity(long size) throws IOException {
+        if (size <= capacity) {
+            return;
+        }
+
+        final ByteBuffer[] segments = this.segments;
+        final long target = Math.max(size, Math.min(roundUp(capacity * 2), roundUp(size) + SEGMENT_SIZE));
+        final int segmentCount = (int) ((target + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        final ByteBuffer[] grown = Arrays.copyOf(segments, segmentCount);
+
+        for (int i = Math.max(0, segments.length - 1); i < segmentCount; ++i) {
+            final long start = (long) i << SEGMENT_SHIFT;
+            final int length = (int) Math.min(SEGMENT_SIZE, roundUp(target - start));
+            if (grown[i] == null || grown[i].capacity() < length) {
+                grown[i] = allocateSegment(start, length, grown[i]);
+            }
+        }
+
+        this.segments = grown;
+        capacity = ((long) (segmentCount - 1) << SEGMENT_SHIFT) + grown[segmentCount - 1].capacity();
+    }
+
+    private static long roundUp(long size) {
+        return Math.max(MINIMUM_GROWTH, (size + MINIMUM_GROWTH - 1) / MINIMUM_GROWTH * MINIMUM_GROWTH);
+    }
+
+    final long size() {
+        return capacity;
+    }
+
+    final void forEachSegment(Consumer<ByteBuffer> action) {
+        for (ByteBuffer segment : segments) {
+            action.accept(segment);
+        }
+    }
+
+    private ByteBuffer segment(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & SEGMENT_MASK);
+    }
+
+    final byte get(long position) {
+        return segment(position).get(offset(position));
+    }
+
+    final void put(long position, byte value) {
+        segment(position).put(offset(position), value);
+    }
+
+    final short getShort(long position) {
+        return segment(position).getShort(offset(position));
+    }
+
+    final void putShort(long position, short value) {
+        segment(position).putShort(offset(position), value);
+    }
+
+    final int getInt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    final void putInt(long position, int value) {
+        segment(position).putInt(offset(position), value);
+    }
+
+    final long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    final void putLong(long position, long value) {
+        segment(position).putLong(offset(position), value);
+    }
+
+    final byte[] getBytes(long position, int length) {
+        final ByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        final byte[] result = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            result[i] = segment.get(offset + i);
+        }
+        return result;
+    }
+
+    final void putBytes(long position, byte[] bytes) {
+        final ByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        for (int i = 0; i < bytes.length; ++i) {
+            segment.put(offset + i, bytes[i]);
+        }
+    }
+
+    final boolean bytesEqual(long position, int length, byte[] bytes) {
+        if (length != bytes.length) {
+            return false;
+        }
+        final ByteBuffer segment = segment(position);
+        final int offset = offset(position);
+        for (int i = 0; i < length; ++i) {
+            if (segment.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write all changes to the storage device, if any. The default implementation does nothing.
+     */
+    void force() {
+    }
+
+    /**
+     * Release resources other than the segments, which stay valid until they are garbage collected. The default
+     * implementation does nothing.
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
+}
@@ -0,0 +1,389 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import lombok.Builder;
+import lombok.NonNull;
+
+/**
+ * A {@link CredentialRepository} which routes each call to one of several shards, each a {@link CredentialRepository}
+ * holding a disjoint set of users.
+ *
+ * <p>
+ * Each user, with all of its credentials, belongs to the shard chosen by consistent hashing of its user handle. Use
+ * {@link #getShard(ByteArray)} to find the shard to store a new user in. Calls with a user handle, {@link
+ * #lookup(ByteArray, ByteArray)} and {@link #getUsernameForUserHandle(ByteArray)}, go straight to that shard.
+ * </p>
+ *
+ * <p>
+ * Calls with only a username or a credential ID cannot be routed by hashing. {@link
+ * #getCredentialIdsForUsername(String)} and {@link #getUserHandleForUsername(String)} ask the shard given by the {@link
+ * ShardedCredentialRepositoryBuilder#usernameHint(ShardHint) usernameHint}, if any, and otherwise ask every shard and
+ * return the first result found. A username hint that turns out to be wrong only costs the call to the hinted shard
+ * before asking the others. {@link #lookupAll(ByteArray)} always asks every shard and returns the union of the results,
+ * since the same credential ID may be registered to users on different shards; the shard given by the {@link
+ * ShardedCredentialRepositoryBuilder#credentialIdHint(ShardHint) credentialIdHint}, if any, is asked first.
+ * </p>
+ *
+ * <p>
+ * Calls to several shards run in parallel on the {@link ShardedCredentialRepositoryBuilder#executor(Executor)
+ * executor}, if one is given, and otherwise one after another in the calling thread. Either way, calls that return
+ * the first result found stop waiting for the other shards once one has found it. If a shard throws an exception, the
+ * call throws it too.
+ * </p>
+ *
+ * <p>
+ * Shards are identified by their position in the list of shards. Adding a shard at the end of the list moves about
+ * <code>1/n</code> of the users to it, where <code>n</code> is the new number of shards, and no users between other
+ * shards. Users are not moved automatically.
+ * </p>
+ */
+public final class ShardedCredentialRepository implements CredentialRepository {
+
+    /**
+     * The number of points on the hash ring per shard, unless otherwise specified. More points make the shards more
+     * equal in size.
+     */
+    public static final int DEFAULT_VIRTUAL_NODES_PER_SHARD = 160;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * A guess of which shard holds a given key.
+     */
+    @FunctionalInterface
+    public interface ShardHint<K> {
+        /**
+         * @return the index of the shard which probably holds <code>key</code>, or empty if unknown.
+         */
+        Optional<Integer> shardFor(K key);
+    }
+
+    private final List<CredentialRepository> shards;
+    private final Optional<Executor> executor;
+    private final Optional<ShardHint<String>> usernameHint;
+    private final Optional<ShardHint<ByteArray>> credentialIdHint;
+
+    /**
+     * The sorted positions of the virtual nodes on the hash ring.
+     */
+    private final long[] ringPositions;
+
+    /**
+     * The shard index of the virtual node at the same index in {@link #ringPositions}.
+     */
+    private final int[] ringShards;
+
+    @Builder
+    private ShardedCredentialRepository(
+        @NonNull List<CredentialRepository> shards,
+        int virtualNodesPerShard,
+        @NonNull Optional<Executor> executor,
+        @NonNull Optional<ShardHint<String>> usernameHint,
+        @NonNull Optional<ShardHint<ByteArray>> credentialIdHint
+    ) {
+        ExceptionUtil.assure(!shards.isEmpty(), "At least one shard is required.");
+        ExceptionUtil.assure(shards.size() <= 0xFFFF, "At most 65535 shards are supported, was: %d", shards.size());
+        ExceptionUtil.assure(virtualNodesPerShard > 0, "virtualNodesPerShard must be positive, was: %d", virtualNodesPerShard);
+
+        this.shards = CollectionUtil.immutableList(shards);
+        this.executor = executor;
+        this.usernameHint = usernameHint;
+        this.credentialIdHint = credentialIdHint;
+
+        final int nodes = shards.size() * virtualNodesPerShard;
+        final long[] positions = new long[nodes];
+        for (int shard = 0; shard < shards.size(); ++shard) {
+            for (int node = 0; node < virtualNodesPerShard; ++node) {
+                // Keep the shard index in the low bits so that positions are distinct and sort deterministically
+                final long hash = HASH_FUNCTION.newHasher().putInt(shard).putInt(node).hash().asLong();
+                positions[shard * virtualNodesPerShard + node] = (hash & ~0xFFFFL) | shard;
+            }
+        }
+        Arrays.sort(positions);
+
+        this.ringPositions = positions;
+        this.ringShards = new int[nodes];
+        for (int i = 0; i < nodes; ++i) {
+            ringShards[i] = (int) (positions[i] & 0xFFFF);
+        }
+    }
+
+    public static class ShardedCredentialRepositoryBuilder {
+        private int virtualNodesPerShard = DEFAULT_VIRTUAL_NODES_PER_SHARD;
+        private @NonNull Optional<Executor> executor = Optional.empty();
+        private @NonNull Optional<ShardHint<String>> usernameHint = Optional.empty();
+        private @NonNull Optional<ShardHint<ByteArray>> credentialIdHint = Optional.empty();
+
+        /**
+         * The executor to run calls to several shards in parallel on.
+         *
+         * <p>
+         * The default is empty, which means calls to several shards run one after another in the calling thread. Calls
+         * to shards block, so this should not be {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+         * </p>
+         */
+        public ShardedCredentialRepositoryBuilder executor(@NonNull Optional<Executor> executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * The executor to run calls to several shards in parallel on.
+         *
+         * <p>
+         * The default is empty, which means calls to several shards run one after another in the calling thread. Calls
+         * to shards block, so this should not be {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+         * </p>
+         */
+        public ShardedCredentialRepositoryBuilder executor(@NonNull Executor executor) {
+            return this.executor(Optional.of(executor));
+        }
+
+        /**
+         * A guess of which shard holds the user with a given username, for example from a directory the application
+         * already has. The default is empty, which means every shard is asked.
+         */
+        public ShardedCredentialRepositoryBuilder usernameHint(@NonNull Optional<ShardHint<String>> usernameHint) {
+            this.usernameHint = usernameHint;
+            return this;
+        }
+
+        /**
+         * A guess of which shard holds the user with a given username, for example from a directory the application
+         * already has. The default is empty, which means every shard is asked.
+         */
+        public ShardedCredentialRepositoryBuilder usernameHint(@NonNull ShardHint<String> usernameHint) {
+            return this.usernameHint(Optional.of(usernameHint));
+        }
+
+        /**
+         * A guess of which shard holds the credentials with a given credential ID, to ask first. Every shard is asked
+         * regardless, since other shards may hold credentials with the same ID. The default is empty, which means the
+         * shards are asked in order.
+         */
+        public ShardedCredentialRepositoryBuilder credentialIdHint(@NonNull Optional<ShardHint<ByteArray>> credentialIdHint) {
+            this.credentialIdHint = credentialIdHint;
+            return this;
+        }
+
+        /**
+         * A guess of which shard holds the credentials with a given credential ID, to ask first. Every shard is asked
+         * regardless, since other shards may hold credentials with the same ID. The default is empty, which means the
+         * shards are asked in order.
+         */
+        public ShardedCredentialRepositoryBuilder credentialIdHint(@NonNull ShardHint<ByteArray> credentialIdHint) {
+            return this.credentialIdHint(Optional.of(credentialIdHint));
+        }
+    }
+
+    /**
+     * @return the index of the shard which holds, or should hold, the user with the given user handle.
+     */
+    public int getShardIndex(@NonNull ByteArray userHandle) {
+        final long hash = HASH_FUNCTION.hashBytes(userHandle.getBytes()).asLong();
+        final int search = Arrays.binarySearch(ringPositions, hash);
+        final int node = search >= 0 ? search : -search - 1;
+        return ringShards[node == ringShards.length ? 0 : node];
+    }
+
+    /**
+     * @return the shard which holds, or should hold, the user with the given user handle.
+     */
+    public CredentialRepository getShard(@NonNull ByteArray userHandle) {
+        return shards.get(getShardIndex(userHandle));
+    }
+
+    /**
+     * @return the shards, in order.
+     */
+    public List<CredentialRepository> getShards() {
+        return shards;
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return findFirst(
+            hintedShard(usernameHint, username),
+            shard -> shard.getCredentialIdsForUsername(username),
+            ids -> !ids.isEmpty(),
+            Collections.emptySet()
+        );
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return findFirst(
+            hintedShard(usernameHint, username),
+            shard -> shard.getUserHandleForUsername(username),
+            Optional::isPresent,
+            Optional.empty()
+        );
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return getShard(userHandle).getUsernameForUserHandle(userHandle);
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return getShard(userHandle).lookup(credentialId, userHandle);
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        final Optional<Integer> hinted = hintedShard(credentialIdHint, credentialId);
+        final List<CredentialRepository> targets = new ArrayList<>(shards.size());
+        hinted.ifPresent(index -> targets.add(shards.get(index)));
+        targets.addAll(otherShards(hinted));
+
+        final Set<RegisteredCredential> result = new HashSet<>();
+        for (Set<RegisteredCredential> shardResult : callAll(targets, shard -> shard.lookupAll(credentialId), results -> false)) {
+            result.addAll(shardResult);
+        }
+        return CollectionUtil.immutableSet(result);
+    }
+
+    private <K> Optional<Integer> hintedShard(Optional<ShardHint<K>> hint, K key) {
+        final Optional<Integer> shard = hint.flatMap(h -> h.shardFor(key));
+        shard.ifPresent(index -> ExceptionUtil.assure(
+            index >= 0 && index < shards.size(),
+            "Shard hint out of range: %d",
+            index
+        ));
+        return shard;
+    }
+
+    private List<CredentialRepository> otherShards(Optional<Integer> excluded) {
+        if (excluded.isPresent()) {
+            final List<CredentialRepository> result = new ArrayList<>(shards);
+            result.remove((int) excluded.get());
+            return result;
+        } else {
+            return shards;
+        }
+    }
+
+    /**
+     * Ask the hinted shard, if any, and then all other shards, and return the first result that is found.
+     */
+    private <T> T findFirst(Optional<Integer> hinted, Function<CredentialRepository, T> call, Predicate<T> found, T notFound) {
+        if (hinted.isPresent()) {
+            final T result = call.apply(shards.get(hinted.get()));
+            if (found.test(result)) {
+                return result;
+            }
+        }
+
+        for (T result : callAll(otherShards(hinted), call, found)) {
+            if (found.test(result)) {
+                return result;
+            }
+        }
+        return notFound;
+    }
+
+    /**
+     * Call <code>call</code> on each of <code>targets</code>, in parallel if there is an executor, until a result
+     * satisfies <code>done</code>.
+     *
+     * @return the results received, in order of completion, ending with the one satisfying <code>done</code> if any.
+     */
+    private <T> List<T> callAll(List<CredentialRepository> targets, Function<CredentialRepository, T> call, Predicate<T> done) {
+        final List<T> results = new ArrayList<>(targets.size());
+
+        if (!executor.isPresent() || targets.size() == 1) {
+            for (CredentialRepository target : targets) {
+                final T result = call.apply(target);
+                results.add(result);
+                if (done.test(result)) {
+                    break;
+                }
+            }
+            return results;
+        }
+
+        final CompletionService<T> completion = new ExecutorCompletionService<>(executor.get());
+        final List<Future<T>> futures = new ArrayList<>(targets.size());
+        try {
+            for (CredentialRepository target : targets) {
+                futures.add(completion.submit(() -> call.apply(target)));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                final T result = completion.take().get();
+                results.add(result);
+                if (done.test(result)) {
+                    break;
+                }
+            }
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for shards", e);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new RuntimeException("Shard failed", e.getCause());
+            }
+
+        } finally {
+            // Shards that have not started need not; ones already running are left to finish, since interrupting
+            // them may break their connections
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+
+package com.yubico.webauthn.storage
+
+import java.time.Duration
+import java.util.function.LongSupplier
+import com.yubico.webauthn.CredentialRepositoryMetrics.Operation
+import com.yubico.webauthn.InMemoryCredentialRepositoryMetrics
+import com.yubico.webauthn.MeteredCredentialRepository
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class CachingCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private val credential = RegisteredCredential.builder()
+    .credentialId(bytes("cred"))
+    .userHandle(bytes("alice-handle"))
+    .publicKeyCose(bytes("key"))
+    .signatureCount(1)
+    .build()
+
+  private class Fixture {
+    var now: Long = 0
+    val backing = new InMemoryCredentialRepository
+    val metrics = new InMemoryCredentialRepositoryMetrics
+    val cache = new CachingCredentialRepository(
+      new MeteredCredentialRepository(backing, metrics),
+      100,
+      Duration.ofNanos(1000),
+      Duration.ofNanos(100),
+      new LongSupplier { override def getAsLong: Long = now }
+    )
+
+    def calls(operation: Operation): Long = metrics.getSnapshot(operation).getCallCount
+  }
+
+  describe("A CachingCredentialRepository") {
+
+    it("serves repeated lookups from the cache.") {
+      val f = new Fixture
+      f.backing.addCredential("alice", credential)
+
+      for { _ <- 1 to 3 } {
+        f.cache.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred")))
+        f.cache.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+        f.cache.getUsernameForUserHandle(bytes("alice-handle")).get should equal ("alice")
+        f.cache.lookup(bytes("cred"), bytes("alice-handle")).get should equal (credential)
+      }
+
+      f.calls(Operation.GET_CREDENTIAL_IDS_FOR_USERNAME) should equal (1)
+      f.calls(Operation.GET_USER_HANDLE_FOR_USERNAME) should equal (1)
+      f.calls(Operation.GET_USERNAME_FOR_USER_HANDLE) should equal (1)
+      f.calls(Operation.LOOKUP) should equal (1)
+    }
+
+    it("never caches lookupAll.") {
+      val f = new Fixture
+      f.cache.lookupAll(bytes("cred")).asScala shouldBe empty
+      f.backing.addCredential("alice", credential)
+      f.cache.lookupAll(bytes("cred")).asScala should equal (Set(credential))
+      f.calls(Operation.LOOKUP_ALL) should equal (2)
+    }
+
+    it("expires found results after the TTL.") {
+      val f = new Fixture
+      f.backing.addCredential("alice", credential)
+
+      f.cache.lookup(bytes("cred"), bytes("alice-handle"))
+      f.now = 999
+      f.cache.lookup(bytes("cred"), bytes("alice-handle"))
+      f.calls(Operation.LOOKUP) should equal (1)
+
+      f.now = 1000
+      f.cache.lookup(bytes("cred"), bytes("alice-handle"))
+      f.calls(Operation.LOOKUP) should equal (2)
+    }
+
+    it("caches results that were not found for the negative TTL.") {
+      val f = new Fixture
+
+      f.cache.getUserHandleForUsername("alice").isPresent should be (false)
+      f.cache.getCredentialIdsForUsername("alice").asScala shouldBe empty
+      f.backing.addCredential("alice", credential)
+      f.now = 99
+      f.cache.getUserHandleForUsername("alice").isPresent should be (false)
+      f.cache.getCredentialIdsForUsername("alice").asScala shouldBe empty
+
+      f.now = 100
+      f.cache.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      f.cache.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred")))
+      f.calls(Operation.GET_USER_HANDLE_FOR_USERNAME) should equal (2)
+      f.calls(Operation.GET_CREDENTIAL_IDS_FOR_USERNAME) should equal (2)
+    }
+
+    it("reloads invalidated results.") {
+      val f = new Fixture
+      f.cache.getUserHandleForUsername("alice").isPresent should be (false)
+      f.cache.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      f.cache.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+
+      f.backing.addCredential("alice", credential)
+      f.cache.invalidateUsername("alice")
+      f.cache.invalidateUserHandle(bytes("alice-handle"))
+
+      f.cache.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      f.cache.getUsernameForUserHandle(bytes("alice-handle")).get should equal ("alice")
+      f.cache.lookup(bytes("cred"), bytes("alice-handle")).get should equal (credential)
+
+      f.backing.removeCredential(bytes("cred"), bytes("alice-handle"))
+      f.cache.invalidateCredential(bytes("cred"), bytes("alice-handle"))
+      f.cache.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+
+      f.cache.invalidateAll()
+      f.cache.getUserHandleForUsername("alice")
+      f.calls(Operation.GET_USER_HANDLE_FOR_USERNAME) should equal (3)
+    }
+
+    it("accepts pushed signature counts without reloading, but never decreases them.") {
+      val f = new Fixture
+      f.backing.addCredential("alice", credential)
+      f.cache.lookup(bytes("cred"), bytes("alice-handle"))
+
+      f.cache.updateSignatureCount(bytes("cred"), bytes("alice-handle"), 7)
+      f.cache.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (7)
+
+      f.cache.updateSignatureCount(bytes("cred"), bytes("alice-handle"), 5)
+      f.cache.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (7)
+
+      f.cache.updateSignatureCount(bytes("other"), bytes("alice-handle"), 5)
+      f.cache.lookup(bytes("other"), bytes("alice-handle")).isPresent should be (false)
+
+      f.calls(Operation.LOOKUP) should equal (2)
+    }
+
+    it("can be built with defaults.") {
+      val cache = CachingCredentialRepository.builder()
+        .delegate(new InMemoryCredentialRepository)
+        .build()
+
+      cache.getUserHandleForUsername("alice").isPresent should be (false)
+    }
+
+    it("rejects invalid settings.") {
+      an [IllegalArgumentException] should be thrownBy CachingCredentialRepository.builder()
+        .delegate(new InMemoryCredentialRepository)
+        .maximumSize(0)
+        .build()
+      an [IllegalArgumentException] should be thrownBy CachingCredentialRepository.builder()
+        .delegate(new InMemoryCredentialRepository)
+        .ttl(Duration.ofSeconds(-1))
+        .build()
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+
+package com.yubico.webauthn.storage
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.nio.file.Files
+import java.util.Comparator
+
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class CredentialMigrationSpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  private val credentials: List[StoredCredential] =
+    (0 until CredentialMigration.BATCH_SIZE * 2 + 5).map(i =>
+      new StoredCredential(s"user${i % 50}", credential(s"cred$i", s"handle${i % 50}", signatureCount = i))
+    ).toList
+
+  private def contents(repo: IterableCredentialRepository): Set[StoredCredential] = {
+    val result = scala.collection.mutable.Set[StoredCredential]()
+    repo.forEachCredential(result += _)
+    result.toSet
+  }
+
+  private def source(): InMemoryCredentialRepository = {
+    val repo = new InMemoryCredentialRepository
+    repo.addCredentials(credentials.asJava)
+    repo
+  }
+
+  describe("CredentialMigration") {
+
+    it("copies every credential from an in-memory repository to an off-heap one.") {
+      val target = new OffHeapCredentialRepository()
+
+      CredentialMigration.copy(source(), target) should equal (credentials.size)
+
+      contents(target) should equal (credentials.toSet)
+      target.getUsernameForUserHandle(bytes("handle7")).get should equal ("user7")
+    }
+
+    it("copies credentials to a memory-mapped repository.") {
+      val directory = Files.createTempDirectory("webauthn-migration-test")
+      try {
+        val target = MappedFileCredentialRepository.open(directory)
+        try {
+          CredentialMigration.copy(source(), target) should equal (credentials.size)
+          contents(target) should equal (credentials.toSet)
+        } finally {
+          target.close()
+        }
+      } finally {
+        Files.walk(directory).sorted(Comparator.reverseOrder()).iterator().asScala.foreach(Files.delete)
+      }
+    }
+
+    it("copies only credentials matching a filter.") {
+      val target = new OffHeapCredentialRepository()
+
+      CredentialMigration.copy(source(), target, (c: StoredCredential) => c.getUsername == "user3") should equal (credentials.count(_.getUsername == "user3"))
+
+      contents(target) should equal (credentials.filter(_.getUsername == "user3").toSet)
+      target.getUserHandleForUsername("user4").isPresent should be (false)
+    }
+
+    it("exports to and imports from a snapshot.") {
+      val out = new ByteArrayOutputStream
+      val writer = CredentialSnapshotWriter.create(out)
+      CredentialMigration.export(source(), writer) should equal (credentials.size)
+      writer.close()
+
+      val target = new OffHeapCredentialRepository()
+      val reader = CredentialSnapshotReader.open(new ByteArrayInputStream(out.toByteArray))
+      CredentialMigration.importSnapshot(reader, target) should equal (credentials.size)
+      reader.close()
+
+      contents(target) should equal (credentials.toSet)
+    }
+
+    it("imports only credentials matching a filter.") {
+      val out = new ByteArrayOutputStream
+      val writer = CredentialSnapshotWriter.create(out)
+      credentials.foreach(writer.write)
+      writer.close()
+
+      val target = new InMemoryCredentialRepository
+      val reader = CredentialSnapshotReader.open(new ByteArrayInputStream(out.toByteArray))
+      CredentialMigration.importSnapshot(reader, target, (c: StoredCredential) => c.getCredential.getSignatureCount % 2 == 0) should equal (credentials.size / 2 + 1)
+
+      contents(target) should equal (credentials.filter(_.getCredential.getSignatureCount % 2 == 0).toSet)
+    }
+
+    it("fails if the target binds a username differently.") {
+      val target = new OffHeapCredentialRepository()
+      target.addCredential("user0", credential("other", "other-handle"))
+
+      an [IllegalArgumentException] should be thrownBy CredentialMigration.copy(source(), target)
+    }
+
+  }
+
+}
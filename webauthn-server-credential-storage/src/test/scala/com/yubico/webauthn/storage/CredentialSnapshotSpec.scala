@@ -0,0 +1,162 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+
+package com.yubico.webauthn.storage
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.util.concurrent.Executors
+
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class CredentialSnapshotSpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  private val credentials: List[StoredCredential] =
+    (0 until CredentialSnapshotWriter.CHUNK_SIZE * 3 + 17).map(i =>
+      new StoredCredential(s"user${i % 100}-ä", credential(s"cred$i", s"handle${i % 100}", signatureCount = i))
+    ).toList
+
+  private def write(credentials: Seq[StoredCredential], parallel: Boolean = false): Array[Byte] = {
+    val out = new ByteArrayOutputStream
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val writer = if (parallel) CredentialSnapshotWriter.create(out, executor) else CredentialSnapshotWriter.create(out)
+      credentials.foreach(writer.write)
+      writer.getCount should equal (credentials.size)
+      writer.close()
+    } finally {
+      executor.shutdown()
+    }
+    out.toByteArray
+  }
+
+  private def read(snapshot: Array[Byte], parallel: Boolean = false): List[StoredCredential] = {
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val in = new ByteArrayInputStream(snapshot)
+      val reader = if (parallel) CredentialSnapshotReader.open(in, executor) else CredentialSnapshotReader.open(in)
+      try {
+        Iterator.continually(reader.readChunk()).takeWhile(_.isPresent).flatMap(_.get.asScala).toList
+      } finally {
+        reader.close()
+      }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  describe("A credential snapshot") {
+
+    it("round-trips credentials in order.") {
+      read(write(credentials)) should equal (credentials)
+    }
+
+    it("round-trips credentials in order when encoded and decoded in parallel.") {
+      val snapshot = write(credentials, parallel = true)
+      snapshot should equal (write(credentials))
+      read(snapshot, parallel = true) should equal (credentials)
+    }
+
+    it("can be empty.") {
+      read(write(Nil)) shouldBe empty
+      read(write(Nil), parallel = true) shouldBe empty
+    }
+
+    it("returns credentials in chunks.") {
+      val reader = CredentialSnapshotReader.open(new ByteArrayInputStream(write(credentials)))
+      reader.readChunk().get.size should equal (CredentialSnapshotWriter.CHUNK_SIZE)
+    }
+
+    it("starts with a magic number and version.") {
+      write(Nil).take(6) should equal (Array[Byte]('W', 'A', 'C', 'S', 0, 1))
+    }
+
+    it("is rejected if it does not start with the magic number.") {
+      val snapshot = write(credentials)
+      snapshot(0) = 'X'
+      an [IOException] should be thrownBy read(snapshot)
+    }
+
+    it("is rejected if it has an unknown version.") {
+      val snapshot = write(credentials)
+      snapshot(5) = 2
+      an [IOException] should be thrownBy read(snapshot)
+    }
+
+    it("is rejected if a chunk is corrupt.") {
+      for { parallel <- List(false, true) } {
+        val snapshot = write(credentials)
+        snapshot(snapshot.length / 2) = (snapshot(snapshot.length / 2) ^ 1).toByte
+        val e = the [IOException] thrownBy read(snapshot, parallel)
+        e.getMessage should include ("Checksum mismatch")
+      }
+    }
+
+    it("is rejected if it is truncated.") {
+      val snapshot = write(credentials)
+      for {
+        length <- List(snapshot.length - 1, snapshot.length - 8, snapshot.length / 2, 10)
+        parallel <- List(false, true)
+      } {
+        an [EOFException] should be thrownBy read(snapshot.take(length), parallel)
+      }
+    }
+
+    it("is rejected if the end marker has the wrong count.") {
+      val snapshot = write(credentials)
+      snapshot(snapshot.length - 1) = (snapshot(snapshot.length - 1) ^ 1).toByte
+      an [IOException] should be thrownBy read(snapshot)
+    }
+
+    it("cannot contain fields longer than 65535 bytes.") {
+      val long = new StoredCredential("alice", credential("a" * 65536, "alice-handle"))
+      an [IllegalArgumentException] should be thrownBy write(List(long))
+    }
+
+  }
+
+}
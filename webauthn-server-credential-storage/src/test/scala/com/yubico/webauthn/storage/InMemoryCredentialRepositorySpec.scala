@@ -0,0 +1,251 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+
+package com.yubico.webauthn.storage
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import com.yubico.webauthn.AssertionRequest
+import com.yubico.webauthn.FinishAssertionOptions
+import com.yubico.webauthn.FinishRegistrationOptions
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.RelyingParty
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.test.RealExamples
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class InMemoryCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  describe("An InMemoryCredentialRepository") {
+
+    it("is initially empty.") {
+      val repo = new InMemoryCredentialRepository
+
+      repo.getCredentialIdsForUsername("alice").asScala shouldBe empty
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      repo.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+      repo.lookupAll(bytes("cred")).asScala shouldBe empty
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("answers every lookup for added credentials.") {
+      val repo = new InMemoryCredentialRepository
+      val cred1 = credential("cred1", "alice-handle")
+      val cred2 = credential("cred2", "alice-handle")
+      val cred3 = credential("cred3", "bob-handle")
+
+      repo.addCredential("alice", cred1) should be (true)
+      repo.addCredential("alice", cred2) should be (true)
+      repo.addCredential("bob", cred3) should be (true)
+
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(cred1.getCredentialId, cred2.getCredentialId))
+      repo.getCredentialIdsForUsername("bob").asScala.map(_.getId) should equal (Set(cred3.getCredentialId))
+      repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      repo.getUsernameForUserHandle(bytes("bob-handle")).get should equal ("bob")
+      repo.lookup(cred2.getCredentialId, bytes("alice-handle")).get should equal (cred2)
+      repo.lookup(cred2.getCredentialId, bytes("bob-handle")).isPresent should be (false)
+      repo.lookupAll(cred3.getCredentialId).asScala should equal (Set(cred3))
+      repo.getCredentialCount should equal (3)
+    }
+
+    it("replaces a credential with the same credential ID and user handle.") {
+      val repo = new InMemoryCredentialRepository
+      repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 1)) should be (true)
+      repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 2)) should be (false)
+
+      repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (2)
+      repo.getCredentialCount should equal (1)
+    }
+
+    it("returns credentials with the same ID registered to different users from lookupAll.") {
+      val repo = new InMemoryCredentialRepository
+      repo.addCredential("alice", credential("cred", "alice-handle"))
+      repo.addCredential("bob", credential("cred", "bob-handle"))
+
+      repo.lookupAll(bytes("cred")).asScala.map(_.getUserHandle) should equal (Set(bytes("alice-handle"), bytes("bob-handle")))
+    }
+
+    it("refuses to rebind a username or user handle.") {
+      val repo = new InMemoryCredentialRepository
+      repo.addCredential("alice", credential("cred1", "alice-handle"))
+
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("alice", credential("cred2", "other-handle"))
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("mallory", credential("cred2", "alice-handle"))
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+      repo.getUsernameForUserHandle(bytes("other-handle")).isPresent should be (false)
+      repo.getUserHandleForUsername("mallory").isPresent should be (false)
+    }
+
+    it("updates signature counts in all indexes.") {
+      val repo = new InMemoryCredentialRepository
+      repo.addCredential("alice", credential("cred", "alice-handle"))
+
+      repo.updateSignatureCount(bytes("cred"), bytes("alice-handle"), 42) should be (true)
+      repo.updateSignatureCount(bytes("cred"), bytes("bob-handle"), 42) should be (false)
+      repo.updateSignatureCount(bytes("other"), bytes("alice-handle"), 42) should be (false)
+
+      repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (42)
+      repo.lookupAll(bytes("cred")).asScala.map(_.getSignatureCount) should equal (Set(42))
+    }
+
+    it("removes credentials and users from all indexes.") {
+      val repo = new InMemoryCredentialRepository
+      repo.addCredential("alice", credential("cred1", "alice-handle"))
+      repo.addCredential("alice", credential("cred2", "alice-handle"))
+
+      repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (true)
+      repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (false)
+      repo.lookup(bytes("cred1"), bytes("alice-handle")).isPresent should be (false)
+      repo.lookupAll(bytes("cred1")).asScala shouldBe empty
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred2")))
+
+      repo.removeCredential(bytes("cred2"), bytes("alice-handle")) should be (true)
+      repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+
+      repo.removeUser(bytes("alice-handle")) should be (true)
+      repo.removeUser(bytes("alice-handle")) should be (false)
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("never shows a credential in one index but not the others while being written concurrently.") {
+      val repo = new InMemoryCredentialRepository
+      val writers = 4
+      val credentialsPerWriter = 2000
+      val executor = Executors.newFixedThreadPool(writers + 2)
+      val start = new CountDownLatch(1)
+      val done = new AtomicBoolean(false)
+      val inconsistencies = new AtomicInteger(0)
+
+      try {
+        val writerFutures = (0 until writers).map { w =>
+          executor.submit(new Runnable {
+            override def run(): Unit = {
+              start.await()
+              for { i <- 0 until credentialsPerWriter } {
+                repo.addCredential(s"user$w", credential(s"cred-$w-$i", s"handle$w"))
+              }
+            }
+          })
+        }
+
+        val readerFutures = (0 until 2).map { _ =>
+          executor.submit(new Runnable {
+            override def run(): Unit = {
+              start.await()
+              while (!done.get) {
+                for { w <- 0 until writers } {
+                  for { descriptor <- repo.getCredentialIdsForUsername(s"user$w").asScala } {
+                    if (!repo.lookup(descriptor.getId, bytes(s"handle$w")).isPresent || repo.lookupAll(descriptor.getId).isEmpty) {
+                      inconsistencies.incrementAndGet()
+                    }
+                  }
+                }
+              }
+            }
+          })
+        }
+
+        start.countDown()
+        writerFutures.foreach(_.get(1, TimeUnit.MINUTES))
+        done.set(true)
+        readerFutures.foreach(_.get(1, TimeUnit.MINUTES))
+      } finally {
+        executor.shutdownNow()
+      }
+
+      inconsistencies.get should equal (0)
+      repo.getCredentialCount should equal (writers * credentialsPerWriter)
+    }
+
+    it("works as the CredentialRepository of a RelyingParty.") {
+      val testData = RealExamples.YubiKey5
+      val repo = new InMemoryCredentialRepository
+      val rp = RelyingParty.builder()
+        .identity(testData.rp)
+        .credentialRepository(repo)
+        .build()
+
+      val registrationResult = rp.finishRegistration(FinishRegistrationOptions.builder()
+        .request(PublicKeyCredentialCreationOptions.builder()
+          .rp(testData.rp)
+          .user(testData.user)
+          .challenge(testData.attestation.challenge)
+          .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+          .build())
+        .response(testData.attestation.credential)
+        .build())
+
+      repo.addCredential(testData.user.getName, RegisteredCredential.builder()
+        .credentialId(registrationResult.getKeyId.getId)
+        .userHandle(testData.user.getId)
+        .publicKeyCose(registrationResult.getPublicKeyCose)
+        .build())
+
+      val assertionResult = rp.finishAssertion(FinishAssertionOptions.builder()
+        .request(AssertionRequest.builder()
+          .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+            .challenge(testData.assertion.challenge)
+            .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+            .build())
+          .username(testData.user.getName)
+          .build())
+        .response(testData.assertion.credential)
+        .build())
+
+      assertionResult.isSuccess should be (true)
+      repo.updateSignatureCount(assertionResult.getCredentialId, assertionResult.getUserHandle, assertionResult.getSignatureCount) should be (true)
+      repo.lookup(assertionResult.getCredentialId, assertionResult.getUserHandle).get.getSignatureCount should equal (assertionResult.getSignatureCount)
+    }
+  }
+
+}
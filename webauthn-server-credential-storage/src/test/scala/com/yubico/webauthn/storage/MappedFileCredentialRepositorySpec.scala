@@ -0,0 +1,339 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.Comparator
+
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.Future
+import scala.concurrent.duration._
+import scala.jdk.CollectionConverters._
+import scala.util.Try
+
+
+@RunWith(classOf[JUnitRunner])
+class MappedFileCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  private def withDirectory[T](f: Path => T): T = {
+    val directory = Files.createTempDirectory("webauthn-mapped-file-test")
+    try {
+      f(directory)
+    } finally {
+      Files.walk(directory).sorted(Comparator.reverseOrder()).iterator().asScala.foreach(Files.delete)
+    }
+  }
+
+  private def withRepo[T](f: MappedFileCredentialRepository => T): T =
+    withDirectory { directory =>
+      val repo = MappedFileCredentialRepository.open(directory)
+      try {
+        f(repo)
+      } finally {
+        repo.close()
+      }
+    }
+
+  describe("A MappedFileCredentialRepository") {
+
+    it("is initially empty.") {
+      withRepo { repo =>
+        repo.getCredentialIdsForUsername("alice").asScala shouldBe empty
+        repo.getUserHandleForUsername("alice").isPresent should be (false)
+        repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+        repo.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+        repo.lookupAll(bytes("cred")).asScala shouldBe empty
+        repo.getCredentialCount should equal (0)
+      }
+    }
+
+    it("answers every lookup for added credentials.") {
+      withRepo { repo =>
+        val cred1 = credential("cred1", "alice-handle")
+        val cred2 = credential("cred2", "alice-handle")
+        val cred3 = credential("cred3", "bob-handle")
+
+        repo.addCredential("alice", cred1) should be (true)
+        repo.addCredential("alice", cred2) should be (true)
+        repo.addCredential("bob", cred3) should be (true)
+
+        repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(cred1.getCredentialId, cred2.getCredentialId))
+        repo.getCredentialIdsForUsername("bob").asScala.map(_.getId) should equal (Set(cred3.getCredentialId))
+        repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+        repo.getUsernameForUserHandle(bytes("bob-handle")).get should equal ("bob")
+        repo.lookup(cred2.getCredentialId, bytes("alice-handle")).get should equal (cred2)
+        repo.lookup(cred2.getCredentialId, bytes("bob-handle")).isPresent should be (false)
+        repo.lookupAll(cred3.getCredentialId).asScala should equal (Set(cred3))
+        repo.getCredentialCount should equal (3)
+      }
+    }
+
+    it("replaces a credential with the same credential ID and user handle.") {
+      withRepo { repo =>
+        repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 1)) should be (true)
+        repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 2)) should be (false)
+
+        repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (2)
+        repo.lookupAll(bytes("cred")).asScala should have size 1
+        repo.getCredentialCount should equal (1)
+      }
+    }
+
+    it("returns credentials with the same ID registered to different users from lookupAll.") {
+      withRepo { repo =>
+        repo.addCredential("alice", credential("cred", "alice-handle"))
+        repo.addCredential("bob", credential("cred", "bob-handle"))
+
+        repo.lookupAll(bytes("cred")).asScala.map(_.getUserHandle) should equal (Set(bytes("alice-handle"), bytes("bob-handle")))
+      }
+    }
+
+    it("refuses to rebind a username or user handle.") {
+      withRepo { repo =>
+        repo.addCredential("alice", credential("cred1", "alice-handle"))
+
+        an [IllegalArgumentException] should be thrownBy repo.addCredential("alice", credential("cred2", "other-handle"))
+        an [IllegalArgumentException] should be thrownBy repo.addCredential("mallory", credential("cred2", "alice-handle"))
+        repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+        repo.getUsernameForUserHandle(bytes("other-handle")).isPresent should be (false)
+        repo.getUserHandleForUsername("mallory").isPresent should be (false)
+      }
+    }
+
+    it("updates signature counts in place.") {
+      withRepo { repo =>
+        repo.addCredential("alice", credential("cred", "alice-handle"))
+
+        repo.updateSignatureCount(bytes("cred"), bytes("alice-handle"), 42) should be (true)
+        repo.updateSignatureCount(bytes("cred"), bytes("bob-handle"), 42) should be (false)
+        repo.updateSignatureCount(bytes("other"), bytes("alice-handle"), 42) should be (false)
+
+        repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (42)
+        repo.lookupAll(bytes("cred")).asScala.map(_.getSignatureCount) should equal (Set(42))
+      }
+    }
+
+    it("removes credentials and users.") {
+      withRepo { repo =>
+        repo.addCredential("alice", credential("cred1", "alice-handle"))
+        repo.addCredential("alice", credential("cred2", "alice-handle"))
+
+        repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (true)
+        repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (false)
+        repo.lookup(bytes("cred1"), bytes("alice-handle")).isPresent should be (false)
+        repo.lookupAll(bytes("cred1")).asScala shouldBe empty
+        repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred2")))
+
+        repo.removeCredential(bytes("cred2"), bytes("alice-handle")) should be (true)
+        repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+
+        repo.addCredential("alice", credential("cred3", "alice-handle"))
+        repo.removeUser(bytes("alice-handle")) should be (true)
+        repo.removeUser(bytes("alice-handle")) should be (false)
+        repo.getUserHandleForUsername("alice").isPresent should be (false)
+        repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+        repo.lookup(bytes("cred3"), bytes("alice-handle")).isPresent should be (false)
+        repo.getCredentialCount should equal (0)
+
+        repo.addCredential("alice2", credential("cred1", "alice-handle")) should be (true)
+        repo.getUsernameForUserHandle(bytes("alice-handle")).get should equal ("alice2")
+        repo.getCredentialIdsForUsername("alice2").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+      }
+    }
+
+    it("grows beyond the expected number of credentials.") {
+      withDirectory { directory =>
+        val repo = MappedFileCredentialRepository.open(directory, 10)
+        try {
+          for { i <- 0 until 10000 } {
+            repo.addCredential(s"user${i % 100}", credential(s"cred$i", s"handle${i % 100}", signatureCount = i))
+          }
+
+          repo.getCredentialCount should equal (10000)
+          repo.getCredentialIdsForUsername("user7").asScala should have size 100
+          for { i <- 0 until 10000 by 37 } {
+            repo.lookup(bytes(s"cred$i"), bytes(s"handle${i % 100}")).get.getSignatureCount should equal (i)
+          }
+        } finally {
+          repo.close()
+        }
+      }
+    }
+
+    it("keeps its contents when reopened.") {
+      withDirectory { directory =>
+        val repo = MappedFileCredentialRepository.open(directory)
+        repo.addCredential("alice", credential("cred1", "alice-handle"))
+        repo.addCredential("alice", credential("cred2", "alice-handle"))
+        repo.addCredential("bob", credential("cred3", "bob-handle"))
+        repo.updateSignatureCount(bytes("cred1"), bytes("alice-handle"), 7)
+        repo.removeCredential(bytes("cred2"), bytes("alice-handle"))
+        repo.removeUser(bytes("bob-handle"))
+        repo.close()
+
+        val reopened = MappedFileCredentialRepository.open(directory)
+        try {
+          reopened.getCredentialCount should equal (1)
+          reopened.lookup(bytes("cred1"), bytes("alice-handle")).get.getSignatureCount should equal (7)
+          reopened.lookup(bytes("cred2"), bytes("alice-handle")).isPresent should be (false)
+          reopened.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+          reopened.getUserHandleForUsername("bob").isPresent should be (false)
+        } finally {
+          reopened.close()
+        }
+      }
+    }
+
+    it("rebuilds a missing index from the log.") {
+      withDirectory { directory =>
+        val repo = MappedFileCredentialRepository.open(directory)
+        for { i <- 0 until 100 } {
+          repo.addCredential(s"user${i % 10}", credential(s"cred$i", s"handle${i % 10}"))
+        }
+        repo.removeUser(bytes("handle3"))
+        repo.close()
+
+        Files.delete(directory.resolve(MappedFileCredentialRepository.INDEX_FILE_NAME))
+
+        val reopened = MappedFileCredentialRepository.open(directory)
+        try {
+          reopened.getCredentialCount should equal (90)
+          reopened.getCredentialIdsForUsername("user7").asScala should have size 10
+          reopened.getUserHandleForUsername("user3").isPresent should be (false)
+          reopened.lookup(bytes("cred42"), bytes("handle2")).isPresent should be (true)
+        } finally {
+          reopened.close()
+        }
+      }
+    }
+
+    it("rebuilds an index of a different log.") {
+      withDirectory { other =>
+        withDirectory { directory =>
+          val otherRepo = MappedFileCredentialRepository.open(other)
+          for { i <- 0 until 10 } {
+            otherRepo.addCredential(s"other$i", credential(s"other-cred-$i", s"other-handle-$i"))
+          }
+          otherRepo.close()
+
+          val repo = MappedFileCredentialRepository.open(directory)
+          for { i <- 0 until 100 } {
+            repo.addCredential(s"user${i % 10}", credential(s"cred$i", s"handle${i % 10}"))
+          }
+          repo.close()
+
+          Files.copy(
+            other.resolve(MappedFileCredentialRepository.INDEX_FILE_NAME),
+            directory.resolve(MappedFileCredentialRepository.INDEX_FILE_NAME),
+            StandardCopyOption.REPLACE_EXISTING
+          )
+
+          val reopened = MappedFileCredentialRepository.open(directory)
+          try {
+            for { i <- 0 until 100 } {
+              reopened.lookup(bytes(s"cred$i"), bytes(s"handle${i % 10}")).isPresent should be (true)
+            }
+            reopened.getCredentialIdsForUsername("user7").asScala should have size 10
+            reopened.getUserHandleForUsername("other3").isPresent should be (false)
+          } finally {
+            reopened.close()
+          }
+        }
+      }
+    }
+
+    it("refuses to open a log that ends in a zeroed record instead of hanging.") {
+      for { keepIndex <- List(true, false) } {
+        withDirectory { directory =>
+          val repo = MappedFileCredentialRepository.open(directory)
+          for { i <- 0 until 10 } {
+            repo.addCredential(s"user$i", credential(s"cred$i", s"handle$i"))
+          }
+          repo.close()
+
+          // As if the system crashed after the log header was written to disk but before the last record was
+          val logPath = directory.resolve(MappedFileCredentialRepository.LOG_FILE_NAME)
+          val log = ByteBuffer.wrap(Files.readAllBytes(logPath))
+          val committed = log.getLong(8)
+          log.putLong(8, committed + 64)
+          (committed until committed + 64) foreach { i => log.put(i.toInt, 0.toByte) }
+          Files.write(logPath, log.array())
+          if (!keepIndex) {
+            Files.delete(directory.resolve(MappedFileCredentialRepository.INDEX_FILE_NAME))
+          }
+
+          val result = Future { Try(MappedFileCredentialRepository.open(directory)) }
+          val opened = Await.result(result, 10.seconds)
+          opened.foreach(_.close())
+          opened.failed.get shouldBe an [java.io.IOException]
+        }
+      }
+    }
+
+    it("refuses to open a directory that is already open.") {
+      withDirectory { directory =>
+        val repo = MappedFileCredentialRepository.open(directory)
+        try {
+          an [java.io.IOException] should be thrownBy MappedFileCredentialRepository.open(directory)
+        } finally {
+          repo.close()
+        }
+
+        MappedFileCredentialRepository.open(directory).close()
+      }
+    }
+
+    it("refuses to open a file that is not a credential log.") {
+      withDirectory { directory =>
+        Files.write(directory.resolve(MappedFileCredentialRepository.LOG_FILE_NAME), Array.fill[Byte](64)(1))
+
+        an [java.io.IOException] should be thrownBy MappedFileCredentialRepository.open(directory)
+      }
+    }
+  }
+
+}
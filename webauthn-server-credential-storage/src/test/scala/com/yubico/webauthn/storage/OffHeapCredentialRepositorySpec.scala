@@ -0,0 +1,165 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage
+
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class OffHeapCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  describe("An OffHeapCredentialRepository") {
+
+    it("is initially empty.") {
+      val repo = new OffHeapCredentialRepository()
+      repo.getCredentialIdsForUsername("alice").asScala shouldBe empty
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      repo.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+      repo.lookupAll(bytes("cred")).asScala shouldBe empty
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("answers every lookup for added credentials.") {
+      val repo = new OffHeapCredentialRepository()
+      val cred1 = credential("cred1", "alice-handle")
+      val cred2 = credential("cred2", "alice-handle")
+      val cred3 = credential("cred3", "bob-handle")
+
+      repo.addCredential("alice", cred1) should be (true)
+      repo.addCredential("alice", cred2) should be (true)
+      repo.addCredential("bob", cred3) should be (true)
+
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(cred1.getCredentialId, cred2.getCredentialId))
+      repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      repo.getUsernameForUserHandle(bytes("bob-handle")).get should equal ("bob")
+      repo.lookup(cred2.getCredentialId, bytes("alice-handle")).get should equal (cred2)
+      repo.lookup(cred2.getCredentialId, bytes("bob-handle")).isPresent should be (false)
+      repo.lookupAll(cred3.getCredentialId).asScala should equal (Set(cred3))
+      repo.getCredentialCount should equal (3)
+    }
+
+    it("replaces, updates and removes credentials and users.") {
+      val repo = new OffHeapCredentialRepository()
+      repo.addCredential("alice", credential("cred1", "alice-handle", signatureCount = 1))
+      repo.addCredential("alice", credential("cred1", "alice-handle", signatureCount = 2)) should be (false)
+      repo.addCredential("alice", credential("cred2", "alice-handle"))
+      repo.lookup(bytes("cred1"), bytes("alice-handle")).get.getSignatureCount should equal (2)
+
+      repo.updateSignatureCount(bytes("cred1"), bytes("alice-handle"), 42) should be (true)
+      repo.updateSignatureCount(bytes("cred1"), bytes("bob-handle"), 42) should be (false)
+      repo.lookup(bytes("cred1"), bytes("alice-handle")).get.getSignatureCount should equal (42)
+
+      repo.removeCredential(bytes("cred2"), bytes("alice-handle")) should be (true)
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+
+      repo.removeUser(bytes("alice-handle")) should be (true)
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("refuses to rebind a username or user handle.") {
+      val repo = new OffHeapCredentialRepository()
+      repo.addCredential("alice", credential("cred1", "alice-handle"))
+
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("alice", credential("cred2", "other-handle"))
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("mallory", credential("cred2", "alice-handle"))
+    }
+
+    it("grows beyond the expected number of credentials.") {
+      val repo = new OffHeapCredentialRepository(10)
+      for { i <- 0 until 10000 } {
+        repo.addCredential(s"user${i % 100}", credential(s"cred$i", s"handle${i % 100}", signatureCount = i))
+      }
+
+      repo.getCredentialCount should equal (10000)
+      repo.getCredentialIdsForUsername("user7").asScala should have size 100
+      for { i <- 0 until 10000 by 37 } {
+        repo.lookup(bytes(s"cred$i"), bytes(s"handle${i % 100}")).get.getSignatureCount should equal (i)
+      }
+    }
+
+    describe("when compacted") {
+      def populated(): OffHeapCredentialRepository = {
+        val repo = new OffHeapCredentialRepository(10)
+        for { i <- 0 until 2000 } {
+          repo.addCredential(s"user${i % 10}", credential(s"cred$i", s"handle${i % 10}", signatureCount = i))
+        }
+        for { i <- 0 until 2000 by 2 } {
+          repo.removeCredential(bytes(s"cred$i"), bytes(s"handle${i % 10}"))
+        }
+        repo.addCredential("user1", credential("cred1", "handle1", signatureCount = 5000))
+        repo.removeUser(bytes("handle3"))
+        repo.addCredential("carol", credential("carol-cred", "carol-handle"))
+        repo.removeCredential(bytes("carol-cred"), bytes("carol-handle"))
+        repo
+      }
+
+      it("keeps every live credential and drops removed ones.") {
+        val repo = populated()
+        repo.compact()
+
+        repo.getCredentialCount should equal (800)
+        repo.lookup(bytes("cred1"), bytes("handle1")).get.getSignatureCount should equal (5000)
+        repo.lookupAll(bytes("cred1")).asScala should have size 1
+        repo.lookup(bytes("cred7"), bytes("handle7")).get.getSignatureCount should equal (7)
+        repo.lookup(bytes("cred2"), bytes("handle2")).isPresent should be (false)
+        repo.getCredentialIdsForUsername("user5").asScala should have size 200
+      }
+
+      it("keeps users without credentials and forgets removed users.") {
+        val repo = populated()
+        repo.compact()
+
+        repo.getUserHandleForUsername("carol").get should equal (bytes("carol-handle"))
+        repo.getCredentialIdsForUsername("carol").asScala shouldBe empty
+        an [IllegalArgumentException] should be thrownBy repo.addCredential("mallory", credential("cred", "carol-handle"))
+
+        repo.getUserHandleForUsername("user3").isPresent should be (false)
+        repo.addCredential("user3b", credential("cred", "handle3")) should be (true)
+        repo.getUsernameForUserHandle(bytes("handle3")).get should equal ("user3b")
+      }
+    }
+  }
+
+}
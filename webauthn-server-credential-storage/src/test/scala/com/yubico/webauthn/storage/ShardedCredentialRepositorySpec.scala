@@ -0,0 +1,230 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.storage
+
+import java.util.Optional
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import com.yubico.webauthn.CredentialRepository
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.test.Helpers
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class ShardedCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .build()
+
+  private def inMemoryShards(n: Int): List[InMemoryCredentialRepository] = List.fill(n)(new InMemoryCredentialRepository)
+
+  private def sharded(shards: Seq[CredentialRepository]): ShardedCredentialRepository.ShardedCredentialRepositoryBuilder =
+    ShardedCredentialRepository.builder().shards(shards.asJava)
+
+  /**
+   * Adds users user0 to user{n-1}, with user handles handle{i} and credentials cred{i}, to their shards.
+   */
+  private def populate(router: ShardedCredentialRepository, n: Int): Unit =
+    for { i <- 0 until n } {
+      router.getShard(bytes(s"handle$i")).asInstanceOf[InMemoryCredentialRepository]
+        .addCredential(s"user$i", credential(s"cred$i", s"handle$i"))
+    }
+
+  private def hint[K](shard: Int): ShardedCredentialRepository.ShardHint[K] = new ShardedCredentialRepository.ShardHint[K] {
+    override def shardFor(key: K): Optional[Integer] = Optional.of[Integer](shard)
+  }
+
+  private def blocking(latch: CountDownLatch): CredentialRepository = new CredentialRepository {
+    private def await[T](result: T): T = {
+      latch.await()
+      result
+    }
+    override def getCredentialIdsForUsername(username: String): java.util.Set[PublicKeyCredentialDescriptor] = await(Set.empty[PublicKeyCredentialDescriptor].asJava)
+    override def getUserHandleForUsername(username: String): Optional[ByteArray] = await(Optional.empty())
+    override def getUsernameForUserHandle(userHandle: ByteArray): Optional[String] = await(Optional.empty())
+    override def lookup(credentialId: ByteArray, userHandle: ByteArray): Optional[RegisteredCredential] = await(Optional.empty())
+    override def lookupAll(credentialId: ByteArray): java.util.Set[RegisteredCredential] = await(Set.empty[RegisteredCredential].asJava)
+  }
+
+  describe("A ShardedCredentialRepository") {
+
+    it("requires at least one shard.") {
+      an [IllegalArgumentException] should be thrownBy sharded(Nil).build()
+    }
+
+    it("spreads users evenly over the shards.") {
+      val router = sharded(inMemoryShards(4)).build()
+      val counts = (0 until 100000).groupBy(i => router.getShardIndex(bytes(s"handle$i"))).view.mapValues(_.size).toMap
+
+      counts.keySet should equal (Set(0, 1, 2, 3))
+      all (counts.values) should (be > 20000 and be < 30000)
+    }
+
+    it("moves users only to a shard added at the end.") {
+      val shards = inMemoryShards(5)
+      val before = sharded(shards.take(4)).build()
+      val after = sharded(shards).build()
+
+      val moved = (0 until 100000).filter(i => before.getShardIndex(bytes(s"handle$i")) != after.getShardIndex(bytes(s"handle$i")))
+
+      all (moved.map(i => after.getShardIndex(bytes(s"handle$i")))) should equal (4)
+      moved.size should (be > 15000 and be < 25000)
+    }
+
+    it("routes calls with a user handle to a single shard.") {
+      val router = sharded(List(new InMemoryCredentialRepository, Helpers.CredentialRepository.unimplemented)).build()
+      val userHandle = (0 until 1000).map(i => bytes(s"handle$i")).find(router.getShardIndex(_) == 0).get
+      router.getShards.get(0).asInstanceOf[InMemoryCredentialRepository].addCredential("alice", credential("cred", "ignored").toBuilder.userHandle(userHandle).build())
+
+      router.getUsernameForUserHandle(userHandle).get should equal ("alice")
+      router.lookup(bytes("cred"), userHandle).isPresent should be (true)
+    }
+
+    describe("finds every user") {
+      def check(router: ShardedCredentialRepository): Unit = {
+        populate(router, 1000)
+        for { i <- 0 until 1000 by 7 } {
+          router.getUserHandleForUsername(s"user$i").get should equal (bytes(s"handle$i"))
+          router.getUsernameForUserHandle(bytes(s"handle$i")).get should equal (s"user$i")
+          router.getCredentialIdsForUsername(s"user$i").asScala.map(_.getId) should equal (Set(bytes(s"cred$i")))
+          router.lookup(bytes(s"cred$i"), bytes(s"handle$i")).isPresent should be (true)
+          router.lookupAll(bytes(s"cred$i")).asScala.map(_.getUserHandle) should equal (Set(bytes(s"handle$i")))
+        }
+        router.getUserHandleForUsername("nobody").isPresent should be (false)
+        router.getCredentialIdsForUsername("nobody").asScala shouldBe empty
+        router.lookupAll(bytes("nothing")).asScala shouldBe empty
+      }
+
+      it("when calling shards sequentially.") {
+        check(sharded(inMemoryShards(4)).build())
+      }
+
+      it("when calling shards in parallel.") {
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+          check(sharded(inMemoryShards(4)).executor(executor).build())
+        } finally {
+          executor.shutdown()
+        }
+      }
+    }
+
+    it("returns credentials with the same ID from all shards from lookupAll.") {
+      val router = sharded(inMemoryShards(4)).build()
+      val userHandles = (0 until 1000).map(i => bytes(s"handle$i")).groupBy(router.getShardIndex).values.map(_.head).take(2).toList
+      for { (userHandle, i) <- userHandles.zipWithIndex } {
+        router.getShard(userHandle).asInstanceOf[InMemoryCredentialRepository]
+          .addCredential(s"user$i", credential("cred", "ignored").toBuilder.userHandle(userHandle).build())
+      }
+
+      router.lookupAll(bytes("cred")).asScala.map(_.getUserHandle) should equal (userHandles.toSet)
+    }
+
+    it("returns the first result found without waiting for slower shards.") {
+      val latch = new CountDownLatch(1)
+      val executor = Executors.newCachedThreadPool()
+      try {
+        val fast = new InMemoryCredentialRepository
+        fast.addCredential("alice", credential("cred", "alice-handle"))
+        val router = sharded(List(blocking(latch), fast)).executor(executor).build()
+
+        router.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      } finally {
+        latch.countDown()
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+      }
+    }
+
+    it("asks only the hinted shard for a username if the hint is right.") {
+      val hinted = new InMemoryCredentialRepository
+      hinted.addCredential("alice", credential("cred", "alice-handle"))
+      val router = sharded(hinted :: List.fill(3)(Helpers.CredentialRepository.unimplemented))
+        .usernameHint(hint[String](0))
+        .build()
+
+      router.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      router.getCredentialIdsForUsername("alice").asScala should have size 1
+    }
+
+    it("asks every shard for a credential ID even if the hint is right.") {
+      val shards = inMemoryShards(4)
+      shards(0).addCredential("alice", credential("cred", "alice-handle"))
+      shards(2).addCredential("bob", credential("cred", "bob-handle"))
+      val router = sharded(shards)
+        .credentialIdHint(hint[ByteArray](0))
+        .build()
+
+      router.lookupAll(bytes("cred")).asScala.map(_.getUserHandle) should equal (Set(bytes("alice-handle"), bytes("bob-handle")))
+    }
+
+    it("asks the other shards if the hint is wrong.") {
+      val shards = inMemoryShards(4)
+      val router = sharded(shards)
+        .usernameHint(hint[String](0))
+        .credentialIdHint(hint[ByteArray](0))
+        .build()
+      shards(2).addCredential("alice", credential("cred", "alice-handle"))
+
+      router.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      router.lookupAll(bytes("cred")).asScala should have size 1
+    }
+
+    it("rejects hints out of range.") {
+      val router = sharded(inMemoryShards(2)).usernameHint(hint[String](2)).build()
+
+      an [IllegalArgumentException] should be thrownBy router.getUserHandleForUsername("alice")
+    }
+
+    it("throws exceptions from shards.") {
+      val executor = Executors.newFixedThreadPool(2)
+      try {
+        val shards = List(Helpers.CredentialRepository.empty, Helpers.CredentialRepository.unimplemented)
+        a [NotImplementedError] should be thrownBy sharded(shards).build().getUserHandleForUsername("alice")
+        a [NotImplementedError] should be thrownBy sharded(shards).executor(executor).build().lookupAll(bytes("cred"))
+      } finally {
+        executor.shutdown()
+      }
+    }
+  }
+
+}
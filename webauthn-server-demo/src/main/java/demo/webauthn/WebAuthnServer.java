@@ -49,9 +49,10 @@ import com.yubico.webauthn.StartRegistrationOptions;
 import com.yubico.webauthn.U2fVerifier;
 import com.yubico.webauthn.attestation.Attestation;
 import com.yubico.webauthn.attestation.AttestationResolver;
-import com.yubico.webauthn.attestation.MetadataObject;
 import com.yubico.webauthn.attestation.MetadataService;
+import com.yubico.webauthn.attestation.MetadataSnapshot;
 import com.yubico.webauthn.attestation.StandardMetadataService;
+import com.yubico.webauthn.attestation.StreamingMetadataReader;
 import com.yubico.webauthn.attestation.TrustResolver;
 import com.yubico.webauthn.attestation.resolver.CompositeAttestationResolver;
 import com.yubico.webauthn.attestation.resolver.CompositeTrustResolver;
@@ -112,15 +113,17 @@ public class WebAuthnServer {
     private final SessionManager sessions = new SessionManager();
 
 
+    private final MetadataSnapshot previewMetadata = readPreviewMetadata();
+
     private final TrustResolver trustResolver = new CompositeTrustResolver(Arrays.asList(
         StandardMetadataService.createDefaultTrustResolver(),
-        createExtraTrustResolver()
+        createExtraTrustResolver(previewMetadata)
     ));
 
     private final MetadataService metadataService = new StandardMetadataService(
         new CompositeAttestationResolver(Arrays.asList(
             StandardMetadataService.createDefaultAttestationResolver(trustResolver),
-            createExtraMetadataResolver(trustResolver)
+            createExtraMetadataResolver(previewMetadata, trustResolver)
         ))
     );
 
@@ -159,11 +162,11 @@ public class WebAuthnServer {
         return new ByteArray(bytes);
     }
 
-    private static MetadataObject readPreviewMetadata() {
+    private static MetadataSnapshot readPreviewMetadata() {
         InputStream is = WebAuthnServer.class.getResourceAsStream(PREVIEW_METADATA_PATH);
         try {
-            return JacksonCodecs.json().readValue(is, MetadataObject.class);
-        } catch (IOException e) {
+            return StreamingMetadataReader.read(is);
+        } catch (IOException | CertificateException e) {
             throw ExceptionUtil.wrapAndLog(logger, "Failed to read metadata from " + PREVIEW_METADATA_PATH, e);
         } finally {
             Closeables.closeQuietly(is);
@@ -173,25 +176,15 @@ public class WebAuthnServer {
     /**
      * Create a {@link TrustResolver} that accepts attestation certificates that are directly recognised as trust anchors.
      */
-    private static TrustResolver createExtraTrustResolver() {
-        try {
-            MetadataObject metadata = readPreviewMetadata();
-            return new SimpleTrustResolverWithEquality(metadata.getParsedTrustedCertificates());
-        } catch (CertificateException e) {
-            throw ExceptionUtil.wrapAndLog(logger, "Failed to read trusted certificate(s)", e);
-        }
+    private static TrustResolver createExtraTrustResolver(MetadataSnapshot metadata) {
+        return new SimpleTrustResolverWithEquality(metadata.getTrustAnchors());
     }
 
     /**
      * Create a {@link AttestationResolver} with additional metadata for unreleased YubiKey Preview devices.
      */
-    private static AttestationResolver createExtraMetadataResolver(TrustResolver trustResolver) {
-        try {
-            MetadataObject metadata = readPreviewMetadata();
-            return new SimpleAttestationResolver(Collections.singleton(metadata), trustResolver);
-        } catch (CertificateException e) {
-            throw ExceptionUtil.wrapAndLog(logger, "Failed to read trusted certificate(s)", e);
-        }
+    private static AttestationResolver createExtraMetadataResolver(MetadataSnapshot metadata, TrustResolver trustResolver) {
+        return new SimpleAttestationResolver(metadata, trustResolver);
     }
 
     private static <K, V> Cache<K, V> newCache() {
@@ -0,0 +1,645 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.jdbc;
+
+import com.yubico.internal.util.CollectionUtil;
+import com.yubico.internal.util.ExceptionUtil;
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.SignatureCounterStore;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.storage.IterableCredentialRepository;
+import com.yubico.webauthn.storage.StoredCredential;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * A {@link CredentialRepository} backed by a relational database, accessed through JDBC.
+ *
+ * <p>
+ * The tables are defined in the bundled <code>schema.sql</code> resource, which {@link #createSchema()} runs. Every
+ * {@link CredentialRepository} method is a single query served by an index: the primary key on <code>(credential_id,
+ * user_handle)</code> for {@link #lookup(ByteArray, ByteArray)} and {@link #lookupAll(ByteArray)}, the unique index on
+ * <code>username</code> and the covering index on <code>(user_handle, credential_id)</code> for {@link
+ * #getCredentialIdsForUsername(String)}. {@link #lookupAll(Collection)} looks up many credential IDs in a few queries.
+ * {@link #forEachCredential(Consumer)} and {@link #addCredentials(List)} support bulk export and import with {@link
+ * com.yubico.webauthn.storage.CredentialMigration}.
+ * </p>
+ *
+ * <p>
+ * Every query uses one of a fixed set of SQL strings, so the prepared statement caches of connection pools and JDBC
+ * drivers can reuse them. Enable statement caching in the {@link DataSource}, for example <code>cachePrepStmts</code>
+ * in HikariCP or MySQL Connector/J; H2 and the PostgreSQL driver cache prepared statements per connection by default.
+ * </p>
+ *
+ * <p>
+ * {@link SQLException}s are rethrown wrapped in {@link RuntimeException}s, since {@link CredentialRepository} methods
+ * cannot throw checked exceptions. Instances are thread safe if the {@link DataSource} is.
+ * </p>
+ */
+public final class JdbcCredentialRepository implements IterableCredentialRepository {
+
+    /**
+     * The maximum number of credential IDs {@link #lookupAll(Collection)} looks up in each query.
+     */
+    public static final int LOOKUP_ALL_BATCH_SIZE = 100;
+
+    /**
+     * The number of rows {@link #forEachCredential(Consumer)} asks the driver to fetch at a time.
+     */
+    public static final int FOR_EACH_FETCH_SIZE = 1000;
+
+    private static final String SCHEMA_RESOURCE = "schema.sql";
+
+    private static final String BATCH_PARAMETERS = String.join(", ", Collections.nCopies(LOOKUP_ALL_BATCH_SIZE, "?"));
+
+    private static final String SELECT_CREDENTIAL_IDS_FOR_USERNAME =
+        "SELECT c.credential_id FROM webauthn_users u"
+            + " JOIN webauthn_credentials c ON c.user_handle = u.user_handle"
+            + " WHERE u.username = ?";
+    private static final String SELECT_USER_HANDLE_FOR_USERNAME =
+        "SELECT user_handle FROM webauthn_users WHERE username = ?";
+    private static final String SELECT_USERNAME_FOR_USER_HANDLE =
+        "SELECT username FROM webauthn_users WHERE user_handle = ?";
+    private static final String SELECT_CREDENTIAL =
+        "SELECT credential_id, user_handle, public_key_cose, signature_count FROM webauthn_credentials"
+            + " WHERE credential_id = ? AND user_handle = ?";
+    private static final String SELECT_CREDENTIALS_BY_ID =
+        "SELECT credential_id, user_handle, public_key_cose, signature_count FROM webauthn_credentials"
+            + " WHERE credential_id = ?";
+    private static final String SELECT_CREDENTIALS_BY_IDS =
+        "SELECT credential_id, user_handle, public_key_cose, signature_count FROM webauthn_credentials"
+            + " WHERE credential_id IN (" + BATCH_PARAMETERS + ")";
+    private static final String SELECT_CREDENTIAL_KEYS_BY_IDS =
+        "SELECT credential_id, user_handle FROM webauthn_credentials WHERE credential_id IN (" + BATCH_PARAMETERS + ")";
+    private static final String SELECT_USERS_BY_USERNAMES_OR_USER_HANDLES =
+        "SELECT user_handle, username FROM webauthn_users"
+            + " WHERE username IN (" + BATCH_PARAMETERS + ") OR user_handle IN (" + BATCH_PARAMETERS + ")";
+    private static final String SELECT_ALL_CREDENTIALS =
+        "SELECT c.credential_id, c.user_handle, c.public_key_cose, c.signature_count, u.username"
+            + " FROM webauthn_credentials c JOIN webauthn_users u ON u.user_handle = c.user_handle";
+    private static final String COUNT_CREDENTIALS =
+        "SELECT COUNT(*) FROM webauthn_credentials";
+
+    private static final String INSERT_USER =
+        "INSERT INTO webauthn_users (user_handle, username) VALUES (?, ?)";
+    private static final String INSERT_CREDENTIAL =
+        "INSERT INTO webauthn_credentials (credential_id, user_handle, public_key_cose, signature_count) VALUES (?, ?, ?, ?)";
+    private static final String UPDATE_CREDENTIAL =
+        "UPDATE webauthn_credentials SET public_key_cose = ?, signature_count = ?"
+            + " WHERE credential_id = ? AND user_handle = ?";
+    private static final String UPDATE_SIGNATURE_COUNT =
+        "UPDATE webauthn_credentials SET signature_count = ? WHERE credential_id = ? AND user_handle = ?";
+    private static final String INCREASE_SIGNATURE_COUNT =
+        "UPDATE webauthn_credentials SET signature_count = ?"
+            + " WHERE credential_id = ? AND user_handle = ? AND signature_count < ?";
+    private static final String DELETE_CREDENTIAL =
+        "DELETE FROM webauthn_credentials WHERE credential_id = ? AND user_handle = ?";
+    private static final String DELETE_USER_CREDENTIALS =
+        "DELETE FROM webauthn_credentials WHERE user_handle = ?";
+    private static final String DELETE_USER =
+        "DELETE FROM webauthn_users WHERE user_handle = ?";
+
+    @FunctionalInterface
+    private interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    @Value
+    private static class CredentialKey {
+        private final ByteArray credentialId;
+        private final ByteArray userHandle;
+    }
+
+    private final DataSource dataSource;
+
+    public JdbcCredentialRepository(@NonNull DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Create the tables and indexes used by this repository, if they do not already exist.
+     *
+     * <p>
+     * This does not work on MySQL, which does not accept <code>CREATE INDEX IF NOT EXISTS</code>; see
+     * <code>schema.sql</code>.
+     * </p>
+     */
+    public void createSchema() {
+        final List<String> statements = readSchema();
+        inTransaction("create schema", connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static List<String> readSchema() {
+        try (InputStream in = JdbcCredentialRepository.class.getResourceAsStream(SCHEMA_RESOURCE)) {
+            ExceptionUtil.assure(in != null, "Schema resource not found: %s", SCHEMA_RESOURCE);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+            final List<String> statements = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                    continue;
+                }
+                current.append(trimmed).append(' ');
+                if (trimmed.endsWith(";")) {
+                    statements.add(current.substring(0, current.lastIndexOf(";")));
+                    current = new StringBuilder();
+                }
+            }
+            return statements;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read schema resource: " + SCHEMA_RESOURCE, e);
+        }
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(@NonNull String username) {
+        return withConnection("look up credential IDs", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIAL_IDS_FOR_USERNAME)) {
+                statement.setString(1, username);
+                try (ResultSet rs = statement.executeQuery()) {
+                    final Set<PublicKeyCredentialDescriptor> result = new HashSet<>();
+                    while (rs.next()) {
+                        result.add(PublicKeyCredentialDescriptor.builder().id(new ByteArray(rs.getBytes(1))).build());
+                    }
+                    return CollectionUtil.immutableSet(result);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(@NonNull String username) {
+        return withConnection("look up user handle", connection -> getUserHandle(connection, username));
+    }
+
+    private static Optional<ByteArray> getUserHandle(Connection connection, String username) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_USER_HANDLE_FOR_USERNAME)) {
+            statement.setString(1, username);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(new ByteArray(rs.getBytes(1))) : Optional.<ByteArray>empty();
+            }
+        }
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(@NonNull ByteArray userHandle) {
+        return withConnection("look up username", connection -> getUsername(connection, userHandle));
+    }
+
+    private static Optional<String> getUsername(Connection connection, ByteArray userHandle) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_USERNAME_FOR_USER_HANDLE)) {
+            statement.setBytes(1, userHandle.getBytes());
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(rs.getString(1)) : Optional.<String>empty();
+            }
+        }
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return withConnection("look up credential", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIAL)) {
+                statement.setBytes(1, credentialId.getBytes());
+                statement.setBytes(2, userHandle.getBytes());
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() ? Optional.of(readCredential(rs)) : Optional.<RegisteredCredential>empty();
+                }
+            }
+        });
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(@NonNull ByteArray credentialId) {
+        return withConnection("look up credentials", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIALS_BY_ID)) {
+                statement.setBytes(1, credentialId.getBytes());
+                try (ResultSet rs = statement.executeQuery()) {
+                    final Set<RegisteredCredential> result = new HashSet<>();
+                    while (rs.next()) {
+                        result.add(readCredential(rs));
+                    }
+                    return CollectionUtil.immutableSet(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Look up the credentials for many credential IDs at once, using one query per {@link #LOOKUP_ALL_BATCH_SIZE}
+     * credential IDs.
+     *
+     * @return a map from each of <code>credentialIds</code> to the same set {@link #lookupAll(ByteArray)} would return
+     * for it. Credential IDs with no credentials map to an empty set.
+     */
+    public Map<ByteArray, Set<RegisteredCredential>> lookupAll(@NonNull Collection<ByteArray> credentialIds) {
+        final List<ByteArray> distinctIds = new ArrayList<>(new HashSet<>(credentialIds));
+        final Map<ByteArray, Set<RegisteredCredential>> result = new HashMap<>();
+        for (ByteArray credentialId : distinctIds) {
+            result.put(credentialId, new HashSet<>());
+        }
+
+        if (!distinctIds.isEmpty()) {
+            withConnection("look up credentials", connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIALS_BY_IDS)) {
+                    for (int start = 0; start < distinctIds.size(); start += LOOKUP_ALL_BATCH_SIZE) {
+                        setBatchParameters(statement, 1, distinctIds.subList(start, Math.min(start + LOOKUP_ALL_BATCH_SIZE, distinctIds.size())));
+                        try (ResultSet rs = statement.executeQuery()) {
+                            while (rs.next()) {
+                                final RegisteredCredential credential = readCredential(rs);
+                                result.get(credential.getCredentialId()).add(credential);
+                            }
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+
+        final Map<ByteArray, Set<RegisteredCredential>> immutableResult = new HashMap<>();
+        for (Map.Entry<ByteArray, Set<RegisteredCredential>> entry : result.entrySet()) {
+            immutableResult.put(entry.getKey(), CollectionUtil.immutableSet(entry.getValue()));
+        }
+        return CollectionUtil.immutableMap(immutableResult);
+    }
+
+    /**
+     * Set the {@link #LOOKUP_ALL_BATCH_SIZE} parameters starting at <code>first</code> to <code>values</code>, padded
+     * with repeats of the last value so that every batch uses the same statement.
+     */
+    private static void setBatchParameters(PreparedStatement statement, int first, List<?> values) throws SQLException {
+        for (int i = 0; i < LOOKUP_ALL_BATCH_SIZE; ++i) {
+            final Object value = values.get(Math.min(i, values.size() - 1));
+            if (value instanceof ByteArray) {
+                statement.setBytes(first + i, ((ByteArray) value).getBytes());
+            } else {
+                statement.setString(first + i, (String) value);
+            }
+        }
+    }
+
+    private static RegisteredCredential readCredential(ResultSet rs) throws SQLException {
+        return RegisteredCredential.builder()
+            .credentialId(new ByteArray(rs.getBytes(1)))
+            .userHandle(new ByteArray(rs.getBytes(2)))
+            .publicKeyCose(new ByteArray(rs.getBytes(3)))
+            .signatureCount(rs.getLong(4))
+            .build();
+    }
+
+    /**
+     * Add a credential, or replace the credential with the same credential ID and user handle.
+     *
+     * <p>
+     * The first credential added for a user binds <code>username</code> to the credential's {@link
+     * RegisteredCredential#getUserHandle() user handle}.
+     * </p>
+     *
+     * @return <code>true</code> if the credential was added, <code>false</code> if it replaced an existing credential.
+     * @throws IllegalArgumentException if <code>username</code> is already bound to a different user handle, or the
+     * user handle is already bound to a different username.
+     */
+    public boolean addCredential(@NonNull String username, @NonNull RegisteredCredential credential) {
+        return inTransaction("add credential", connection -> addCredential(connection, username, credential));
+    }
+
+    /**
+     * Add several credentials in one transaction, with the same semantics as {@link #addCredential(String,
+     * RegisteredCredential)}. If any credential cannot be added, none are.
+     *
+     * <p>
+     * Credentials are added {@link #LOOKUP_ALL_BATCH_SIZE} at a time, each time with one query for the existing users,
+     * one for the existing credentials, and one JDBC batch each of new users, new credentials and replaced credentials.
+     * </p>
+     */
+    @Override
+    public void addCredentials(@NonNull List<StoredCredential> credentials) {
+        inTransaction("add credentials", connection -> {
+            for (int start = 0; start < credentials.size(); start += LOOKUP_ALL_BATCH_SIZE) {
+                addCredentialsBatch(connection, credentials.subList(start, Math.min(start + LOOKUP_ALL_BATCH_SIZE, credentials.size())));
+            }
+            return null;
+        });
+    }
+
+    private static void addCredentialsBatch(Connection connection, List<StoredCredential> credentials) throws SQLException {
+        final List<String> usernames = new ArrayList<>(credentials.size());
+        final List<ByteArray> userHandles = new ArrayList<>(credentials.size());
+        final List<ByteArray> credentialIds = new ArrayList<>(credentials.size());
+        for (StoredCredential credential : credentials) {
+            usernames.add(credential.getUsername());
+            userHandles.add(credential.getCredential().getUserHandle());
+            credentialIds.add(credential.getCredential().getCredentialId());
+        }
+
+        // Bindings of the users in this batch, including the ones added by earlier credentials in it
+        final Map<String, ByteArray> userHandlesByUsername = new HashMap<>();
+        final Map<ByteArray, String> usernamesByUserHandle = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_USERS_BY_USERNAMES_OR_USER_HANDLES)) {
+            setBatchParameters(statement, 1, usernames);
+            setBatchParameters(statement, LOOKUP_ALL_BATCH_SIZE + 1, userHandles);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    final ByteArray userHandle = new ByteArray(rs.getBytes(1));
+                    userHandlesByUsername.put(rs.getString(2), userHandle);
+                    usernamesByUserHandle.put(userHandle, rs.getString(2));
+                }
+            }
+        }
+
+        final Set<CredentialKey> existingCredentials = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIAL_KEYS_BY_IDS)) {
+            setBatchParameters(statement, 1, credentialIds);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    existingCredentials.add(new CredentialKey(new ByteArray(rs.getBytes(1)), new ByteArray(rs.getBytes(2))));
+                }
+            }
+        }
+
+        try (
+            PreparedStatement insertUser = connection.prepareStatement(INSERT_USER);
+            PreparedStatement insertCredential = connection.prepareStatement(INSERT_CREDENTIAL);
+            PreparedStatement updateCredential = connection.prepareStatement(UPDATE_CREDENTIAL)
+        ) {
+            for (StoredCredential stored : credentials) {
+                final String username = stored.getUsername();
+                final RegisteredCredential credential = stored.getCredential();
+                final ByteArray userHandle = credential.getUserHandle();
+
+                final ByteArray existingUserHandle = userHandlesByUsername.get(username);
+                if (existingUserHandle == null) {
+                    ExceptionUtil.assure(
+                        !usernamesByUserHandle.containsKey(userHandle),
+                        "User handle %s is already bound to a different username.",
+                        userHandle.getBase64Url()
+                    );
+                    userHandlesByUsername.put(username, userHandle);
+                    usernamesByUserHandle.put(userHandle, username);
+                    insertUser.setBytes(1, userHandle.getBytes());
+                    insertUser.setString(2, username);
+                    insertUser.addBatch();
+                } else {
+                    ExceptionUtil.assure(
+                        existingUserHandle.equals(userHandle),
+                        "Username %s is already bound to a different user handle.",
+                        username
+                    );
+                }
+
+                // Inserts run before updates, so a credential repeated in this batch is inserted once and then replaced
+                if (existingCredentials.add(new CredentialKey(credential.getCredentialId(), userHandle))) {
+                    insertCredential.setBytes(1, credential.getCredentialId().getBytes());
+                    insertCredential.setBytes(2, userHandle.getBytes());
+                    insertCredential.setBytes(3, credential.getPublicKeyCose().getBytes());
+                    insertCredential.setLong(4, credential.getSignatureCount());
+                    insertCredential.addBatch();
+                } else {
+                    updateCredential.setBytes(1, credential.getPublicKeyCose().getBytes());
+                    updateCredential.setLong(2, credential.getSignatureCount());
+                    updateCredential.setBytes(3, credential.getCredentialId().getBytes());
+                    updateCredential.setBytes(4, userHandle.getBytes());
+                    updateCredential.addBatch();
+                }
+            }
+
+            insertUser.executeBatch();
+            insertCredential.executeBatch();
+            updateCredential.executeBatch();
+        }
+    }
+
+    private static boolean addCredential(Connection connection, String username, RegisteredCredential credential) throws SQLException {
+        final ByteArray userHandle = credential.getUserHandle();
+
+        final Optional<ByteArray> existingUserHandle = getUserHandle(connection, username);
+        ExceptionUtil.assure(
+            existingUserHandle.map(userHandle::equals).orElse(true),
+            "Username %s is already bound to a different user handle.",
+            username
+        );
+
+        if (!existingUserHandle.isPresent()) {
+            ExceptionUtil.assure(
+                !getUsername(connection, userHandle).isPresent(),
+                "User handle %s is already bound to a different username.",
+                userHandle.getBase64Url()
+            );
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_USER)) {
+                statement.setBytes(1, userHandle.getBytes());
+                statement.setString(2, username);
+                statement.executeUpdate();
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_CREDENTIAL)) {
+            statement.setBytes(1, credential.getPublicKeyCose().getBytes());
+            statement.setLong(2, credential.getSignatureCount());
+            statement.setBytes(3, credential.getCredentialId().getBytes());
+            statement.setBytes(4, userHandle.getBytes());
+            if (statement.executeUpdate() > 0) {
+                return false;
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_CREDENTIAL)) {
+            statement.setBytes(1, credential.getCredentialId().getBytes());
+            statement.setBytes(2, userHandle.getBytes());
+            statement.setBytes(3, credential.getPublicKeyCose().getBytes());
+            statement.setLong(4, credential.getSignatureCount());
+            statement.executeUpdate();
+            return true;
+        }
+    }
+
+    /**
+     * Stream every stored credential to <code>action</code> from a single query, in one transaction.
+     *
+     * <p>
+     * Rows are fetched {@link #FOR_EACH_FETCH_SIZE} at a time where the driver supports it. The PostgreSQL driver only
+     * does so when auto-commit is off, which this method ensures; MySQL Connector/J needs
+     * <code>useCursorFetch=true</code>. <code>action</code> must not use this repository, since the transaction holds a
+     * connection until the scan is complete.
+     * </p>
+     */
+    @Override
+    public void forEachCredential(@NonNull Consumer<StoredCredential> action) {
+        inTransaction("list credentials", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_ALL_CREDENTIALS)) {
+                statement.setFetchSize(FOR_EACH_FETCH_SIZE);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        action.accept(new StoredCredential(rs.getString(5), readCredential(rs)));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Replace the signature count of a stored credential.
+     *
+     * @return <code>true</code> if the credential exists, <code>false</code> otherwise.
+     */
+    public boolean updateSignatureCount(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle, long signatureCount) {
+        return withConnection("update signature count", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPDATE_SIGNATURE_COUNT)) {
+                statement.setLong(1, signatureCount);
+                statement.setBytes(2, credentialId.getBytes());
+                statement.setBytes(3, userHandle.getBytes());
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    /**
+     * @return a {@link SignatureCounterStore.Sink} which writes each batch of signature counter updates as one JDBC
+     * batch in one transaction. Stored signature counts are never decreased.
+     */
+    public SignatureCounterStore.Sink signatureCounterSink() {
+        return updates -> inTransaction("update signature counts", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INCREASE_SIGNATURE_COUNT)) {
+                for (SignatureCounterStore.Update update : updates) {
+                    statement.setLong(1, update.getSignatureCount());
+                    statement.setBytes(2, update.getCredentialId().getBytes());
+                    statement.setBytes(3, update.getUserHandle().getBytes());
+                    statement.setLong(4, update.getSignatureCount());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Remove a credential. The user remains bound to its username and user handle even if this was its last
+     * credential; use {@link #removeUser(ByteArray)} to remove the user.
+     *
+     * @return <code>true</code> if the credential existed, <code>false</code> otherwise.
+     */
+    public boolean removeCredential(@NonNull ByteArray credentialId, @NonNull ByteArray userHandle) {
+        return withConnection("remove credential", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_CREDENTIAL)) {
+                statement.setBytes(1, credentialId.getBytes());
+                statement.setBytes(2, userHandle.getBytes());
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    /**
+     * Remove a user and all of its credentials.
+     *
+     * @return <code>true</code> if the user existed, <code>false</code> otherwise.
+     */
+    public boolean removeUser(@NonNull ByteArray userHandle) {
+        return inTransaction("remove user", connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_USER_CREDENTIALS)) {
+                statement.setBytes(1, userHandle.getBytes());
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(DELETE_USER)) {
+                statement.setBytes(1, userHandle.getBytes());
+                return statement.executeUpdate() > 0;
+            }
+        });
+    }
+
+    /**
+     * @return the total number of stored credentials.
+     */
+    public long getCredentialCount() {
+        return withConnection("count credentials", connection -> {
+            try (
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery(COUNT_CREDENTIALS)
+            ) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    private <T> T withConnection(String action, SqlFunction<T> f) {
+        try (Connection connection = dataSource.getConnection()) {
+            return f.apply(connection);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to " + action, e);
+        }
+    }
+
+    private <T> T inTransaction(String action, SqlFunction<T> f) {
+        return withConnection(action, connection -> {
+            final boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                final T result = f.apply(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,25 @@
+-- Schema for JdbcCredentialRepository. Statements are separated by semicolons
+-- and may be run repeatedly. The tests run it on H2. It is also valid on SQLite
+-- and MariaDB, and on PostgreSQL with BYTEA in place of VARBINARY.
+--
+-- MySQL does not accept CREATE INDEX IF NOT EXISTS. On MySQL, create the index
+-- once without IF NOT EXISTS instead of calling createSchema().
+
+CREATE TABLE IF NOT EXISTS webauthn_users (
+  user_handle VARBINARY(64) NOT NULL PRIMARY KEY,
+  username VARCHAR(255) NOT NULL UNIQUE
+);
+
+-- The primary key is also the index used by lookup and lookupAll.
+CREATE TABLE IF NOT EXISTS webauthn_credentials (
+  credential_id VARBINARY(1023) NOT NULL,
+  user_handle VARBINARY(64) NOT NULL,
+  public_key_cose VARBINARY(2048) NOT NULL,
+  signature_count BIGINT NOT NULL,
+  PRIMARY KEY (credential_id, user_handle),
+  FOREIGN KEY (user_handle) REFERENCES webauthn_users (user_handle)
+);
+
+-- Covers getCredentialIdsForUsername and removeUser without reading table rows.
+CREATE INDEX IF NOT EXISTS webauthn_credentials_by_user_handle
+  ON webauthn_credentials (user_handle, credential_id);
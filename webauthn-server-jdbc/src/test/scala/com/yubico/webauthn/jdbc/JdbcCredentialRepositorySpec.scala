@@ -0,0 +1,367 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.webauthn.jdbc
+
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.yubico.webauthn.AssertionRequest
+import com.yubico.webauthn.FinishAssertionOptions
+import com.yubico.webauthn.FinishRegistrationOptions
+import com.yubico.webauthn.RegisteredCredential
+import com.yubico.webauthn.RelyingParty
+import com.yubico.webauthn.SignatureCounterStore
+import com.yubico.webauthn.data.ByteArray
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor
+import com.yubico.webauthn.data.PublicKeyCredentialParameters
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions
+import com.yubico.webauthn.storage.StoredCredential
+import com.yubico.webauthn.test.RealExamples
+import javax.sql.DataSource
+import org.h2.jdbcx.JdbcDataSource
+import org.junit.runner.RunWith
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+import org.scalatestplus.junit.JUnitRunner
+
+import scala.jdk.CollectionConverters._
+
+
+@RunWith(classOf[JUnitRunner])
+class JdbcCredentialRepositorySpec extends FunSpec with Matchers {
+
+  private def bytes(s: String): ByteArray = new ByteArray(s.getBytes("UTF-8"))
+
+  private def credential(id: String, userHandle: String, signatureCount: Long = 0): RegisteredCredential =
+    RegisteredCredential.builder()
+      .credentialId(bytes(id))
+      .userHandle(bytes(userHandle))
+      .publicKeyCose(bytes(s"key-$id"))
+      .signatureCount(signatureCount)
+      .build()
+
+  private def newDataSource(): DataSource = {
+    val dataSource = new JdbcDataSource
+    dataSource.setURL(s"jdbc:h2:mem:${UUID.randomUUID()};DB_CLOSE_DELAY=-1")
+    dataSource
+  }
+
+  private def newRepo(dataSource: DataSource = newDataSource()): JdbcCredentialRepository = {
+    val repo = new JdbcCredentialRepository(dataSource)
+    repo.createSchema()
+    repo
+  }
+
+  /**
+   * Wraps `dataSource` so that `preparedStatements` counts the statements prepared on its connections.
+   */
+  private class CountingDataSource(dataSource: DataSource) {
+    val preparedStatements = new AtomicInteger(0)
+
+    private def forward(target: AnyRef, method: Method, args: Array[AnyRef]): AnyRef =
+      try {
+        method.invoke(target, Option(args).getOrElse(Array.empty[AnyRef]): _*)
+      } catch {
+        case e: InvocationTargetException => throw e.getCause
+      }
+
+    private def proxy[T](iface: Class[T])(handler: (Method, Array[AnyRef]) => AnyRef): T =
+      Proxy.newProxyInstance(getClass.getClassLoader, Array(iface), new InvocationHandler {
+        override def invoke(p: Any, method: Method, args: Array[AnyRef]): AnyRef = handler(method, args)
+      }).asInstanceOf[T]
+
+    val counting: DataSource = proxy(classOf[DataSource]) { (method, args) =>
+      forward(dataSource, method, args) match {
+        case connection: Connection =>
+          proxy(classOf[Connection]) { (method, args) =>
+            if (method.getName == "prepareStatement") {
+              preparedStatements.incrementAndGet()
+            }
+            forward(connection, method, args)
+          }
+        case result => result
+      }
+    }
+  }
+
+  describe("A JdbcCredentialRepository") {
+
+    it("is initially empty.") {
+      val repo = newRepo()
+
+      repo.getCredentialIdsForUsername("alice").asScala shouldBe empty
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      repo.lookup(bytes("cred"), bytes("alice-handle")).isPresent should be (false)
+      repo.lookupAll(bytes("cred")).asScala shouldBe empty
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("can create the schema again.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred", "alice-handle"))
+
+      repo.createSchema()
+
+      repo.getCredentialCount should equal (1)
+    }
+
+    it("answers every lookup for added credentials.") {
+      val repo = newRepo()
+      val cred1 = credential("cred1", "alice-handle")
+      val cred2 = credential("cred2", "alice-handle")
+      val cred3 = credential("cred3", "bob-handle")
+
+      repo.addCredential("alice", cred1) should be (true)
+      repo.addCredential("alice", cred2) should be (true)
+      repo.addCredential("bob", cred3) should be (true)
+
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(cred1.getCredentialId, cred2.getCredentialId))
+      repo.getCredentialIdsForUsername("bob").asScala.map(_.getId) should equal (Set(cred3.getCredentialId))
+      repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+      repo.getUsernameForUserHandle(bytes("bob-handle")).get should equal ("bob")
+      repo.lookup(cred2.getCredentialId, bytes("alice-handle")).get should equal (cred2)
+      repo.lookup(cred2.getCredentialId, bytes("bob-handle")).isPresent should be (false)
+      repo.lookupAll(cred3.getCredentialId).asScala should equal (Set(cred3))
+      repo.getCredentialCount should equal (3)
+    }
+
+    it("replaces a credential with the same credential ID and user handle.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 1)) should be (true)
+      repo.addCredential("alice", credential("cred", "alice-handle", signatureCount = 2)) should be (false)
+
+      repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (2)
+      repo.getCredentialCount should equal (1)
+    }
+
+    it("returns credentials with the same ID registered to different users from lookupAll.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred", "alice-handle"))
+      repo.addCredential("bob", credential("cred", "bob-handle"))
+
+      repo.lookupAll(bytes("cred")).asScala.map(_.getUserHandle) should equal (Set(bytes("alice-handle"), bytes("bob-handle")))
+    }
+
+    it("looks up many credential IDs at once.") {
+      val repo = newRepo()
+      val count = JdbcCredentialRepository.LOOKUP_ALL_BATCH_SIZE * 2 + 3
+      val credentials = (0 until count).map(i => credential(s"cred$i", s"handle${i % 7}"))
+      for { cred <- credentials } {
+        repo.addCredential(new String(cred.getUserHandle.getBytes, "UTF-8"), cred)
+      }
+      repo.addCredential("handle1", credential("cred0", "handle1"))
+
+      val ids = credentials.map(_.getCredentialId) ++ List(bytes("cred0"), bytes("unknown"))
+      val result = repo.lookupAll(ids.asJava).asScala
+
+      result.keySet should equal (ids.toSet)
+      result(bytes("unknown")).asScala shouldBe empty
+      result(bytes("cred0")).asScala.map(_.getUserHandle) should equal (Set(bytes("handle0"), bytes("handle1")))
+      for { cred <- credentials.drop(1) } {
+        result(cred.getCredentialId).asScala should equal (Set(cred))
+      }
+      repo.lookupAll(List.empty[ByteArray].asJava).asScala shouldBe empty
+    }
+
+    it("refuses to rebind a username or user handle.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred1", "alice-handle"))
+
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("alice", credential("cred2", "other-handle"))
+      an [IllegalArgumentException] should be thrownBy repo.addCredential("mallory", credential("cred2", "alice-handle"))
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred1")))
+      repo.getUsernameForUserHandle(bytes("other-handle")).isPresent should be (false)
+      repo.getUserHandleForUsername("mallory").isPresent should be (false)
+    }
+
+    it("lists every stored credential with its username.") {
+      val repo = newRepo()
+      val count = JdbcCredentialRepository.FOR_EACH_FETCH_SIZE + 5
+      val credentials = (0 until count).map(i => credential(s"cred$i", s"handle${i % 7}", signatureCount = i))
+      for { cred <- credentials } {
+        repo.addCredential(new String(cred.getUserHandle.getBytes, "UTF-8"), cred)
+      }
+
+      val result = scala.collection.mutable.ListBuffer[StoredCredential]()
+      repo.forEachCredential(result += _)
+
+      result.size should equal (count)
+      result.toSet should equal (credentials.map(cred => new StoredCredential(new String(cred.getUserHandle.getBytes, "UTF-8"), cred)).toSet)
+    }
+
+    it("adds credentials in bulk in one transaction.") {
+      val repo = newRepo()
+      repo.addCredentials(List(
+        new StoredCredential("alice", credential("cred1", "alice-handle")),
+        new StoredCredential("alice", credential("cred2", "alice-handle")),
+        new StoredCredential("bob", credential("cred3", "bob-handle")),
+      ).asJava)
+
+      repo.getCredentialCount should equal (3)
+      repo.getUsernameForUserHandle(bytes("bob-handle")).get should equal ("bob")
+
+      an [IllegalArgumentException] should be thrownBy repo.addCredentials(List(
+        new StoredCredential("carol", credential("cred4", "carol-handle")),
+        new StoredCredential("alice", credential("cred5", "other-handle")),
+      ).asJava)
+      repo.getCredentialCount should equal (3)
+      repo.getUserHandleForUsername("carol").isPresent should be (false)
+    }
+
+    it("adds credentials in bulk in a few statements per batch, replacing existing ones.") {
+      val dataSource = new CountingDataSource(newDataSource())
+      val repo = newRepo(dataSource.counting)
+      val count = JdbcCredentialRepository.LOOKUP_ALL_BATCH_SIZE * 2 + 50
+      repo.addCredential("user0", credential("cred0", "handle0"))
+      repo.addCredential("user1", credential("cred1", "handle1"))
+
+      val credentials = (0 until count).map(i => new StoredCredential(s"user${i % 10}", credential(s"cred$i", s"handle${i % 10}", signatureCount = i)))
+      val repeated = new StoredCredential("user2", credential("cred2", "handle2", signatureCount = 1000))
+      dataSource.preparedStatements.set(0)
+      repo.addCredentials((credentials :+ repeated).asJava)
+
+      dataSource.preparedStatements.get should equal (3 * 5)
+      repo.getCredentialCount should equal (count)
+      repo.lookup(bytes("cred0"), bytes("handle0")).get.getSignatureCount should equal (0)
+      repo.lookup(bytes("cred1"), bytes("handle1")).get.getSignatureCount should equal (1)
+      repo.lookup(bytes("cred2"), bytes("handle2")).get.getSignatureCount should equal (1000)
+      repo.lookup(bytes(s"cred${count - 1}"), bytes(s"handle${(count - 1) % 10}")).get.getSignatureCount should equal (count - 1)
+      repo.getCredentialIdsForUsername("user7").asScala should have size (count / 10)
+      repo.getUsernameForUserHandle(bytes("handle9")).get should equal ("user9")
+    }
+
+    it("checks the bindings between credentials added in the same bulk add.") {
+      val repo = newRepo()
+
+      an [IllegalArgumentException] should be thrownBy repo.addCredentials(List(
+        new StoredCredential("alice", credential("cred1", "alice-handle")),
+        new StoredCredential("alice", credential("cred2", "other-handle")),
+      ).asJava)
+      an [IllegalArgumentException] should be thrownBy repo.addCredentials(List(
+        new StoredCredential("alice", credential("cred1", "alice-handle")),
+        new StoredCredential("mallory", credential("cred2", "alice-handle")),
+      ).asJava)
+      repo.getCredentialCount should equal (0)
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+    }
+
+    it("updates signature counts.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred", "alice-handle"))
+
+      repo.updateSignatureCount(bytes("cred"), bytes("alice-handle"), 42) should be (true)
+      repo.updateSignatureCount(bytes("cred"), bytes("bob-handle"), 42) should be (false)
+      repo.updateSignatureCount(bytes("other"), bytes("alice-handle"), 42) should be (false)
+
+      repo.lookup(bytes("cred"), bytes("alice-handle")).get.getSignatureCount should equal (42)
+    }
+
+    it("provides a SignatureCounterStore sink which never decreases signature counts.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred1", "alice-handle", signatureCount = 10))
+      repo.addCredential("alice", credential("cred2", "alice-handle", signatureCount = 10))
+
+      repo.signatureCounterSink().write(List(
+        new SignatureCounterStore.Update(bytes("cred1"), bytes("alice-handle"), 5),
+        new SignatureCounterStore.Update(bytes("cred2"), bytes("alice-handle"), 15),
+        new SignatureCounterStore.Update(bytes("other"), bytes("alice-handle"), 15)
+      ).asJava)
+
+      repo.lookup(bytes("cred1"), bytes("alice-handle")).get.getSignatureCount should equal (10)
+      repo.lookup(bytes("cred2"), bytes("alice-handle")).get.getSignatureCount should equal (15)
+    }
+
+    it("removes credentials and users.") {
+      val repo = newRepo()
+      repo.addCredential("alice", credential("cred1", "alice-handle"))
+      repo.addCredential("alice", credential("cred2", "alice-handle"))
+
+      repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (true)
+      repo.removeCredential(bytes("cred1"), bytes("alice-handle")) should be (false)
+      repo.lookup(bytes("cred1"), bytes("alice-handle")).isPresent should be (false)
+      repo.lookupAll(bytes("cred1")).asScala shouldBe empty
+      repo.getCredentialIdsForUsername("alice").asScala.map(_.getId) should equal (Set(bytes("cred2")))
+
+      repo.removeCredential(bytes("cred2"), bytes("alice-handle")) should be (true)
+      repo.getUserHandleForUsername("alice").get should equal (bytes("alice-handle"))
+
+      repo.addCredential("alice", credential("cred3", "alice-handle"))
+      repo.removeUser(bytes("alice-handle")) should be (true)
+      repo.removeUser(bytes("alice-handle")) should be (false)
+      repo.getUserHandleForUsername("alice").isPresent should be (false)
+      repo.getUsernameForUserHandle(bytes("alice-handle")).isPresent should be (false)
+      repo.getCredentialCount should equal (0)
+    }
+
+    it("works as the CredentialRepository of a RelyingParty.") {
+      val testData = RealExamples.YubiKey5
+      val repo = newRepo()
+      val rp = RelyingParty.builder()
+        .identity(testData.rp)
+        .credentialRepository(repo)
+        .build()
+
+      val registrationResult = rp.finishRegistration(FinishRegistrationOptions.builder()
+        .request(PublicKeyCredentialCreationOptions.builder()
+          .rp(testData.rp)
+          .user(testData.user)
+          .challenge(testData.attestation.challenge)
+          .pubKeyCredParams(List(PublicKeyCredentialParameters.ES256).asJava)
+          .build())
+        .response(testData.attestation.credential)
+        .build())
+
+      repo.addCredential(testData.user.getName, RegisteredCredential.builder()
+        .credentialId(registrationResult.getKeyId.getId)
+        .userHandle(testData.user.getId)
+        .publicKeyCose(registrationResult.getPublicKeyCose)
+        .build())
+
+      val assertionResult = rp.finishAssertion(FinishAssertionOptions.builder()
+        .request(AssertionRequest.builder()
+          .publicKeyCredentialRequestOptions(PublicKeyCredentialRequestOptions.builder()
+            .challenge(testData.assertion.challenge)
+            .allowCredentials(List(PublicKeyCredentialDescriptor.builder().id(testData.assertion.id).build()).asJava)
+            .build())
+          .username(testData.user.getName)
+          .build())
+        .response(testData.assertion.credential)
+        .build())
+
+      assertionResult.isSuccess should be (true)
+      repo.updateSignatureCount(assertionResult.getCredentialId, assertionResult.getUserHandle, assertionResult.getSignatureCount) should be (true)
+      repo.lookup(assertionResult.getCredentialId, assertionResult.getUserHandle).get.getSignatureCount should equal (assertionResult.getSignatureCount)
+    }
+  }
+
+}
@@ -0,0 +1,114 @@
+// Copyright (c) 2018, Yubico AB
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+//
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+// OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+
+package com.yubico.internal.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A bounded, thread-safe cache of parsed X.509 certificates, keyed by a SHA-256 digest of their DER encoding.
+ *
+ * <p>
+ * Attestation certificates are typically shared by large batches of authenticators, so the same few certificates are
+ * parsed over and over again. This cache returns the same {@link X509Certificate} instance for each distinct DER
+ * encoding, evicting the oldest entries once the size limit is exceeded.
+ * </p>
+ */
+public final class CertificateCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    private static final CertificateCache DEFAULT = new CertificateCache(DEFAULT_MAX_SIZE);
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not supported by this JVM", e);
+        }
+    });
+
+    private final int maxSize;
+    private final ConcurrentHashMap<ByteBuffer, X509Certificate> certificates = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    public CertificateCache(int maxSize) {
+        ExceptionUtil.assure(maxSize > 0, "maxSize must be positive, was: %d", maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return a cache shared by all users of this library, with a maximum size of {@link #DEFAULT_MAX_SIZE}.
+     */
+    public static CertificateCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Parse a DER encoded certificate, or return the previously parsed instance if one is cached.
+     *
+     * @see CertificateParser#parseDer(byte[])
+     */
+    public X509Certificate parseDer(byte[] derEncodedCert) throws CertificateException {
+        final ByteBuffer key = ByteBuffer.wrap(SHA256.get().digest(derEncodedCert));
+
+        final X509Certificate cached = certificates.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final X509Certificate parsed = CertificateParser.parseDer(derEncodedCert);
+        final X509Certificate previous = certificates.putIfAbsent(key, parsed);
+        if (previous != null) {
+            return previous;
+        }
+
+        insertionOrder.add(key);
+        while (certificates.size() > maxSize) {
+            final ByteBuffer eldest = insertionOrder.poll();
+            if (eldest == null) {
+                break;
+            }
+            certificates.remove(eldest);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * @return the number of certificates currently cached.
+     */
+    public int size() {
+        return certificates.size();
+    }
+
+}
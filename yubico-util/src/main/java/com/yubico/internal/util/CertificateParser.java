@@ -32,26 +32,63 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Base64;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 public class CertificateParser {
     private static final Provider BC_PROVIDER = new BouncyCastleProvider();
     private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+    private static final Base64.Decoder BASE64_MIME_DECODER = Base64.getMimeDecoder();
 
-    private final static List<String> FIXSIG = Arrays.asList(
+    private static final String PEM_HEADER = "-----BEGIN CERTIFICATE-----";
+    private static final String PEM_FOOTER = "-----END CERTIFICATE-----";
+
+    private final static Set<String> FIXSIG = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
             "CN=Yubico U2F EE Serial 776137165",
             "CN=Yubico U2F EE Serial 1086591525",
             "CN=Yubico U2F EE Serial 1973679733",
             "CN=Yubico U2F EE Serial 13503277888",
             "CN=Yubico U2F EE Serial 13831167861",
             "CN=Yubico U2F EE Serial 14803321578"
-    );
+    )));
 
     private static final int UNUSED_BITS_BYTE_INDEX_FROM_END = 257;
 
+    /**
+     * CertificateFactory instances are not guaranteed to be thread safe, but are relatively expensive to look up, so
+     * keep one per thread.
+     */
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = new ThreadLocal<>();
+
+    private static CertificateFactory getCertificateFactory() throws CertificateException {
+        CertificateFactory factory = CERTIFICATE_FACTORY.get();
+        if (factory == null) {
+            factory = CertificateFactory.getInstance("X.509", BC_PROVIDER);
+            CERTIFICATE_FACTORY.set(factory);
+        }
+        return factory;
+    }
+
     public static X509Certificate parsePem(String pemEncodedCert) throws CertificateException {
-        return parseDer(pemEncodedCert.replaceAll("-----BEGIN CERTIFICATE-----", "").replaceAll("-----END CERTIFICATE-----", "").replaceAll("\n", ""));
+        return parseDer(decodePem(pemEncodedCert));
+    }
+
+    /**
+     * Decode the DER bytes of a PEM encoded certificate, without first rewriting the PEM string.
+     *
+     * <p>
+     * The <code>BEGIN</code> and <code>END</code> armor lines are optional, and line breaks in the Base64 body are
+     * ignored.
+     * </p>
+     */
+    public static byte[] decodePem(String pemEncodedCert) {
+        final int headerIndex = pemEncodedCert.indexOf(PEM_HEADER);
+        final int bodyStart = headerIndex < 0 ? 0 : headerIndex + PEM_HEADER.length();
+        final int footerIndex = pemEncodedCert.indexOf(PEM_FOOTER, bodyStart);
+        final int bodyEnd = footerIndex < 0 ? pemEncodedCert.length() : footerIndex;
+        return BASE64_MIME_DECODER.decode(pemEncodedCert.substring(bodyStart, bodyEnd));
     }
 
     public static X509Certificate parseDer(String base64DerEncodedCert) throws CertificateException {
@@ -63,7 +100,7 @@ public class CertificateParser {
     }
 
     public static X509Certificate parseDer(InputStream is) throws CertificateException {
-        X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509", BC_PROVIDER).generateCertificate(is);
+        X509Certificate cert = (X509Certificate) getCertificateFactory().generateCertificate(is);
         //Some known certs have an incorrect "unused bits" value, which causes problems on newer versions of BouncyCastle.
         if(FIXSIG.contains(cert.getSubjectDN().getName())) {
             byte[] encoded = cert.getEncoded();
@@ -79,7 +116,7 @@ public class CertificateParser {
                 ));
             }
 
-            cert = (X509Certificate) CertificateFactory.getInstance("X.509", BC_PROVIDER).generateCertificate(new ByteArrayInputStream(encoded));
+            cert = (X509Certificate) getCertificateFactory().generateCertificate(new ByteArrayInputStream(encoded));
         }
         return cert;
     }
@@ -24,6 +24,7 @@
 
 package com.yubico.internal.util;
 
+import java.util.function.Supplier;
 import lombok.experimental.UtilityClass;
 import org.slf4j.Logger;
 
@@ -36,10 +37,80 @@ public class ExceptionUtil {
         return err;
     }
 
+    /**
+     * @throws IllegalArgumentException with the message <code>String.format(failureMessageTemplate,
+     * failureMessageArgs)</code> if <code>condition</code> is <code>false</code>.
+     */
     public static void assure(boolean condition, String failureMessageTemplate, Object... failureMessageArgs) {
         if (!condition) {
             throw new IllegalArgumentException(String.format(failureMessageTemplate, failureMessageArgs));
         }
     }
 
+    /*
+     * The overloads below avoid allocating a varargs array, or boxing primitive arguments, when the condition holds.
+     * Call sites run on every ceremony step, so prefer these when the message has at most two arguments, and the
+     * Supplier variant when computing the arguments themselves is expensive.
+     */
+
+    /**
+     * @throws IllegalArgumentException with the message <code>failureMessage</code> if <code>condition</code> is
+     * <code>false</code>.
+     */
+    public static void assure(boolean condition, String failureMessage) {
+        if (!condition) {
+            throw new IllegalArgumentException(failureMessage);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message <code>String.format(failureMessageTemplate, arg)</code> if
+     * <code>condition</code> is <code>false</code>.
+     */
+    public static void assure(boolean condition, String failureMessageTemplate, Object arg) {
+        if (!condition) {
+            throw new IllegalArgumentException(String.format(failureMessageTemplate, arg));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message <code>String.format(failureMessageTemplate, arg1,
+     * arg2)</code> if <code>condition</code> is <code>false</code>.
+     */
+    public static void assure(boolean condition, String failureMessageTemplate, Object arg1, Object arg2) {
+        if (!condition) {
+            throw new IllegalArgumentException(String.format(failureMessageTemplate, arg1, arg2));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message <code>String.format(failureMessageTemplate, arg)</code> if
+     * <code>condition</code> is <code>false</code>.
+     */
+    public static void assure(boolean condition, String failureMessageTemplate, long arg) {
+        if (!condition) {
+            throw new IllegalArgumentException(String.format(failureMessageTemplate, arg));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message <code>String.format(failureMessageTemplate, arg1,
+     * arg2)</code> if <code>condition</code> is <code>false</code>.
+     */
+    public static void assure(boolean condition, String failureMessageTemplate, long arg1, long arg2) {
+        if (!condition) {
+            throw new IllegalArgumentException(String.format(failureMessageTemplate, arg1, arg2));
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException with the message returned by <code>failureMessage</code> if
+     * <code>condition</code> is <code>false</code>. <code>failureMessage</code> is not called otherwise.
+     */
+    public static void assure(boolean condition, Supplier<String> failureMessage) {
+        if (!condition) {
+            throw new IllegalArgumentException(failureMessage.get());
+        }
+    }
+
 }
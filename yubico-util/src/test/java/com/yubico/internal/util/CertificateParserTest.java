@@ -25,8 +25,11 @@
 package com.yubico.internal.util;
 
 import java.security.cert.CertificateException;
+import java.util.Base64;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 public class CertificateParserTest {
@@ -39,4 +42,20 @@ public class CertificateParserTest {
         assertNotNull(CertificateParser.parsePem(PEM_ATTESTATION_CERT));
     }
 
+    @Test
+    public void decodePemReturnsDerBytes() {
+        assertArrayEquals(Base64.getDecoder().decode(ATTESTATION_CERT), CertificateParser.decodePem(PEM_ATTESTATION_CERT));
+    }
+
+    @Test
+    public void decodePemIgnoresLineBreaksAndMissingArmor() {
+        final String wrapped = ATTESTATION_CERT.substring(0, 64) + "\r\n" + ATTESTATION_CERT.substring(64);
+        assertArrayEquals(Base64.getDecoder().decode(ATTESTATION_CERT), CertificateParser.decodePem(wrapped));
+    }
+
+    @Test
+    public void parsePemEqualsParseDer() throws CertificateException {
+        assertEquals(CertificateParser.parseDer(ATTESTATION_CERT), CertificateParser.parsePem(PEM_ATTESTATION_CERT));
+    }
+
 }
@@ -0,0 +1,48 @@
+package com.yubico.internal.util
+
+import java.util.function.Supplier
+
+import org.junit.runner.RunWith
+import org.scalatestplus.junit.JUnitRunner
+import org.scalatest.FunSpec
+import org.scalatest.Matchers
+
+
+@RunWith(classOf[JUnitRunner])
+class ExceptionUtilSpec extends FunSpec with Matchers {
+
+  describe("assure") {
+    it("does nothing if the condition is true.") {
+      ExceptionUtil.assure(true, "foo")
+      ExceptionUtil.assure(true, "foo %s", "bar")
+      ExceptionUtil.assure(true, "foo %s %s", "bar", "baz")
+      ExceptionUtil.assure(true, "foo %d", 1L)
+      ExceptionUtil.assure(true, "foo %d %d", 1L, 2L)
+      ExceptionUtil.assure(true, "foo %s %s %s", "bar", "baz", "quux")
+    }
+
+    it("formats the failure message if the condition is false.") {
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo") should have message "foo"
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo %s", "bar") should have message "foo bar"
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo %s %s", "bar", "baz") should have message "foo bar baz"
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo %d", 1000L) should have message "foo 1000"
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo %d %d", 1000L, 2000L) should have message "foo 1000 2000"
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, "foo %s %s %s", "bar", "baz", "quux") should have message "foo bar baz quux"
+    }
+
+    it("calls the message supplier only if the condition is false.") {
+      var calls = 0
+      val supplier: Supplier[String] = () => {
+        calls += 1
+        "foo"
+      }
+
+      ExceptionUtil.assure(true, supplier)
+      calls should equal (0)
+
+      the [IllegalArgumentException] thrownBy ExceptionUtil.assure(false, supplier) should have message "foo"
+      calls should equal (1)
+    }
+  }
+
+}